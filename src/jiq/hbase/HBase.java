@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -15,6 +16,7 @@ import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.HTableDescriptor;
@@ -46,7 +48,48 @@ import org.apache.hadoop.hbase.security.access.AccessControlClient;
 import org.apache.hadoop.hbase.security.access.AccessControlLists;
 import org.apache.hadoop.hbase.security.access.Permission;
 import org.apache.hadoop.hbase.util.Bytes;
-
+import org.apache.htrace.Trace;
+import org.apache.htrace.TraceScope;
+
+import jiq.hbase.aggregate.Aggregator;
+import jiq.hbase.aggregate.ApproximateAggregator;
+import jiq.hbase.aggregate.NumericType;
+import jiq.hbase.aggregate.Stats;
+import jiq.hbase.bloom.ExistenceIndex;
+import jiq.hbase.bootstrap.Bootstrap;
+import jiq.hbase.change.ChangeReader;
+import jiq.hbase.change.ChangeRecord;
+import jiq.hbase.change.ChangeSink;
+import jiq.hbase.change.WatermarkStore;
+import jiq.hbase.connection.ConnectionGroup;
+import jiq.hbase.counter.IncrementCoalescer;
+import jiq.hbase.buffer.BufferPool;
+import jiq.hbase.buffer.CellFormatter;
+import jiq.hbase.delete.BulkDeleteProgress;
+import jiq.hbase.delete.BulkDeleter;
+import jiq.hbase.export.ColumnarExporter;
+import jiq.hbase.export.ColumnarFileReader;
+import jiq.hbase.export.ExportManifest;
+import jiq.hbase.hotspot.HotspotMonitor;
+import jiq.hbase.ingest.FileImporter;
+import jiq.hbase.ingest.ImportStats;
+import jiq.hbase.location.RegionLocationWarmer;
+import jiq.hbase.metrics.ClientMetrics;
+import jiq.hbase.metrics.InstrumentedConnection;
+import jiq.hbase.mob.MobCellRef;
+import jiq.hbase.mob.MobReader;
+import jiq.hbase.read.HedgedReader;
+import jiq.hbase.read.HedgedResult;
+import jiq.hbase.scan.ResumableScan;
+import jiq.hbase.schedule.Priority;
+import jiq.hbase.schedule.RequestScheduler;
+import jiq.hbase.schema.SchemaChange;
+import jiq.hbase.sink.AsyncResultSink;
+import jiq.hbase.spool.SpoolingWriter;
+import jiq.hbase.spool.WriteSpool;
+import jiq.hbase.throttle.WriteThrottle;
+import jiq.hbase.trace.ClientTracer;
+import jiq.security.CredentialManager;
 import jiq.security.LoginUtil;
 
 public class HBase {
@@ -55,6 +98,20 @@ public class HBase {
 	private TableName tableName = null;
 	private Configuration conf = null;
 	private Connection conn = null;
+	private WriteSpool spool = null;
+	private WriteThrottle throttle = null;
+	private ClientMetrics metrics = null;
+	private ClientTracer tracer = null;
+	private RegionLocationWarmer warmer = null;
+	private ConnectionGroup group = null;
+	private CredentialManager credentials = null;
+	private BufferPool buffers = null;
+	private List<ExistenceIndex> indexes = new ArrayList<ExistenceIndex>();
+	private RequestScheduler scheduler = null;
+	private HotspotMonitor hotspots = null;
+	private AsyncResultSink sink = null;
+	private Connection batchConn = null;
+	private HedgedReader hedgedReader = null;
 
 	/**
 	 * 创建Connection<br>
@@ -65,57 +122,286 @@ public class HBase {
 	 * 不建议缓存或者池化Table、Admin。Connection的生命周期由调用者维护，调用者通过调用close()，释放资源。
 	 */
 	public HBase(Configuration conf) throws IOException {
+		this(conf, ConnectionFactory.createConnection(conf));
+	}
+
+	/**
+	 * 使用已创建的Connection，例如由{@link Bootstrap}在登录后创建的Connection。
+	 */
+	public HBase(Configuration conf, Connection conn) throws IOException {
 		this.conf = conf;
 		this.tableName = TableName.valueOf("hbase_sample_table");
-		this.conn = ConnectionFactory.createConnection(conf);
+		this.conn = conn;
+		if (conf.getTrimmedStrings(RegionLocationWarmer.TABLES_KEY).length > 0) {
+			// 连接建立后并行预取配置表的region位置（或从本地快照加载），避免首次读写逐个region查询meta
+			this.warmer = new RegionLocationWarmer(conn);
+			warmer.warmUp();
+		}
+		if (conf.getInt(ConnectionGroup.SIZE_KEY, 1) > 1) {
+			// 多核客户端打开多个Connection，按表、RegionServer或轮询分配请求，分散单个Connection的RPC客户端和socket竞争；region位置从第一个Connection复制给其他Connection
+			this.group = new ConnectionGroup("client", conn);
+			this.conn = group.connection();
+		}
+		if (conf.getBoolean(ClientMetrics.ENABLED_KEY, false)) {
+			// 记录每个表每类操作的时延直方图和吞吐量，通过JMX（jiq.hbase:type=ClientMetrics）导出
+			this.metrics = new ClientMetrics(conf);
+			this.conn = new InstrumentedConnection(conn, metrics);
+		}
+		if (conf.getBoolean(ClientTracer.ENABLED_KEY, false)) {
+			// 按采样率对run()的每个步骤和数据操作（region定位、RPC、结果解析）生成htrace span，结束时输出关键路径
+			this.tracer = new ClientTracer(conf);
+			this.conn = tracer.wrap(conn);
+		}
+		if (conf.getTrimmedStrings(ExistenceIndex.TABLES_KEY).length > 0) {
+			// 为配置的表在客户端维护按region分区的堆外Bloom过滤器，确定不存在的行直接返回，不再发送get/exists请求；在spool和写入限流之前包装，使它们写入的行也进入过滤器
+			for (String table : conf.getTrimmedStrings(ExistenceIndex.TABLES_KEY)) {
+				ExistenceIndex index = new ExistenceIndex(conn, TableName.valueOf(table));
+				index.start();
+				indexes.add(index);
+			}
+			this.conn = ExistenceIndex.wrap(conn, indexes);
+		}
+		if (conf.getBoolean(BufferPool.ENABLED_KEY, false)) {
+			// 扫描结果的值拷贝到按大小分级的池化堆外缓冲区，用完显式释放，减少堆内存分配和GC；使用情况通过JMX导出
+			this.buffers = new BufferPool("client", conf);
+		}
+		if (conf.getTrimmedStrings(HotspotMonitor.TABLES_KEY).length > 0) {
+			// 统计客户端看到的每个region的请求量和字节数，持续偏热的region按采样行键计算分裂点，自动multiSplit或只给出建议
+			this.hotspots = new HotspotMonitor(conn);
+			hotspots.start();
+			this.conn = hotspots.wrap(conn);
+		}
+		if (conf.getBoolean(AsyncResultSink.ENABLED_KEY, false)) {
+			// 查询结果不再逐个cell同步打印，而是放入有界无锁队列，由独立线程批量输出到日志、文件或丢弃，队列满时可选择丢弃
+			this.sink = AsyncResultSink.create("client", conf);
+		}
+		if (conf.getBoolean(RequestScheduler.ENABLED_KEY, false)) {
+			// 请求按优先级排队：get等点查走INTERACTIVE，put()批量写入和scanData()扫描走BATCH，按权重分配在途请求数，批量任务只用剩余容量
+			this.scheduler = new RequestScheduler("client", conf);
+			this.batchConn = scheduler.wrap(conn, Priority.BATCH);
+			this.conn = scheduler.wrap(conn, Priority.INTERACTIVE);
+		}
+		if (conf.getBoolean(WriteSpool.ENABLED_KEY, false)) {
+			// 写入失败的数据先落本地spool，集群恢复后由后台线程按顺序回放；建在批量连接上，直接写入和回放都走BATCH并计入热点统计
+			this.spool = new WriteSpool(batchConnection());
+		}
+		if (conf.getBoolean(WriteThrottle.ENABLED_KEY, false)) {
+			// 根据RegionServer的反压（RegionTooBusyException、重试、时延）自适应调整写入速率；同样建在批量连接上
+			this.throttle = new WriteThrottle(batchConnection());
+		}
+		if (conf.getBoolean(HedgedReader.ENABLED_KEY, false)) {
+			// get()先读主副本，超过近期时延百分位仍未返回时并发读各region副本，先返回者胜出；读取器在整个运行期间复用以积累时延窗口，对冲计数通过JMX导出
+			this.hedgedReader = new HedgedReader(conn, tableName);
+		}
 	}
 
 	public static void main(String[] args) {
 		String userdir = System.getProperty("user.dir") + File.separator + "conf" + File.separator;
+		if (Boolean.getBoolean(Bootstrap.ENABLED_PROPERTY)) {
+			// 启动模式：并行加载配置（优先读取二进制配置快照）、校验keytab/krb5、预加载客户端类，然后登录并创建Connection，输出各阶段耗时
+			Bootstrap bootstrap = new Bootstrap(userdir, "jiq", "zookeeper.server.principal");
+			try {
+				bootstrap.start();
+			} catch (IOException e) {
+				LOG.error("Failed to bootstrap because ", e);
+				return;
+			}
+			try {
+				HBase hbase = new HBase(bootstrap.getConfiguration(), bootstrap.getConnection());
+				hbase.setCredentialManager(bootstrap.getCredentialManager());
+				hbase.run();
+			} catch (Exception e) {
+				LOG.error("Failed to run HBase because ", e);
+			} finally {
+				if (bootstrap.getCredentialManager() != null) {
+					bootstrap.getCredentialManager().close();
+				}
+			}
+			LOG.info("-----------finish HBase -------------------");
+			return;
+		}
 		// 创建Configuration。 HBase通过login方法来获取配置项。包括用户登录信息、安全认证信息等配置项。
 		Configuration configuration = HBaseConfiguration.create();
 		configuration.addResource(new Path(userdir + "core-site.xml"));
 		configuration.addResource(new Path(userdir + "hdfs-site.xml"));
 		configuration.addResource(new Path(userdir + "hbase-site.xml"));
+		CredentialManager credentials = null;
 		try {
 			LoginUtil.setJaasConf("Client", "jiq", userdir + "user.keytab");
 			LoginUtil.setZookeeperServerPrincipal("zookeeper.server.principal", "zookeeper.server.principal");
-			LoginUtil.login("jiq", userdir + "user.keytab", userdir + "krb5.conf", configuration);
+			if (configuration.getBoolean(CredentialManager.ENABLED_KEY, false)) {
+				// 登录后由后台线程在TGT过期前从keytab重新登录，调用方通过无锁的有效性快照检查凭据
+				credentials = new CredentialManager("jiq", userdir + "user.keytab", userdir + "krb5.conf",
+						configuration);
+				credentials.login();
+			} else {
+				LoginUtil.login("jiq", userdir + "user.keytab", userdir + "krb5.conf", configuration);
+			}
 		} catch (IOException e) {
 			LOG.error("Failed to login because ", e);
+			if (credentials != null) {
+				credentials.close();
+			}
 			return;
 		}
 
 		try {
-			new HBase(configuration).run();
+			HBase hbase = new HBase(configuration);
+			hbase.setCredentialManager(credentials);
+			hbase.run();
 		} catch (Exception e) {
 			LOG.error("Failed to run HBase because ", e);
+		} finally {
+			if (credentials != null) {
+				credentials.close();
+			}
 		}
 		LOG.info("-----------finish HBase -------------------");
 	}
 
+	/**
+	 * 批量读写使用的Connection：启用请求调度时按BATCH优先级排队，否则与点查共用同一个Connection。
+	 */
+	private Connection batchConnection() {
+		return batchConn != null ? batchConn : conn;
+	}
+
+	/**
+	 * 输出查询结果：启用结果输出队列时交给后台线程批量输出，否则逐个cell打印日志。
+	 */
+	private void output(Result result) {
+		if (sink != null) {
+			sink.accept(result);
+			return;
+		}
+		print(result);
+	}
+
+	/**
+	 * 同步逐个cell打印查询结果，返回时结果已输出。
+	 */
+	private void print(Result result) {
+		for (Cell cell : result.rawCells()) {
+			LOG.info(Bytes.toString(CellUtil.cloneRow(cell)) + ":" + Bytes.toString(CellUtil.cloneFamily(cell)) + ","
+					+ Bytes.toString(CellUtil.cloneQualifier(cell)) + "," + Bytes.toString(CellUtil.cloneValue(cell)));
+		}
+	}
+
+	/**
+	 * 设置凭据管理器，run()开始前检查凭据是否有效（无锁），过期时重新登录。
+	 */
+	public void setCredentialManager(CredentialManager credentials) {
+		this.credentials = credentials;
+	}
+
 	public void run() throws Exception {
+		TraceScope runScope = null;
 		try {
-			createTable();
-			multiSplit();
-			put();
-			createIndex();
-			scanDataByIndex();
-			modifyTable();
-			get();
-			scanData();
-			singleColumnValueFilter();
-			filterList();
-			delete();
-			dropIndex();
-			dropTable();
-			createMOBTable();
-			mobDataInsertion();
-			mobDataRead();
-			dropTable();
+			// Inside the try, so that a failed relogin still closes the connection and the subsystems.
+			if (credentials != null) {
+				credentials.ensureValid();
+			}
+			runScope = tracer == null ? null : tracer.startRun("HBase.run");
+			try (TraceScope scope = Trace.startSpan("createTable")) {
+				createTable();
+			}
+			try (TraceScope scope = Trace.startSpan("multiSplit")) {
+				multiSplit();
+			}
+			try (TraceScope scope = Trace.startSpan("put")) {
+				put();
+			}
+			try (TraceScope scope = Trace.startSpan("importData")) {
+				importData();
+			}
+			try (TraceScope scope = Trace.startSpan("createIndex")) {
+				createIndex();
+			}
+			try (TraceScope scope = Trace.startSpan("scanDataByIndex")) {
+				scanDataByIndex();
+			}
+			try (TraceScope scope = Trace.startSpan("modifyTable")) {
+				modifyTable();
+			}
+			try (TraceScope scope = Trace.startSpan("get")) {
+				get();
+			}
+			try (TraceScope scope = Trace.startSpan("incrementCounters")) {
+				incrementCounters();
+			}
+			try (TraceScope scope = Trace.startSpan("scanData")) {
+				scanData();
+			}
+			try (TraceScope scope = Trace.startSpan("exportData")) {
+				exportData();
+			}
+			try (TraceScope scope = Trace.startSpan("singleColumnValueFilter")) {
+				singleColumnValueFilter();
+			}
+			try (TraceScope scope = Trace.startSpan("filterList")) {
+				filterList();
+			}
+			try (TraceScope scope = Trace.startSpan("aggregate")) {
+				aggregate();
+			}
+			try (TraceScope scope = Trace.startSpan("delete")) {
+				delete();
+			}
+			try (TraceScope scope = Trace.startSpan("readChanges")) {
+				readChanges();
+			}
+			try (TraceScope scope = Trace.startSpan("bulkDelete")) {
+				bulkDelete();
+			}
+			try (TraceScope scope = Trace.startSpan("dropIndex")) {
+				dropIndex();
+			}
+			try (TraceScope scope = Trace.startSpan("dropTable")) {
+				dropTable();
+			}
+			try (TraceScope scope = Trace.startSpan("createMOBTable")) {
+				createMOBTable();
+			}
+			try (TraceScope scope = Trace.startSpan("mobDataInsertion")) {
+				mobDataInsertion();
+			}
+			try (TraceScope scope = Trace.startSpan("mobDataRead")) {
+				mobDataRead();
+			}
+			try (TraceScope scope = Trace.startSpan("dropTable")) {
+				dropTable();
+			}
 		} catch (Exception e) {
 			throw e;
 		} finally {
+			if (runScope != null) {
+				tracer.endRun(runScope);
+			}
+			if (spool != null) {
+				try {
+					spool.close();
+				} catch (IOException e1) {
+					LOG.error("Failed to close the spool ", e1);
+				}
+			}
+			if (throttle != null) {
+				LOG.info(throttle);
+				throttle.close();
+			}
+			if (hedgedReader != null) {
+				LOG.info("Hedged read " + hedgedReader.getMetrics());
+				hedgedReader.close();
+			}
+			if (warmer != null) {
+				try {
+					warmer.saveSnapshot();
+				} catch (IOException e1) {
+					LOG.error("Failed to save the region location snapshot ", e1);
+				}
+			}
+			if (group != null) {
+				LOG.info(group);
+			}
 			if (conn != null) {
 				try {
 					conn.close();
@@ -123,6 +409,38 @@ public class HBase {
 					LOG.error("Failed to close the connection ", e1);
 				}
 			}
+			if (metrics != null) {
+				metrics.close();
+			}
+			if (buffers != null) {
+				LOG.info(buffers);
+				buffers.close();
+			}
+			for (ExistenceIndex index : indexes) {
+				index.close();
+			}
+			if (scheduler != null) {
+				LOG.info(scheduler);
+				scheduler.close();
+			}
+			if (hotspots != null) {
+				hotspots.close();
+			}
+			if (sink != null) {
+				try {
+					sink.close();
+					LOG.info(sink);
+				} catch (IOException e1) {
+					LOG.error("Failed to close the result sink ", e1);
+				}
+			}
+			if (tracer != null) {
+				try {
+					tracer.close();
+				} catch (IOException e1) {
+					LOG.error("Failed to close the tracer ", e1);
+				}
+			}
 		}
 	}
 
@@ -253,8 +571,6 @@ public class HBase {
 
 		Table table = null;
 		try {
-			// Instantiate an HTable object.
-			table = conn.getTable(tableName);
 			List<Put> puts = new ArrayList<Put>();
 			// Instantiate a Put object.
 			Put put = new Put(Bytes.toBytes("012005000201"));
@@ -328,7 +644,21 @@ public class HBase {
 			puts.add(put);
 
 			// Submit a put request.
-			table.put(puts);
+			if (spool != null) {
+				// Puts the cluster (or the write throttle, if enabled) does not accept now are replayed from the local spool later.
+				if (!new SpoolingWriter(batchConnection(), spool, throttle).put(tableName, puts)) {
+					LOG.warn("Put spooled, " + spool.getMetrics());
+				}
+			} else if (throttle != null) {
+				throttle.batch(tableName, puts);
+			} else {
+				// Instantiate an HTable object.
+				table = batchConnection().getTable(tableName);
+				table.put(puts);
+			}
+			if (throttle != null) {
+				LOG.info("Write rate of " + tableName + ": " + throttle.getTableRates().get(tableName.getNameAsString()));
+			}
 
 			LOG.info("Put successfully.");
 		} catch (IOException e) {
@@ -346,6 +676,27 @@ public class HBase {
 		LOG.info("Exiting testPut.");
 	}
 
+	/**
+	 * 导入数据<br>
+	 * 内存映射输入文件并按记录边界切分，多线程将分隔符文本或二进制记录按列映射（行键组成、类型编码）解析为Put，经写入限流器或BufferedMutator写入。
+	 * 配置{@value FileImporter#FILE_KEY}时执行。
+	 */
+	public void importData() {
+		String file = conf.get(FileImporter.FILE_KEY);
+		if (file == null) {
+			return;
+		}
+		LOG.info("Entering testImportData.");
+
+		try {
+			ImportStats stats = new FileImporter(batchConnection(), tableName, throttle).importFile(new File(file));
+			LOG.info("Import data successfully: " + stats);
+		} catch (IOException e) {
+			LOG.error("Import data failed ", e);
+		}
+		LOG.info("Exiting testImportData.");
+	}
+
 	public void createIndex() {
 		LOG.info("Entering createIndex.");
 
@@ -357,7 +708,6 @@ public class HBase {
 		iSpec.addIndexColumn(new HColumnDescriptor("info"), "name", ValueType.String);
 
 		IndexAdmin iAdmin = null;
-		Admin admin = null;
 		try {
 			// Instantiate IndexAdmin Object
 			iAdmin = new IndexAdmin(conf);
@@ -365,32 +715,19 @@ public class HBase {
 			// Create Secondary Index
 			iAdmin.addIndex(tableName, iSpec);
 
-			admin = conn.getAdmin();
-
 			// Specify the encryption type of indexed column
-			HTableDescriptor htd = admin.getTableDescriptor(tableName);
-			admin.disableTable(tableName);
-			htd = admin.getTableDescriptor(tableName);
 			// Instantiate index column description.
 			HColumnDescriptor indexColDesc = new HColumnDescriptor(IndexMasterObserver.DEFAULT_INDEX_COL_DESC);
 
-			// Set the description of index as the HTable description.
-			htd.setValue(Constants.INDEX_COL_DESC_BYTES, indexColDesc.toByteArray());
-			admin.modifyTable(tableName, htd);
-			admin.enableTable(tableName);
+			// Set the description of index as the HTable description, with the table offline.
+			new SchemaChange(conn).setValue(tableName, Constants.INDEX_COL_DESC_BYTES, indexColDesc.toByteArray())
+					.requireOffline(tableName).apply();
 
 			LOG.info("Create index successfully.");
 
 		} catch (IOException e) {
 			LOG.error("Create index failed.", e);
 		} finally {
-			if (admin != null) {
-				try {
-					admin.close();
-				} catch (IOException e) {
-					LOG.error("Close admin failed ", e);
-				}
-			}
 			if (iAdmin != null) {
 				try {
 					// Close IndexAdmin Object
@@ -423,11 +760,7 @@ public class HBase {
 			LOG.info("Scan indexed data.");
 
 			for (Result result : scanner) {
-				for (Cell cell : result.rawCells()) {
-					LOG.info(Bytes.toString(CellUtil.cloneRow(cell)) + ":" + Bytes.toString(CellUtil.cloneFamily(cell))
-							+ "," + Bytes.toString(CellUtil.cloneQualifier(cell)) + ","
-							+ Bytes.toString(CellUtil.cloneValue(cell)));
-				}
+				output(result);
 			}
 			LOG.info("Scan data by index successfully.");
 		} catch (IOException e) {
@@ -458,41 +791,13 @@ public class HBase {
 		// Specify the column family name.
 		byte[] familyName = Bytes.toBytes("education");
 
-		Admin admin = null;
 		try {
-			// Instantiate an Admin object.
-			admin = conn.getAdmin();
-
-			// Obtain the table descriptor.
-			HTableDescriptor htd = admin.getTableDescriptor(tableName);
-
-			// Check whether the column family is specified before modification.
-			if (!htd.hasFamily(familyName)) {
-				// Create the column descriptor.
-				HColumnDescriptor hcd = new HColumnDescriptor(familyName);
-				htd.addFamily(hcd);
-
-				// Disable the table to get the table offline before modifying
-				// the table.
-				admin.disableTable(tableName);
-				// Submit a modifyTable request.
-				admin.modifyTable(tableName, htd);
-				// Enable the table to get the table online after modifying the
-				// table.
-				admin.enableTable(tableName);
-			}
+			// Add the column family if it is missing. The table is only disabled when online schema update is
+			// off.
+			new SchemaChange(conn).addFamily(tableName, new HColumnDescriptor(familyName)).apply();
 			LOG.info("Modify table successfully.");
 		} catch (IOException e) {
 			LOG.error("Modify table failed ", e);
-		} finally {
-			if (admin != null) {
-				try {
-					// Close the Admin object.
-					admin.close();
-				} catch (IOException e) {
-					LOG.error("Close admin failed ", e);
-				}
-			}
 		}
 		LOG.info("Exiting testModifyTable.");
 	}
@@ -523,14 +828,21 @@ public class HBase {
 			get.addColumn(familyName, qualifier[1]);
 
 			// Submit a get request.
-			Result result = table.get(get);
+			Result result;
+			if (hedgedReader != null) {
+				// Fall back to the region replicas if the primary is slow.
+				HedgedResult hedged = hedgedReader.get(get);
+				result = hedged.getResult();
+				if (hedged.isStale()) {
+					LOG.warn("Result served by a region replica may be stale.");
+				}
+				LOG.info("Hedged read " + hedgedReader.getMetrics());
+			} else {
+				result = table.get(get);
+			}
 
 			// Print query results.
-			for (Cell cell : result.rawCells()) {
-				LOG.info(Bytes.toString(CellUtil.cloneRow(cell)) + ":" + Bytes.toString(CellUtil.cloneFamily(cell))
-						+ "," + Bytes.toString(CellUtil.cloneQualifier(cell)) + ","
-						+ Bytes.toString(CellUtil.cloneValue(cell)));
-			}
+			output(result);
 			LOG.info("Get data successfully.");
 		} catch (IOException e) {
 			LOG.error("Get data failed ", e);
@@ -547,15 +859,48 @@ public class HBase {
 		LOG.info("Exiting testGet.");
 	}
 
+	/**
+	 * 计数器累加<br>
+	 * 高频的计数更新先在本地按(row, family, qualifier)合并，再定期或按数量批量以Increment发送，一个计数器一次RPC变为一批计数器一次RPC。
+	 * 配置{@value IncrementCoalescer#ENABLED_KEY}为true时执行。
+	 */
+	public void incrementCounters() {
+		if (!conf.getBoolean(IncrementCoalescer.ENABLED_KEY, false)) {
+			return;
+		}
+		LOG.info("Entering testIncrementCounters.");
+
+		IncrementCoalescer counters = new IncrementCoalescer(batchConnection(), tableName);
+		try {
+			// Count 10000 visits over the ten persons written by put().
+			byte[] family = Bytes.toBytes("info");
+			byte[] qualifier = Bytes.toBytes("visits");
+			for (int i = 0; i < 10000; i++) {
+				counters.increment(Bytes.toBytes(String.format("0120050002%02d", i % 10 + 1)), family, qualifier);
+			}
+		} finally {
+			try {
+				// close() sends everything still pending.
+				counters.close();
+				LOG.info(counters);
+				LOG.info("Increment counters successfully.");
+			} catch (IOException e) {
+				LOG.error("Increment counters failed ", e);
+			}
+		}
+		LOG.info("Exiting testIncrementCounters.");
+	}
+
 	public void scanData() {
 		LOG.info("Entering testScanData.");
 
 		Table table = null;
 		// Instantiate a ResultScanner object.
 		ResultScanner rScanner = null;
+		CellFormatter formatter = null;
 		try {
 			// Create the Configuration instance.
-			table = conn.getTable(tableName);
+			table = batchConnection().getTable(tableName);
 
 			// Instantiate a Get object.
 			Scan scan = new Scan();
@@ -564,12 +909,40 @@ public class HBase {
 			// Set the cache size.
 			scan.setCaching(1000);
 
+			// 配置了扫描检查点文件时按分区并行扫描并定期保存进度，进程重启后从上次保存的位置继续；
+			// 结果同步输出而不经过结果输出队列，否则检查点可能越过仍在队列中的行，进程崩溃时这些行丢失
+			String checkpoint = conf.get(ResumableScan.CHECKPOINT_FILE_KEY);
+			if (checkpoint != null) {
+				new ResumableScan(batchConnection(), tableName, new File(checkpoint)).scan(scan,
+						new ResumableScan.RowSink() {
+							@Override
+							public void accept(Result result) {
+								print(result);
+							}
+						});
+				LOG.info("Scan data successfully.");
+				return;
+			}
+
 			// Submit a scan request.
 			rScanner = table.getScanner(scan);
+			if (buffers != null) {
+				// Assemble each output line in one pooled buffer and decode it into a reused CharBuffer, instead of
+				// copying every part of every cell into new arrays and Strings.
+				formatter = new CellFormatter(buffers);
+			}
 
 			// Print query results.
 			for (Result r = rScanner.next(); r != null; r = rScanner.next()) {
+				if (sink != null) {
+					sink.accept(r);
+					continue;
+				}
 				for (Cell cell : r.rawCells()) {
+					if (formatter != null) {
+						LOG.info(formatter.format(cell));
+						continue;
+					}
 					LOG.info(Bytes.toString(CellUtil.cloneRow(cell)) + ":" + Bytes.toString(CellUtil.cloneFamily(cell))
 							+ "," + Bytes.toString(CellUtil.cloneQualifier(cell)) + ","
 							+ Bytes.toString(CellUtil.cloneValue(cell)));
@@ -579,6 +952,9 @@ public class HBase {
 		} catch (IOException e) {
 			LOG.error("Scan data failed ", e);
 		} finally {
+			if (formatter != null) {
+				formatter.close();
+			}
 			if (rScanner != null) {
 				// Close the scanner object.
 				rScanner.close();
@@ -595,6 +971,43 @@ public class HBase {
 		LOG.info("Exiting testScanData.");
 	}
 
+	/**
+	 * 导出数据<br>
+	 * 按region并行扫描，每个region写一个本地列式文件（低基数列如gender使用字典编码，通过内存映射追加写入），最后写入记录各文件行键范围的清单。
+	 * 配置{@value ColumnarExporter#DIR_KEY}时执行，导出后再读回文件。
+	 */
+	public void exportData() {
+		String dir = conf.get(ColumnarExporter.DIR_KEY);
+		if (dir == null) {
+			return;
+		}
+		LOG.info("Entering testExportData.");
+
+		try {
+			Scan scan = new Scan();
+			scan.addFamily(Bytes.toBytes("info"));
+			scan.setCaching(1000);
+			scan.setCacheBlocks(false);
+			ExportManifest manifest = new ColumnarExporter(batchConnection(), tableName).export(scan, new File(dir));
+
+			// Read the files back.
+			for (ExportManifest.Part part : manifest.getParts()) {
+				ColumnarFileReader reader = manifest.open(new File(dir), part);
+				try {
+					for (Result result : reader.readAll()) {
+						output(result);
+					}
+				} finally {
+					reader.close();
+				}
+			}
+			LOG.info("Export data successfully.");
+		} catch (IOException e) {
+			LOG.error("Export data failed ", e);
+		}
+		LOG.info("Exiting testExportData.");
+	}
+
 	public void singleColumnValueFilter() {
 		LOG.info("Entering testSingleColumnValueFilter.");
 
@@ -622,11 +1035,7 @@ public class HBase {
 
 			// Print query results.
 			for (Result r = rScanner.next(); r != null; r = rScanner.next()) {
-				for (Cell cell : r.rawCells()) {
-					LOG.info(Bytes.toString(CellUtil.cloneRow(cell)) + ":" + Bytes.toString(CellUtil.cloneFamily(cell))
-							+ "," + Bytes.toString(CellUtil.cloneQualifier(cell)) + ","
-							+ Bytes.toString(CellUtil.cloneValue(cell)));
-				}
+				output(r);
 			}
 			LOG.info("Single column value filter successfully.");
 		} catch (IOException e) {
@@ -680,11 +1089,7 @@ public class HBase {
 			rScanner = table.getScanner(scan);
 			// Print query results.
 			for (Result r = rScanner.next(); r != null; r = rScanner.next()) {
-				for (Cell cell : r.rawCells()) {
-					LOG.info(Bytes.toString(CellUtil.cloneRow(cell)) + ":" + Bytes.toString(CellUtil.cloneFamily(cell))
-							+ "," + Bytes.toString(CellUtil.cloneQualifier(cell)) + ","
-							+ Bytes.toString(CellUtil.cloneValue(cell)));
-				}
+				output(r);
 			}
 			LOG.info("Filter list successfully.");
 		} catch (IOException e) {
@@ -706,6 +1111,51 @@ public class HBase {
 		LOG.info("Exiting testFilterList.");
 	}
 
+	/**
+	 * Aggregate data with parallel region scans
+	 */
+	public void aggregate() {
+		LOG.info("Entering testAggregate.");
+
+		byte[] familyName = Bytes.toBytes("info");
+		byte[] age = Bytes.toBytes("age");
+		byte[] gender = Bytes.toBytes("gender");
+
+		try {
+			Aggregator aggregator = new Aggregator(conn, tableName);
+
+			// Count the persons aged 20 to 29. Ages are stored as two digit text, so comparing bytes works.
+			SingleColumnValueFilter from = new SingleColumnValueFilter(familyName, age, CompareOp.GREATER_OR_EQUAL,
+					Bytes.toBytes("20"));
+			from.setFilterIfMissing(true);
+			SingleColumnValueFilter to = new SingleColumnValueFilter(familyName, age, CompareOp.LESS_OR_EQUAL,
+					Bytes.toBytes("29"));
+			to.setFilterIfMissing(true);
+			Scan scan = new Scan();
+			scan.addColumn(familyName, age);
+			scan.setFilter(new FilterList(Operator.MUST_PASS_ALL, from, to));
+			LOG.info("Persons aged 20 to 29: " + aggregator.count(scan));
+
+			// Age statistics, over all persons and per gender.
+			LOG.info("Age: " + aggregator.stats(new Scan(), familyName, age, NumericType.STRING));
+			for (Map.Entry<String, Stats> e : aggregator
+					.groupBy(new Scan(), familyName, gender, familyName, age, NumericType.STRING).entrySet()) {
+				LOG.info("Age of " + e.getKey() + ": " + e.getValue());
+			}
+
+			// Approximate distinct addresses and age distribution, over all rows and over half of every region.
+			ApproximateAggregator sketches = new ApproximateAggregator(conn, tableName);
+			LOG.info("Address: " + sketches.summarize(new Scan(), familyName, Bytes.toBytes("address"), null));
+			LOG.info("Age: " + sketches.summarize(new Scan(), familyName, age, NumericType.STRING));
+			sketches.setSampleFraction(0.5);
+			LOG.info("Age, sampled: " + sketches.summarize(new Scan(), familyName, age, NumericType.STRING));
+			LOG.info("Aggregate successfully.");
+		} catch (IOException e) {
+			LOG.error("Aggregate failed ", e);
+		}
+		LOG.info("Exiting testAggregate.");
+	}
+
 	/**
 	 * deleting data
 	 */
@@ -741,6 +1191,82 @@ public class HBase {
 		LOG.info("Exiting testDelete.");
 	}
 
+	/**
+	 * 增量读取变更<br>
+	 * 按时间范围只扫描上次读取（水位线）之后写入的cell和删除标记，按region并行扫描、按时间戳排序输出，输出成功后原子地推进水位线。
+	 * 配置{@value ChangeReader#WATERMARK_FILE_KEY}时执行。
+	 */
+	public void readChanges() {
+		String file = conf.get(ChangeReader.WATERMARK_FILE_KEY);
+		if (file == null) {
+			return;
+		}
+		LOG.info("Entering testReadChanges.");
+
+		ChangeReader reader = null;
+		try {
+			reader = new ChangeReader(batchConnection(), tableName, new WatermarkStore(new File(file)));
+			LOG.info("Change watermark of " + tableName + ": " + reader.getWatermark());
+			reader.catchUp(new ChangeSink() {
+				@Override
+				public void write(List<ChangeRecord> changes) {
+					for (ChangeRecord change : changes) {
+						LOG.info(change);
+					}
+				}
+
+				@Override
+				public void flush() {
+				}
+			});
+			LOG.info("Read changes successfully.");
+		} catch (IOException e) {
+			LOG.error("Read changes failed ", e);
+		} finally {
+			if (reader != null) {
+				reader.close();
+			}
+		}
+		LOG.info("Exiting testReadChanges.");
+	}
+
+	/**
+	 * Delete all rows of a key range that match a filter<br>
+	 * The range is scanned region by region in parallel with a key-only projection, and the deletes are sent through
+	 * a BufferedMutator. A dry run counts the rows that would be deleted.
+	 */
+	public void bulkDelete() {
+		LOG.info("Entering testBulkDelete.");
+
+		// Delete the rows of female persons in [012005000202, 012005000206).
+		byte[] startRow = Bytes.toBytes("012005000202");
+		byte[] stopRow = Bytes.toBytes("012005000206");
+		SingleColumnValueFilter predicate = new SingleColumnValueFilter(Bytes.toBytes("info"), Bytes.toBytes("gender"),
+				CompareOp.EQUAL, Bytes.toBytes("Female"));
+		predicate.setFilterIfMissing(true);
+
+		try {
+			BulkDeleter deleter = new BulkDeleter(conn, tableName);
+			deleter.setProgressListener(new BulkDeleter.ProgressListener() {
+				@Override
+				public void onProgress(BulkDeleteProgress progress) {
+					LOG.info("Bulk delete progress: " + progress);
+				}
+			});
+
+			// Count the matching rows first.
+			deleter.setDryRun(true);
+			LOG.info("Bulk delete dry run: " + deleter.delete(startRow, stopRow, predicate));
+
+			deleter.setDryRun(false);
+			LOG.info("Bulk delete: " + deleter.delete(startRow, stopRow, predicate));
+			LOG.info("Bulk delete successfully.");
+		} catch (IOException e) {
+			LOG.error("Bulk delete failed ", e);
+		}
+		LOG.info("Exiting testBulkDelete.");
+	}
+
 	public void dropIndex() {
 		LOG.info("Entering dropIndex.");
 
@@ -859,47 +1385,41 @@ public class HBase {
 		LOG.info("Exiting grantACL.");
 	}
 
+	/**
+	 * Read MOB data<br>
+	 * A reference-only scan first lists the rows and value sizes of the MOB column, then the values are fetched in
+	 * parallel only for the rows that are used. The table is not flushed: MOB cells still in the MemStore are read
+	 * through the normal read path.
+	 */
 	public void mobDataRead() {
 		LOG.info("Entering testMOBDataRead.");
-		ResultScanner scanner = null;
-		Table table = null;
-		Admin admin = null;
+		MobReader reader = null;
 		try {
-
-			// get table object representing table tableName
-			table = conn.getTable(tableName);
-			admin = conn.getAdmin();
-			admin.flush(table.getName());
-			Scan scan = new Scan();
-			// get table scanner
-			scanner = table.getScanner(scan);
-			for (Result result : scanner) {
-				byte[] value = result.getValue(Bytes.toBytes("mobcf"), Bytes.toBytes("cf1"));
-				String string = Bytes.toString(value);
-				LOG.info("value:" + string);
-			}
+			reader = new MobReader(conn, tableName, Bytes.toBytes("mobcf"), Bytes.toBytes("cf1"));
+			int found = 0;
+			int page = 1000;
+			byte[] start = HConstants.EMPTY_START_ROW;
+			List<MobCellRef> refs;
+			do {
+				refs = reader.scanReferences(start, HConstants.EMPTY_END_ROW, page);
+				found += refs.size();
+				// Issue the fetches for all rows of the page in parallel.
+				reader.prefetch(refs);
+				for (MobCellRef ref : refs) {
+					String string = Bytes.toString(ref.getValue());
+					LOG.info("value:" + string);
+				}
+				if (!refs.isEmpty()) {
+					start = MobReader.after(refs.get(refs.size() - 1));
+				}
+			} while (refs.size() == page);
+			LOG.info("Found " + found + " MOB cells.");
 			LOG.info("MOB data read successfully.");
 		} catch (Exception e) {
 			LOG.error("MOB data read failed ", e);
 		} finally {
-			if (scanner != null) {
-				scanner.close();
-			}
-			if (table != null) {
-				try {
-					// Close table object
-					table.close();
-				} catch (IOException e) {
-					LOG.error("Close table failed ", e);
-				}
-			}
-			if (admin != null) {
-				try {
-					// Close the Admin object.
-					admin.close();
-				} catch (IOException e) {
-					LOG.error("Close admin failed ", e);
-				}
+			if (reader != null) {
+				reader.close();
 			}
 		}
 		LOG.info("Exiting testMOBDataRead.");
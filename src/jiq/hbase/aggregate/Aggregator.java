@@ -0,0 +1,224 @@
+package jiq.hbase.aggregate;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FilterList.Operator;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+
+import jiq.hbase.scan.ParallelScanner;
+import jiq.hbase.scan.PartitionTask;
+import jiq.hbase.scan.ScanPartition;
+
+/**
+ * Count, sum, min, max and group-by over a table without bringing the rows to the caller.<br>
+ * The scan is run region by region in parallel ({@link ParallelScanner}) with the smallest projection that answers
+ * the question: counts use {@link KeyOnlyFilter}, plus {@link FirstKeyOnlyFilter} without a filter of their own;
+ * the other aggregates read only the value and group columns. Every region accumulates into primitive fields
+ * ({@link Stats}, {@link GroupStats}) on its scan thread, and the partial results are merged at the end.<br>
+ * The scan passed in decides range, time range and filter. Its filter runs on the region servers; a filter that
+ * reads other columns than the aggregated ones needs them added to the scan.
+ *
+ * <pre>
+ * Stats age = new Aggregator(conn, t).stats(new Scan(), info, age, NumericType.STRING);
+ * </pre>
+ */
+public class Aggregator {
+	private final static Log LOG = LogFactory.getLog(Aggregator.class.getName());
+
+	public static final String SCAN_CACHING_KEY = "jiq.hbase.aggregate.scan.caching";
+	public static final String MAX_GROUPS_KEY = "jiq.hbase.aggregate.max.groups";
+
+	private final Connection conn;
+	private final TableName tableName;
+	private final int scanCaching;
+	private final int maxGroups;
+
+	public Aggregator(Connection conn, TableName tableName) {
+		Configuration conf = conn.getConfiguration();
+		this.conn = conn;
+		this.tableName = tableName;
+		this.scanCaching = conf.getInt(SCAN_CACHING_KEY, 1000);
+		this.maxGroups = conf.getInt(MAX_GROUPS_KEY, 10000);
+	}
+
+	/**
+	 * Number of rows of the scan.
+	 */
+	public long count(Scan base) throws IOException {
+		Scan scan = prepare(base);
+		if (base.getFilter() == null) {
+			scan.setFilter(new FilterList(Operator.MUST_PASS_ALL, new FirstKeyOnlyFilter(), new KeyOnlyFilter()));
+		} else {
+			// The filter still sees the values; KeyOnlyFilter only strips them from what is returned.
+			scan.setFilter(new FilterList(Operator.MUST_PASS_ALL, base.getFilter(), new KeyOnlyFilter()));
+		}
+		long start = System.currentTimeMillis();
+		List<long[]> partials = run(scan, new PartitionTask<long[]>() {
+			@Override
+			public long[] process(ScanPartition partition, ResultScanner rs) throws IOException {
+				long n = 0;
+				for (Result r = rs.next(); r != null; r = rs.next()) {
+					n++;
+				}
+				return new long[] { n };
+			}
+		});
+		long count = 0;
+		for (long[] p : partials) {
+			count += p[0];
+		}
+		log("count", partials.size(), start);
+		return count;
+	}
+
+	/**
+	 * Count, sum, min and max of a column over the rows of the scan that have it.
+	 */
+	public Stats stats(Scan base, final byte[] family, final byte[] qualifier, final NumericType type)
+			throws IOException {
+		Scan scan = prepare(base);
+		project(scan, family, qualifier);
+		long start = System.currentTimeMillis();
+		List<Stats> partials = run(scan, new PartitionTask<Stats>() {
+			@Override
+			public Stats process(ScanPartition partition, ResultScanner rs) throws IOException {
+				Stats stats = new Stats();
+				double[] v = new double[1];
+				for (Result r = rs.next(); r != null; r = rs.next()) {
+					Cell c = r.getColumnLatestCell(family, qualifier);
+					if (c == null) {
+						continue;
+					}
+					if (type.decode(c.getValueArray(), c.getValueOffset(), c.getValueLength(), v)) {
+						stats.add(v[0]);
+					} else {
+						stats.addInvalid();
+					}
+				}
+				return stats;
+			}
+		});
+		Stats total = new Stats();
+		for (Stats p : partials) {
+			total.merge(p);
+		}
+		log("stats", partials.size(), start);
+		return total;
+	}
+
+	/**
+	 * Number of rows per value of the group column. Rows without it are not counted.
+	 *
+	 * @return the groups sorted by key; only the counts are set
+	 */
+	public Map<String, Stats> groupCount(Scan base, byte[] groupFamily, byte[] groupQualifier) throws IOException {
+		return groupBy(base, groupFamily, groupQualifier, null, null, null);
+	}
+
+	/**
+	 * {@link #stats} of the value column per value of the group column. Rows without the group column are left
+	 * out; rows without the value column are left out of their group. There may be at most
+	 * {@value #MAX_GROUPS_KEY} groups.
+	 *
+	 * @param valueFamily null to only count the rows per group
+	 * @return the groups sorted by key
+	 */
+	public Map<String, Stats> groupBy(Scan base, final byte[] groupFamily, final byte[] groupQualifier,
+			final byte[] valueFamily, final byte[] valueQualifier, final NumericType type) throws IOException {
+		Scan scan = prepare(base);
+		project(scan, groupFamily, groupQualifier);
+		if (valueFamily != null) {
+			project(scan, valueFamily, valueQualifier);
+		}
+		long start = System.currentTimeMillis();
+		List<GroupStats> partials = run(scan, new PartitionTask<GroupStats>() {
+			@Override
+			public GroupStats process(ScanPartition partition, ResultScanner rs) throws IOException {
+				GroupStats groups = new GroupStats(maxGroups);
+				double[] v = new double[1];
+				for (Result r = rs.next(); r != null; r = rs.next()) {
+					Cell g = r.getColumnLatestCell(groupFamily, groupQualifier);
+					if (g == null) {
+						continue;
+					}
+					int id = groups.group(g.getValueArray(), g.getValueOffset(), g.getValueLength());
+					if (valueFamily == null) {
+						groups.count(id);
+						continue;
+					}
+					Cell c = r.getColumnLatestCell(valueFamily, valueQualifier);
+					if (c == null) {
+						continue;
+					}
+					if (type.decode(c.getValueArray(), c.getValueOffset(), c.getValueLength(), v)) {
+						groups.add(id, v[0]);
+					} else {
+						groups.addInvalid(id);
+					}
+				}
+				return groups;
+			}
+		});
+		GroupStats total = new GroupStats(maxGroups);
+		for (GroupStats p : partials) {
+			total.merge(p);
+		}
+		log("group-by", partials.size(), start);
+		return total.toMap();
+	}
+
+	private Scan prepare(Scan base) throws IOException {
+		if (base.getBatch() > 0) {
+			throw new IllegalArgumentException("Aggregation needs whole rows, the scan must not set a batch");
+		}
+		Scan scan = new Scan(base);
+		scan.setCaching(scanCaching);
+		scan.setCacheBlocks(false);
+		return scan;
+	}
+
+	/**
+	 * Adds the column to the scan unless it already reads the column or its whole family. A scan without columns
+	 * is narrowed to the column.
+	 */
+	static void project(Scan scan, byte[] family, byte[] qualifier) {
+		Map<byte[], NavigableSet<byte[]>> families = scan.getFamilyMap();
+		if (!families.isEmpty() && families.containsKey(family)) {
+			NavigableSet<byte[]> qualifiers = families.get(family);
+			if (qualifiers == null || qualifiers.isEmpty() || qualifiers.contains(qualifier)) {
+				return;
+			}
+		}
+		scan.addColumn(family, qualifier);
+	}
+
+	private <T> List<T> run(Scan scan, PartitionTask<T> task) throws IOException {
+		ParallelScanner scanner = new ParallelScanner(conn, tableName);
+		try {
+			return scanner.scan(scan, task);
+		} finally {
+			scanner.close();
+		}
+	}
+
+	private void log(String what, int regions, long start) {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Aggregated " + what + " of " + tableName + " over " + regions + " regions in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+}
@@ -0,0 +1,320 @@
+package jiq.hbase.aggregate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FilterList.Operator;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import jiq.hbase.scan.ParallelScanner;
+import jiq.hbase.scan.PartitionTask;
+import jiq.hbase.scan.ScanPartition;
+import jiq.hbase.sketch.FrequentItems;
+import jiq.hbase.sketch.HyperLogLog;
+import jiq.hbase.sketch.QuantileSketch;
+
+/**
+ * Approximate distinct count, quantiles and frequent values of a column in one streaming pass.<br>
+ * Every partition of the scan builds its own {@link HyperLogLog}, {@link QuantileSketch} and
+ * {@link FrequentItems} on its scan thread; the sketches are merged at the end, so the result has the accuracy of
+ * a single sketch over all rows.<br>
+ * With a sample fraction below 1 only part of every region is read. The first and last row of each region are
+ * probed, the key span between them is cut into {@value #SAMPLE_SLICES_KEY} slices, and a random share of the
+ * slices is scanned. The row count is then estimated per region from the slice counts (stratified sampling) with
+ * a 95% confidence interval; see {@link ApproximateResult} for the other bounds. Slices are cut by interpolating
+ * the keys, so the estimate is best when keys are spread evenly within a region.
+ */
+public class ApproximateAggregator {
+	private final static Log LOG = LogFactory.getLog(ApproximateAggregator.class.getName());
+
+	public static final String HLL_PRECISION_KEY = "jiq.hbase.aggregate.approx.hll.precision";
+	public static final String QUANTILE_K_KEY = "jiq.hbase.aggregate.approx.quantile.k";
+	public static final String FREQUENT_ITEMS_KEY = "jiq.hbase.aggregate.approx.frequent.items";
+	public static final String SAMPLE_SLICES_KEY = "jiq.hbase.aggregate.approx.sample.slices";
+	public static final String SAMPLE_SEED_KEY = "jiq.hbase.aggregate.approx.sample.seed";
+
+	private static final double Z95 = 1.96;
+
+	private final Connection conn;
+	private final TableName tableName;
+	private final int scanCaching;
+	private final int hllPrecision;
+	private final int quantileK;
+	private final int frequentItems;
+	private final int slices;
+	private final long seed;
+	private double fraction = 1;
+
+	public ApproximateAggregator(Connection conn, TableName tableName) {
+		Configuration conf = conn.getConfiguration();
+		this.conn = conn;
+		this.tableName = tableName;
+		this.scanCaching = conf.getInt(Aggregator.SCAN_CACHING_KEY, 1000);
+		this.hllPrecision = conf.getInt(HLL_PRECISION_KEY, 14);
+		this.quantileK = conf.getInt(QUANTILE_K_KEY, 200);
+		this.frequentItems = conf.getInt(FREQUENT_ITEMS_KEY, 100);
+		this.slices = Math.max(2, conf.getInt(SAMPLE_SLICES_KEY, 64));
+		this.seed = conf.getLong(SAMPLE_SEED_KEY, System.nanoTime());
+	}
+
+	/**
+	 * Share of every region to read, in (0, 1]. 1, the default, reads everything.
+	 */
+	public ApproximateAggregator setSampleFraction(double fraction) {
+		if (fraction <= 0 || fraction > 1) {
+			throw new IllegalArgumentException("Sample fraction must be in (0, 1]: " + fraction);
+		}
+		this.fraction = fraction;
+		return this;
+	}
+
+	/**
+	 * Partial result of one partition.
+	 */
+	private class Partial {
+		long rows = 0;
+		final HyperLogLog distinct = new HyperLogLog(hllPrecision);
+		final QuantileSketch quantiles;
+		final FrequentItems frequent = new FrequentItems(frequentItems);
+
+		Partial(boolean numeric, long seed) {
+			this.quantiles = numeric ? new QuantileSketch(quantileK, seed) : null;
+		}
+
+		void merge(Partial other) {
+			rows += other.rows;
+			distinct.merge(other.distinct);
+			if (quantiles != null) {
+				quantiles.merge(other.quantiles);
+			}
+			frequent.merge(other.frequent);
+		}
+	}
+
+	/**
+	 * Sketches the column over the rows of the scan. A filter that reads other columns needs them added to the
+	 * scan.
+	 *
+	 * @param type how to read the values as numbers for the quantiles, null for no quantiles
+	 */
+	public ApproximateResult summarize(Scan base, final byte[] family, final byte[] qualifier, final NumericType type)
+			throws IOException {
+		if (base.getBatch() > 0) {
+			throw new IllegalArgumentException("Aggregation needs whole rows, the scan must not set a batch");
+		}
+		Scan scan = new Scan(base);
+		scan.setCaching(scanCaching);
+		scan.setCacheBlocks(false);
+		Aggregator.project(scan, family, qualifier);
+
+		long start = System.currentTimeMillis();
+		ParallelScanner scanner = new ParallelScanner(conn, tableName);
+		try {
+			List<ScanPartition> regions = scanner.partitions(scan);
+			List<ScanPartition> partitions = regions;
+			// Region of every partition and slices per region, when sampling.
+			int[] regionOf = null;
+			int[] slicesOf = null;
+			if (fraction < 1) {
+				regionOf = new int[regions.size() * slices];
+				slicesOf = new int[regions.size()];
+				partitions = sample(scanner, regions, regionOf, slicesOf);
+			}
+
+			final Random seeds = new Random(seed);
+			List<Partial> partials = scanner.scan(partitions, scan, new PartitionTask<Partial>() {
+				@Override
+				public Partial process(ScanPartition partition, ResultScanner rs) throws IOException {
+					Partial p;
+					synchronized (seeds) {
+						p = new Partial(type != null, seeds.nextLong());
+					}
+					double[] v = new double[1];
+					for (Result r = rs.next(); r != null; r = rs.next()) {
+						p.rows++;
+						Cell c = r.getColumnLatestCell(family, qualifier);
+						if (c == null) {
+							continue;
+						}
+						byte[] b = c.getValueArray();
+						int off = c.getValueOffset();
+						int len = c.getValueLength();
+						p.distinct.add(b, off, len);
+						p.frequent.add(Bytes.toString(b, off, len));
+						if (type != null && type.decode(b, off, len, v)) {
+							p.quantiles.add(v[0]);
+						}
+					}
+					return p;
+				}
+			});
+
+			Partial total = new Partial(type != null, seed);
+			for (Partial p : partials) {
+				total.merge(p);
+			}
+			double rows = total.rows;
+			double rowsError = 0;
+			if (fraction < 1) {
+				double[] estimate = estimateRows(partials, regionOf, slicesOf);
+				rows = estimate[0];
+				rowsError = estimate[1];
+			}
+			ApproximateResult result = new ApproximateResult(fraction, total.rows, rows, rowsError, total.distinct,
+					total.quantiles, total.frequent);
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Sketched " + tableName + " over " + partitions.size() + " partitions in "
+						+ (System.currentTimeMillis() - start) + " ms: " + result);
+			}
+			return result;
+		} finally {
+			scanner.close();
+		}
+	}
+
+	/**
+	 * Picks the slices to read from every region.
+	 */
+	private List<ScanPartition> sample(ParallelScanner scanner, List<ScanPartition> regions,
+			int[] regionOf, int[] slicesOf) throws IOException {
+		List<byte[][]> spans = probe(scanner, regions);
+		Random random = new Random(seed);
+		List<ScanPartition> partitions = new ArrayList<ScanPartition>();
+		for (int r = 0; r < regions.size(); r++) {
+			ScanPartition region = regions.get(r);
+			byte[][] span = spans.get(r);
+			if (span == null) {
+				// Empty region: nothing to read, nothing to estimate.
+				slicesOf[r] = 0;
+				continue;
+			}
+			byte[][] bounds = null;
+			try {
+				// The ends and the inner split points, or null if the span is too narrow.
+				bounds = Bytes.split(span[0], Bytes.add(span[1], new byte[] { 0 }), slices - 1);
+			} catch (IllegalArgumentException e) {
+				// A single row: the padded ends are equal.
+			}
+			if (bounds == null) {
+				slicesOf[r] = 1;
+				regionOf[partitions.size()] = r;
+				partitions.add(new ScanPartition(partitions.size(), region.getStartRow(), region.getStopRow()));
+				continue;
+			}
+			// The outer slices reach the region ends, so no row is outside of all slices.
+			bounds[0] = region.getStartRow();
+			bounds[bounds.length - 1] = region.getStopRow();
+			int total = bounds.length - 1;
+			List<Integer> order = new ArrayList<Integer>(total);
+			for (int i = 0; i < total; i++) {
+				order.add(i);
+			}
+			Collections.shuffle(order, random);
+			// At least two slices, for a variance estimate.
+			int n = Math.min(total, Math.max(2, (int) Math.round(fraction * total)));
+			List<Integer> chosen = order.subList(0, n);
+			Collections.sort(chosen);
+			slicesOf[r] = total;
+			for (int i : chosen) {
+				regionOf[partitions.size()] = r;
+				partitions.add(new ScanPartition(partitions.size(), bounds[i], bounds[i + 1]));
+			}
+		}
+		return partitions;
+	}
+
+	/**
+	 * First and last row of every region in the scan range, null for an empty region.
+	 */
+	private List<byte[][]> probe(ParallelScanner scanner, List<ScanPartition> regions) throws IOException {
+		// All columns: a row counts even if it lacks the sketched one.
+		Scan first = new Scan();
+		first.setCaching(1);
+		first.setFilter(new FilterList(Operator.MUST_PASS_ALL, new FirstKeyOnlyFilter(), new KeyOnlyFilter()));
+		return scanner.scan(regions, first, new PartitionTask<byte[][]>() {
+			@Override
+			public byte[][] process(ScanPartition partition, ResultScanner rs) throws IOException {
+				Result head = rs.next();
+				if (head == null) {
+					return null;
+				}
+				Scan reversed = new Scan();
+				reversed.setReversed(true);
+				// A reversed scan runs from its start row (inclusive) down to its stop row (exclusive).
+				reversed.setStartRow(partition.getStopRow());
+				reversed.setStopRow(partition.getStartRow());
+				reversed.setCaching(2);
+				reversed.setFilter(new FilterList(Operator.MUST_PASS_ALL, new FirstKeyOnlyFilter(),
+						new KeyOnlyFilter()));
+				byte[] last = head.getRow();
+				Table table = conn.getTable(tableName);
+				ResultScanner tail = null;
+				try {
+					tail = table.getScanner(reversed);
+					for (Result r = tail.next(); r != null; r = tail.next()) {
+						// The stop row of the region belongs to the next one.
+						if (partition.getStopRow().length == 0
+								|| Bytes.compareTo(r.getRow(), partition.getStopRow()) < 0) {
+							last = r.getRow();
+							break;
+						}
+					}
+				} finally {
+					if (tail != null) {
+						tail.close();
+					}
+					table.close();
+				}
+				return new byte[][] { head.getRow(), last };
+			}
+		});
+	}
+
+	/**
+	 * Stratified estimate of the rows in the range: {estimate, half width of the 95% interval}.
+	 */
+	private static double[] estimateRows(List<Partial> partials, int[] regionOf, int[] slicesOf) {
+		int regions = slicesOf.length;
+		double[] sum = new double[regions];
+		double[] sumSq = new double[regions];
+		int[] n = new int[regions];
+		for (int i = 0; i < partials.size(); i++) {
+			int r = regionOf[i];
+			double c = partials.get(i).rows;
+			sum[r] += c;
+			sumSq[r] += c * c;
+			n[r]++;
+		}
+		double estimate = 0;
+		double variance = 0;
+		for (int r = 0; r < regions; r++) {
+			if (n[r] == 0) {
+				continue;
+			}
+			double total = slicesOf[r];
+			double mean = sum[r] / n[r];
+			estimate += total * mean;
+			if (n[r] > 1 && n[r] < total) {
+				double s2 = (sumSq[r] - n[r] * mean * mean) / (n[r] - 1);
+				variance += total * total * (1 - n[r] / total) * s2 / n[r];
+			}
+		}
+		return new double[] { estimate, Z95 * Math.sqrt(Math.max(0, variance)) };
+	}
+}
@@ -0,0 +1,132 @@
+package jiq.hbase.aggregate;
+
+import java.util.List;
+
+import jiq.hbase.sketch.FrequentItems;
+import jiq.hbase.sketch.HyperLogLog;
+import jiq.hbase.sketch.QuantileSketch;
+
+/**
+ * Approximate answers about one column of a scan, with their error bounds. Bounds are at 95% confidence where
+ * they come from sampling.
+ */
+public class ApproximateResult {
+	// ln(2 / 0.05) for the Dvoretzky-Kiefer-Wolfowitz bound at 95%.
+	private static final double DKW_LOG = Math.log(2 / 0.05);
+
+	private final double fraction;
+	private final long rowsScanned;
+	private final double rows;
+	private final double rowsError;
+	private final HyperLogLog distinct;
+	private final QuantileSketch quantiles;
+	private final FrequentItems frequent;
+
+	ApproximateResult(double fraction, long rowsScanned, double rows, double rowsError, HyperLogLog distinct,
+			QuantileSketch quantiles, FrequentItems frequent) {
+		this.fraction = fraction;
+		this.rowsScanned = rowsScanned;
+		this.rows = rows;
+		this.rowsError = rowsError;
+		this.distinct = distinct;
+		this.quantiles = quantiles;
+		this.frequent = frequent;
+	}
+
+	public boolean isSampled() {
+		return fraction < 1;
+	}
+
+	/**
+	 * Fraction of the key range that was read, 1 without sampling.
+	 */
+	public double getSampleFraction() {
+		return fraction;
+	}
+
+	public long getRowsScanned() {
+		return rowsScanned;
+	}
+
+	/**
+	 * Rows in the scan range; exact without sampling.
+	 */
+	public long getRows() {
+		return Math.round(rows);
+	}
+
+	/**
+	 * Half width of the 95% confidence interval of {@link #getRows()}, 0 without sampling.
+	 */
+	public long getRowsError() {
+		return Math.round(rowsError);
+	}
+
+	/**
+	 * Distinct values of the column. With sampling this is the number in the sample, a lower bound for the range.
+	 */
+	public long getDistinct() {
+		return distinct.estimate();
+	}
+
+	/**
+	 * Relative standard error of {@link #getDistinct()}.
+	 */
+	public double getDistinctError() {
+		return distinct.getRelativeError();
+	}
+
+	/**
+	 * The value at normalized rank q, NaN if no numeric type was given or no value decoded.
+	 */
+	public double quantile(double q) {
+		return quantiles == null ? Double.NaN : quantiles.quantile(q);
+	}
+
+	/**
+	 * Normalized rank error of {@link #quantile(double)}: the sketch error plus, with sampling, the DKW bound for
+	 * the number of sampled values. Rows of a slice are not independent, so with clustered keys it is optimistic.
+	 */
+	public double getRankError() {
+		if (quantiles == null || quantiles.getCount() == 0) {
+			return Double.NaN;
+		}
+		double error = quantiles.getRankError();
+		if (isSampled()) {
+			error += Math.sqrt(DKW_LOG / (2.0 * quantiles.getCount()));
+		}
+		return error;
+	}
+
+	/**
+	 * The most frequent values with their counts in the rows read; multiply by {@link #getScale()} for the range.
+	 */
+	public List<FrequentItems.Item> getFrequentItems(int n) {
+		return frequent.top(n);
+	}
+
+	/**
+	 * Factor from counts in the rows read to counts in the range.
+	 */
+	public double getScale() {
+		return rowsScanned == 0 ? 1 : rows / rowsScanned;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("rows=").append(getRows());
+		if (isSampled()) {
+			sb.append("±").append(getRowsError()).append(" (sampled ").append(rowsScanned).append(" at ")
+					.append(fraction).append(")");
+		}
+		sb.append(", distinct").append(isSampled() ? ">=" : "=").append(getDistinct());
+		sb.append(String.format("±%.1f%%", getDistinctError() * 100));
+		if (quantiles != null && quantiles.getCount() > 0) {
+			sb.append(", p50=").append(quantile(0.5)).append(", p90=").append(quantile(0.9)).append(", p99=")
+					.append(quantile(0.99)).append(String.format(" (rank ±%.2f%%)", getRankError() * 100));
+		}
+		sb.append(", top=").append(getFrequentItems(5));
+		return sb.toString();
+	}
+}
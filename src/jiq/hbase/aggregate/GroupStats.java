@@ -0,0 +1,150 @@
+package jiq.hbase.aggregate;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * {@link Stats} per group key in an open addressing table over primitive arrays. Keys are looked up straight from
+ * the cell bytes, so a row of an existing group costs neither a key copy nor a boxed number; only a new group
+ * copies its key. Meant for few groups: more than the configured limit is an error.
+ */
+class GroupStats {
+	private final int maxGroups;
+	private int size = 0;
+	private int mask;
+	// Slot -> group id + 1, 0 for empty.
+	private int[] slots;
+	private int[] hashes;
+	private byte[][] keys;
+	private long[] counts;
+	private long[] invalids;
+	private double[] sums;
+	private double[] mins;
+	private double[] maxs;
+
+	GroupStats(int maxGroups) {
+		this.maxGroups = maxGroups;
+		this.slots = new int[64];
+		this.mask = slots.length - 1;
+		allocate(16);
+	}
+
+	private void allocate(int n) {
+		hashes = hashes == null ? new int[n] : Arrays.copyOf(hashes, n);
+		keys = keys == null ? new byte[n][] : Arrays.copyOf(keys, n);
+		counts = counts == null ? new long[n] : Arrays.copyOf(counts, n);
+		invalids = invalids == null ? new long[n] : Arrays.copyOf(invalids, n);
+		sums = sums == null ? new double[n] : Arrays.copyOf(sums, n);
+		int old = mins == null ? 0 : mins.length;
+		mins = mins == null ? new double[n] : Arrays.copyOf(mins, n);
+		maxs = maxs == null ? new double[n] : Arrays.copyOf(maxs, n);
+		Arrays.fill(mins, old, n, Double.POSITIVE_INFINITY);
+		Arrays.fill(maxs, old, n, Double.NEGATIVE_INFINITY);
+	}
+
+	/**
+	 * Id of the group with the key, created if new.
+	 */
+	int group(byte[] b, int off, int len) throws IOException {
+		int h = Bytes.hashCode(b, off, len);
+		int slot = mix(h) & mask;
+		while (true) {
+			int id = slots[slot] - 1;
+			if (id < 0) {
+				break;
+			}
+			if (hashes[id] == h && Bytes.equals(keys[id], 0, keys[id].length, b, off, len)) {
+				return id;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (size == maxGroups) {
+			throw new IOException("More than " + maxGroups + " groups");
+		}
+		int id = size++;
+		if (id == keys.length) {
+			allocate(keys.length * 2);
+		}
+		hashes[id] = h;
+		keys[id] = Arrays.copyOfRange(b, off, off + len);
+		slots[slot] = id + 1;
+		if (size * 2 > slots.length) {
+			rehash();
+		}
+		return id;
+	}
+
+	private void rehash() {
+		slots = new int[slots.length * 2];
+		mask = slots.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = mix(hashes[id]) & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = id + 1;
+		}
+	}
+
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	void count(int id) {
+		counts[id]++;
+	}
+
+	void add(int id, double v) {
+		counts[id]++;
+		sums[id] += v;
+		if (v < mins[id]) {
+			mins[id] = v;
+		}
+		if (v > maxs[id]) {
+			maxs[id] = v;
+		}
+	}
+
+	void addInvalid(int id) {
+		invalids[id]++;
+	}
+
+	void merge(GroupStats other) throws IOException {
+		for (int o = 0; o < other.size; o++) {
+			byte[] key = other.keys[o];
+			int id = group(key, 0, key.length);
+			counts[id] += other.counts[o];
+			invalids[id] += other.invalids[o];
+			sums[id] += other.sums[o];
+			mins[id] = Math.min(mins[id], other.mins[o]);
+			maxs[id] = Math.max(maxs[id], other.maxs[o]);
+		}
+	}
+
+	/**
+	 * The groups sorted by key, keys decoded as UTF-8.
+	 */
+	Map<String, Stats> toMap() {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Bytes.compareTo(keys[a], keys[b]);
+			}
+		});
+		Map<String, Stats> map = new LinkedHashMap<String, Stats>();
+		for (int id : order) {
+			map.put(Bytes.toString(keys[id]), new Stats(counts[id], invalids[id], sums[id], mins[id], maxs[id]));
+		}
+		return map;
+	}
+}
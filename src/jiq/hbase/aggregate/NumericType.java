@@ -0,0 +1,85 @@
+package jiq.hbase.aggregate;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * How a cell value is turned into a number for aggregation.
+ */
+public enum NumericType {
+	/** 8 bytes, {@link Bytes#toBytes(long)}. */
+	LONG {
+		@Override
+		boolean decode(byte[] b, int off, int len, double[] out) {
+			if (len != Bytes.SIZEOF_LONG) {
+				return false;
+			}
+			out[0] = Bytes.toLong(b, off, len);
+			return true;
+		}
+	},
+	/** 4 bytes, {@link Bytes#toBytes(int)}. */
+	INT {
+		@Override
+		boolean decode(byte[] b, int off, int len, double[] out) {
+			if (len != Bytes.SIZEOF_INT) {
+				return false;
+			}
+			out[0] = Bytes.toInt(b, off, len);
+			return true;
+		}
+	},
+	/** 8 bytes, {@link Bytes#toBytes(double)}. */
+	DOUBLE {
+		@Override
+		boolean decode(byte[] b, int off, int len, double[] out) {
+			if (len != Bytes.SIZEOF_DOUBLE) {
+				return false;
+			}
+			out[0] = Double.longBitsToDouble(Bytes.toLong(b, off, len));
+			return true;
+		}
+	},
+	/** Decimal text, like the values written by the sample ("19"). */
+	STRING {
+		@Override
+		boolean decode(byte[] b, int off, int len, double[] out) {
+			if (len == 0) {
+				return false;
+			}
+			// Plain integers are parsed from the bytes directly; anything else goes through Double.
+			int i = off;
+			int end = off + len;
+			boolean negative = b[i] == '-';
+			if (negative || b[i] == '+') {
+				i++;
+			}
+			if (i < end && end - i <= 18) {
+				long v = 0;
+				for (; i < end; i++) {
+					int d = b[i] - '0';
+					if (d < 0 || d > 9) {
+						break;
+					}
+					v = v * 10 + d;
+				}
+				if (i == end) {
+					out[0] = negative ? -v : v;
+					return true;
+				}
+			}
+			try {
+				out[0] = Double.parseDouble(Bytes.toString(b, off, len).trim());
+				return true;
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+	};
+
+	/**
+	 * Decodes the value into out[0].
+	 *
+	 * @return false if the bytes are not a value of this type
+	 */
+	abstract boolean decode(byte[] b, int off, int len, double[] out);
+}
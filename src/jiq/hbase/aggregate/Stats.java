@@ -0,0 +1,95 @@
+package jiq.hbase.aggregate;
+
+/**
+ * Count, sum, minimum and maximum of a column. Accumulated per region without synchronization and merged
+ * afterwards.
+ */
+public class Stats {
+	private long count = 0;
+	private long invalid = 0;
+	private double sum = 0;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	Stats() {
+	}
+
+	Stats(long count, long invalid, double sum, double min, double max) {
+		this.count = count;
+		this.invalid = invalid;
+		this.sum = sum;
+		this.min = min;
+		this.max = max;
+	}
+
+	void add(double v) {
+		count++;
+		sum += v;
+		if (v < min) {
+			min = v;
+		}
+		if (v > max) {
+			max = v;
+		}
+	}
+
+	void addInvalid() {
+		invalid++;
+	}
+
+	void merge(Stats other) {
+		count += other.count;
+		invalid += other.invalid;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * Rows with a valid value.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Rows whose value could not be decoded; not part of the other figures.
+	 */
+	public long getInvalid() {
+		return invalid;
+	}
+
+	/**
+	 * Sum of the values. Exact for integers as long as it stays below 2^53.
+	 */
+	public double getSum() {
+		return sum;
+	}
+
+	/**
+	 * NaN without values.
+	 */
+	public double getMin() {
+		return count == 0 ? Double.NaN : min;
+	}
+
+	/**
+	 * NaN without values.
+	 */
+	public double getMax() {
+		return count == 0 ? Double.NaN : max;
+	}
+
+	/**
+	 * NaN without values.
+	 */
+	public double getAverage() {
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + ", sum=" + sum + ", min=" + getMin() + ", max=" + getMax() + ", avg="
+				+ getAverage() + (invalid > 0 ? ", invalid=" + invalid : "");
+	}
+}
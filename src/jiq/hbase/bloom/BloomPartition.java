@@ -0,0 +1,99 @@
+package jiq.hbase.bloom;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter over the row keys of one key range, with its bits in a direct buffer.<br>
+ * Keys come in as one 64-bit hash; the k probe positions are h1 + i * h2 (Kirsch and Mitzenmacher), with h2
+ * derived from the hash. Lookups take no lock: bits only ever go from 0 to 1, and writers bump a volatile counter
+ * after setting them, which readers read first.
+ */
+final class BloomPartition {
+	private final ByteBuffer bits;
+	private final long numBits;
+	private final int hashes;
+	private long keys = 0;
+	private volatile int writes = 0;
+
+	BloomPartition(long numBits, int hashes) {
+		long words = Math.max(1, (numBits + 63) / 64);
+		if (words * 8 > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Bloom partition too large: " + numBits + " bits");
+		}
+		this.numBits = words * 64;
+		this.hashes = hashes;
+		this.bits = ByteBuffer.allocateDirect((int) (words * 8));
+	}
+
+	/**
+	 * Bits for n keys at false positive rate fpp.
+	 */
+	static long optimalBits(long n, double fpp) {
+		return (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+	}
+
+	/**
+	 * Number of hash functions that minimizes the false positive rate for n keys in m bits.
+	 */
+	static int optimalHashes(long n, long m) {
+		return (int) Math.max(1, Math.min(30, Math.round((double) m / Math.max(1, n) * Math.log(2))));
+	}
+
+	private static long second(long h) {
+		// splitmix64 finalizer, made odd so that it is never 0.
+		h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+		h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+		return (h ^ (h >>> 31)) | 1;
+	}
+
+	boolean mightContain(long hash) {
+		// Pairs with the increment in add(): the bits set before it are visible below.
+		int published = writes;
+		long h2 = second(hash);
+		long combined = hash;
+		for (int i = 0; i < hashes; i++) {
+			long bit = (combined & Long.MAX_VALUE) % numBits;
+			if ((bits.getLong((int) (bit >>> 6) << 3) & (1L << bit)) == 0) {
+				return false;
+			}
+			combined += h2;
+		}
+		return true;
+	}
+
+	synchronized void add(long hash) {
+		long h2 = second(hash);
+		long combined = hash;
+		boolean changed = false;
+		for (int i = 0; i < hashes; i++) {
+			long bit = (combined & Long.MAX_VALUE) % numBits;
+			int index = (int) (bit >>> 6) << 3;
+			long word = bits.getLong(index);
+			if ((word & (1L << bit)) == 0) {
+				bits.putLong(index, word | (1L << bit));
+				changed = true;
+			}
+			combined += h2;
+		}
+		// A key whose bits were all set already is a re-write of a known row (or a false positive), not a new key.
+		if (changed) {
+			keys++;
+			writes++;
+		}
+	}
+
+	synchronized long getKeys() {
+		return keys;
+	}
+
+	long getBytes() {
+		return bits.capacity();
+	}
+
+	/**
+	 * False positive rate for the keys added so far.
+	 */
+	synchronized double expectedFpp() {
+		return Math.pow(1 - Math.exp(-hashes * (double) keys / numBits), hashes);
+	}
+}
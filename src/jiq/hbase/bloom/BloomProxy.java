@@ -0,0 +1,176 @@
+package jiq.hbase.bloom;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Append;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.RowMutations;
+import org.apache.hadoop.hbase.client.Table;
+
+/**
+ * Dynamic proxies of {@link Connection}, {@link Table} and {@link BufferedMutator} that put an
+ * {@link ExistenceIndex} in front of the reads of a table and feed it the rows of the writes.<br>
+ * {@code exists}, {@code existsAll} and both {@code get}s answer rows the index rules out locally and send only the
+ * others. Puts, increments, appends and row mutations, also inside {@code batch} and through a BufferedMutator,
+ * add their rows to the index before they are sent. Everything else passes through.
+ */
+final class BloomProxy implements InvocationHandler {
+	private final Object target;
+	private final Map<TableName, ExistenceIndex> indexes;
+	private final ExistenceIndex index;
+
+	private BloomProxy(Object target, Map<TableName, ExistenceIndex> indexes, ExistenceIndex index) {
+		this.target = target;
+		this.indexes = indexes;
+		this.index = index;
+	}
+
+	static Connection connection(Connection conn, Collection<ExistenceIndex> indexes) {
+		Map<TableName, ExistenceIndex> map = new HashMap<TableName, ExistenceIndex>();
+		for (ExistenceIndex index : indexes) {
+			map.put(index.getTableName(), index);
+		}
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new BloomProxy(conn, map, null));
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		if (target instanceof Connection) {
+			Object result = call(method, args);
+			if (result instanceof Table) {
+				ExistenceIndex i = indexes.get(((Table) result).getName());
+				if (i != null) {
+					return Proxy.newProxyInstance(Table.class.getClassLoader(), new Class<?>[] { Table.class },
+							new BloomProxy(result, indexes, i));
+				}
+			} else if (result instanceof BufferedMutator) {
+				ExistenceIndex i = indexes.get(((BufferedMutator) result).getName());
+				if (i != null) {
+					return Proxy.newProxyInstance(BufferedMutator.class.getClassLoader(),
+							new Class<?>[] { BufferedMutator.class }, new BloomProxy(result, indexes, i));
+				}
+			}
+			return result;
+		}
+		String name = method.getName();
+		Object first = args == null || args.length == 0 ? null : args[0];
+		if ("exists".equals(name) && first instanceof Get) {
+			if (!index.mightContain(((Get) first).getRow())) {
+				return false;
+			}
+			boolean found = (Boolean) call(method, args);
+			if (!found) {
+				index.falsePositive();
+			}
+			return found;
+		}
+		if ("get".equals(name) && first instanceof Get) {
+			if (!index.mightContain(((Get) first).getRow())) {
+				return Result.EMPTY_RESULT;
+			}
+			Result result = (Result) call(method, args);
+			if (result == null || result.isEmpty()) {
+				index.falsePositive();
+			}
+			return result;
+		}
+		if (("get".equals(name) || "existsAll".equals(name)) && first instanceof List) {
+			return getAll(method, (List<?>) first, "existsAll".equals(name));
+		}
+		addRows(name, args);
+		return call(method, args);
+	}
+
+	/**
+	 * Sends only the gets the index cannot rule out and fills in the rest.
+	 */
+	private Object getAll(Method method, List<?> gets, boolean exists) throws Throwable {
+		List<Get> maybe = new ArrayList<Get>(gets.size());
+		int[] positions = new int[gets.size()];
+		for (int i = 0; i < gets.size(); i++) {
+			Get get = (Get) gets.get(i);
+			if (index.mightContain(get.getRow())) {
+				positions[maybe.size()] = i;
+				maybe.add(get);
+			}
+		}
+		Object sent = maybe.isEmpty() ? null : call(method, new Object[] { maybe });
+		if (exists) {
+			boolean[] result = new boolean[gets.size()];
+			boolean[] found = (boolean[]) sent;
+			for (int j = 0; j < maybe.size(); j++) {
+				result[positions[j]] = found[j];
+				if (!found[j]) {
+					index.falsePositive();
+				}
+			}
+			return result;
+		}
+		Result[] result = new Result[gets.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = Result.EMPTY_RESULT;
+		}
+		Result[] found = (Result[]) sent;
+		for (int j = 0; j < maybe.size(); j++) {
+			result[positions[j]] = found[j];
+			if (found[j] == null || found[j].isEmpty()) {
+				index.falsePositive();
+			}
+		}
+		return result;
+	}
+
+	private void addRows(String name, Object[] args) {
+		if (args == null) {
+			return;
+		}
+		if ("incrementColumnValue".equals(name)) {
+			index.add((byte[]) args[0]);
+			return;
+		}
+		for (Object arg : args) {
+			if (arg instanceof List) {
+				for (Object o : (List<?>) arg) {
+					addRow(o);
+				}
+			} else {
+				addRow(arg);
+			}
+		}
+	}
+
+	private void addRow(Object o) {
+		if (o instanceof Put) {
+			index.add(((Put) o).getRow());
+		} else if (o instanceof Increment) {
+			index.add(((Increment) o).getRow());
+		} else if (o instanceof Append) {
+			index.add(((Append) o).getRow());
+		} else if (o instanceof RowMutations) {
+			index.add(((RowMutations) o).getRow());
+		}
+	}
+
+	private Object call(Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
@@ -0,0 +1,435 @@
+package jiq.hbase.bloom;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FilterList.Operator;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import jiq.hbase.scan.ParallelScanner;
+import jiq.hbase.scan.PartitionTask;
+import jiq.hbase.scan.ScanPartition;
+
+/**
+ * Client-side Bloom filter of the row keys of a table, to answer "this row does not exist" without an RPC.<br>
+ * The filter is partitioned by region. It is built by a key-only {@link ParallelScanner} scan: every region
+ * collects the hashes of its keys, then each partition is sized for its key count times {@value #HEADROOM_KEY}
+ * (room for later writes) at the false positive rate {@value #FPP_KEY}, scaled down together if the total would
+ * exceed {@value #MAX_BYTES_KEY}. The bits live in direct buffers.<br>
+ * Rows written through a table from {@link #wrap(Connection, Collection)} are added before the write is sent, so
+ * the filter never misses a row this client wrote; rows written before the first build completes are recorded and
+ * added to the first filter. Rows written by other clients are only seen after the next rebuild, every
+ * {@value #REBUILD_INTERVAL_KEY} milliseconds; rows written while a rebuild runs are replayed into the new filter
+ * before it replaces the old one. Use it where this client is the main writer or a stale "absent"
+ * is acceptable, such as dedup checks. Until the first build succeeds every lookup goes to the cluster.<br>
+ * Lookups and savings are published as the MBean {@code jiq.hbase:type=ExistenceIndex,table=<table>}.
+ */
+public class ExistenceIndex implements ExistenceIndexMBean, Closeable {
+	private final static Log LOG = LogFactory.getLog(ExistenceIndex.class.getName());
+
+	/** Tables to keep an index for, comma separated. */
+	public static final String TABLES_KEY = "jiq.hbase.bloom.tables";
+	public static final String FPP_KEY = "jiq.hbase.bloom.fpp";
+	public static final String MAX_BYTES_KEY = "jiq.hbase.bloom.max.bytes";
+	public static final String HEADROOM_KEY = "jiq.hbase.bloom.headroom";
+	/** 0 to build only once. */
+	public static final String REBUILD_INTERVAL_KEY = "jiq.hbase.bloom.rebuild.interval.ms";
+	public static final String SCAN_CACHING_KEY = "jiq.hbase.bloom.scan.caching";
+
+	private static final HashFunction HASH = Hashing.murmur3_128();
+	private static final long MIN_KEYS = 1024;
+
+	/**
+	 * One build: start keys of the partitions and their filters.
+	 */
+	private static final class Filter {
+		final byte[][] starts;
+		final BloomPartition[] partitions;
+
+		Filter(byte[][] starts, BloomPartition[] partitions) {
+			this.starts = starts;
+			this.partitions = partitions;
+		}
+
+		BloomPartition partition(byte[] row) {
+			int i = Arrays.binarySearch(starts, row, Bytes.BYTES_COMPARATOR);
+			// Not found: -(insertion point) - 1; the row belongs to the partition before the insertion point.
+			return partitions[i >= 0 ? i : Math.max(0, -i - 2)];
+		}
+	}
+
+	/**
+	 * Growing array of key hashes of one region.
+	 */
+	private static final class Hashes {
+		long[] values = new long[1024];
+		int size = 0;
+
+		void add(long h) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = h;
+		}
+	}
+
+	private final Connection conn;
+	private final TableName tableName;
+	private final double fpp;
+	private final long maxBytes;
+	private final double headroom;
+	private final long rebuildInterval;
+	private final int scanCaching;
+	private final ScheduledExecutorService builder;
+	// Taken shared by writers, exclusively for replaying the pending rows and swapping in a new filter.
+	private final ReadWriteLock swap = new ReentrantReadWriteLock();
+	private volatile Filter current = null;
+	// Rows written before the first filter is in place or while a build runs; null otherwise.
+	private List<byte[]> pending = new ArrayList<byte[]>();
+	private ObjectName registered = null;
+
+	private final AtomicLong checks = new AtomicLong();
+	private final AtomicLong absent = new AtomicLong();
+	private final AtomicLong falsePositives = new AtomicLong();
+	private final AtomicLong builds = new AtomicLong();
+	private final AtomicLong buildFailures = new AtomicLong();
+	private volatile long lastBuildMs = 0;
+
+	public ExistenceIndex(Connection conn, TableName tableName) {
+		Configuration conf = conn.getConfiguration();
+		this.conn = conn;
+		this.tableName = tableName;
+		this.fpp = conf.getDouble(FPP_KEY, 0.01);
+		this.maxBytes = conf.getLong(MAX_BYTES_KEY, 64L * 1024 * 1024);
+		this.headroom = Math.max(1, conf.getDouble(HEADROOM_KEY, 1.5));
+		this.rebuildInterval = conf.getLong(REBUILD_INTERVAL_KEY, 0L);
+		this.scanCaching = conf.getInt(SCAN_CACHING_KEY, 5000);
+		this.builder = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+				.setNameFormat("existence-index-" + tableName.getNameAsString()).setDaemon(true).build());
+		register();
+	}
+
+	/**
+	 * Builds the filter in the background now and, if configured, periodically.
+	 */
+	public void start() {
+		Runnable build = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					rebuild();
+				} catch (Throwable e) {
+					LOG.warn("Failed to build the existence index of " + tableName, e);
+				}
+			}
+		};
+		if (rebuildInterval > 0) {
+			builder.scheduleWithFixedDelay(build, 0, rebuildInterval, TimeUnit.MILLISECONDS);
+		} else {
+			builder.execute(build);
+		}
+	}
+
+	/**
+	 * Scans all row keys and replaces the filter.
+	 */
+	public synchronized void rebuild() throws IOException {
+		long start = System.currentTimeMillis();
+		swap.writeLock().lock();
+		try {
+			if (pending == null) {
+				pending = new ArrayList<byte[]>();
+			}
+		} finally {
+			swap.writeLock().unlock();
+		}
+		Filter filter = null;
+		try {
+			filter = build();
+		} catch (IOException e) {
+			buildFailures.incrementAndGet();
+			throw e;
+		} finally {
+			swap.writeLock().lock();
+			try {
+				if (filter != null) {
+					for (byte[] row : pending) {
+						filter.partition(row).add(hash(row));
+					}
+					current = filter;
+				}
+				// Without a filter yet, keep the rows for the next build, if one is scheduled.
+				if (current != null || rebuildInterval <= 0) {
+					pending = null;
+				}
+			} finally {
+				swap.writeLock().unlock();
+			}
+		}
+		builds.incrementAndGet();
+		lastBuildMs = System.currentTimeMillis() - start;
+		LOG.info("Built existence index of " + tableName + ": " + getKeys() + " keys in "
+				+ filter.partitions.length + " partitions, " + getMemoryBytes() + " bytes, expected false positive rate "
+				+ String.format("%.4f", getExpectedFalsePositiveRate()) + ", " + lastBuildMs + " ms");
+	}
+
+	private Filter build() throws IOException {
+		Scan scan = new Scan();
+		scan.setCaching(scanCaching);
+		scan.setCacheBlocks(false);
+		scan.setFilter(new FilterList(Operator.MUST_PASS_ALL, new FirstKeyOnlyFilter(), new KeyOnlyFilter()));
+		List<ScanPartition> regions;
+		List<Hashes> hashes;
+		ParallelScanner scanner = new ParallelScanner(conn, tableName);
+		try {
+			regions = scanner.partitions(scan);
+			hashes = scanner.scan(regions, scan, new PartitionTask<Hashes>() {
+				@Override
+				public Hashes process(ScanPartition partition, ResultScanner rs) throws IOException {
+					Hashes h = new Hashes();
+					for (Result r = rs.next(); r != null; r = rs.next()) {
+						h.add(hash(r.getRow()));
+					}
+					return h;
+				}
+			});
+		} finally {
+			scanner.close();
+		}
+
+		long[] bits = new long[regions.size()];
+		long totalBits = 0;
+		for (int i = 0; i < bits.length; i++) {
+			long n = Math.max(MIN_KEYS, (long) (hashes.get(i).size * headroom));
+			bits[i] = BloomPartition.optimalBits(n, fpp);
+			totalBits += bits[i];
+		}
+		double scale = Math.min(1, maxBytes * 8.0 / Math.max(1, totalBits));
+		if (scale < 1) {
+			LOG.warn("Existence index of " + tableName + " needs " + totalBits / 8 + " bytes for false positive rate "
+					+ fpp + ", limited to " + maxBytes + " by " + MAX_BYTES_KEY);
+		}
+		byte[][] starts = new byte[regions.size()][];
+		BloomPartition[] partitions = new BloomPartition[regions.size()];
+		for (int i = 0; i < partitions.length; i++) {
+			Hashes h = hashes.get(i);
+			long m = Math.max(64, (long) (bits[i] * scale));
+			long n = Math.max(MIN_KEYS, (long) (h.size * headroom));
+			partitions[i] = new BloomPartition(m, BloomPartition.optimalHashes(n, m));
+			for (int j = 0; j < h.size; j++) {
+				partitions[i].add(h.values[j]);
+			}
+			starts[i] = regions.get(i).getStartRow();
+		}
+		if (partitions.length == 0) {
+			// Empty range: one partition for the rows written later.
+			starts = new byte[][] { new byte[0] };
+			partitions = new BloomPartition[] { new BloomPartition(BloomPartition.optimalBits(MIN_KEYS, fpp),
+					BloomPartition.optimalHashes(MIN_KEYS, BloomPartition.optimalBits(MIN_KEYS, fpp))) };
+		}
+		return new Filter(starts, partitions);
+	}
+
+	private static long hash(byte[] row) {
+		return HASH.hashBytes(row).asLong();
+	}
+
+	/**
+	 * False if the row certainly does not exist (as far as this client knows), true if it may.
+	 */
+	public boolean mightContain(byte[] row) {
+		Filter filter = current;
+		if (filter == null) {
+			return true;
+		}
+		checks.incrementAndGet();
+		if (filter.partition(row).mightContain(hash(row))) {
+			return true;
+		}
+		absent.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Records a row about to be written.
+	 */
+	public void add(byte[] row) {
+		swap.readLock().lock();
+		try {
+			Filter filter = current;
+			if (filter != null) {
+				filter.partition(row).add(hash(row));
+			}
+			if (pending != null) {
+				synchronized (pending) {
+					pending.add(row);
+				}
+			}
+		} finally {
+			swap.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Called when a lookup let through by the filter found nothing.
+	 */
+	void falsePositive() {
+		falsePositives.incrementAndGet();
+	}
+
+	public TableName getTableName() {
+		return tableName;
+	}
+
+	/**
+	 * Wraps the connection so that tables with an index skip gets and exists calls for absent rows, and add the
+	 * rows they write to the index.
+	 */
+	public static Connection wrap(Connection conn, Collection<ExistenceIndex> indexes) {
+		return BloomProxy.connection(conn, indexes);
+	}
+
+	private void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("jiq.hbase:type=ExistenceIndex,table="
+					+ ObjectName.quote(tableName.getNameAsString()));
+			if (!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+				registered = name;
+			}
+		} catch (Exception e) {
+			LOG.warn("Failed to register the existence index of " + tableName + " in JMX", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		builder.shutdownNow();
+		if (registered != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+			} catch (Exception e) {
+				LOG.warn("Failed to unregister " + registered, e);
+			}
+			registered = null;
+		}
+		LOG.info("Existence index of " + tableName + ": " + getChecks() + " checks, " + getAbsent()
+				+ " answered absent, " + getFalsePositives() + " false positives");
+	}
+
+	@Override
+	public String getTable() {
+		return tableName.getNameAsString();
+	}
+
+	@Override
+	public boolean isReady() {
+		return current != null;
+	}
+
+	@Override
+	public long getChecks() {
+		return checks.get();
+	}
+
+	@Override
+	public long getAbsent() {
+		return absent.get();
+	}
+
+	@Override
+	public long getFalsePositives() {
+		return falsePositives.get();
+	}
+
+	@Override
+	public double getAbsentRate() {
+		long n = checks.get();
+		return n == 0 ? 0 : (double) absent.get() / n;
+	}
+
+	@Override
+	public long getBuilds() {
+		return builds.get();
+	}
+
+	@Override
+	public long getBuildFailures() {
+		return buildFailures.get();
+	}
+
+	@Override
+	public long getLastBuildMs() {
+		return lastBuildMs;
+	}
+
+	@Override
+	public long getKeys() {
+		Filter filter = current;
+		long n = 0;
+		if (filter != null) {
+			for (BloomPartition p : filter.partitions) {
+				n += p.getKeys();
+			}
+		}
+		return n;
+	}
+
+	@Override
+	public long getMemoryBytes() {
+		Filter filter = current;
+		long n = 0;
+		if (filter != null) {
+			for (BloomPartition p : filter.partitions) {
+				n += p.getBytes();
+			}
+		}
+		return n;
+	}
+
+	@Override
+	public double getExpectedFalsePositiveRate() {
+		Filter filter = current;
+		if (filter == null) {
+			return 1;
+		}
+		// Partitions weighted by their keys.
+		double sum = 0;
+		long keys = 0;
+		for (BloomPartition p : filter.partitions) {
+			sum += p.expectedFpp() * Math.max(1, p.getKeys());
+			keys += Math.max(1, p.getKeys());
+		}
+		return sum / keys;
+	}
+}
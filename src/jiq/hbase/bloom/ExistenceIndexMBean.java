@@ -0,0 +1,48 @@
+package jiq.hbase.bloom;
+
+/**
+ * JMX view of an {@link ExistenceIndex}.
+ */
+public interface ExistenceIndexMBean {
+	String getTable();
+
+	/**
+	 * False until the first build succeeded; until then every lookup goes to the cluster.
+	 */
+	boolean isReady();
+
+	/**
+	 * Rows looked up in the filter.
+	 */
+	long getChecks();
+
+	/**
+	 * Lookups answered "absent" without an RPC.
+	 */
+	long getAbsent();
+
+	/**
+	 * Lookups the filter let through that found no row (false positives, or rows deleted since).
+	 */
+	long getFalsePositives();
+
+	/**
+	 * Share of the checks answered without an RPC.
+	 */
+	double getAbsentRate();
+
+	long getBuilds();
+
+	long getBuildFailures();
+
+	long getLastBuildMs();
+
+	long getKeys();
+
+	long getMemoryBytes();
+
+	/**
+	 * False positive rate expected from the current fill of the filter.
+	 */
+	double getExpectedFalsePositiveRate();
+}
@@ -0,0 +1,262 @@
+package jiq.hbase.bootstrap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.security.authentication.util.KerberosUtil;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import jiq.security.CredentialManager;
+import jiq.security.LoginUtil;
+
+/**
+ * Startup of the client with independent steps overlapped. Three tasks start together:
+ * <ul>
+ * <li>config: the merged configuration, from the {@link ConfigSnapshot} when it is current, else parsed from the
+ * site files of the conf directory (and the snapshot rewritten in the background);</li>
+ * <li>credentials: checks the keytab and krb5.conf, parses krb5.conf and sets the JAAS and ZooKeeper principal
+ * properties;</li>
+ * <li>classes: loads and initializes the heavy client classes (RPC, protobuf, ZooKeeper).</li>
+ * </ul>
+ * Login waits for config and credentials, and only happens when Kerberos is on; the connection is created right
+ * after, as it needs the login user. The duration of every phase is logged through {@link PhaseTimer}.<br>
+ * Enabled in {@code HBase.main} with {@code -D}{@value #ENABLED_PROPERTY}{@code =true}: the configuration is not
+ * loaded yet at that point, so the switch is a system property.
+ */
+public class Bootstrap {
+	private final static Log LOG = LogFactory.getLog(Bootstrap.class.getName());
+
+	public static final String ENABLED_PROPERTY = "jiq.hbase.bootstrap";
+	public static final String SNAPSHOT_PROPERTY = "jiq.hbase.bootstrap.config.snapshot";
+	public static final String KEYTAB_FILE = "user.keytab";
+	public static final String KRB5_FILE = "krb5.conf";
+
+	private static final String[] SITE_FILES = { "core-site.xml", "hdfs-site.xml", "hbase-site.xml" };
+
+	private static final String[] PRELOAD_CLASSES = {
+			"org.apache.hadoop.security.UserGroupInformation",
+			"org.apache.hadoop.hbase.client.ConnectionManager$HConnectionImplementation",
+			"org.apache.hadoop.hbase.client.HTable",
+			"org.apache.hadoop.hbase.client.AsyncProcess",
+			"org.apache.hadoop.hbase.ipc.RpcClientImpl",
+			"org.apache.hadoop.hbase.protobuf.ProtobufUtil",
+			"org.apache.hadoop.hbase.protobuf.generated.ClientProtos",
+			"org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher",
+			"org.apache.zookeeper.ZooKeeper" };
+
+	private final String confDir;
+	private final String principal;
+	private final String zkServerPrincipal;
+	private final List<File> siteFiles;
+	private final File snapshotFile;
+	private final PhaseTimer timer = new PhaseTimer();
+
+	private Configuration conf = null;
+	private Connection conn = null;
+	private CredentialManager credentials = null;
+
+	/**
+	 * @param confDir directory of the site files, the keytab and krb5.conf, ending with a separator
+	 */
+	public Bootstrap(String confDir, String principal, String zkServerPrincipal) {
+		this.confDir = confDir;
+		this.principal = principal;
+		this.zkServerPrincipal = zkServerPrincipal;
+		File[] files = new File[SITE_FILES.length];
+		for (int i = 0; i < files.length; i++) {
+			files[i] = new File(confDir + SITE_FILES[i]);
+		}
+		this.siteFiles = Arrays.asList(files);
+		this.snapshotFile = new File(System.getProperty(SNAPSHOT_PROPERTY, defaultSnapshot(confDir)));
+	}
+
+	/**
+	 * A file per conf directory in the user's cache directory. Not in the conf directory itself, which is on the
+	 * class path and part of the source tree.
+	 */
+	private static String defaultSnapshot(String confDir) {
+		return System.getProperty("user.home") + File.separator + ".cache" + File.separator + "jiq-hbase"
+				+ File.separator + "config-" + Integer.toHexString(new File(confDir).getAbsolutePath().hashCode())
+				+ ".snapshot";
+	}
+
+	/**
+	 * Runs all phases; afterwards {@link #getConfiguration()} and {@link #getConnection()} are set.
+	 */
+	public void start() throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(3,
+				new ThreadFactoryBuilder().setNameFormat("bootstrap-%d").setDaemon(true).build());
+		Future<?> saving = null;
+		try {
+			final boolean[] parsed = new boolean[1];
+			Future<Configuration> config = pool.submit(new Callable<Configuration>() {
+				@Override
+				public Configuration call() throws Exception {
+					long start = timer.begin();
+					try {
+						Configuration c = ConfigSnapshot.load(snapshotFile, siteFiles);
+						if (c == null) {
+							c = parse();
+							parsed[0] = true;
+						}
+						return c;
+					} finally {
+						timer.end("config", start);
+					}
+				}
+			});
+			Future<?> krb = pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					long start = timer.begin();
+					try {
+						prepareCredentials();
+						return null;
+					} finally {
+						timer.end("credentials", start);
+					}
+				}
+			});
+			pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					long start = timer.begin();
+					preloadClasses();
+					timer.end("classes", start);
+				}
+			});
+
+			conf = get(config);
+			if (parsed[0]) {
+				saving = pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						long start = timer.begin();
+						try {
+							ConfigSnapshot.save(snapshotFile, conf, siteFiles);
+						} finally {
+							timer.end("snapshot", start);
+						}
+						return null;
+					}
+				});
+			}
+			get(krb);
+
+			if ("kerberos".equalsIgnoreCase(conf.get("hadoop.security.authentication"))) {
+				long start = timer.begin();
+				if (conf.getBoolean(CredentialManager.ENABLED_KEY, false)) {
+					credentials = new CredentialManager(principal, confDir + KEYTAB_FILE, confDir + KRB5_FILE, conf);
+					credentials.login();
+				} else {
+					LoginUtil.login(principal, confDir + KEYTAB_FILE, confDir + KRB5_FILE, conf);
+				}
+				timer.end("login", start);
+			}
+
+			long start = timer.begin();
+			conn = ConnectionFactory.createConnection(conf);
+			timer.end("connection", start);
+
+			if (saving != null) {
+				try {
+					get(saving);
+				} catch (IOException e) {
+					// The snapshot only speeds up the next start.
+					LOG.warn("Failed to save configuration snapshot " + snapshotFile, e);
+				}
+			}
+		} finally {
+			pool.shutdown();
+			LOG.info(timer.summary());
+		}
+	}
+
+	public Configuration getConfiguration() {
+		return conf;
+	}
+
+	public Connection getConnection() {
+		return conn;
+	}
+
+	/**
+	 * The credential manager if {@value CredentialManager#ENABLED_KEY} is set and Kerberos is on, else null.
+	 * The caller closes it.
+	 */
+	public CredentialManager getCredentialManager() {
+		return credentials;
+	}
+
+	public PhaseTimer getTimer() {
+		return timer;
+	}
+
+	private Configuration parse() {
+		Configuration c = HBaseConfiguration.create();
+		for (File f : siteFiles) {
+			c.addResource(new Path(f.getPath()));
+		}
+		// Resources are parsed lazily, on the first get. Do it here, on this thread.
+		c.size();
+		return c;
+	}
+
+	private void prepareCredentials() throws IOException {
+		String keytab = confDir + KEYTAB_FILE;
+		File krb5 = new File(confDir + KRB5_FILE);
+		if (!krb5.isFile()) {
+			throw new IOException("krb5ConfFile(" + krb5.getAbsolutePath() + ") does not exsit.");
+		}
+		LoginUtil.setJaasConf("Client", principal, keytab);
+		LoginUtil.setZookeeperServerPrincipal("zookeeper.server.principal", zkServerPrincipal);
+		// Parse krb5.conf now rather than during login; the login sets the same path again.
+		System.setProperty("java.security.krb5.conf", krb5.getAbsolutePath());
+		try {
+			KerberosUtil.getDefaultRealm();
+		} catch (Exception e) {
+			throw new IOException("Invalid krb5ConfFile(" + krb5.getAbsolutePath() + ")", e);
+		}
+	}
+
+	private static void preloadClasses() {
+		ClassLoader loader = Bootstrap.class.getClassLoader();
+		for (String name : PRELOAD_CLASSES) {
+			try {
+				Class.forName(name, true, loader);
+			} catch (Throwable e) {
+				LOG.debug("Cannot preload " + name + ": " + e);
+			}
+		}
+	}
+
+	private static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted during startup");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package jiq.hbase.bootstrap;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.VersionInfo;
+
+/**
+ * Merged {@link Configuration} stored in a compact binary file, so that the next start does not parse the
+ * default and site XML files again.<br>
+ * The file records the size and modification time of every site file, the HBase and Hadoop versions and the
+ * class path; the snapshot is used only while all of them are unchanged. Properties are stored unexpanded, so
+ * variable substitution still happens on read as with the XML files. File layout: magic, version, fingerprint,
+ * properties as length-prefixed UTF-8, and a CRC32 of everything before it.
+ */
+public class ConfigSnapshot {
+	private final static Log LOG = LogFactory.getLog(ConfigSnapshot.class.getName());
+
+	private static final int MAGIC = 0x4A514353; // "JQCS"
+	private static final int VERSION = 1;
+
+	private ConfigSnapshot() {
+	}
+
+	/**
+	 * The configuration stored in the snapshot file, or null if the file is missing, unreadable or no longer
+	 * matches the site files and the installation.
+	 */
+	public static Configuration load(File file, List<File> sources) {
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			byte[] data = Files.readAllBytes(file.toPath());
+			if (data.length < Bytes.SIZEOF_LONG) {
+				throw new IOException(file + " is truncated");
+			}
+			int length = data.length - Bytes.SIZEOF_LONG;
+			CRC32 crc = new CRC32();
+			crc.update(data, 0, length);
+			if (Bytes.toLong(data, length) != crc.getValue()) {
+				throw new IOException("Checksum mismatch in " + file);
+			}
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, length));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(file + " is not a configuration snapshot of this version");
+			}
+			String fingerprint = readString(in);
+			if (!fingerprint.equals(fingerprint(sources))) {
+				LOG.info("Configuration snapshot " + file + " is out of date");
+				return null;
+			}
+			int n = in.readInt();
+			// Everything, defaults included, is in the snapshot: do not load the default resources again.
+			Configuration conf = new Configuration(false);
+			for (int i = 0; i < n; i++) {
+				conf.set(readString(in), readString(in));
+			}
+			return conf;
+		} catch (IOException e) {
+			LOG.warn("Failed to read configuration snapshot " + file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes all properties of conf, which was built from the given site files.
+	 */
+	public static void save(File file, Configuration conf, List<File> sources) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory()) {
+			if (!dir.mkdirs()) {
+				throw new IOException("Can not create " + dir);
+			}
+			// The configuration may hold passwords.
+			dir.setReadable(false, false);
+			dir.setReadable(true, true);
+			dir.setExecutable(false, false);
+			dir.setExecutable(true, true);
+		}
+		File tmp = new File(file.getPath() + ".tmp");
+		CRC32 crc = new CRC32();
+		DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp)), crc));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(out, fingerprint(sources));
+			// Sorted, so that the same configuration always gives the same file.
+			Map<String, String> props = new TreeMap<String, String>();
+			for (Map.Entry<String, String> e : conf) {
+				props.put(e.getKey(), e.getValue());
+			}
+			out.writeInt(props.size());
+			for (Map.Entry<String, String> e : props.entrySet()) {
+				writeString(out, e.getKey());
+				writeString(out, e.getValue());
+			}
+			// The checksum itself is not part of the checksum.
+			out.writeLong(crc.getValue());
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			if (!file.delete() || !tmp.renameTo(file)) {
+				throw new IOException("Failed to rename " + tmp + " to " + file);
+			}
+		}
+	}
+
+	private static String fingerprint(List<File> sources) {
+		StringBuilder sb = new StringBuilder();
+		for (File f : sources) {
+			sb.append(f.getAbsolutePath()).append(',').append(f.length()).append(',').append(f.lastModified())
+					.append(';');
+		}
+		sb.append("hbase=").append(VersionInfo.getVersion()).append(";hadoop=")
+				.append(org.apache.hadoop.util.VersionInfo.getVersion()).append(";classpath=")
+				.append(System.getProperty("java.class.path"));
+		return sb.toString();
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		Bytes.writeByteArray(out, s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return new String(Bytes.readByteArray(in), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,103 @@
+package jiq.hbase.bootstrap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Start and duration of named startup phases, which may run on several threads.
+ */
+public class PhaseTimer {
+	/**
+	 * One finished phase.
+	 */
+	public static class Phase {
+		private final String name;
+		private final String thread;
+		private final long offsetNanos;
+		private final long durationNanos;
+
+		Phase(String name, String thread, long offsetNanos, long durationNanos) {
+			this.name = name;
+			this.thread = thread;
+			this.offsetNanos = offsetNanos;
+			this.durationNanos = durationNanos;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getThread() {
+			return thread;
+		}
+
+		/**
+		 * Start of the phase relative to the creation of the timer.
+		 */
+		public long getOffsetMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(offsetNanos);
+		}
+
+		public long getMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(durationNanos);
+		}
+	}
+
+	private final long origin = System.nanoTime();
+	private final List<Phase> phases = new ArrayList<Phase>();
+
+	/**
+	 * @return the start time to pass to {@link #end(String, long)}
+	 */
+	public long begin() {
+		return System.nanoTime();
+	}
+
+	public void end(String name, long startNanos) {
+		long now = System.nanoTime();
+		Phase phase = new Phase(name, Thread.currentThread().getName(), startNanos - origin, now - startNanos);
+		synchronized (phases) {
+			phases.add(phase);
+		}
+	}
+
+	/**
+	 * Finished phases in start order.
+	 */
+	public List<Phase> getPhases() {
+		List<Phase> list;
+		synchronized (phases) {
+			list = new ArrayList<Phase>(phases);
+		}
+		Collections.sort(list, new Comparator<Phase>() {
+			@Override
+			public int compare(Phase a, Phase b) {
+				return Long.compare(a.offsetNanos, b.offsetNanos);
+			}
+		});
+		return list;
+	}
+
+	public long getElapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - origin);
+	}
+
+	/**
+	 * One line per phase, then the wall time against the sum of the phases, the difference being what the
+	 * overlap saved.
+	 */
+	public String summary() {
+		StringBuilder sb = new StringBuilder("Startup phases:");
+		long sum = 0;
+		for (Phase p : getPhases()) {
+			sum += p.getMillis();
+			sb.append(String.format("%n  %-12s +%5d ms %6d ms  [%s]", p.name, p.getOffsetMillis(), p.getMillis(),
+					p.thread));
+		}
+		sb.append(String.format("%n  wall %d ms, sum of phases %d ms", getElapsedMillis(), sum));
+		return sb.toString();
+	}
+}
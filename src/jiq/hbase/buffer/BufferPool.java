@@ -0,0 +1,301 @@
+package jiq.hbase.buffer;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+
+/**
+ * Pool of direct memory for copying cell data out of results without a heap array per value.<br>
+ * Buffers come in power-of-two size classes from {@value #MIN_SIZE_KEY} to {@value #MAX_SIZE_KEY}. Each class cuts
+ * slabs of {@value #SLAB_SIZE_KEY} bytes, allocated with {@link ByteBuffer#allocateDirect} on demand, into equal
+ * chunks kept on a free list, so after warm-up allocation and release touch no allocator and make no garbage but
+ * the small {@link PooledBuffer} object. Slabs are never given back; their total is capped by
+ * {@value #MAX_BYTES_KEY}. Requests above the largest class or beyond the cap get an unpooled heap buffer.<br>
+ * Every pooled buffer is watched by a phantom reference. A buffer that is garbage collected without its last
+ * {@link PooledBuffer#release()} is logged as a leak, with the allocation stack for one in
+ * {@value #LEAK_STACK_INTERVAL_KEY} allocations. Its chunk is not reused, since the caller may still hold the
+ * {@link ByteBuffer}, and stays counted as used. Leaks are checked on allocation.<br>
+ * Usage is published as the MBean {@code jiq.hbase:type=BufferPool,name=<name>}.
+ */
+public class BufferPool implements BufferPoolMBean, Closeable {
+	private final static Log LOG = LogFactory.getLog(BufferPool.class.getName());
+
+	public static final String ENABLED_KEY = "jiq.hbase.buffer.enabled";
+	public static final String MIN_SIZE_KEY = "jiq.hbase.buffer.min.size";
+	public static final String MAX_SIZE_KEY = "jiq.hbase.buffer.max.size";
+	public static final String SLAB_SIZE_KEY = "jiq.hbase.buffer.slab.size";
+	public static final String MAX_BYTES_KEY = "jiq.hbase.buffer.max.bytes";
+	/** Record the allocation stack of one in this many buffers, 0 for never. */
+	public static final String LEAK_STACK_INTERVAL_KEY = "jiq.hbase.buffer.leak.stack.interval";
+
+	/**
+	 * Watches one pooled buffer. Holds only the size of its chunk: a leaked chunk is never handed out again.
+	 */
+	static class LeakTracker extends PhantomReference<PooledBuffer> {
+		final int capacity;
+		final Throwable allocation;
+
+		LeakTracker(PooledBuffer buffer, ReferenceQueue<PooledBuffer> queue, int capacity, Throwable allocation) {
+			super(buffer, queue);
+			this.capacity = capacity;
+			this.allocation = allocation;
+		}
+	}
+
+	private final String name;
+	private final int minShift;
+	private final int maxShift;
+	private final int slabSize;
+	private final long maxBytes;
+	private final int stackInterval;
+	private final List<ConcurrentLinkedQueue<ByteBuffer>> free;
+	private final ReferenceQueue<PooledBuffer> collected = new ReferenceQueue<PooledBuffer>();
+	private final Set<LeakTracker> trackers =
+			Collections.newSetFromMap(new ConcurrentHashMap<LeakTracker, Boolean>());
+	private ObjectName registered = null;
+
+	private final AtomicLong allocations = new AtomicLong();
+	private final AtomicLong releases = new AtomicLong();
+	private final AtomicLong usedBytes = new AtomicLong();
+	private final AtomicLong reservedBytes = new AtomicLong();
+	private final AtomicLong unpooled = new AtomicLong();
+	private final AtomicLong leaks = new AtomicLong();
+
+	public BufferPool(String name, Configuration conf) {
+		this.name = name;
+		this.minShift = shift(conf.getInt(MIN_SIZE_KEY, 256));
+		this.maxShift = Math.max(minShift, shift(conf.getInt(MAX_SIZE_KEY, 1024 * 1024)));
+		this.slabSize = conf.getInt(SLAB_SIZE_KEY, 4 * 1024 * 1024);
+		this.maxBytes = conf.getLong(MAX_BYTES_KEY, 256L * 1024 * 1024);
+		this.stackInterval = conf.getInt(LEAK_STACK_INTERVAL_KEY, 128);
+		this.free = new ArrayList<ConcurrentLinkedQueue<ByteBuffer>>(maxShift - minShift + 1);
+		for (int i = minShift; i <= maxShift; i++) {
+			free.add(new ConcurrentLinkedQueue<ByteBuffer>());
+		}
+		register();
+	}
+
+	/**
+	 * log2 of the smallest power of two not below size.
+	 */
+	private static int shift(int size) {
+		return 32 - Integer.numberOfLeadingZeros(Math.max(1, size) - 1);
+	}
+
+	/**
+	 * A buffer with room for size bytes.
+	 */
+	public PooledBuffer allocate(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("Negative size " + size);
+		}
+		reclaimLeaks();
+		allocations.incrementAndGet();
+		int sizeClass = Math.max(0, shift(size) - minShift);
+		if (sizeClass < free.size()) {
+			ByteBuffer chunk = free.get(sizeClass).poll();
+			if (chunk == null) {
+				chunk = grow(sizeClass);
+			}
+			if (chunk != null) {
+				usedBytes.addAndGet(chunk.capacity());
+				return track(chunk, sizeClass, size);
+			}
+		}
+		unpooled.incrementAndGet();
+		return new PooledBuffer(this, ByteBuffer.allocate(size), -1, size);
+	}
+
+	/**
+	 * Copy of the bytes in a new buffer.
+	 */
+	public PooledBuffer copyOf(byte[] b, int off, int len) {
+		PooledBuffer buffer = allocate(len);
+		buffer.buffer().duplicate().put(b, off, len);
+		return buffer;
+	}
+
+	/**
+	 * Copy of the value of the cell, without the intermediate array of {@code CellUtil.cloneValue}.
+	 */
+	public PooledBuffer copyValue(Cell cell) {
+		return copyOf(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+	}
+
+	private PooledBuffer track(ByteBuffer chunk, int sizeClass, int size) {
+		PooledBuffer buffer = new PooledBuffer(this, chunk, sizeClass, size);
+		Throwable stack = null;
+		if (stackInterval > 0 && allocations.get() % stackInterval == 0) {
+			stack = new Throwable("Allocation of a leaked " + size + " byte buffer");
+		}
+		LeakTracker tracker = new LeakTracker(buffer, collected, chunk.capacity(), stack);
+		trackers.add(tracker);
+		buffer.tracker = tracker;
+		return buffer;
+	}
+
+	/**
+	 * Cuts a new slab for the size class into chunks, or returns null if the pool is at its maximum.
+	 */
+	private ByteBuffer grow(int sizeClass) {
+		int chunkSize = 1 << (sizeClass + minShift);
+		int slab = Math.max(chunkSize, slabSize - slabSize % chunkSize);
+		while (true) {
+			long reserved = reservedBytes.get();
+			if (reserved + slab > maxBytes) {
+				return null;
+			}
+			if (reservedBytes.compareAndSet(reserved, reserved + slab)) {
+				break;
+			}
+		}
+		ByteBuffer memory = ByteBuffer.allocateDirect(slab);
+		ByteBuffer first = null;
+		for (int off = 0; off < slab; off += chunkSize) {
+			memory.limit(off + chunkSize);
+			memory.position(off);
+			ByteBuffer chunk = memory.slice();
+			if (first == null) {
+				first = chunk;
+			} else {
+				free.get(sizeClass).offer(chunk);
+			}
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Buffer pool " + name + " added a " + slab + " byte slab of " + chunkSize + " byte buffers, "
+					+ reservedBytes.get() + " bytes reserved");
+		}
+		return first;
+	}
+
+	/**
+	 * Called by the last {@link PooledBuffer#release()}.
+	 */
+	void recycle(PooledBuffer buffer) {
+		releases.incrementAndGet();
+		if (buffer.sizeClass < 0) {
+			return;
+		}
+		trackers.remove(buffer.tracker);
+		buffer.tracker.clear();
+		usedBytes.addAndGet(-buffer.chunk.capacity());
+		free.get(buffer.sizeClass).offer(buffer.chunk);
+	}
+
+	private void reclaimLeaks() {
+		LeakTracker tracker;
+		while ((tracker = (LeakTracker) collected.poll()) != null) {
+			if (!trackers.remove(tracker)) {
+				continue;
+			}
+			// The ByteBuffer from buffer() does not reach its PooledBuffer and may still be in use, so the chunk is
+			// left out of the free list for good and its bytes stay counted as used.
+			leaks.incrementAndGet();
+			if (tracker.allocation != null) {
+				LOG.error("Buffer pool " + name + ": " + tracker.capacity
+						+ " byte buffer garbage collected without release", tracker.allocation);
+			} else {
+				LOG.error("Buffer pool " + name + ": " + tracker.capacity
+						+ " byte buffer garbage collected without release. Set "
+						+ LEAK_STACK_INTERVAL_KEY + " to 1 to find where it was allocated.");
+			}
+		}
+	}
+
+	private void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName on = new ObjectName("jiq.hbase:type=BufferPool,name=" + ObjectName.quote(name));
+			if (!server.isRegistered(on)) {
+				server.registerMBean(this, on);
+				registered = on;
+			}
+		} catch (Exception e) {
+			LOG.warn("Failed to register buffer pool " + name + " in JMX", e);
+		}
+	}
+
+	/**
+	 * Unregisters the MBean and logs buffers still in use. The memory is freed once the pool is unreachable.
+	 */
+	@Override
+	public synchronized void close() {
+		reclaimLeaks();
+		long active = getActiveBuffers();
+		if (active > 0) {
+			LOG.warn("Buffer pool " + name + " closed with " + active + " buffers not released");
+		}
+		if (registered != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+			} catch (Exception e) {
+				LOG.warn("Failed to unregister " + registered, e);
+			}
+			registered = null;
+		}
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getAllocations() {
+		return allocations.get();
+	}
+
+	@Override
+	public long getReleases() {
+		return releases.get();
+	}
+
+	@Override
+	public long getActiveBuffers() {
+		return allocations.get() - releases.get() - leaks.get();
+	}
+
+	@Override
+	public long getUsedBytes() {
+		return usedBytes.get();
+	}
+
+	@Override
+	public long getReservedBytes() {
+		return reservedBytes.get();
+	}
+
+	@Override
+	public long getUnpooledAllocations() {
+		return unpooled.get();
+	}
+
+	@Override
+	public long getLeaks() {
+		return leaks.get();
+	}
+
+	@Override
+	public String toString() {
+		return "BufferPool " + name + ": " + getActiveBuffers() + " active, " + getUsedBytes() + "/"
+				+ getReservedBytes() + " bytes used, " + getAllocations() + " allocations, " + getUnpooledAllocations()
+				+ " unpooled, " + getLeaks() + " leaks";
+	}
+}
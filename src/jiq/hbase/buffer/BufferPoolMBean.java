@@ -0,0 +1,37 @@
+package jiq.hbase.buffer;
+
+/**
+ * JMX view of a {@link BufferPool}.
+ */
+public interface BufferPoolMBean {
+	String getName();
+
+	long getAllocations();
+
+	long getReleases();
+
+	/**
+	 * Buffers allocated and not yet released.
+	 */
+	long getActiveBuffers();
+
+	/**
+	 * Capacity of the pooled buffers in use, including leaked ones.
+	 */
+	long getUsedBytes();
+
+	/**
+	 * Direct memory taken by slabs; it only grows, up to the configured maximum.
+	 */
+	long getReservedBytes();
+
+	/**
+	 * Allocations served from the heap because they were too large or the pool was exhausted.
+	 */
+	long getUnpooledAllocations();
+
+	/**
+	 * Buffers garbage collected without being released. Their memory is not reused and stays in the used bytes.
+	 */
+	long getLeaks();
+}
@@ -0,0 +1,60 @@
+package jiq.hbase.buffer;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.hbase.Cell;
+
+/**
+ * Formats cells as {@code row:family,qualifier,value} lines for output, with the bytes decoded as UTF-8.<br>
+ * Each line is assembled in one buffer from a {@link BufferPool}, kept from cell to cell, and decoded into a
+ * reused CharBuffer, so the returned String is the only heap allocation per cell instead of a copied array and a
+ * String for every part. Not thread safe; {@link #close()} gives the buffer back.
+ */
+public class CellFormatter implements Closeable {
+	private final BufferPool pool;
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private PooledBuffer line = null;
+	private CharBuffer chars = null;
+
+	public CellFormatter(BufferPool pool) {
+		this.pool = pool;
+	}
+
+	public String format(Cell cell) {
+		int size = cell.getRowLength() + cell.getFamilyLength() + cell.getQualifierLength() + cell.getValueLength() + 3;
+		if (line == null || line.buffer().capacity() < size) {
+			close();
+			int capacity = Math.max(256, Integer.highestOneBit(size - 1) << 1);
+			line = pool.allocate(capacity);
+			// UTF-8 never decodes to more chars than it has bytes.
+			chars = CharBuffer.allocate(capacity);
+		}
+		ByteBuffer b = line.buffer();
+		b.clear();
+		b.put(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength()).put((byte) ':');
+		b.put(cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength()).put((byte) ',');
+		b.put(cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength()).put((byte) ',');
+		b.put(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+		b.flip();
+		chars.clear();
+		decoder.reset();
+		decoder.decode(b, chars, true);
+		decoder.flush(chars);
+		chars.flip();
+		return chars.toString();
+	}
+
+	@Override
+	public void close() {
+		if (line != null) {
+			line.release();
+			line = null;
+		}
+	}
+}
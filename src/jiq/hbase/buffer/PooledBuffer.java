@@ -0,0 +1,87 @@
+package jiq.hbase.buffer;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A reference counted buffer from a {@link BufferPool}. It starts with one reference; {@link #retain()} adds one
+ * for every additional owner, and each owner calls {@link #release()} (or {@link #close()}) once. The last
+ * release returns the memory to the pool, after which neither this object nor its {@link ByteBuffer} may be used.
+ */
+public class PooledBuffer implements Closeable {
+	private static final AtomicIntegerFieldUpdater<PooledBuffer> REF_COUNT =
+			AtomicIntegerFieldUpdater.newUpdater(PooledBuffer.class, "refCount");
+
+	private final BufferPool pool;
+	private final ByteBuffer buffer;
+	// Size class in the pool, -1 for an unpooled buffer.
+	final int sizeClass;
+	final ByteBuffer chunk;
+	// Set by the pool right after construction for pooled buffers.
+	BufferPool.LeakTracker tracker = null;
+	private volatile int refCount = 1;
+
+	PooledBuffer(BufferPool pool, ByteBuffer chunk, int sizeClass, int size) {
+		this.pool = pool;
+		this.chunk = chunk;
+		this.sizeClass = sizeClass;
+		ByteBuffer b = chunk.duplicate();
+		b.clear();
+		b.limit(size);
+		this.buffer = b.slice();
+	}
+
+	/**
+	 * The memory of the buffer: position 0, limit and capacity the requested size.
+	 */
+	public ByteBuffer buffer() {
+		return buffer;
+	}
+
+	public boolean isDirect() {
+		return buffer.isDirect();
+	}
+
+	public int refCount() {
+		return refCount;
+	}
+
+	public PooledBuffer retain() {
+		while (true) {
+			int n = refCount;
+			if (n <= 0) {
+				throw new IllegalStateException("Buffer already released");
+			}
+			if (REF_COUNT.compareAndSet(this, n, n + 1)) {
+				return this;
+			}
+		}
+	}
+
+	/**
+	 * Drops one reference.
+	 *
+	 * @return true if this was the last one and the buffer went back to the pool
+	 */
+	public boolean release() {
+		while (true) {
+			int n = refCount;
+			if (n <= 0) {
+				throw new IllegalStateException("Buffer already released");
+			}
+			if (REF_COUNT.compareAndSet(this, n, n - 1)) {
+				if (n == 1) {
+					pool.recycle(this);
+					return true;
+				}
+				return false;
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		release();
+	}
+}
@@ -0,0 +1,218 @@
+package jiq.hbase.change;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import jiq.hbase.scan.ParallelScanner;
+import jiq.hbase.scan.PartitionTask;
+import jiq.hbase.scan.ScanPartition;
+
+/**
+ * Reads the cells of a table written since the last poll, instead of scanning the whole table.<br>
+ * Each table has a watermark in a {@link WatermarkStore}: every change with a timestamp below it has been
+ * delivered. A poll scans the time range [watermark - {@value #SKEW_KEY}, now), at most one window past the
+ * watermark, one sub-scan per region in parallel (see {@link ParallelScanner}); region servers skip the store
+ * files whose time range lies outside it. The records are sorted by timestamp and written to a {@link ChangeSink}
+ * in batches of {@value #BATCH_SIZE_KEY}; once the sink has flushed, the watermark moves to the end of the range in
+ * one atomic file update. A failed poll leaves the watermark where it was.<br>
+ * The records of a poll are held in memory, at most {@value #MAX_RECORDS_KEY} of them: a range with more is
+ * abandoned before anything is delivered and split in half, until it fits. The window starts at
+ * {@value #MAX_WINDOW_KEY} (unlimited if 0) and doubles after each poll that filled less than half of that, so a
+ * backlog skips quickly over quiet periods; it goes back to {@value #MAX_WINDOW_KEY} once a poll reaches the
+ * clock. The first poll of a table with no stored watermark starts at {@value #INITIAL_WATERMARK_KEY} and tries the
+ * whole range up to now at once, so a table read from 1970 costs a few splits, not one scan per window.<br>
+ * With {@value #RAW_KEY} (the default) the scans are raw, so all versions and the delete markers still in the
+ * store files are read; markers removed by a major compaction are not seen. The skew covers writes whose
+ * timestamps are behind the reader's clock (clock differences, client-set timestamps); records in the skew are
+ * delivered again by the next poll, so the sink should be idempotent.
+ */
+public class ChangeReader implements Closeable {
+	private final static Log LOG = LogFactory.getLog(ChangeReader.class.getName());
+
+	/** Watermark file used by the sample's readChanges(); not read by this class. */
+	public static final String WATERMARK_FILE_KEY = "jiq.hbase.change.watermark.file";
+	public static final String SKEW_KEY = "jiq.hbase.change.skew.ms";
+	public static final String MAX_WINDOW_KEY = "jiq.hbase.change.max.window.ms";
+	/** Watermark of a table polled for the first time; 0 reads everything. */
+	public static final String INITIAL_WATERMARK_KEY = "jiq.hbase.change.initial.watermark";
+	public static final String FAMILIES_KEY = "jiq.hbase.change.families";
+	public static final String RAW_KEY = "jiq.hbase.change.raw";
+	public static final String BATCH_SIZE_KEY = "jiq.hbase.change.batch.size";
+	public static final String CACHING_KEY = "jiq.hbase.change.caching";
+	/** Most records one poll holds in memory. */
+	public static final String MAX_RECORDS_KEY = "jiq.hbase.change.max.records";
+
+	/**
+	 * Thrown by the scan of a range with more than {@value #MAX_RECORDS_KEY} records, to stop it.
+	 */
+	private static final class TooManyChanges extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		TooManyChanges(long max) {
+			super("More than " + max + " changes in range");
+		}
+	}
+
+	private final TableName tableName;
+	private final WatermarkStore watermarks;
+	private final ParallelScanner scanner;
+	private final long skew;
+	private final long maxWindow;
+	private final long initialWatermark;
+	private final String[] families;
+	private final boolean raw;
+	private final int batchSize;
+	private final int caching;
+	private final long maxRecords;
+	// Time range of the next poll past the watermark; grows over quiet periods, shrinks on overflow.
+	private volatile long window;
+
+	public ChangeReader(Connection conn, TableName tableName, WatermarkStore watermarks) {
+		Configuration conf = conn.getConfiguration();
+		this.tableName = tableName;
+		this.watermarks = watermarks;
+		this.scanner = new ParallelScanner(conn, tableName);
+		this.skew = conf.getLong(SKEW_KEY, 60000L);
+		this.maxWindow = conf.getLong(MAX_WINDOW_KEY, 3600000L);
+		this.initialWatermark = conf.getLong(INITIAL_WATERMARK_KEY, 0L);
+		this.families = conf.getTrimmedStrings(FAMILIES_KEY);
+		this.raw = conf.getBoolean(RAW_KEY, true);
+		this.batchSize = Math.max(1, conf.getInt(BATCH_SIZE_KEY, 1000));
+		this.caching = conf.getInt(CACHING_KEY, 1000);
+		this.maxRecords = Math.max(1, conf.getLong(MAX_RECORDS_KEY, 1000000L));
+		this.window = maxWindow > 0 ? maxWindow : Long.MAX_VALUE;
+	}
+
+	public TableName getTableName() {
+		return tableName;
+	}
+
+	public long getWatermark() {
+		return watermarks.get(tableName, initialWatermark);
+	}
+
+	/**
+	 * Delivers the changes since the watermark and advances it.
+	 *
+	 * @return records delivered
+	 */
+	public long poll(ChangeSink sink) throws IOException {
+		long stored = watermarks.get(tableName, -1L);
+		long watermark = stored < 0 ? initialWatermark : stored;
+		long now = System.currentTimeMillis();
+		if (now <= watermark) {
+			// The clock is behind the watermark.
+			return 0;
+		}
+		long from = Math.max(0, watermark - skew);
+		long length = stored < 0 ? now - watermark : Math.min(now - watermark, window);
+		long start = System.currentTimeMillis();
+		List<ChangeRecord> changes;
+		while (true) {
+			try {
+				changes = read(from, watermark + length);
+				break;
+			} catch (TooManyChanges e) {
+				if (length <= 1) {
+					throw new IOException("More than " + maxRecords + " changes of " + tableName + " in ["
+							+ from + ", " + (watermark + 1) + "), raise " + MAX_RECORDS_KEY);
+				}
+				length /= 2;
+				window = length;
+				LOG.info("More than " + maxRecords + " changes of " + tableName + " past " + watermark
+						+ ", window now " + length + " ms");
+			}
+		}
+		long to = watermark + length;
+
+		for (int i = 0; i < changes.size(); i += batchSize) {
+			sink.write(changes.subList(i, Math.min(changes.size(), i + batchSize)));
+		}
+		sink.flush();
+		watermarks.set(tableName, to);
+		if (to >= now) {
+			window = maxWindow > 0 ? maxWindow : Long.MAX_VALUE;
+		} else if (changes.size() < maxRecords / 2 && length == window && window <= Long.MAX_VALUE / 2) {
+			window = length * 2;
+		}
+		LOG.info("Read " + changes.size() + " changes of " + tableName + " in [" + from + ", " + to + ") in "
+				+ (System.currentTimeMillis() - start) + " ms, watermark " + to);
+		return changes.size();
+	}
+
+	/**
+	 * The changes in [from, to), sorted.
+	 *
+	 * @throws TooManyChanges if there are more than {@value #MAX_RECORDS_KEY}
+	 */
+	private List<ChangeRecord> read(long from, long to) throws IOException {
+		Scan scan = new Scan();
+		scan.setTimeRange(from, to);
+		scan.setMaxVersions();
+		scan.setRaw(raw);
+		scan.setCaching(caching);
+		scan.setCacheBlocks(false);
+		for (String family : families) {
+			scan.addFamily(Bytes.toBytes(family));
+		}
+
+		final AtomicLong count = new AtomicLong();
+		List<List<ChangeRecord>> partitions = scanner.scan(scan, new PartitionTask<List<ChangeRecord>>() {
+			@Override
+			public List<ChangeRecord> process(ScanPartition partition, ResultScanner results) throws IOException {
+				List<ChangeRecord> changes = new ArrayList<ChangeRecord>();
+				for (Result result = results.next(); result != null; result = results.next()) {
+					if (count.addAndGet(result.size()) > maxRecords) {
+						// Stops the other partitions too.
+						throw new TooManyChanges(maxRecords);
+					}
+					for (Cell cell : result.rawCells()) {
+						changes.add(ChangeRecord.of(cell));
+					}
+				}
+				return changes;
+			}
+		});
+		List<ChangeRecord> changes = new ArrayList<ChangeRecord>((int) count.get());
+		for (List<ChangeRecord> p : partitions) {
+			changes.addAll(p);
+		}
+		Collections.sort(changes);
+		return changes;
+	}
+
+	/**
+	 * Polls until the watermark is within {@value #MAX_WINDOW_KEY} of the clock, or without a window past the
+	 * time of the call, for a backlog larger than one poll.
+	 *
+	 * @return records delivered
+	 */
+	public long catchUp(ChangeSink sink) throws IOException {
+		long start = System.currentTimeMillis();
+		long total = 0;
+		do {
+			total += poll(sink);
+		} while (maxWindow > 0 ? System.currentTimeMillis() - getWatermark() > maxWindow : getWatermark() < start);
+		return total;
+	}
+
+	@Override
+	public void close() {
+		scanner.close();
+	}
+}
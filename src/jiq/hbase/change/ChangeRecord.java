@@ -0,0 +1,110 @@
+package jiq.hbase.change;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * One cell written to a table, or one delete marker, as read by a {@link ChangeReader}.<br>
+ * Records order by timestamp, then row, family and qualifier, then type with puts before deletes, so that
+ * replaying them in order ends in the state of the table.
+ */
+public final class ChangeRecord implements Comparable<ChangeRecord> {
+	public enum Type {
+		PUT, DELETE, DELETE_FAMILY_VERSION, DELETE_COLUMN, DELETE_FAMILY;
+
+		static Type of(Cell cell) {
+			switch (KeyValue.Type.codeToType(cell.getTypeByte())) {
+			case Delete:
+				return DELETE;
+			case DeleteFamilyVersion:
+				return DELETE_FAMILY_VERSION;
+			case DeleteColumn:
+				return DELETE_COLUMN;
+			case DeleteFamily:
+				return DELETE_FAMILY;
+			default:
+				return PUT;
+			}
+		}
+	}
+
+	private final byte[] row;
+	private final byte[] family;
+	private final byte[] qualifier;
+	private final long timestamp;
+	private final Type type;
+	private final byte[] value;
+
+	public ChangeRecord(byte[] row, byte[] family, byte[] qualifier, long timestamp, Type type, byte[] value) {
+		this.row = row;
+		this.family = family;
+		this.qualifier = qualifier;
+		this.timestamp = timestamp;
+		this.type = type;
+		this.value = value;
+	}
+
+	static ChangeRecord of(Cell cell) {
+		Type type = Type.of(cell);
+		return new ChangeRecord(CellUtil.cloneRow(cell), CellUtil.cloneFamily(cell), CellUtil.cloneQualifier(cell),
+				cell.getTimestamp(), type, type == Type.PUT ? CellUtil.cloneValue(cell) : null);
+	}
+
+	public byte[] getRow() {
+		return row;
+	}
+
+	public byte[] getFamily() {
+		return family;
+	}
+
+	/**
+	 * Empty for family delete markers.
+	 */
+	public byte[] getQualifier() {
+		return qualifier;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public boolean isDelete() {
+		return type != Type.PUT;
+	}
+
+	/**
+	 * The value of a put, null for a delete marker.
+	 */
+	public byte[] getValue() {
+		return value;
+	}
+
+	@Override
+	public int compareTo(ChangeRecord o) {
+		if (timestamp != o.timestamp) {
+			return timestamp < o.timestamp ? -1 : 1;
+		}
+		int c = Bytes.compareTo(row, o.row);
+		if (c == 0) {
+			c = Bytes.compareTo(family, o.family);
+		}
+		if (c == 0) {
+			c = Bytes.compareTo(qualifier, o.qualifier);
+		}
+		return c != 0 ? c : type.compareTo(o.type);
+	}
+
+	@Override
+	public String toString() {
+		return type + " " + Bytes.toStringBinary(row) + ":" + Bytes.toStringBinary(family) + ","
+				+ Bytes.toStringBinary(qualifier) + "@" + timestamp
+				+ (value != null ? "=" + Bytes.toStringBinary(value) : "");
+	}
+}
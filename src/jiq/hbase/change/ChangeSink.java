@@ -0,0 +1,18 @@
+package jiq.hbase.change;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destination of the records of a {@link ChangeReader}.<br>
+ * A poll writes its records in order, in one or more batches, then flushes; the watermark advances only after the
+ * flush returns. A failed poll is read again, so the sink may see records a second time.
+ */
+public interface ChangeSink {
+	void write(List<ChangeRecord> changes) throws IOException;
+
+	/**
+	 * Makes the records written so far durable.
+	 */
+	void flush() throws IOException;
+}
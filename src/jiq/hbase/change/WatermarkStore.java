@@ -0,0 +1,125 @@
+package jiq.hbase.change;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Per-table watermarks of {@link ChangeReader}s, kept in a local file.<br>
+ * Every update rewrites the whole file to a temporary file, syncs it and renames it over the old one, so after a
+ * crash the file holds either the old or the new watermarks. File layout: magic, version, the table names and
+ * watermarks, and a CRC32 of everything before it.
+ */
+public class WatermarkStore {
+	private static final int MAGIC = 0x4A51574D; // "JQWM"
+	private static final int VERSION = 1;
+
+	private final File file;
+	private final Map<TableName, Long> watermarks = new TreeMap<TableName, Long>();
+
+	/**
+	 * Loads the file if it exists.
+	 *
+	 * @throws IOException if the file exists but is truncated, of another version or fails its checksum
+	 */
+	public WatermarkStore(File file) throws IOException {
+		this.file = file;
+		if (file.exists()) {
+			read();
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * The watermark of the table, or dflt if it has none yet.
+	 */
+	public synchronized long get(TableName tableName, long dflt) {
+		Long watermark = watermarks.get(tableName);
+		return watermark != null ? watermark : dflt;
+	}
+
+	/**
+	 * Sets the watermark of the table and writes the file. The watermark is unchanged if the write fails.
+	 */
+	public synchronized void set(TableName tableName, long watermark) throws IOException {
+		Long previous = watermarks.put(tableName, watermark);
+		try {
+			write();
+		} catch (IOException e) {
+			if (previous != null) {
+				watermarks.put(tableName, previous);
+			} else {
+				watermarks.remove(tableName);
+			}
+			throw e;
+		}
+	}
+
+	private void write() throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		CRC32 crc = new CRC32();
+		FileOutputStream fos = new FileOutputStream(tmp);
+		DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(fos), crc));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(watermarks.size());
+			for (Map.Entry<TableName, Long> e : watermarks.entrySet()) {
+				Bytes.writeByteArray(out, e.getKey().getName());
+				out.writeLong(e.getValue());
+			}
+			// The checksum itself is not part of the checksum.
+			out.writeLong(crc.getValue());
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			// Windows does not replace on rename.
+			if (!file.delete() || !tmp.renameTo(file)) {
+				throw new IOException("Failed to rename " + tmp + " to " + file);
+			}
+		}
+	}
+
+	private void read() throws IOException {
+		byte[] data = Files.readAllBytes(file.toPath());
+		if (data.length < Bytes.SIZEOF_LONG) {
+			throw new IOException(file + " is truncated");
+		}
+		int length = data.length - Bytes.SIZEOF_LONG;
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		if (Bytes.toLong(data, length) != crc.getValue()) {
+			throw new IOException("Checksum mismatch in " + file);
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, length));
+		if (in.readInt() != MAGIC) {
+			throw new IOException(file + " is not a watermark file");
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported watermark file version " + version + " in " + file);
+		}
+		int n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			watermarks.put(TableName.valueOf(Bytes.readByteArray(in)), in.readLong());
+		}
+	}
+}
@@ -0,0 +1,367 @@
+package jiq.hbase.connection;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.RegionLocations;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.ClusterConnection;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.RegionReplicaUtil;
+
+/**
+ * {@value #SIZE_KEY} connections used as one, so that a many-core client is not bound by the RPC client and the
+ * single socket per server of one connection.<br>
+ * {@link #connection()} returns a Connection that hands out Tables and BufferedMutators of the members according
+ * to {@value #ROUTING_KEY} (see {@link Routing}); Admin and RegionLocator come from the first member. Each
+ * connection keeps its own region location cache: when a table is first used through the group, the locations
+ * of the first member are copied into the others ({@value #SHARE_LOCATIONS_KEY}), so that the members do not each
+ * look up hbase:meta region by region.<br>
+ * A member found closed or aborted when it is picked is replaced by a new connection. Closing the group
+ * connection closes all members. The members are published as the MBean
+ * {@code jiq.hbase:type=ConnectionGroup,name=<name>}.
+ */
+public class ConnectionGroup implements ConnectionGroupMBean, Closeable {
+	private final static Log LOG = LogFactory.getLog(ConnectionGroup.class.getName());
+
+	/** Connections in the group; the group is used when it is above 1. */
+	public static final String SIZE_KEY = "jiq.hbase.connection.group.size";
+	/** table, server or round_robin (the default, which spreads even a single table over all members). */
+	public static final String ROUTING_KEY = "jiq.hbase.connection.group.routing";
+	public static final String SHARE_LOCATIONS_KEY = "jiq.hbase.connection.group.share.locations";
+
+	private final String name;
+	private final Configuration conf;
+	private final Routing routing;
+	private final boolean shareLocations;
+	private final AtomicReferenceArray<Connection> members;
+	private final AtomicLongArray routed;
+	private final AtomicInteger next = new AtomicInteger();
+	private final AtomicLong replacements = new AtomicLong();
+	private final Set<TableName> shared = Collections.newSetFromMap(new ConcurrentHashMap<TableName, Boolean>());
+	private volatile boolean closed = false;
+	private ObjectName registered = null;
+
+	/**
+	 * Group of first and {@value #SIZE_KEY} - 1 new connections with the same configuration.
+	 */
+	public ConnectionGroup(String name, Connection first) throws IOException {
+		this(name, first, first.getConfiguration().getInt(SIZE_KEY, 1));
+	}
+
+	public ConnectionGroup(String name, Connection first, int size) throws IOException {
+		this(name, open(first, size));
+	}
+
+	/**
+	 * Group of the given connections, which share one configuration.
+	 */
+	public ConnectionGroup(String name, List<Connection> connections) {
+		if (connections.isEmpty()) {
+			throw new IllegalArgumentException("Connection group " + name + " without connections");
+		}
+		this.name = name;
+		this.conf = connections.get(0).getConfiguration();
+		this.routing = Routing.valueOf(conf.getTrimmed(ROUTING_KEY, "round_robin").toUpperCase());
+		this.shareLocations = conf.getBoolean(SHARE_LOCATIONS_KEY, true);
+		this.members = new AtomicReferenceArray<Connection>(connections.toArray(new Connection[0]));
+		this.routed = new AtomicLongArray(members.length());
+		LOG.info("Connection group " + name + ": " + members.length() + " connections, routing by " + routing);
+		register();
+	}
+
+	private static List<Connection> open(Connection first, int size) throws IOException {
+		List<Connection> connections = new ArrayList<Connection>();
+		connections.add(first);
+		try {
+			while (connections.size() < size) {
+				connections.add(ConnectionFactory.createConnection(first.getConfiguration()));
+			}
+		} catch (IOException e) {
+			for (Connection c : connections.subList(1, connections.size())) {
+				closeQuietly(c);
+			}
+			throw e;
+		}
+		return connections;
+	}
+
+	/**
+	 * The group as one Connection.
+	 */
+	public Connection connection() {
+		return GroupProxy.connection(this);
+	}
+
+	public Configuration getConfiguration() {
+		return conf;
+	}
+
+	Routing routing() {
+		return routing;
+	}
+
+	/**
+	 * The first member, which also serves Admin, RegionLocator and the locations for routing by server.
+	 */
+	Connection primary() throws IOException {
+		return member(0);
+	}
+
+	/**
+	 * Index of the member for all operations on the table.
+	 */
+	int tableIndex(TableName tableName) {
+		return route(tableName.hashCode());
+	}
+
+	/**
+	 * Index of the member for the region server.
+	 */
+	int serverIndex(ServerName server) {
+		return route(server.hashCode());
+	}
+
+	/**
+	 * Index of the next member in turn.
+	 */
+	int nextIndex() {
+		return route(next.getAndIncrement());
+	}
+
+	private int route(int hash) {
+		int i = (hash & Integer.MAX_VALUE) % members.length();
+		routed.incrementAndGet(i);
+		return i;
+	}
+
+	int size() {
+		return members.length();
+	}
+
+	/**
+	 * Member i, reopened if it was closed or aborted.
+	 */
+	Connection member(int i) throws IOException {
+		Connection c = members.get(i);
+		if (!c.isClosed() && !c.isAborted()) {
+			return c;
+		}
+		synchronized (this) {
+			c = members.get(i);
+			if (!c.isClosed() && !c.isAborted()) {
+				return c;
+			}
+			if (closed) {
+				throw new IOException("Connection group " + name + " is closed");
+			}
+			LOG.warn("Connection " + i + " of group " + name + " is " + (c.isAborted() ? "aborted" : "closed")
+					+ ", opening a new one");
+			Connection fresh = ConnectionFactory.createConnection(conf);
+			members.set(i, fresh);
+			replacements.incrementAndGet();
+			closeQuietly(c);
+			if (i > 0) {
+				for (TableName tableName : shared) {
+					copyLocations(tableName, i);
+				}
+			}
+			return fresh;
+		}
+	}
+
+	/**
+	 * Copies the locations of the table from the first member to the others, once per table.
+	 */
+	void share(TableName tableName) {
+		if (!shareLocations || members.length() == 1 || !shared.add(tableName)) {
+			return;
+		}
+		for (int i = 1; i < members.length(); i++) {
+			copyLocations(tableName, i);
+		}
+	}
+
+	private void copyLocations(TableName tableName, int i) {
+		Connection c = members.get(i);
+		if (!(c instanceof ClusterConnection)) {
+			return;
+		}
+		try {
+			List<HRegionLocation> locations;
+			RegionLocator locator = primary().getRegionLocator(tableName);
+			try {
+				locations = locator.getAllRegionLocations();
+			} finally {
+				locator.close();
+			}
+			int regions = 0;
+			for (HRegionLocation location : locations) {
+				if (location.getServerName() != null
+						&& RegionReplicaUtil.isDefaultReplica(location.getRegionInfo())) {
+					((ClusterConnection) c).cacheLocation(tableName, new RegionLocations(location));
+					regions++;
+				}
+			}
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Copied " + regions + " region locations of " + tableName + " to connection " + i
+						+ " of group " + name);
+			}
+		} catch (IOException e) {
+			LOG.warn("Failed to copy the region locations of " + tableName + " to connection " + i + " of group "
+					+ name, e);
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * True if every member is aborted.
+	 */
+	public boolean isAborted() {
+		for (int i = 0; i < members.length(); i++) {
+			if (!members.get(i).isAborted()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void abort(String why, Throwable e) {
+		for (int i = 0; i < members.length(); i++) {
+			members.get(i).abort(why, e);
+		}
+	}
+
+	private static void closeQuietly(Connection c) {
+		if (c == null) {
+			return;
+		}
+		try {
+			c.close();
+		} catch (IOException e) {
+			LOG.warn("Failed to close a connection", e);
+		}
+	}
+
+	private void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName on = new ObjectName("jiq.hbase:type=ConnectionGroup,name=" + ObjectName.quote(name));
+			if (!server.isRegistered(on)) {
+				server.registerMBean(this, on);
+				registered = on;
+			}
+		} catch (Exception e) {
+			LOG.warn("Failed to register connection group " + name + " in JMX", e);
+		}
+	}
+
+	/**
+	 * Closes all members.
+	 *
+	 * @throws IOException the first failure, after trying all members
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		IOException error = null;
+		for (int i = 0; i < members.length(); i++) {
+			try {
+				members.get(i).close();
+			} catch (IOException e) {
+				if (error == null) {
+					error = e;
+				}
+			}
+		}
+		if (registered != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+			} catch (Exception e) {
+				LOG.warn("Failed to unregister " + registered, e);
+			}
+			registered = null;
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	@Override
+	public int getSize() {
+		return members.length();
+	}
+
+	@Override
+	public String getRouting() {
+		return routing.name();
+	}
+
+	@Override
+	public int getHealthyMembers() {
+		int healthy = 0;
+		for (int i = 0; i < members.length(); i++) {
+			Connection c = members.get(i);
+			if (!c.isClosed() && !c.isAborted()) {
+				healthy++;
+			}
+		}
+		return healthy;
+	}
+
+	@Override
+	public long getReplacements() {
+		return replacements.get();
+	}
+
+	@Override
+	public long[] getRouted() {
+		long[] counts = new long[routed.length()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = routed.get(i);
+		}
+		return counts;
+	}
+
+	@Override
+	public int getSharedTables() {
+		return shared.size();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("ConnectionGroup ").append(name).append(": ").append(getHealthyMembers())
+				.append('/').append(members.length()).append(" healthy, routing by ").append(routing)
+				.append(", routed");
+		for (long count : getRouted()) {
+			sb.append(' ').append(count);
+		}
+		return sb.append(", ").append(replacements.get()).append(" replacements").toString();
+	}
+}
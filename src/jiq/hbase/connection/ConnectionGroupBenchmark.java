@@ -0,0 +1,102 @@
+package jiq.hbase.connection;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import jiq.hbase.load.LoadReport;
+import jiq.hbase.load.LoadTest;
+import jiq.hbase.load.Operation;
+import jiq.security.LoginUtil;
+
+/**
+ * Runs the same {@link LoadTest} workload through {@link ConnectionGroup}s of increasing size and reports how the
+ * throughput scales with the number of connections.<br>
+ * From the command line:
+ * 
+ * <pre>
+ * java jiq.hbase.connection.ConnectionGroupBenchmark [-D key=value ...] [load | run | all]
+ * </pre>
+ * 
+ * The configuration is read from conf/ like {@code HBase.main()}, then the -D options; the workload is the one of
+ * LoadTest (jiq.hbase.load.*), and should use enough threads to load all connections, for example
+ * {@code -D jiq.hbase.load.threads=128}. {@code load} writes the rows once, {@code run} runs the workload once for
+ * each group size in {@value #SIZES_KEY}, {@code all} does both. The routing is {@value ConnectionGroup#ROUTING_KEY},
+ * round_robin by default; {@code table} would put the whole single-table workload on one member. It runs against the cluster only: an in-memory connection has no RPC client to contend on.
+ */
+public class ConnectionGroupBenchmark {
+	private final static Log LOG = LogFactory.getLog(ConnectionGroupBenchmark.class.getName());
+
+	public static final String SIZES_KEY = "jiq.hbase.connection.benchmark.sizes";
+
+	private ConnectionGroupBenchmark() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		String userdir = System.getProperty("user.dir") + File.separator + "conf" + File.separator;
+		Configuration conf = HBaseConfiguration.create();
+		conf.addResource(new Path(userdir + "core-site.xml"));
+		conf.addResource(new Path(userdir + "hdfs-site.xml"));
+		conf.addResource(new Path(userdir + "hbase-site.xml"));
+		String[] rest = new GenericOptionsParser(conf, args).getRemainingArgs();
+		String command = rest.length > 0 ? rest[0] : "all";
+		if (!"load".equals(command) && !"run".equals(command) && !"all".equals(command)) {
+			System.err.println("Usage: ConnectionGroupBenchmark [-D key=value ...] [load | run | all]");
+			System.exit(2);
+		}
+		LoginUtil.setJaasConf("Client", "jiq", userdir + "user.keytab");
+		LoginUtil.setZookeeperServerPrincipal("zookeeper.server.principal", "zookeeper.server.principal");
+		LoginUtil.login("jiq", userdir + "user.keytab", userdir + "krb5.conf", conf);
+
+		if (!"run".equals(command)) {
+			Connection conn = ConnectionFactory.createConnection(conf);
+			try {
+				new LoadTest(conn).load();
+			} finally {
+				conn.close();
+			}
+			if ("load".equals(command)) {
+				return;
+			}
+		}
+
+		int[] sizes = conf.getInts(SIZES_KEY);
+		if (sizes.length == 0) {
+			sizes = new int[] { 1, 2, 4, 8 };
+		}
+		List<LoadReport> reports = new ArrayList<LoadReport>();
+		for (int size : sizes) {
+			ConnectionGroup group = new ConnectionGroup("benchmark", ConnectionFactory.createConnection(conf), size);
+			try {
+				LOG.info("Running with " + size + " connections");
+				LoadReport report = new LoadTest(group.connection()).run();
+				LOG.info(report.format());
+				LOG.info(group);
+				reports.add(report);
+			} finally {
+				group.close();
+			}
+		}
+
+		StringBuilder sb = new StringBuilder("Throughput by number of connections:\n");
+		sb.append(String.format("%12s %12s %8s %12s %12s%n", "connections", "ops/s", "scaling", "read p50 us",
+				"read p99 us"));
+		double base = reports.get(0).getThroughput();
+		for (int i = 0; i < reports.size(); i++) {
+			LoadReport r = reports.get(i);
+			sb.append(String.format("%12d %12.0f %7.2fx %12d %12d%n", sizes[i], r.getThroughput(),
+					r.getThroughput() / Math.max(1e-9, base), r.getPercentile(Operation.READ, 50),
+					r.getPercentile(Operation.READ, 99)));
+		}
+		LOG.info(sb);
+	}
+}
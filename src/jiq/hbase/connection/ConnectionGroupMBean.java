@@ -0,0 +1,30 @@
+package jiq.hbase.connection;
+
+/**
+ * JMX view of a {@link ConnectionGroup}.
+ */
+public interface ConnectionGroupMBean {
+	int getSize();
+
+	String getRouting();
+
+	/**
+	 * Members neither closed nor aborted.
+	 */
+	int getHealthyMembers();
+
+	/**
+	 * Members reopened after they were found closed or aborted.
+	 */
+	long getReplacements();
+
+	/**
+	 * Operations, Tables and BufferedMutators routed to each member.
+	 */
+	long[] getRouted();
+
+	/**
+	 * Tables whose region locations were copied from the first member to the others.
+	 */
+	int getSharedTables();
+}
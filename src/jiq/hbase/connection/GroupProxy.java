@@ -0,0 +1,210 @@
+package jiq.hbase.connection;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+
+/**
+ * Dynamic proxies of {@link Connection} and {@link Table} over the members of a {@link ConnectionGroup}.<br>
+ * The Connection gives out the Tables and BufferedMutators of the member chosen by the routing. With
+ * {@link Routing#SERVER} the Table is a proxy that opens the table on the members as needed and sends each
+ * operation to the member of the region server of its row: the row of a Get, Put, Delete, Increment, Append or
+ * RowMutations, of the first element of a list, or the start row of a scan. Calls without a row (coprocessor
+ * ranges, the descriptor) go to the member of the table; write buffer settings and flushes go to all members.
+ */
+final class GroupProxy implements InvocationHandler {
+	// Table methods applied to the tables of all members.
+	private static final Set<String> BROADCAST = new HashSet<String>(Arrays.asList("setAutoFlush",
+			"setAutoFlushTo", "setWriteBufferSize", "flushCommits"));
+
+	private final ConnectionGroup group;
+	// Routing by server only.
+	private final TableName tableName;
+	private final Connection[] owners;
+	private final Table[] tables;
+	private RegionLocator locator = null;
+
+	private GroupProxy(ConnectionGroup group, TableName tableName) {
+		this.group = group;
+		this.tableName = tableName;
+		this.owners = tableName == null ? null : new Connection[group.size()];
+		this.tables = tableName == null ? null : new Table[group.size()];
+	}
+
+	static Connection connection(ConnectionGroup group) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new GroupProxy(group, null));
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		return tableName == null ? invokeConnection(method, args) : invokeTable(method, args);
+	}
+
+	private Object invokeConnection(Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if ("close".equals(name)) {
+			group.close();
+			return null;
+		} else if ("isClosed".equals(name)) {
+			return group.isClosed();
+		} else if ("isAborted".equals(name)) {
+			return group.isAborted();
+		} else if ("abort".equals(name)) {
+			group.abort((String) args[0], (Throwable) args[1]);
+			return null;
+		} else if ("getConfiguration".equals(name)) {
+			return group.getConfiguration();
+		} else if ("getTable".equals(name) || "getBufferedMutator".equals(name)) {
+			TableName table = args[0] instanceof BufferedMutatorParams ? ((BufferedMutatorParams) args[0])
+					.getTableName() : (TableName) args[0];
+			group.share(table);
+			switch (group.routing()) {
+			case SERVER:
+				if ("getTable".equals(name)) {
+					return Proxy.newProxyInstance(Table.class.getClassLoader(), new Class<?>[] { Table.class },
+							new GroupProxy(group, table));
+				}
+				return call(group.member(group.tableIndex(table)), method, args);
+			case ROUND_ROBIN:
+				return call(group.member(group.nextIndex()), method, args);
+			default:
+				return call(group.member(group.tableIndex(table)), method, args);
+			}
+		}
+		// Admin, RegionLocator, toString and the rest.
+		return call(group.primary(), method, args);
+	}
+
+	private Object invokeTable(Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if ("getName".equals(name)) {
+			return tableName;
+		} else if ("getConfiguration".equals(name)) {
+			return group.getConfiguration();
+		} else if ("close".equals(name)) {
+			close();
+			return null;
+		} else if (BROADCAST.contains(name)) {
+			Object result = null;
+			for (int i = 0; i < tables.length; i++) {
+				result = call(table(i), method, args);
+			}
+			return result;
+		} else if ("isAutoFlush".equals(name) || "getWriteBufferSize".equals(name)) {
+			return call(table(0), method, args);
+		}
+		byte[] row = row(name, args);
+		return call(table(row == null ? group.tableIndex(tableName) : memberOf(row)), method, args);
+	}
+
+	/**
+	 * The row an operation is routed by, null if it has none.
+	 */
+	private static byte[] row(String name, Object[] args) {
+		if (args == null || args.length == 0) {
+			return null;
+		}
+		Object first = args[0];
+		if ("getScanner".equals(name)) {
+			// getScanner(family[, qualifier]) scans the whole table.
+			return first instanceof Scan ? ((Scan) first).getStartRow() : HConstants.EMPTY_START_ROW;
+		}
+		if (first instanceof byte[]) {
+			return (byte[]) first;
+		} else if (first instanceof Row) {
+			return ((Row) first).getRow();
+		} else if (first instanceof List && !((List<?>) first).isEmpty() && ((List<?>) first).get(0) instanceof Row) {
+			return ((Row) ((List<?>) first).get(0)).getRow();
+		}
+		return null;
+	}
+
+	/**
+	 * Index of the member of the server of the row, from the location cache of the first member.
+	 */
+	private int memberOf(byte[] row) throws IOException {
+		HRegionLocation location;
+		try {
+			location = locator().getRegionLocation(row);
+		} catch (IOException e) {
+			return group.tableIndex(tableName);
+		}
+		if (location == null || location.getServerName() == null) {
+			return group.tableIndex(tableName);
+		}
+		return group.serverIndex(location.getServerName());
+	}
+
+	private synchronized RegionLocator locator() throws IOException {
+		if (locator == null) {
+			locator = group.primary().getRegionLocator(tableName);
+		}
+		return locator;
+	}
+
+	/**
+	 * The table on member i, reopened if the member was replaced.
+	 */
+	private synchronized Table table(int i) throws IOException {
+		Connection member = group.member(i);
+		if (owners[i] != member) {
+			if (tables[i] != null) {
+				try {
+					tables[i].close();
+				} catch (IOException e) {
+					// The old member is closed already.
+				}
+			}
+			tables[i] = member.getTable(tableName);
+			owners[i] = member;
+		}
+		return tables[i];
+	}
+
+	private synchronized void close() throws IOException {
+		IOException error = null;
+		for (int i = 0; i < tables.length; i++) {
+			if (tables[i] != null) {
+				try {
+					tables[i].close();
+				} catch (IOException e) {
+					error = e;
+				}
+				tables[i] = null;
+				owners[i] = null;
+			}
+		}
+		if (locator != null) {
+			locator.close();
+			locator = null;
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	private static Object call(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package jiq.hbase.connection;
+
+/**
+ * How a {@link ConnectionGroup} picks the connection of an operation.
+ */
+public enum Routing {
+	/**
+	 * All operations on a table go through the same connection, chosen by the hash of the table name.
+	 */
+	TABLE,
+	/**
+	 * Each operation goes through the connection of the region server of its row, so that every server is served by
+	 * one connection's sockets and the servers are spread over the connections.
+	 */
+	SERVER,
+	/**
+	 * Each Table or BufferedMutator comes from the next connection in turn.
+	 */
+	ROUND_ROBIN
+}
@@ -0,0 +1,491 @@
+package jiq.hbase.counter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Sums counter increments in memory and sends them as few batched {@link Increment}s, instead of one RPC per
+ * increment.<br>
+ * Each (row, family, qualifier) has a {@link StripedCounter}, so threads adding to the same hot counter do not
+ * contend on one value. Every {@value #FLUSH_INTERVAL_KEY} milliseconds, or as soon as {@value #FLUSH_COUNT_KEY}
+ * distinct counters are pending, the counters are drained and sent, one Increment per row with all its columns,
+ * in batches of {@value #BATCH_SIZE_KEY}, with the durability in {@value #DURABILITY_KEY} (SKIP_WAL, ASYNC_WAL,
+ * SYNC_WAL, FSYNC_WAL or USE_DEFAULT). A counter idle for a whole interval is removed.<br>
+ * A failed increment is added back and sent by the next flush, unless the cluster will never accept it (a
+ * {@link DoNotRetryIOException} such as an unknown column family): then it is logged, dropped and counted. The
+ * client's nonces make its own retries safe, but
+ * an increment that the server applied without the client learning it is sent again and counted twice. Pending
+ * sums are lost if the process dies: at most one interval of counts. {@link #close()} flushes everything added by
+ * increments that returned before it was called.<br>
+ * Counts are published as the MBean {@code jiq.hbase:type=IncrementCoalescer,table=<table>}.
+ */
+public class IncrementCoalescer implements IncrementCoalescerMBean, Closeable {
+	private final static Log LOG = LogFactory.getLog(IncrementCoalescer.class.getName());
+
+	public static final String ENABLED_KEY = "jiq.hbase.counter.enabled";
+	public static final String FLUSH_INTERVAL_KEY = "jiq.hbase.counter.flush.interval.ms";
+	/** Pending distinct counters that trigger a flush. */
+	public static final String FLUSH_COUNT_KEY = "jiq.hbase.counter.flush.count";
+	public static final String BATCH_SIZE_KEY = "jiq.hbase.counter.batch.size";
+	public static final String DURABILITY_KEY = "jiq.hbase.counter.durability";
+
+	/**
+	 * The pending sum of one counter cell. Retired when removed from the map; an add that finds it retired moves
+	 * what is left to the counter that replaced it.
+	 */
+	private static final class Counter {
+		final byte[] row;
+		final byte[] family;
+		final byte[] qualifier;
+		final StripedCounter sum = new StripedCounter();
+		volatile boolean retired = false;
+		// Flusher only: nothing was added during the last interval.
+		boolean idle = false;
+
+		Counter(byte[] row, byte[] family, byte[] qualifier) {
+			this.row = row;
+			this.family = family;
+			this.qualifier = qualifier;
+		}
+	}
+
+	private static final class CounterKey {
+		final byte[] row;
+		final byte[] family;
+		final byte[] qualifier;
+		final int hash;
+
+		CounterKey(byte[] row, byte[] family, byte[] qualifier) {
+			this.row = row;
+			this.family = family;
+			this.qualifier = qualifier;
+			this.hash = (Arrays.hashCode(row) * 31 + Arrays.hashCode(family)) * 31 + Arrays.hashCode(qualifier);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof CounterKey)) {
+				return false;
+			}
+			CounterKey k = (CounterKey) o;
+			return hash == k.hash && Bytes.equals(row, k.row) && Bytes.equals(family, k.family)
+					&& Bytes.equals(qualifier, k.qualifier);
+		}
+	}
+
+	private final Connection conn;
+	private final TableName tableName;
+	private final long flushInterval;
+	private final int flushCount;
+	private final int batchSize;
+	private final Durability durability;
+	private final ConcurrentMap<CounterKey, Counter> counters = new ConcurrentHashMap<CounterKey, Counter>();
+	private final AtomicBoolean flushRequested = new AtomicBoolean();
+	private final ScheduledExecutorService flusher;
+	private volatile boolean closed = false;
+	private ObjectName registered = null;
+
+	private final StripedCounter increments = new StripedCounter();
+	// Written by flush() only.
+	private volatile long cellsSent = 0;
+	private volatile long batches = 0;
+	private volatile long flushes = 0;
+	private volatile long failedCells = 0;
+	private volatile long droppedCells = 0;
+	private volatile long lastFlushMs = 0;
+
+	public IncrementCoalescer(Connection conn, TableName tableName) {
+		Configuration conf = conn.getConfiguration();
+		this.conn = conn;
+		this.tableName = tableName;
+		this.flushInterval = conf.getLong(FLUSH_INTERVAL_KEY, 1000L);
+		this.flushCount = Math.max(1, conf.getInt(FLUSH_COUNT_KEY, 10000));
+		this.batchSize = Math.max(1, conf.getInt(BATCH_SIZE_KEY, 1000));
+		this.durability = Durability.valueOf(conf.getTrimmed(DURABILITY_KEY, "USE_DEFAULT").toUpperCase());
+		this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+				.setNameFormat("increment-coalescer-" + tableName.getNameAsString()).setDaemon(true).build());
+		flusher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				flushQuietly();
+			}
+		}, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+		register();
+	}
+
+	public TableName getTableName() {
+		return tableName;
+	}
+
+	/**
+	 * Adds amount to the counter; it is sent by a later flush.
+	 */
+	public void increment(byte[] row, byte[] family, byte[] qualifier, long amount) {
+		if (closed) {
+			throw new IllegalStateException("Increment coalescer of " + tableName + " is closed");
+		}
+		increments.increment();
+		CounterKey key = new CounterKey(row, family, qualifier);
+		while (true) {
+			Counter c = counters.get(key);
+			if (c == null) {
+				Counter fresh = new Counter(row, family, qualifier);
+				c = counters.putIfAbsent(key, fresh);
+				if (c == null) {
+					c = fresh;
+					counterCreated();
+				}
+			}
+			c.sum.add(amount);
+			if (!c.retired) {
+				// The flusher retires before it drains: it will see this add.
+				return;
+			}
+			// Retired, maybe after its last drain: take back whatever is left, ours or not, and add it again.
+			amount = c.sum.drain();
+			if (amount == 0) {
+				return;
+			}
+		}
+	}
+
+	public void increment(byte[] row, byte[] family, byte[] qualifier) {
+		increment(row, family, qualifier, 1);
+	}
+
+	private void counterCreated() {
+		if (counters.size() >= flushCount && flushRequested.compareAndSet(false, true)) {
+			try {
+				flusher.execute(new Runnable() {
+					@Override
+					public void run() {
+						flushRequested.set(false);
+						flushQuietly();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// Closing: close() flushes.
+			}
+		}
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (IOException e) {
+			LOG.warn("Failed to flush the counters of " + tableName + ", retrying with the next flush", e);
+		}
+	}
+
+	/**
+	 * Sends the pending sums now.
+	 *
+	 * @throws IOException if some increments failed; they are added back and retried by the next flush
+	 */
+	public synchronized void flush() throws IOException {
+		flush(false);
+	}
+
+	private void flush(boolean retireAll) throws IOException {
+		long start = System.currentTimeMillis();
+		Map<byte[], Increment> rows = new TreeMap<byte[], Increment>(Bytes.BYTES_COMPARATOR);
+		int cells = 0;
+		for (Map.Entry<CounterKey, Counter> e : counters.entrySet()) {
+			Counter c = e.getValue();
+			long amount = c.sum.drain();
+			if (amount == 0 && !c.idle && !retireAll) {
+				c.idle = true;
+				continue;
+			}
+			if (amount == 0 || retireAll) {
+				c.retired = true;
+				counters.remove(e.getKey(), c);
+				amount += c.sum.drain();
+			} else {
+				c.idle = false;
+			}
+			if (amount == 0) {
+				continue;
+			}
+			Increment inc = rows.get(c.row);
+			if (inc == null) {
+				inc = new Increment(c.row);
+				inc.setDurability(durability);
+				rows.put(c.row, inc);
+			}
+			inc.addColumn(c.family, c.qualifier, amount);
+			cells++;
+		}
+		if (rows.isEmpty()) {
+			return;
+		}
+
+		List<Increment> pending = new ArrayList<Increment>(rows.values());
+		int failed = 0;
+		int dropped = 0;
+		IOException error = null;
+		Table table = conn.getTable(tableName);
+		try {
+			for (int i = 0; i < pending.size(); i += batchSize) {
+				List<Increment> batch = pending.subList(i, Math.min(pending.size(), i + batchSize));
+				Object[] results = new Object[batch.size()];
+				try {
+					table.batch(new ArrayList<Row>(batch), results);
+				} catch (IOException ex) {
+					error = ex;
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					error = new InterruptedIOException("Interrupted flushing the counters of " + tableName);
+				}
+				batches++;
+				for (int j = 0; j < batch.size(); j++) {
+					if (results[j] instanceof Result) {
+						continue;
+					}
+					if (isPermanent(results[j])) {
+						dropped += drop(batch.get(j), (Throwable) results[j]);
+					} else {
+						failed += putBack(batch.get(j));
+					}
+				}
+				if (error instanceof InterruptedIOException) {
+					for (Increment inc : pending.subList(i + batch.size(), pending.size())) {
+						failed += putBack(inc);
+					}
+					break;
+				}
+			}
+		} finally {
+			table.close();
+		}
+		cellsSent += cells - failed - dropped;
+		failedCells += failed;
+		droppedCells += dropped;
+		flushes++;
+		lastFlushMs = System.currentTimeMillis() - start;
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Flushed " + (cells - failed - dropped) + " counters of " + rows.size() + " rows of " + tableName + " in "
+					+ lastFlushMs + " ms");
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/**
+	 * Whether the result of an action is an error that retrying cannot fix.
+	 */
+	private static boolean isPermanent(Object result) {
+		return result instanceof DoNotRetryIOException || result instanceof IllegalArgumentException;
+	}
+
+	/**
+	 * Logs and discards an increment the cluster will never accept.
+	 *
+	 * @return cells dropped
+	 */
+	private int drop(Increment inc, Throwable cause) {
+		int cells = 0;
+		for (NavigableMap<byte[], Long> f : inc.getFamilyMapOfLongs().values()) {
+			cells += f.size();
+		}
+		LOG.error("Dropped the increment of " + cells + " counters of row " + Bytes.toStringBinary(inc.getRow())
+				+ " of " + tableName, cause);
+		return cells;
+	}
+
+	/**
+	 * Adds the amounts of a failed increment back to the pending counters.
+	 *
+	 * @return cells put back
+	 */
+	private int putBack(Increment inc) {
+		int cells = 0;
+		for (Map.Entry<byte[], NavigableMap<byte[], Long>> f : inc.getFamilyMapOfLongs().entrySet()) {
+			for (Map.Entry<byte[], Long> q : f.getValue().entrySet()) {
+				addBack(inc.getRow(), f.getKey(), q.getKey(), q.getValue());
+				cells++;
+			}
+		}
+		return cells;
+	}
+
+	private void addBack(byte[] row, byte[] family, byte[] qualifier, long amount) {
+		CounterKey key = new CounterKey(row, family, qualifier);
+		Counter c = counters.get(key);
+		if (c == null) {
+			Counter fresh = new Counter(row, family, qualifier);
+			c = counters.putIfAbsent(key, fresh);
+			if (c == null) {
+				c = fresh;
+			}
+		}
+		// Only the flusher retires counters, and it is running this: c is not retired.
+		c.sum.add(amount);
+	}
+
+	private void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName on = new ObjectName("jiq.hbase:type=IncrementCoalescer,table="
+					+ ObjectName.quote(tableName.getNameAsString()));
+			if (!server.isRegistered(on)) {
+				server.registerMBean(this, on);
+				registered = on;
+			}
+		} catch (Exception e) {
+			LOG.warn("Failed to register the increment coalescer of " + tableName + " in JMX", e);
+		}
+	}
+
+	/**
+	 * Stops accepting increments and sends everything pending, retrying failed increments up to three times.
+	 *
+	 * @throws IOException if some counts could not be sent; they are lost
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		flusher.shutdown();
+		try {
+			flusher.awaitTermination(flushInterval + 60000, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			IOException error = null;
+			for (int attempt = 0; attempt < 3; attempt++) {
+				try {
+					synchronized (this) {
+						flush(true);
+					}
+					error = null;
+					break;
+				} catch (IOException e) {
+					error = e;
+					LOG.warn("Failed to flush the counters of " + tableName + " on close", e);
+				}
+			}
+			if (error != null || !counters.isEmpty()) {
+				throw new IOException("Increment coalescer of " + tableName + " closed with " + counters.size()
+						+ " counters not sent", error);
+			}
+		} finally {
+			if (registered != null) {
+				try {
+					ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+				} catch (Exception e) {
+					LOG.warn("Failed to unregister " + registered, e);
+				}
+				registered = null;
+			}
+		}
+	}
+
+	@Override
+	public String getTable() {
+		return tableName.getNameAsString();
+	}
+
+	@Override
+	public String getDurability() {
+		return durability.name();
+	}
+
+	@Override
+	public long getIncrements() {
+		return increments.sum();
+	}
+
+	@Override
+	public long getCellsSent() {
+		return cellsSent;
+	}
+
+	@Override
+	public double getCoalescingRatio() {
+		long sent = cellsSent;
+		return sent == 0 ? 0 : (double) getIncrements() / sent;
+	}
+
+	@Override
+	public long getBatches() {
+		return batches;
+	}
+
+	@Override
+	public long getFlushes() {
+		return flushes;
+	}
+
+	@Override
+	public long getFailedCells() {
+		return failedCells;
+	}
+
+	@Override
+	public long getDroppedCells() {
+		return droppedCells;
+	}
+
+	@Override
+	public int getPendingCounters() {
+		return counters.size();
+	}
+
+	@Override
+	public long getLastFlushMs() {
+		return lastFlushMs;
+	}
+
+	@Override
+	public String toString() {
+		return "IncrementCoalescer " + tableName + ": " + getIncrements() + " increments sent as " + cellsSent
+				+ " cells in " + batches + " batches, coalescing ratio "
+				+ String.format("%.1f", getCoalescingRatio()) + ", " + failedCells + " failed, " + droppedCells
+				+ " dropped, " + getPendingCounters() + " pending";
+	}
+}
@@ -0,0 +1,46 @@
+package jiq.hbase.counter;
+
+/**
+ * JMX view of an {@link IncrementCoalescer}.
+ */
+public interface IncrementCoalescerMBean {
+	String getTable();
+
+	String getDurability();
+
+	/**
+	 * Calls of increment().
+	 */
+	long getIncrements();
+
+	/**
+	 * Counter cells sent, after coalescing.
+	 */
+	long getCellsSent();
+
+	/**
+	 * Increments per cell sent.
+	 */
+	double getCoalescingRatio();
+
+	/**
+	 * Batch calls sent.
+	 */
+	long getBatches();
+
+	long getFlushes();
+
+	/**
+	 * Cells whose increment failed and was put back for the next flush.
+	 */
+	long getFailedCells();
+
+	/**
+	 * Cells whose increment failed with an error that retrying cannot fix, and was discarded.
+	 */
+	long getDroppedCells();
+
+	int getPendingCounters();
+
+	long getLastFlushMs();
+}
@@ -0,0 +1,91 @@
+package jiq.hbase.counter;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sum updated from many threads, after {@code java.util.concurrent.atomic.LongAdder}, which the Java 7 runtime
+ * lacks.<br>
+ * Uncontended adds go to one base value. The first add that loses a CAS on it switches the counter to an array
+ * of stripes, one cache line apart so that stripes do not share a line; each thread then adds to the stripe of a
+ * random probe it keeps, and moves to another stripe when it meets contention there. Unlike
+ * {@code LongAdder.sumThenReset()}, {@link #drain()} takes every part with an atomic get-and-set, so an add
+ * racing with it is counted by this drain or by the next one, never lost or counted twice.
+ */
+final class StripedCounter {
+	// Longs per cache line: stripe i lives at index i * PAD.
+	private static final int PAD = 8;
+	private static final int MAX_STRIPES;
+	static {
+		int n = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+		MAX_STRIPES = Math.min(64, n);
+	}
+
+	private static final ThreadLocal<int[]> PROBE = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[] { ThreadLocalRandom.current().nextInt() | 1 };
+		}
+	};
+
+	private final AtomicLong base = new AtomicLong();
+	private final AtomicReference<AtomicLongArray> stripes = new AtomicReference<AtomicLongArray>();
+
+	void add(long x) {
+		AtomicLongArray s = stripes.get();
+		if (s == null) {
+			long b = base.get();
+			if (base.compareAndSet(b, b + x)) {
+				return;
+			}
+			stripes.compareAndSet(null, new AtomicLongArray(MAX_STRIPES * PAD));
+			s = stripes.get();
+		}
+		int[] probe = PROBE.get();
+		int i = (probe[0] & (MAX_STRIPES - 1)) * PAD;
+		long v = s.get(i);
+		if (!s.compareAndSet(i, v, v + x)) {
+			// Contended: add anyway, and rehash the probe (xorshift) for the next add.
+			s.addAndGet(i, x);
+			int h = probe[0];
+			h ^= h << 13;
+			h ^= h >>> 17;
+			h ^= h << 5;
+			probe[0] = h;
+		}
+	}
+
+	void increment() {
+		add(1);
+	}
+
+	/**
+	 * Current sum; not a snapshot if adds are in progress.
+	 */
+	long sum() {
+		long sum = base.get();
+		AtomicLongArray s = stripes.get();
+		if (s != null) {
+			for (int i = 0; i < s.length(); i += PAD) {
+				sum += s.get(i);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Takes the sum and resets the counter to zero.
+	 */
+	long drain() {
+		long sum = base.getAndSet(0);
+		AtomicLongArray s = stripes.get();
+		if (s != null) {
+			for (int i = 0; i < s.length(); i += PAD) {
+				sum += s.getAndSet(i, 0);
+			}
+		}
+		return sum;
+	}
+}
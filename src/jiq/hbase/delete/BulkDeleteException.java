@@ -0,0 +1,24 @@
+package jiq.hbase.delete;
+
+import java.io.IOException;
+
+/**
+ * A bulk delete that stopped before the end, with what it had deleted by then.
+ */
+public class BulkDeleteException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	private final transient BulkDeleteProgress progress;
+
+	BulkDeleteException(String message, BulkDeleteProgress progress, Throwable cause) {
+		super(message, cause);
+		this.progress = progress;
+	}
+
+	/**
+	 * Counts at the time of the failure, with the progress of every partition.
+	 */
+	public BulkDeleteProgress getProgress() {
+		return progress;
+	}
+}
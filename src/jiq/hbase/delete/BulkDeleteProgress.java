@@ -0,0 +1,138 @@
+package jiq.hbase.delete;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import jiq.hbase.scan.ScanPartition;
+
+/**
+ * Snapshot of the progress of a bulk delete, also used as its final result.
+ */
+public class BulkDeleteProgress {
+	/**
+	 * What one region partition handed to the cluster.
+	 */
+	public static class Partition {
+		private final ScanPartition partition;
+		private final long rowsDeleted;
+		private final byte[] lastRow;
+		private final boolean done;
+
+		Partition(ScanPartition partition, long rowsDeleted, byte[] lastRow, boolean done) {
+			this.partition = partition;
+			this.rowsDeleted = rowsDeleted;
+			this.lastRow = lastRow;
+			this.done = done;
+		}
+
+		public ScanPartition getPartition() {
+			return partition;
+		}
+
+		/**
+		 * Row deletes handed to the mutator; all of them were flushed before the result was built.
+		 */
+		public long getRowsDeleted() {
+			return rowsDeleted;
+		}
+
+		/**
+		 * Last row handed to the mutator, null if none. A rerun of the partition can start after it.
+		 */
+		public byte[] getLastRow() {
+			return lastRow;
+		}
+
+		/**
+		 * Whether the partition was scanned to its end.
+		 */
+		public boolean isDone() {
+			return done;
+		}
+
+		@Override
+		public String toString() {
+			return partition + ": deleted " + rowsDeleted + (lastRow == null ? "" : " up to "
+					+ Bytes.toStringBinary(lastRow)) + (done ? ", done" : ", stopped");
+		}
+	}
+
+	private final int regionsDone;
+	private final int regionsTotal;
+	private final long rowsMatched;
+	private final long rowsDeleted;
+	private final long failedDeletes;
+	private final long elapsedMs;
+	private final boolean dryRun;
+	private final List<Partition> partitions;
+
+	BulkDeleteProgress(int regionsDone, int regionsTotal, long rowsMatched, long rowsDeleted, long failedDeletes,
+			long elapsedMs, boolean dryRun) {
+		this(regionsDone, regionsTotal, rowsMatched, rowsDeleted, failedDeletes, elapsedMs, dryRun,
+				Collections.<Partition> emptyList());
+	}
+
+	BulkDeleteProgress(int regionsDone, int regionsTotal, long rowsMatched, long rowsDeleted, long failedDeletes,
+			long elapsedMs, boolean dryRun, List<Partition> partitions) {
+		this.regionsDone = regionsDone;
+		this.regionsTotal = regionsTotal;
+		this.rowsMatched = rowsMatched;
+		this.rowsDeleted = rowsDeleted;
+		this.failedDeletes = failedDeletes;
+		this.elapsedMs = elapsedMs;
+		this.dryRun = dryRun;
+		this.partitions = partitions;
+	}
+
+	public int getRegionsDone() {
+		return regionsDone;
+	}
+
+	public int getRegionsTotal() {
+		return regionsTotal;
+	}
+
+	/**
+	 * Rows selected by the range and predicate so far.
+	 */
+	public long getRowsMatched() {
+		return rowsMatched;
+	}
+
+	/**
+	 * Row deletes handed to the cluster so far; always 0 in a dry run.
+	 */
+	public long getRowsDeleted() {
+		return rowsDeleted;
+	}
+
+	/**
+	 * Row deletes the cluster rejected after all retries.
+	 */
+	public long getFailedDeletes() {
+		return failedDeletes;
+	}
+
+	public long getElapsedMs() {
+		return elapsedMs;
+	}
+
+	public boolean isDryRun() {
+		return dryRun;
+	}
+
+	/**
+	 * Per partition progress; only in the final result, not in the snapshots passed to a progress listener.
+	 */
+	public List<Partition> getPartitions() {
+		return partitions;
+	}
+
+	@Override
+	public String toString() {
+		return (dryRun ? "[dry run] " : "") + "regions " + regionsDone + "/" + regionsTotal + ", matched "
+				+ rowsMatched + ", deleted " + rowsDeleted + ", failed " + failedDeletes + ", " + elapsedMs + " ms";
+	}
+}
@@ -0,0 +1,215 @@
+package jiq.hbase.delete;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FilterList.Operator;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+
+import jiq.hbase.scan.ParallelScanner;
+import jiq.hbase.scan.PartitionTask;
+import jiq.hbase.scan.ScanPartition;
+import jiq.hbase.throttle.AdaptiveRateLimiter;
+
+/**
+ * Deletes all rows of a key range that match an optional predicate.<br>
+ * The range is scanned region by region in parallel with a key-only projection: {@link KeyOnlyFilter} strips the
+ * values, and without a predicate {@link FirstKeyOnlyFilter} returns a single cell per row. Row deletes go through
+ * one shared {@link BufferedMutator}, paced by a rate limit of {@value #RATE_KEY} rows per second. A dry run only
+ * counts the matching rows.<br>
+ * If a region fails, the others stop at their next row and the deletes handed out so far are flushed; the
+ * {@link BulkDeleteException} then tells, per partition, how far the deletes went.
+ */
+public class BulkDeleter {
+	private final static Log LOG = LogFactory.getLog(BulkDeleter.class.getName());
+
+	/** Maximum rows deleted per second over all regions, 0 for no limit. */
+	public static final String RATE_KEY = "jiq.hbase.bulkdelete.rate";
+	public static final String SCAN_CACHING_KEY = "jiq.hbase.bulkdelete.scan.caching";
+	/** Matched rows between two progress reports. */
+	public static final String PROGRESS_INTERVAL_KEY = "jiq.hbase.bulkdelete.progress.interval";
+
+	/**
+	 * Receives progress snapshots. Called from scan threads.
+	 */
+	public interface ProgressListener {
+		void onProgress(BulkDeleteProgress progress);
+	}
+
+	private final Connection conn;
+	private final TableName tableName;
+	private final double rate;
+	private final int scanCaching;
+	private final long progressInterval;
+	private boolean dryRun = false;
+	private ProgressListener listener = null;
+
+	public BulkDeleter(Connection conn, TableName tableName) {
+		Configuration conf = conn.getConfiguration();
+		this.conn = conn;
+		this.tableName = tableName;
+		this.rate = conf.getFloat(RATE_KEY, 0f);
+		this.scanCaching = conf.getInt(SCAN_CACHING_KEY, 1000);
+		this.progressInterval = Math.max(1, conf.getLong(PROGRESS_INTERVAL_KEY, 100000L));
+	}
+
+	/**
+	 * In a dry run rows are only counted, nothing is deleted.
+	 */
+	public void setDryRun(boolean dryRun) {
+		this.dryRun = dryRun;
+	}
+
+	public void setProgressListener(ProgressListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Deletes the rows in [startRow, stopRow) accepted by the predicate.
+	 *
+	 * @param predicate server side filter selecting the rows, or null to delete the whole range
+	 * @return the final counts
+	 */
+	public BulkDeleteProgress delete(byte[] startRow, byte[] stopRow, Filter predicate) throws IOException {
+		Scan scan = new Scan(startRow, stopRow);
+		scan.setCaching(scanCaching);
+		scan.setCacheBlocks(false);
+		if (predicate == null) {
+			scan.setFilter(new FilterList(Operator.MUST_PASS_ALL, new FirstKeyOnlyFilter(), new KeyOnlyFilter()));
+		} else {
+			// The predicate still sees the values; KeyOnlyFilter only strips them from what is returned.
+			scan.setFilter(new FilterList(Operator.MUST_PASS_ALL, predicate, new KeyOnlyFilter()));
+		}
+
+		final long start = System.currentTimeMillis();
+		final AtomicLong matched = new AtomicLong();
+		final AtomicLong deleted = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		final AtomicInteger regionsDone = new AtomicInteger();
+		final AdaptiveRateLimiter limiter = rate > 0 ? AdaptiveRateLimiter.fixed(rate) : null;
+
+		BufferedMutator mutator = null;
+		ParallelScanner scanner = new ParallelScanner(conn, tableName);
+		try {
+			if (!dryRun) {
+				mutator = conn.getBufferedMutator(new BufferedMutatorParams(tableName)
+						.listener(new BufferedMutator.ExceptionListener() {
+							@Override
+							public void onException(RetriesExhaustedWithDetailsException e, BufferedMutator m) {
+								// Keep going; the failed rows are reported in the result.
+								failed.addAndGet(e.getNumExceptions());
+								LOG.warn("Failed to delete " + e.getNumExceptions() + " rows of " + tableName, e);
+							}
+						}));
+			}
+			final BufferedMutator m = mutator;
+			List<ScanPartition> partitions = scanner.partitions(scan);
+			final int total = partitions.size();
+			// Written by the task of each partition, read after all tasks have ended.
+			final long[] deletedBy = new long[total];
+			final byte[][] lastRows = new byte[total][];
+			final boolean[] done = new boolean[total];
+			LOG.info((dryRun ? "Counting" : "Deleting") + " rows of " + tableName + " in " + total + " regions.");
+			try {
+				scanner.scan(partitions, scan, new PartitionTask<Void>() {
+					@Override
+					public Void process(ScanPartition partition, ResultScanner rs) throws IOException {
+						int i = partition.getIndex();
+						for (Result r = rs.next(); r != null; r = rs.next()) {
+							if (m != null) {
+								if (limiter != null) {
+									try {
+										limiter.acquire(1);
+									} catch (InterruptedException e) {
+										Thread.currentThread().interrupt();
+										throw new InterruptedIOException("Interrupted during bulk delete of "
+												+ tableName);
+									}
+								}
+								m.mutate(new Delete(r.getRow()));
+								deleted.incrementAndGet();
+								deletedBy[i]++;
+								lastRows[i] = r.getRow();
+							}
+							if (matched.incrementAndGet() % progressInterval == 0) {
+								report(regionsDone.get(), total, matched, deleted, failed, start);
+							}
+						}
+						done[i] = true;
+						report(regionsDone.incrementAndGet(), total, matched, deleted, failed, start);
+						return null;
+					}
+				});
+			} catch (IOException e) {
+				// Every task has ended: what reached the mutator is sent before the progress is reported.
+				if (mutator != null) {
+					mutator.flush();
+				}
+				BulkDeleteProgress progress = result(partitions, deletedBy, lastRows, done, matched, deleted, failed,
+						start);
+				LOG.error("Bulk delete of " + tableName + " stopped: " + progress + ", partitions "
+						+ progress.getPartitions());
+				throw new BulkDeleteException("Bulk delete of " + tableName + " failed after " + progress, progress,
+						e);
+			}
+			if (mutator != null) {
+				mutator.flush();
+			}
+			return result(partitions, deletedBy, lastRows, done, matched, deleted, failed, start);
+		} finally {
+			scanner.close();
+			if (mutator != null) {
+				mutator.close();
+			}
+		}
+	}
+
+	private BulkDeleteProgress result(List<ScanPartition> partitions, long[] deletedBy, byte[][] lastRows,
+			boolean[] done, AtomicLong matched, AtomicLong deleted, AtomicLong failed, long start) {
+		List<BulkDeleteProgress.Partition> progress = new ArrayList<BulkDeleteProgress.Partition>(partitions.size());
+		int regions = 0;
+		for (ScanPartition p : partitions) {
+			int i = p.getIndex();
+			progress.add(new BulkDeleteProgress.Partition(p, deletedBy[i], lastRows[i], done[i]));
+			if (done[i]) {
+				regions++;
+			}
+		}
+		return new BulkDeleteProgress(regions, partitions.size(), matched.get(), deleted.get(), failed.get(),
+				System.currentTimeMillis() - start, dryRun, progress);
+	}
+
+	private void report(int done, int total, AtomicLong matched, AtomicLong deleted, AtomicLong failed, long start) {
+		BulkDeleteProgress progress = snapshot(done, total, matched, deleted, failed, start);
+		if (listener != null) {
+			listener.onProgress(progress);
+		} else if (LOG.isDebugEnabled()) {
+			LOG.debug("Bulk delete of " + tableName + ": " + progress);
+		}
+	}
+
+	private BulkDeleteProgress snapshot(int done, int total, AtomicLong matched, AtomicLong deleted, AtomicLong failed,
+			long start) {
+		return new BulkDeleteProgress(done, total, matched.get(), deleted.get(), failed.get(),
+				System.currentTimeMillis() - start, dryRun);
+	}
+}
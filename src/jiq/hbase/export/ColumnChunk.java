@@ -0,0 +1,129 @@
+package jiq.hbase.export;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * The values of one column in one {@link RowGroup}, decoded.
+ */
+public final class ColumnChunk {
+	private final byte[] family;
+	private final byte[] qualifier;
+	private final BitSet present;
+	private final long[] timestamps;
+	// Per row: the value, or for a dictionary chunk the code.
+	private final byte[][] values;
+	private final int[] codes;
+	private final byte[][] dictionary;
+
+	private ColumnChunk(byte[] family, byte[] qualifier, BitSet present, long[] timestamps, byte[][] values,
+			int[] codes, byte[][] dictionary) {
+		this.family = family;
+		this.qualifier = qualifier;
+		this.present = present;
+		this.timestamps = timestamps;
+		this.values = values;
+		this.codes = codes;
+		this.dictionary = dictionary;
+	}
+
+	static ColumnChunk decode(byte[] name, ByteBuffer b, int rows) throws IOException {
+		int familyLength = name[0];
+		byte[] family = new byte[familyLength];
+		System.arraycopy(name, 1, family, 0, familyLength);
+		byte[] qualifier = new byte[name.length - 1 - familyLength];
+		System.arraycopy(name, 1 + familyLength, qualifier, 0, qualifier.length);
+
+		byte encoding = b.get();
+		if (encoding != Encoding.PLAIN && encoding != Encoding.DICTIONARY) {
+			throw new IOException("Unknown column encoding " + encoding);
+		}
+		BitSet present;
+		if (b.get() == 1) {
+			present = new BitSet(rows);
+			present.set(0, rows);
+		} else {
+			byte[] bitmap = new byte[(rows + 7) / 8];
+			b.get(bitmap);
+			present = BitSet.valueOf(bitmap);
+		}
+		long[] timestamps = new long[rows];
+		long ts = 0;
+		for (int row = present.nextSetBit(0); row >= 0 && row < rows; row = present.nextSetBit(row + 1)) {
+			ts += Encoding.readZigZag(b);
+			timestamps[row] = ts;
+		}
+		if (encoding == Encoding.PLAIN) {
+			byte[][] values = new byte[rows][];
+			for (int row = present.nextSetBit(0); row >= 0 && row < rows; row = present.nextSetBit(row + 1)) {
+				values[row] = Encoding.readBytes(b);
+			}
+			return new ColumnChunk(family, qualifier, present, timestamps, values, null, null);
+		}
+		byte[][] dictionary = new byte[Encoding.readVarInt(b)][];
+		for (int i = 0; i < dictionary.length; i++) {
+			dictionary[i] = Encoding.readBytes(b);
+		}
+		int width = b.get();
+		int[] codes = new int[rows];
+		for (int row = present.nextSetBit(0); row >= 0 && row < rows; row = present.nextSetBit(row + 1)) {
+			int code = 0;
+			for (int i = 0; i < width; i++) {
+				code = (code << 8) | (b.get() & 0xff);
+			}
+			if (code >= dictionary.length) {
+				throw new IOException("Dictionary code " + code + " out of range");
+			}
+			codes[row] = code;
+		}
+		return new ColumnChunk(family, qualifier, present, timestamps, null, codes, dictionary);
+	}
+
+	public byte[] getFamily() {
+		return family;
+	}
+
+	public byte[] getQualifier() {
+		return qualifier;
+	}
+
+	public boolean isDictionaryEncoded() {
+		return dictionary != null;
+	}
+
+	/**
+	 * The distinct values of a dictionary encoded chunk, null for a plain one.
+	 */
+	public byte[][] getDictionary() {
+		return dictionary;
+	}
+
+	public boolean isPresent(int row) {
+		return present.get(row);
+	}
+
+	/**
+	 * The value in the row, null if the row does not have the column.
+	 */
+	public byte[] getValue(int row) {
+		if (!present.get(row)) {
+			return null;
+		}
+		return dictionary != null ? dictionary[codes[row]] : values[row];
+	}
+
+	/**
+	 * The dictionary code of the value in the row, -1 if the row does not have the column.
+	 */
+	public int getCode(int row) {
+		if (dictionary == null) {
+			throw new IllegalStateException("Column chunk is not dictionary encoded");
+		}
+		return present.get(row) ? codes[row] : -1;
+	}
+
+	public long getTimestamp(int row) {
+		return timestamps[row];
+	}
+}
@@ -0,0 +1,106 @@
+package jiq.hbase.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+
+import jiq.hbase.scan.ParallelScanner;
+import jiq.hbase.scan.PartitionTask;
+import jiq.hbase.scan.ScanPartition;
+
+/**
+ * Dumps a table, or the range of a scan, to a local directory of compact columnar files for offline analysis.<br>
+ * The regions are scanned in parallel (see {@link ParallelScanner}), and each one is written to its own file by a
+ * {@link ColumnarFileWriter}: row groups of {@value #ROW_GROUP_SIZE_KEY} rows, dictionary encoding for columns with
+ * at most {@value #MAX_DICTIONARY_KEY} distinct values per row group, output through memory-mapped windows of
+ * {@value #WINDOW_SIZE_KEY} bytes. When all regions are done an {@link ExportManifest} with the key range, rows and
+ * size of every file is written; {@link ColumnarFileReader} reads the files back.
+ */
+public class ColumnarExporter {
+	private final static Log LOG = LogFactory.getLog(ColumnarExporter.class.getName());
+
+	/** Export directory used by the sample's exportData(); not read by this class. */
+	public static final String DIR_KEY = "jiq.hbase.export.dir";
+	public static final String ROW_GROUP_SIZE_KEY = "jiq.hbase.export.row.group.size";
+	public static final String MAX_DICTIONARY_KEY = "jiq.hbase.export.dictionary.max";
+	public static final String WINDOW_SIZE_KEY = "jiq.hbase.export.window.size";
+
+	private final Connection conn;
+	private final TableName tableName;
+	private final int rowGroupSize;
+	private final int maxDictionary;
+	private final int windowSize;
+
+	public ColumnarExporter(Connection conn, TableName tableName) {
+		Configuration conf = conn.getConfiguration();
+		this.conn = conn;
+		this.tableName = tableName;
+		this.rowGroupSize = conf.getInt(ROW_GROUP_SIZE_KEY, 65536);
+		this.maxDictionary = conf.getInt(MAX_DICTIONARY_KEY, 4096);
+		this.windowSize = conf.getInt(WINDOW_SIZE_KEY, 8 * 1024 * 1024);
+	}
+
+	/**
+	 * Exports the range of the scan into dir, which must be empty or not exist.
+	 */
+	public ExportManifest export(Scan scan, final File dir) throws IOException {
+		if (dir.exists()) {
+			String[] files = dir.list();
+			if (files == null || files.length > 0) {
+				throw new IOException("Export directory " + dir + " is not an empty directory");
+			}
+		} else if (!dir.mkdirs()) {
+			throw new IOException("Failed to create export directory " + dir);
+		}
+		long start = System.currentTimeMillis();
+		List<ExportManifest.Part> parts;
+		ParallelScanner scanner = new ParallelScanner(conn, tableName);
+		try {
+			parts = scanner.scan(scan, new PartitionTask<ExportManifest.Part>() {
+				@Override
+				public ExportManifest.Part process(ScanPartition partition, ResultScanner results)
+						throws IOException {
+					return exportPartition(dir, partition, results);
+				}
+			});
+		} finally {
+			scanner.close();
+		}
+		ExportManifest manifest = new ExportManifest(tableName, start, new ArrayList<ExportManifest.Part>(parts));
+		manifest.write(dir);
+		LOG.info("Exported " + manifest.getRows() + " rows of " + tableName + " to " + parts.size() + " files, "
+				+ manifest.getBytes() + " bytes, in " + (System.currentTimeMillis() - start) + " ms");
+		return manifest;
+	}
+
+	private ExportManifest.Part exportPartition(File dir, ScanPartition partition, ResultScanner results)
+			throws IOException {
+		String name = String.format("part-%05d.jqc", partition.getIndex());
+		ColumnarFileWriter writer = new ColumnarFileWriter(new File(dir, name), rowGroupSize, maxDictionary,
+				windowSize);
+		try {
+			for (Result result = results.next(); result != null; result = results.next()) {
+				writer.add(result);
+			}
+		} finally {
+			writer.close();
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Exported " + partition + " of " + tableName + ": " + writer.getRowCount() + " rows, "
+					+ writer.getBytes() + " bytes, " + writer.getDictionaryChunks() + " dictionary and "
+					+ writer.getPlainChunks() + " plain column chunks");
+		}
+		return new ExportManifest.Part(name, partition.getStartRow(), partition.getStopRow(), writer.getRowCount(),
+				writer.getBytes());
+	}
+}
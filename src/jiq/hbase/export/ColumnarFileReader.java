@@ -0,0 +1,155 @@
+package jiq.hbase.export;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.hadoop.hbase.client.Result;
+
+/**
+ * Reads a file written by {@link ColumnarFileWriter}.<br>
+ * The footer is read on open; each row group is mapped read-only on demand and checked against its CRC32 before
+ * it is decoded. Thread safe.
+ */
+public class ColumnarFileReader implements Closeable {
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final long[] offsets;
+	private final int[] lengths;
+	private final int[] rowCounts;
+	private final int[] checksums;
+	private final List<byte[][]> columns = new ArrayList<byte[][]>();
+	private final long rowCount;
+
+	public ColumnarFileReader(File file) throws IOException {
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "r");
+		this.channel = raf.getChannel();
+		try {
+			long size = channel.size();
+			if (size < 8 + Encoding.TRAILER_SIZE) {
+				throw new IOException(file + " is truncated");
+			}
+			ByteBuffer head = read(0, 8);
+			if (head.getInt() != Encoding.MAGIC) {
+				throw new IOException(file + " is not a columnar export file");
+			}
+			int version = head.getInt();
+			if (version != Encoding.VERSION) {
+				throw new IOException("Unsupported columnar file version " + version + " in " + file);
+			}
+			ByteBuffer trailer = read(size - Encoding.TRAILER_SIZE, Encoding.TRAILER_SIZE);
+			long footer = trailer.getLong();
+			if (trailer.getInt() != Encoding.MAGIC || footer < 8 || footer > size - Encoding.TRAILER_SIZE) {
+				throw new IOException(file + " has no valid footer, it may be incomplete");
+			}
+			ByteBuffer b = read(footer, (int) (size - Encoding.TRAILER_SIZE - footer));
+			int groups = Encoding.readVarInt(b);
+			offsets = new long[groups];
+			lengths = new int[groups];
+			rowCounts = new int[groups];
+			checksums = new int[groups];
+			long rows = 0;
+			for (int i = 0; i < groups; i++) {
+				offsets[i] = b.getLong();
+				lengths[i] = Encoding.readVarInt(b);
+				rowCounts[i] = Encoding.readVarInt(b);
+				checksums[i] = b.getInt();
+				rows += rowCounts[i];
+			}
+			rowCount = rows;
+			int n = Encoding.readVarInt(b);
+			for (int i = 0; i < n; i++) {
+				byte[] name = Encoding.readBytes(b);
+				columns.add(new byte[][] { Arrays.copyOfRange(name, 1, 1 + name[0]),
+						Arrays.copyOfRange(name, 1 + name[0], name.length) });
+			}
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		} catch (RuntimeException e) {
+			raf.close();
+			throw new IOException("Malformed columnar file " + file, e);
+		}
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(length);
+		while (b.hasRemaining()) {
+			if (channel.read(b, position + b.position()) < 0) {
+				throw new IOException(file + " is truncated");
+			}
+		}
+		b.flip();
+		return b;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getRowGroupCount() {
+		return offsets.length;
+	}
+
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * All columns of the file, as family and qualifier.
+	 */
+	public List<byte[][]> getColumns() {
+		return columns;
+	}
+
+	public RowGroup getRowGroup(int i) throws IOException {
+		MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, offsets[i], lengths[i]);
+		byte[] bytes = new byte[4096];
+		CRC32 crc = new CRC32();
+		ByteBuffer b = data.duplicate();
+		while (b.hasRemaining()) {
+			int n = Math.min(bytes.length, b.remaining());
+			b.get(bytes, 0, n);
+			crc.update(bytes, 0, n);
+		}
+		if ((int) crc.getValue() != checksums[i]) {
+			throw new IOException("Checksum mismatch in row group " + i + " of " + file);
+		}
+		try {
+			RowGroup group = new RowGroup(data);
+			if (group.getRowCount() != rowCounts[i]) {
+				throw new IOException("Row group " + i + " of " + file + " has " + group.getRowCount()
+						+ " rows instead of " + rowCounts[i]);
+			}
+			return group;
+		} catch (RuntimeException e) {
+			throw new IOException("Malformed row group " + i + " of " + file, e);
+		}
+	}
+
+	/**
+	 * All rows of the file as Results.
+	 */
+	public List<Result> readAll() throws IOException {
+		List<Result> results = new ArrayList<Result>((int) Math.min(Integer.MAX_VALUE, rowCount));
+		for (int i = 0; i < offsets.length; i++) {
+			results.addAll(getRowGroup(i).toResults());
+		}
+		return results;
+	}
+
+	@Override
+	public void close() throws IOException {
+		raf.close();
+	}
+}
@@ -0,0 +1,273 @@
+package jiq.hbase.export;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Writes rows to one columnar file (see {@link Encoding}) through a {@link MappedAppendBuffer}.<br>
+ * Rows are buffered column by column up to the row group size, then encoded. A column chunk is dictionary encoded
+ * when it has at most the given number of distinct values and each value repeats at least twice on average, as
+ * for a column like gender; otherwise its values are stored one by one. Only the newest version of each column
+ * is kept. Rows must come in key order; a row split over several Results is merged.<br>
+ * Not thread safe.
+ */
+public class ColumnarFileWriter implements Closeable {
+	/**
+	 * Values of one column in the current row group.
+	 */
+	private static final class ColumnBuilder {
+		final BitSet present = new BitSet();
+		long[] timestamps = new long[16];
+		byte[][] values = new byte[16][];
+		int count = 0;
+		// Value codes while the column still qualifies for a dictionary, else null.
+		Map<ImmutableBytesWritable, Integer> dictionary = new HashMap<ImmutableBytesWritable, Integer>();
+		List<byte[]> entries = new ArrayList<byte[]>();
+		int[] codes = new int[16];
+
+		void add(int row, long timestamp, byte[] value, int maxDictionary) {
+			if (count == values.length) {
+				timestamps = Arrays.copyOf(timestamps, count * 2);
+				values = Arrays.copyOf(values, count * 2);
+				if (dictionary != null) {
+					codes = Arrays.copyOf(codes, count * 2);
+				}
+			}
+			present.set(row);
+			timestamps[count] = timestamp;
+			values[count] = value;
+			if (dictionary != null) {
+				ImmutableBytesWritable key = new ImmutableBytesWritable(value);
+				Integer code = dictionary.get(key);
+				if (code == null) {
+					if (entries.size() == maxDictionary) {
+						dictionary = null;
+						entries = null;
+						codes = null;
+					} else {
+						code = entries.size();
+						dictionary.put(key, code);
+						entries.add(value);
+					}
+				}
+				if (codes != null) {
+					codes[count] = code;
+				}
+			}
+			count++;
+		}
+
+		boolean useDictionary() {
+			return dictionary != null && entries.size() * 2 <= count;
+		}
+	}
+
+	private final MappedAppendBuffer out;
+	private final int rowGroupSize;
+	private final int maxDictionary;
+	private final List<byte[]> rows = new ArrayList<byte[]>();
+	private final Map<byte[], ColumnBuilder> columns = new TreeMap<byte[], ColumnBuilder>(Bytes.BYTES_COMPARATOR);
+	private final TreeSet<byte[]> allColumns = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+	private final List<long[]> groups = new ArrayList<long[]>();
+	private long rowCount = 0;
+	private long dictionaryChunks = 0;
+	private long plainChunks = 0;
+
+	/**
+	 * @param rowGroupSize rows per row group
+	 * @param maxDictionary most distinct values of a dictionary encoded chunk
+	 * @param windowSize bytes mapped at a time
+	 */
+	public ColumnarFileWriter(File file, int rowGroupSize, int maxDictionary, int windowSize) throws IOException {
+		this.out = new MappedAppendBuffer(file, windowSize);
+		this.rowGroupSize = Math.max(1, rowGroupSize);
+		this.maxDictionary = maxDictionary;
+		out.putInt(Encoding.MAGIC);
+		out.putInt(Encoding.VERSION);
+	}
+
+	/**
+	 * Column name as stored: the length of the family (at most 127, as in a KeyValue), the family, the qualifier.
+	 */
+	static byte[] columnName(byte[] family, byte[] qualifier) {
+		byte[] name = new byte[1 + family.length + qualifier.length];
+		name[0] = (byte) family.length;
+		System.arraycopy(family, 0, name, 1, family.length);
+		System.arraycopy(qualifier, 0, name, 1 + family.length, qualifier.length);
+		return name;
+	}
+
+	public void add(Result result) throws IOException {
+		if (result.isEmpty()) {
+			return;
+		}
+		byte[] row = result.getRow();
+		int index = rows.size() - 1;
+		if (index < 0 || !Bytes.equals(rows.get(index), row)) {
+			if (rows.size() == rowGroupSize) {
+				flushGroup();
+			}
+			rows.add(row);
+			rowCount++;
+			index = rows.size() - 1;
+		}
+		byte[] previous = null;
+		for (Cell cell : result.rawCells()) {
+			byte[] name = columnName(CellUtil.cloneFamily(cell), CellUtil.cloneQualifier(cell));
+			if (previous != null && Bytes.equals(previous, name)) {
+				// An older version of the same column.
+				continue;
+			}
+			previous = name;
+			ColumnBuilder column = columns.get(name);
+			if (column == null) {
+				column = new ColumnBuilder();
+				columns.put(name, column);
+				allColumns.add(name);
+			}
+			if (!column.present.get(index)) {
+				column.add(index, cell.getTimestamp(), CellUtil.cloneValue(cell), maxDictionary);
+			}
+		}
+	}
+
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	public long getDictionaryChunks() {
+		return dictionaryChunks;
+	}
+
+	public long getPlainChunks() {
+		return plainChunks;
+	}
+
+	/**
+	 * Bytes written so far.
+	 */
+	public long getBytes() {
+		return out.position();
+	}
+
+	private void flushGroup() throws IOException {
+		if (rows.isEmpty()) {
+			return;
+		}
+		long start = out.position();
+		out.resetChecksum();
+		out.putVarInt(rows.size());
+		byte[] prev = new byte[0];
+		for (byte[] row : rows) {
+			int shared = 0;
+			int max = Math.min(prev.length, row.length);
+			while (shared < max && prev[shared] == row[shared]) {
+				shared++;
+			}
+			out.putVarInt(shared);
+			out.putVarInt(row.length - shared);
+			out.put(row, shared, row.length - shared);
+			prev = row;
+		}
+
+		List<long[]> chunks = new ArrayList<long[]>(columns.size());
+		for (ColumnBuilder column : columns.values()) {
+			long chunkStart = out.position();
+			writeChunk(column, rows.size());
+			chunks.add(new long[] { chunkStart - start, out.position() - chunkStart });
+		}
+		long directory = out.position() - start;
+		out.putVarInt(columns.size());
+		int i = 0;
+		for (byte[] name : columns.keySet()) {
+			out.putBytes(name);
+			out.putVarLong(chunks.get(i)[0]);
+			out.putVarLong(chunks.get(i)[1]);
+			i++;
+		}
+		out.putLong(directory);
+		groups.add(new long[] { start, out.position() - start, rows.size(), out.checksum() });
+		rows.clear();
+		columns.clear();
+	}
+
+	private void writeChunk(ColumnBuilder column, int rowCount) throws IOException {
+		boolean dictionary = column.useDictionary();
+		out.putByte(dictionary ? Encoding.DICTIONARY : Encoding.PLAIN);
+		if (column.count == rowCount) {
+			out.putByte(1);
+		} else {
+			out.putByte(0);
+			byte[] bitmap = Arrays.copyOf(column.present.toByteArray(), (rowCount + 7) / 8);
+			out.put(bitmap);
+		}
+		long prev = 0;
+		for (int i = 0; i < column.count; i++) {
+			out.putZigZag(column.timestamps[i] - prev);
+			prev = column.timestamps[i];
+		}
+		if (dictionary) {
+			dictionaryChunks++;
+			out.putVarInt(column.entries.size());
+			for (byte[] entry : column.entries) {
+				out.putBytes(entry);
+			}
+			int width = column.entries.size() <= 0x100 ? 1 : column.entries.size() <= 0x10000 ? 2 : 4;
+			out.putByte(width);
+			byte[] codes = new byte[column.count * width];
+			for (int i = 0; i < column.count; i++) {
+				int code = column.codes[i];
+				for (int b = 0; b < width; b++) {
+					codes[i * width + b] = (byte) (code >>> (8 * (width - 1 - b)));
+				}
+			}
+			out.put(codes);
+		} else {
+			plainChunks++;
+			for (int i = 0; i < column.count; i++) {
+				out.putBytes(column.values[i]);
+			}
+		}
+	}
+
+	/**
+	 * Writes the last row group and the footer.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flushGroup();
+			long footer = out.position();
+			out.putVarInt(groups.size());
+			for (long[] g : groups) {
+				out.putLong(g[0]);
+				out.putVarLong(g[1]);
+				out.putVarInt((int) g[2]);
+				out.putInt((int) g[3]);
+			}
+			out.putVarInt(allColumns.size());
+			for (byte[] name : allColumns) {
+				out.putBytes(name);
+			}
+			out.putLong(footer);
+			out.putInt(Encoding.MAGIC);
+		} finally {
+			out.close();
+		}
+	}
+}
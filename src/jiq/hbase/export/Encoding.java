@@ -0,0 +1,57 @@
+package jiq.hbase.export;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Constants and decoding helpers of the columnar export format.<br>
+ * File: magic, version, row groups, footer. The footer lists the offset, length, row count and CRC32 of every row
+ * group, then the columns of the file, and ends with its own offset and the magic again. A row group holds the
+ * row keys, each as the length of the prefix shared with the previous key and the rest, then one chunk per
+ * column, then the column directory (name, offset and length of each chunk) and the offset of that directory. A
+ * chunk holds the encoding, a presence bitmap, the timestamps of the present values as deltas, and the values:
+ * either each value, or a dictionary of the distinct values and a fixed-width code per value. Integers are
+ * unsigned LEB128 varints, timestamp deltas zig-zag varints.
+ */
+final class Encoding {
+	static final int MAGIC = 0x4A514346; // "JQCF"
+	static final int VERSION = 1;
+	static final byte PLAIN = 0;
+	static final byte DICTIONARY = 1;
+	/** Footer trailer: footer offset (long) and magic (int). */
+	static final int TRAILER_SIZE = 12;
+
+	private Encoding() {
+	}
+
+	static int readVarInt(ByteBuffer b) throws IOException {
+		long v = readVarLong(b);
+		if (v > Integer.MAX_VALUE) {
+			throw new IOException("Varint out of range: " + v);
+		}
+		return (int) v;
+	}
+
+	static long readVarLong(ByteBuffer b) throws IOException {
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte x = b.get();
+			v |= (long) (x & 0x7f) << shift;
+			if (x >= 0) {
+				return v;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	static long readZigZag(ByteBuffer b) throws IOException {
+		long v = readVarLong(b);
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	static byte[] readBytes(ByteBuffer b) throws IOException {
+		byte[] bytes = new byte[readVarInt(b)];
+		b.get(bytes);
+		return bytes;
+	}
+}
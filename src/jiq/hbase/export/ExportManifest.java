@@ -0,0 +1,191 @@
+package jiq.hbase.export;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Index of an export directory: the table, and for every file the key range it covers, its rows and size.<br>
+ * A text file named {@value #FILE_NAME}, one tab separated entry per line, keys in the escaped form of
+ * {@link Bytes#toStringBinary(byte[])}. It is written last, so a directory without it holds an incomplete export.
+ */
+public class ExportManifest {
+	public static final String FILE_NAME = "MANIFEST";
+	private static final String HEADER = "# jiq columnar export 1";
+
+	/**
+	 * One file of the export, covering [startRow, stopRow) of the table.
+	 */
+	public static final class Part {
+		private final String file;
+		private final byte[] startRow;
+		private final byte[] stopRow;
+		private final long rows;
+		private final long bytes;
+
+		public Part(String file, byte[] startRow, byte[] stopRow, long rows, long bytes) {
+			this.file = file;
+			this.startRow = startRow;
+			this.stopRow = stopRow;
+			this.rows = rows;
+			this.bytes = bytes;
+		}
+
+		/**
+		 * Name of the file in the export directory.
+		 */
+		public String getFile() {
+			return file;
+		}
+
+		public byte[] getStartRow() {
+			return startRow;
+		}
+
+		/**
+		 * Exclusive; empty for the end of the table.
+		 */
+		public byte[] getStopRow() {
+			return stopRow;
+		}
+
+		public long getRows() {
+			return rows;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+	}
+
+	private final TableName tableName;
+	private final long createdMillis;
+	private final List<Part> parts;
+
+	public ExportManifest(TableName tableName, long createdMillis, List<Part> parts) {
+		this.tableName = tableName;
+		this.createdMillis = createdMillis;
+		this.parts = Collections.unmodifiableList(new ArrayList<Part>(parts));
+	}
+
+	public TableName getTableName() {
+		return tableName;
+	}
+
+	public long getCreatedMillis() {
+		return createdMillis;
+	}
+
+	/**
+	 * The files in key order.
+	 */
+	public List<Part> getParts() {
+		return parts;
+	}
+
+	public long getRows() {
+		long rows = 0;
+		for (Part p : parts) {
+			rows += p.rows;
+		}
+		return rows;
+	}
+
+	public long getBytes() {
+		long bytes = 0;
+		for (Part p : parts) {
+			bytes += p.bytes;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Opens the file of a part of the export in dir.
+	 */
+	public ColumnarFileReader open(File dir, Part part) throws IOException {
+		return new ColumnarFileReader(new File(dir, part.file));
+	}
+
+	/**
+	 * Writes the manifest into dir, through a temporary file renamed at the end.
+	 */
+	public void write(File dir) throws IOException {
+		File file = new File(dir, FILE_NAME);
+		File tmp = new File(dir, FILE_NAME + ".tmp");
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp),
+				StandardCharsets.UTF_8));
+		try {
+			out.write(HEADER);
+			out.newLine();
+			out.write("table\t" + tableName.getNameAsString());
+			out.newLine();
+			out.write("created\t" + createdMillis);
+			out.newLine();
+			for (Part p : parts) {
+				out.write("part\t" + p.file + "\t" + Bytes.toStringBinary(p.startRow) + "\t"
+						+ Bytes.toStringBinary(p.stopRow) + "\t" + p.rows + "\t" + p.bytes);
+				out.newLine();
+			}
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			// Windows does not replace on rename.
+			if (!file.delete() || !tmp.renameTo(file)) {
+				throw new IOException("Failed to rename " + tmp + " to " + file);
+			}
+		}
+	}
+
+	/**
+	 * Reads the manifest of the export in dir.
+	 *
+	 * @throws IOException if there is none (the export did not finish) or it is malformed
+	 */
+	public static ExportManifest read(File dir) throws IOException {
+		File file = new File(dir, FILE_NAME);
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+				StandardCharsets.UTF_8));
+		try {
+			if (!HEADER.equals(in.readLine())) {
+				throw new IOException(file + " is not an export manifest of this version");
+			}
+			TableName tableName = null;
+			long created = 0;
+			List<Part> parts = new ArrayList<Part>();
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				String[] f = line.split("\t", -1);
+				if ("table".equals(f[0]) && f.length == 2) {
+					tableName = TableName.valueOf(f[1]);
+				} else if ("created".equals(f[0]) && f.length == 2) {
+					created = Long.parseLong(f[1]);
+				} else if ("part".equals(f[0]) && f.length == 6) {
+					parts.add(new Part(f[1], Bytes.toBytesBinary(f[2]), Bytes.toBytesBinary(f[3]),
+							Long.parseLong(f[4]), Long.parseLong(f[5])));
+				} else if (!line.isEmpty()) {
+					throw new IOException("Malformed line in " + file + ": " + line);
+				}
+			}
+			if (tableName == null) {
+				throw new IOException(file + " names no table");
+			}
+			return new ExportManifest(tableName, created, parts);
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed number in " + file, e);
+		} finally {
+			in.close();
+		}
+	}
+}
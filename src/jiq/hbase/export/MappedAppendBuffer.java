@@ -0,0 +1,138 @@
+package jiq.hbase.export;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only output to a file through memory-mapped windows of a fixed size, so that writing costs a memory
+ * copy instead of a system call per buffer; the page cache writes the data back.<br>
+ * When the current window is full the next one is mapped at the end of the file. Java cannot unmap a buffer, so
+ * a full window stays mapped until it is garbage collected, and is not forced: its dirty pages are in the page cache
+ * of the file. {@link #close()} forces the current window, cuts the file to the bytes written and syncs the file,
+ * which on Linux also writes back the pages of the earlier windows. A running CRC32 covers the bytes since the last {@link #resetChecksum()}.<br>
+ * Not thread safe.
+ */
+final class MappedAppendBuffer implements Closeable {
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final int windowSize;
+	private final CRC32 crc = new CRC32();
+	private final byte[] scratch = new byte[10];
+	private MappedByteBuffer window;
+	private long windowStart;
+	private long position = 0;
+
+	MappedAppendBuffer(File file, int windowSize) throws IOException {
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		this.channel = raf.getChannel();
+		this.windowSize = windowSize;
+		map(0);
+	}
+
+	private void map(long start) throws IOException {
+		window = channel.map(FileChannel.MapMode.READ_WRITE, start, windowSize);
+		windowStart = start;
+	}
+
+	long position() {
+		return position;
+	}
+
+	void resetChecksum() {
+		crc.reset();
+	}
+
+	int checksum() {
+		return (int) crc.getValue();
+	}
+
+	void put(byte[] b, int off, int len) throws IOException {
+		crc.update(b, off, len);
+		while (len > 0) {
+			int room = (int) (windowStart + windowSize - position);
+			if (room == 0) {
+				map(position);
+				room = windowSize;
+			}
+			int n = Math.min(room, len);
+			window.position((int) (position - windowStart));
+			window.put(b, off, n);
+			off += n;
+			len -= n;
+			position += n;
+		}
+	}
+
+	void put(byte[] b) throws IOException {
+		put(b, 0, b.length);
+	}
+
+	void putByte(int v) throws IOException {
+		scratch[0] = (byte) v;
+		put(scratch, 0, 1);
+	}
+
+	void putInt(int v) throws IOException {
+		for (int i = 0; i < 4; i++) {
+			scratch[i] = (byte) (v >>> (24 - 8 * i));
+		}
+		put(scratch, 0, 4);
+	}
+
+	void putLong(long v) throws IOException {
+		for (int i = 0; i < 8; i++) {
+			scratch[i] = (byte) (v >>> (56 - 8 * i));
+		}
+		put(scratch, 0, 8);
+	}
+
+	void putVarLong(long v) throws IOException {
+		int n = 0;
+		while ((v & ~0x7fL) != 0) {
+			scratch[n++] = (byte) ((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		scratch[n++] = (byte) v;
+		put(scratch, 0, n);
+	}
+
+	void putVarInt(int v) throws IOException {
+		putVarLong(v & 0xffffffffL);
+	}
+
+	void putZigZag(long v) throws IOException {
+		putVarLong((v << 1) ^ (v >> 63));
+	}
+
+	/**
+	 * Length and bytes.
+	 */
+	void putBytes(byte[] b) throws IOException {
+		putVarInt(b.length);
+		put(b, 0, b.length);
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			window.force();
+			window = null;
+			channel.truncate(position);
+			channel.force(true);
+		} finally {
+			raf.close();
+		}
+	}
+}
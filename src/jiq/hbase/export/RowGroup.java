@@ -0,0 +1,113 @@
+package jiq.hbase.export;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * One row group of a columnar file: the row keys and the column chunks, decoded when first asked for.
+ */
+public final class RowGroup {
+	private final ByteBuffer data;
+	private final byte[][] rows;
+	// Column name to {offset, length} of its chunk.
+	private final Map<byte[], long[]> directory = new TreeMap<byte[], long[]>(Bytes.BYTES_COMPARATOR);
+	private final Map<byte[], ColumnChunk> decoded = new TreeMap<byte[], ColumnChunk>(Bytes.BYTES_COMPARATOR);
+
+	RowGroup(ByteBuffer data) throws IOException {
+		this.data = data;
+		ByteBuffer b = data.duplicate();
+		rows = new byte[Encoding.readVarInt(b)][];
+		byte[] prev = new byte[0];
+		for (int i = 0; i < rows.length; i++) {
+			int shared = Encoding.readVarInt(b);
+			int rest = Encoding.readVarInt(b);
+			byte[] row = new byte[shared + rest];
+			System.arraycopy(prev, 0, row, 0, shared);
+			b.get(row, shared, rest);
+			rows[i] = row;
+			prev = row;
+		}
+		b.position((int) data.getLong(data.limit() - Bytes.SIZEOF_LONG));
+		int columns = Encoding.readVarInt(b);
+		for (int i = 0; i < columns; i++) {
+			byte[] name = Encoding.readBytes(b);
+			directory.put(name, new long[] { Encoding.readVarLong(b), Encoding.readVarLong(b) });
+		}
+	}
+
+	public int getRowCount() {
+		return rows.length;
+	}
+
+	public byte[] getRow(int i) {
+		return rows[i];
+	}
+
+	/**
+	 * Names of the columns in the group, as family and qualifier.
+	 */
+	public List<byte[][]> getColumns() {
+		List<byte[][]> columns = new ArrayList<byte[][]>(directory.size());
+		for (byte[] name : directory.keySet()) {
+			int familyLength = name[0];
+			columns.add(new byte[][] { Arrays.copyOfRange(name, 1, 1 + familyLength),
+					Arrays.copyOfRange(name, 1 + familyLength, name.length) });
+		}
+		return columns;
+	}
+
+	/**
+	 * The chunk of the column, null if no row of the group has it.
+	 */
+	public synchronized ColumnChunk getColumn(byte[] family, byte[] qualifier) throws IOException {
+		byte[] name = ColumnarFileWriter.columnName(family, qualifier);
+		ColumnChunk chunk = decoded.get(name);
+		if (chunk == null) {
+			long[] location = directory.get(name);
+			if (location == null) {
+				return null;
+			}
+			ByteBuffer b = data.duplicate();
+			b.position((int) location[0]);
+			b.limit((int) (location[0] + location[1]));
+			chunk = ColumnChunk.decode(name, b.slice(), rows.length);
+			decoded.put(name, chunk);
+		}
+		return chunk;
+	}
+
+	/**
+	 * The rows as Results, with one cell per column.
+	 */
+	public List<Result> toResults() throws IOException {
+		List<ColumnChunk> chunks = new ArrayList<ColumnChunk>();
+		for (byte[][] column : getColumns()) {
+			chunks.add(getColumn(column[0], column[1]));
+		}
+		List<Result> results = new ArrayList<Result>(rows.length);
+		for (int i = 0; i < rows.length; i++) {
+			List<Cell> cells = new ArrayList<Cell>(chunks.size());
+			for (ColumnChunk chunk : chunks) {
+				if (chunk.isPresent(i)) {
+					cells.add(new KeyValue(rows[i], chunk.getFamily(), chunk.getQualifier(), chunk.getTimestamp(i),
+							chunk.getValue(i)));
+				}
+			}
+			// Columns are stored by family length first; a Result wants KeyValue order.
+			Collections.sort(cells, KeyValue.COMPARATOR);
+			results.add(Result.create(cells));
+		}
+		return Collections.unmodifiableList(results);
+	}
+}
@@ -0,0 +1,438 @@
+package jiq.hbase.hotspot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.ClusterStatus;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.RegionLoad;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Finds regions that take a lasting, disproportionate share of the traffic and splits them inside the hot range.<br>
+ * A table from {@link #wrap(Connection)} reports the row and size of each operation on the tables in
+ * {@value #TABLES_KEY}. Per region the monitor keeps a sliding window of {@value #WINDOW_MS_KEY} milliseconds of
+ * requests and bytes, and a reservoir sample of {@value #SAMPLE_SIZE_KEY} rows. With {@value #CLUSTER_STATUS_KEY}
+ * the request counts the RegionServers report are used too (the larger rate wins), which also catches traffic of
+ * other clients.<br>
+ * Every {@value #CHECK_INTERVAL_KEY} milliseconds a region is hot if its request rate is at least
+ * {@value #MIN_RATE_KEY} per second and at least {@value #SKEW_KEY} times the mean of its table. A region hot for
+ * {@value #SUSTAIN_KEY} checks in a row gets split points at quantiles of its sampled rows, as many as needed to
+ * bring each part near the mean (at most {@value #MAX_SPLIT_KEYS_KEY}), and is then split with
+ * {@code HBaseAdmin.multiSplit} if {@value #AUTO_SPLIT_KEY} is set, or only logged and kept as a
+ * {@link SplitSuggestion} otherwise (dry run, the default). Splits are limited to {@value #MAX_SPLITS_KEY} per
+ * hour, and a region is not suggested again within {@value #COOLDOWN_MS_KEY} milliseconds.<br>
+ * Published as the MBean {@code jiq.hbase:type=HotspotMonitor}.
+ */
+public class HotspotMonitor implements HotspotMonitorMBean, Closeable {
+	private final static Log LOG = LogFactory.getLog(HotspotMonitor.class.getName());
+
+	/** Tables to monitor, comma separated. */
+	public static final String TABLES_KEY = "jiq.hbase.hotspot.tables";
+	public static final String WINDOW_MS_KEY = "jiq.hbase.hotspot.window.ms";
+	public static final String WINDOW_BUCKETS_KEY = "jiq.hbase.hotspot.window.buckets";
+	public static final String CHECK_INTERVAL_KEY = "jiq.hbase.hotspot.check.interval.ms";
+	public static final String SKEW_KEY = "jiq.hbase.hotspot.skew";
+	public static final String MIN_RATE_KEY = "jiq.hbase.hotspot.min.rate";
+	public static final String SUSTAIN_KEY = "jiq.hbase.hotspot.sustain.checks";
+	public static final String SAMPLE_SIZE_KEY = "jiq.hbase.hotspot.sample.size";
+	public static final String MAX_SPLIT_KEYS_KEY = "jiq.hbase.hotspot.max.split.keys";
+	public static final String CLUSTER_STATUS_KEY = "jiq.hbase.hotspot.cluster.status";
+	/** False (the default) to only suggest splits. */
+	public static final String AUTO_SPLIT_KEY = "jiq.hbase.hotspot.auto.split";
+	public static final String MAX_SPLITS_KEY = "jiq.hbase.hotspot.max.splits.per.hour";
+	public static final String COOLDOWN_MS_KEY = "jiq.hbase.hotspot.cooldown.ms";
+
+	private static final int MAX_KEPT_SUGGESTIONS = 100;
+
+	/**
+	 * Regions of a table by start key, as of the last check.
+	 */
+	private static final class RegionMap {
+		final byte[][] starts;
+		final RegionTraffic[] regions;
+
+		RegionMap(byte[][] starts, RegionTraffic[] regions) {
+			this.starts = starts;
+			this.regions = regions;
+		}
+
+		RegionTraffic find(byte[] row) {
+			int i = Arrays.binarySearch(starts, row, Bytes.BYTES_COMPARATOR);
+			return regions[i >= 0 ? i : Math.max(0, -i - 2)];
+		}
+	}
+
+	private final Connection conn;
+	private final List<TableName> tables = new ArrayList<TableName>();
+	private final long windowMs;
+	private final int windowBuckets;
+	private final long checkInterval;
+	private final double skew;
+	private final double minRate;
+	private final int sustain;
+	private final int sampleSize;
+	private final int maxSplitKeys;
+	private final boolean clusterStatus;
+	private final boolean autoSplit;
+	private final int maxSplitsPerHour;
+	private final long cooldownMs;
+	private final ConcurrentMap<TableName, RegionMap> regionMaps = new ConcurrentHashMap<TableName, RegionMap>();
+	private final ScheduledExecutorService checker;
+	// Only touched by the checking thread.
+	private final Deque<Long> recentSplits = new ArrayDeque<Long>();
+	private final Map<String, Long> lastSuggested = new HashMap<String, Long>();
+	private long lastServerCheck = 0;
+	private final List<SplitSuggestion> suggestions =
+			Collections.synchronizedList(new ArrayList<SplitSuggestion>());
+	private ObjectName registered = null;
+
+	private final AtomicLong checks = new AtomicLong();
+	private final AtomicLong suggested = new AtomicLong();
+	private final AtomicLong splits = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private volatile int hotRegions = 0;
+
+	public HotspotMonitor(Connection conn) {
+		Configuration conf = conn.getConfiguration();
+		this.conn = conn;
+		for (String table : conf.getTrimmedStrings(TABLES_KEY)) {
+			tables.add(TableName.valueOf(table));
+		}
+		this.windowMs = conf.getLong(WINDOW_MS_KEY, 60000L);
+		this.windowBuckets = Math.max(2, conf.getInt(WINDOW_BUCKETS_KEY, 12));
+		this.checkInterval = conf.getLong(CHECK_INTERVAL_KEY, 10000L);
+		this.skew = conf.getDouble(SKEW_KEY, 3.0);
+		this.minRate = conf.getDouble(MIN_RATE_KEY, 100.0);
+		this.sustain = Math.max(1, conf.getInt(SUSTAIN_KEY, 3));
+		this.sampleSize = Math.max(16, conf.getInt(SAMPLE_SIZE_KEY, 512));
+		this.maxSplitKeys = Math.max(1, conf.getInt(MAX_SPLIT_KEYS_KEY, 4));
+		this.clusterStatus = conf.getBoolean(CLUSTER_STATUS_KEY, false);
+		this.autoSplit = conf.getBoolean(AUTO_SPLIT_KEY, false);
+		this.maxSplitsPerHour = conf.getInt(MAX_SPLITS_KEY, 6);
+		this.cooldownMs = conf.getLong(COOLDOWN_MS_KEY, 600000L);
+		this.checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+				.setNameFormat("hotspot-monitor").setDaemon(true).build());
+		register();
+	}
+
+	/**
+	 * Loads the regions of the tables and starts the periodic checks.
+	 */
+	public void start() {
+		for (TableName table : tables) {
+			try {
+				refreshRegions(table);
+			} catch (IOException e) {
+				LOG.warn("Failed to load the regions of " + table + ", retrying at the next check", e);
+			}
+		}
+		checker.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					check();
+				} catch (Throwable e) {
+					LOG.warn("Hotspot check failed", e);
+				}
+			}
+		}, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Connection whose tables report their traffic to this monitor.
+	 */
+	public Connection wrap(Connection conn) {
+		return HotspotProxy.connection(conn, this);
+	}
+
+	boolean isMonitored(TableName table) {
+		return tables.contains(table);
+	}
+
+	void record(TableName table, byte[] row, long bytes) {
+		RegionMap map = regionMaps.get(table);
+		if (map != null && row != null) {
+			map.find(row).record(row, System.currentTimeMillis(), bytes);
+		}
+	}
+
+	/**
+	 * Re-reads the regions of the table, keeping the traffic of those that still exist.
+	 */
+	private RegionMap refreshRegions(TableName table) throws IOException {
+		List<HRegionLocation> locations;
+		try (RegionLocator locator = conn.getRegionLocator(table)) {
+			locations = locator.getAllRegionLocations();
+		}
+		Map<String, RegionTraffic> old = new HashMap<String, RegionTraffic>();
+		RegionMap current = regionMaps.get(table);
+		if (current != null) {
+			for (RegionTraffic t : current.regions) {
+				old.put(t.region.getEncodedName(), t);
+			}
+		}
+		List<HRegionInfo> regions = new ArrayList<HRegionInfo>();
+		for (HRegionLocation location : locations) {
+			if (!location.getRegionInfo().isOffline() && !location.getRegionInfo().isSplitParent()) {
+				regions.add(location.getRegionInfo());
+			}
+		}
+		Collections.sort(regions);
+		byte[][] starts = new byte[regions.size()][];
+		RegionTraffic[] traffic = new RegionTraffic[regions.size()];
+		for (int i = 0; i < traffic.length; i++) {
+			HRegionInfo region = regions.get(i);
+			starts[i] = region.getStartKey();
+			traffic[i] = old.get(region.getEncodedName());
+			if (traffic[i] == null) {
+				traffic[i] = new RegionTraffic(region, new SlidingWindow(windowBuckets, windowMs / windowBuckets),
+						sampleSize);
+			}
+		}
+		RegionMap map = new RegionMap(starts, traffic);
+		if (traffic.length > 0) {
+			regionMaps.put(table, map);
+		}
+		return map;
+	}
+
+	/**
+	 * One round: refresh regions and server counts, find the hot regions and split or suggest.
+	 */
+	void check() throws IOException {
+		checks.incrementAndGet();
+		long now = System.currentTimeMillis();
+		if (clusterStatus) {
+			readServerLoad(now);
+		}
+		int hot = 0;
+		for (TableName table : tables) {
+			RegionMap map = refreshRegions(table);
+			if (map.regions.length == 0) {
+				continue;
+			}
+			double total = 0;
+			double[] rates = new double[map.regions.length];
+			for (int i = 0; i < rates.length; i++) {
+				RegionTraffic t = map.regions[i];
+				rates[i] = Math.max(t.window.requestRate(now), t.serverRate);
+				total += rates[i];
+			}
+			double mean = total / rates.length;
+			for (int i = 0; i < rates.length; i++) {
+				RegionTraffic t = map.regions[i];
+				// A table of one region has no mean to compare with; enough traffic makes it hot.
+				boolean isHot = rates[i] >= minRate && (rates.length == 1 || rates[i] >= skew * mean);
+				if (!isHot) {
+					if (t.hotChecks > 0) {
+						t.resetSample();
+					}
+					t.hotChecks = 0;
+					continue;
+				}
+				hot++;
+				if (++t.hotChecks >= sustain) {
+					handleHotRegion(t, rates[i], t.window.byteRate(now), mean, now);
+				}
+			}
+		}
+		hotRegions = hot;
+	}
+
+	/**
+	 * Adds the request rates the RegionServers report to the regions known here.
+	 */
+	private void readServerLoad(long now) throws IOException {
+		Map<String, Long> counts = new HashMap<String, Long>();
+		try (Admin admin = conn.getAdmin()) {
+			ClusterStatus status = admin.getClusterStatus();
+			for (ServerName server : status.getServers()) {
+				for (RegionLoad load : status.getLoad(server).getRegionsLoad().values()) {
+					counts.put(Bytes.toStringBinary(load.getName()), load.getRequestsCount());
+				}
+			}
+		}
+		double seconds = lastServerCheck == 0 ? 0 : (now - lastServerCheck) / 1000.0;
+		lastServerCheck = now;
+		for (RegionMap map : regionMaps.values()) {
+			for (RegionTraffic t : map.regions) {
+				Long count = counts.get(t.region.getRegionNameAsString());
+				if (count == null) {
+					continue;
+				}
+				t.serverRate = t.serverRequests >= 0 && seconds > 0 && count >= t.serverRequests
+						? (count - t.serverRequests) / seconds : 0;
+				t.serverRequests = count;
+			}
+		}
+	}
+
+	private void handleHotRegion(RegionTraffic t, double rate, double byteRate, double mean, long now) {
+		String name = t.region.getRegionNameAsString();
+		Long last = lastSuggested.get(name);
+		if (last != null && now - last < cooldownMs) {
+			return;
+		}
+		// Enough parts to bring each near the mean, at least two.
+		int parts = (int) Math.min(maxSplitKeys + 1, Math.max(2, Math.round(mean > 0 ? rate / mean : 2)));
+		byte[][] keys = splitKeys(t, parts);
+		if (keys.length == 0) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Hot region " + name + " has no sampled rows to split at");
+			}
+			return;
+		}
+		lastSuggested.put(name, now);
+		boolean applied = false;
+		if (autoSplit) {
+			while (!recentSplits.isEmpty() && now - recentSplits.peekFirst() > TimeUnit.HOURS.toMillis(1)) {
+				recentSplits.pollFirst();
+			}
+			if (recentSplits.size() >= maxSplitsPerHour) {
+				skipped.incrementAndGet();
+				LOG.warn("Not splitting hot region " + name + ": " + recentSplits.size() + " splits in the last hour");
+			} else {
+				try (Admin admin = conn.getAdmin()) {
+					((HBaseAdmin) admin).multiSplit(t.region.getRegionName(), keys);
+					recentSplits.addLast(now);
+					splits.incrementAndGet();
+					applied = true;
+				} catch (Exception e) {
+					skipped.incrementAndGet();
+					LOG.warn("Failed to split hot region " + name, e);
+				}
+			}
+		}
+		SplitSuggestion suggestion = new SplitSuggestion(t.region, rate, byteRate, mean, keys, applied);
+		suggested.incrementAndGet();
+		synchronized (suggestions) {
+			suggestions.add(suggestion);
+			if (suggestions.size() > MAX_KEPT_SUGGESTIONS) {
+				suggestions.remove(0);
+			}
+		}
+		LOG.info(suggestion);
+	}
+
+	/**
+	 * Distinct quantiles of the sampled rows that lie strictly inside the region.
+	 */
+	private byte[][] splitKeys(RegionTraffic t, int parts) {
+		List<byte[]> rows = t.sampledRows();
+		Collections.sort(rows, Bytes.BYTES_COMPARATOR);
+		byte[] start = t.region.getStartKey();
+		byte[] end = t.region.getEndKey();
+		List<byte[]> keys = new ArrayList<byte[]>();
+		for (int p = 1; p < parts && !rows.isEmpty(); p++) {
+			byte[] key = rows.get(rows.size() * p / parts);
+			boolean inside = Bytes.compareTo(key, start) > 0 && (end.length == 0 || Bytes.compareTo(key, end) < 0);
+			if (inside && (keys.isEmpty() || Bytes.compareTo(keys.get(keys.size() - 1), key) < 0)) {
+				keys.add(key);
+			}
+		}
+		return keys.toArray(new byte[keys.size()][]);
+	}
+
+	/**
+	 * The latest suggestions, oldest first.
+	 */
+	public List<SplitSuggestion> getSuggestionList() {
+		synchronized (suggestions) {
+			return new ArrayList<SplitSuggestion>(suggestions);
+		}
+	}
+
+	private void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName on = new ObjectName("jiq.hbase:type=HotspotMonitor");
+			if (!server.isRegistered(on)) {
+				server.registerMBean(this, on);
+				registered = on;
+			}
+		} catch (Exception e) {
+			LOG.warn("Failed to register the hotspot monitor in JMX", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		checker.shutdownNow();
+		if (registered != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+			} catch (Exception e) {
+				LOG.warn("Failed to unregister " + registered, e);
+			}
+			registered = null;
+		}
+	}
+
+	@Override
+	public long getChecks() {
+		return checks.get();
+	}
+
+	@Override
+	public int getHotRegions() {
+		return hotRegions;
+	}
+
+	@Override
+	public long getSuggestions() {
+		return suggested.get();
+	}
+
+	@Override
+	public long getSplits() {
+		return splits.get();
+	}
+
+	@Override
+	public long getSplitsSkipped() {
+		return skipped.get();
+	}
+
+	@Override
+	public boolean isAutoSplit() {
+		return autoSplit;
+	}
+
+	@Override
+	public String getLastSuggestion() {
+		synchronized (suggestions) {
+			return suggestions.isEmpty() ? null : suggestions.get(suggestions.size() - 1).toString();
+		}
+	}
+}
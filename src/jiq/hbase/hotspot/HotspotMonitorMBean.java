@@ -0,0 +1,29 @@
+package jiq.hbase.hotspot;
+
+/**
+ * JMX view of a {@link HotspotMonitor}.
+ */
+public interface HotspotMonitorMBean {
+	long getChecks();
+
+	/**
+	 * Regions hot at the last check.
+	 */
+	int getHotRegions();
+
+	long getSuggestions();
+
+	/**
+	 * Splits the monitor requested itself.
+	 */
+	long getSplits();
+
+	/**
+	 * Hot regions not split because of the split rate limit or a failure.
+	 */
+	long getSplitsSkipped();
+
+	boolean isAutoSplit();
+
+	String getLastSuggestion();
+}
@@ -0,0 +1,143 @@
+package jiq.hbase.hotspot;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.RowMutations;
+import org.apache.hadoop.hbase.client.Table;
+
+/**
+ * Dynamic proxies of {@link Connection}, {@link Table} and {@link ResultScanner} that report the row and size of
+ * every operation on a monitored table to the {@link HotspotMonitor}.<br>
+ * Multi-row calls report each row; scanners report each row returned. Failed calls count too, with the size of
+ * the request only, since a hot region is often the one refusing requests.
+ */
+final class HotspotProxy implements InvocationHandler {
+	private final Object target;
+	private final HotspotMonitor monitor;
+	private final TableName tableName;
+
+	private HotspotProxy(Object target, HotspotMonitor monitor, TableName tableName) {
+		this.target = target;
+		this.monitor = monitor;
+		this.tableName = tableName;
+	}
+
+	static Connection connection(Connection conn, HotspotMonitor monitor) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new HotspotProxy(conn, monitor, null));
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		if (target instanceof Connection) {
+			Object result = call(method, args);
+			if (result instanceof Table && monitor.isMonitored(((Table) result).getName())) {
+				return Proxy.newProxyInstance(Table.class.getClassLoader(), new Class<?>[] { Table.class },
+						new HotspotProxy(result, monitor, ((Table) result).getName()));
+			}
+			return result;
+		}
+		if (target instanceof ResultScanner) {
+			Object result = call(method, args);
+			if ("next".equals(method.getName())) {
+				recordResults(result);
+			}
+			return result;
+		}
+		Object first = args == null || args.length == 0 ? null : args[0];
+		if (first == null || "getScanner".equals(method.getName())) {
+			Object result = call(method, args);
+			if (result instanceof ResultScanner) {
+				return Proxy.newProxyInstance(ResultScanner.class.getClassLoader(),
+						new Class<?>[] { ResultScanner.class }, new HotspotProxy(result, monitor, tableName));
+			}
+			return result;
+		}
+		Object result = null;
+		try {
+			result = call(method, args);
+			return result;
+		} finally {
+			record(args, result);
+		}
+	}
+
+	private void record(Object[] args, Object result) {
+		Object first = args[0];
+		if (first instanceof List) {
+			List<?> rows = (List<?>) first;
+			// batch(actions, results) fills the array it is given.
+			Object results = result != null ? result : args.length > 1 ? args[1] : null;
+			for (int i = 0; i < rows.size(); i++) {
+				Object o = rows.get(i);
+				if (o instanceof Row) {
+					record(((Row) o).getRow(), o, resultAt(results, i));
+				}
+			}
+		} else if (first instanceof Row) {
+			record(((Row) first).getRow(), first, result);
+		} else if (first instanceof byte[]) {
+			// checkAndPut, checkAndDelete, checkAndMutate, incrementColumnValue: the row comes first.
+			Object mutation = null;
+			for (Object arg : args) {
+				if (arg instanceof Mutation || arg instanceof RowMutations) {
+					mutation = arg;
+				}
+			}
+			record((byte[]) first, mutation, result);
+		}
+	}
+
+	private void record(byte[] row, Object request, Object result) {
+		long bytes = 0;
+		if (request instanceof Mutation) {
+			bytes += ((Mutation) request).heapSize();
+		} else if (request instanceof RowMutations) {
+			for (Mutation m : ((RowMutations) request).getMutations()) {
+				bytes += m.heapSize();
+			}
+		}
+		if (result instanceof Result && !((Result) result).isEmpty()) {
+			bytes += Result.getTotalSizeOfCells((Result) result);
+		}
+		monitor.record(tableName, row, bytes);
+	}
+
+	private void recordResults(Object result) {
+		if (result instanceof Result && !((Result) result).isEmpty()) {
+			Result r = (Result) result;
+			monitor.record(tableName, r.getRow(), Result.getTotalSizeOfCells(r));
+		} else if (result instanceof Result[]) {
+			for (Result r : (Result[]) result) {
+				if (r != null && !r.isEmpty()) {
+					monitor.record(tableName, r.getRow(), Result.getTotalSizeOfCells(r));
+				}
+			}
+		}
+	}
+
+	private static Object resultAt(Object results, int i) {
+		if (results instanceof Object[] && i < ((Object[]) results).length) {
+			return ((Object[]) results)[i];
+		}
+		return null;
+	}
+
+	private Object call(Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
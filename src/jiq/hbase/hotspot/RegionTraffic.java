@@ -0,0 +1,66 @@
+package jiq.hbase.hotspot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.HRegionInfo;
+
+/**
+ * Client traffic of one region: a {@link SlidingWindow} of requests and bytes, and a reservoir sample of the rows
+ * touched since the sample was last reset, from which split points are taken.
+ */
+final class RegionTraffic {
+	final HRegionInfo region;
+	final SlidingWindow window;
+	private final byte[][] sample;
+	private final AtomicLong seen = new AtomicLong();
+	// Checks in a row that found the region hot; only touched by the checking thread.
+	int hotChecks = 0;
+	// Server request count at the previous check, -1 before the first.
+	long serverRequests = -1;
+	double serverRate = 0;
+
+	RegionTraffic(HRegionInfo region, SlidingWindow window, int sampleSize) {
+		this.region = region;
+		this.window = window;
+		this.sample = new byte[sampleSize][];
+	}
+
+	void record(byte[] row, long nowMs, long bytes) {
+		window.add(nowMs, 1, bytes);
+		// Algorithm R: the n-th row replaces a random slot with probability size / n.
+		long n = seen.incrementAndGet();
+		long slot = n <= sample.length ? n - 1 : ThreadLocalRandom.current().nextLong(n);
+		if (slot < sample.length) {
+			byte[] copy = Arrays.copyOf(row, row.length);
+			synchronized (sample) {
+				sample[(int) slot] = copy;
+			}
+		}
+	}
+
+	/**
+	 * The sampled rows, in no particular order.
+	 */
+	List<byte[]> sampledRows() {
+		List<byte[]> rows = new ArrayList<byte[]>(sample.length);
+		synchronized (sample) {
+			for (byte[] row : sample) {
+				if (row != null) {
+					rows.add(row);
+				}
+			}
+		}
+		return rows;
+	}
+
+	void resetSample() {
+		synchronized (sample) {
+			Arrays.fill(sample, null);
+			seen.set(0);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package jiq.hbase.hotspot;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Request and byte counts over the last {@code buckets * bucketMs} milliseconds, in a ring of time buckets.<br>
+ * Adding is two atomic additions; a bucket that comes round again is reset by the first writer of its new
+ * period, which may lose a concurrent addition of that instant. Good enough for rates.
+ */
+final class SlidingWindow {
+	private final long bucketMs;
+	private final AtomicLongArray periods;
+	private final AtomicLongArray requests;
+	private final AtomicLongArray bytes;
+
+	SlidingWindow(int buckets, long bucketMs) {
+		this.bucketMs = bucketMs;
+		this.periods = new AtomicLongArray(buckets);
+		this.requests = new AtomicLongArray(buckets);
+		this.bytes = new AtomicLongArray(buckets);
+	}
+
+	void add(long nowMs, long requestCount, long byteCount) {
+		long period = nowMs / bucketMs;
+		int i = (int) (period % periods.length());
+		long seen = periods.get(i);
+		if (seen != period && periods.compareAndSet(i, seen, period)) {
+			requests.set(i, 0);
+			bytes.set(i, 0);
+		}
+		requests.addAndGet(i, requestCount);
+		bytes.addAndGet(i, byteCount);
+	}
+
+	/**
+	 * Requests per second over the window ending now.
+	 */
+	double requestRate(long nowMs) {
+		return sum(requests, nowMs) * 1000.0 / (periods.length() * bucketMs);
+	}
+
+	double byteRate(long nowMs) {
+		return sum(bytes, nowMs) * 1000.0 / (periods.length() * bucketMs);
+	}
+
+	private long sum(AtomicLongArray counts, long nowMs) {
+		long now = nowMs / bucketMs;
+		long total = 0;
+		for (int i = 0; i < periods.length(); i++) {
+			if (now - periods.get(i) < periods.length()) {
+				total += counts.get(i);
+			}
+		}
+		return total;
+	}
+}
@@ -0,0 +1,79 @@
+package jiq.hbase.hotspot;
+
+import java.util.Date;
+
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * A hot region found by the {@link HotspotMonitor} and the keys to split it at.
+ */
+public class SplitSuggestion {
+	private final HRegionInfo region;
+	private final double requestRate;
+	private final double byteRate;
+	private final double meanRate;
+	private final byte[][] splitKeys;
+	private final long time;
+	private final boolean applied;
+
+	SplitSuggestion(HRegionInfo region, double requestRate, double byteRate, double meanRate, byte[][] splitKeys,
+			boolean applied) {
+		this.region = region;
+		this.requestRate = requestRate;
+		this.byteRate = byteRate;
+		this.meanRate = meanRate;
+		this.splitKeys = splitKeys;
+		this.time = System.currentTimeMillis();
+		this.applied = applied;
+	}
+
+	public HRegionInfo getRegion() {
+		return region;
+	}
+
+	/**
+	 * Requests per second of the region over the window.
+	 */
+	public double getRequestRate() {
+		return requestRate;
+	}
+
+	public double getByteRate() {
+		return byteRate;
+	}
+
+	/**
+	 * Mean requests per second of the regions of the table.
+	 */
+	public double getMeanRate() {
+		return meanRate;
+	}
+
+	public byte[][] getSplitKeys() {
+		return splitKeys;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * True if the monitor split the region, false if it only suggested it.
+	 */
+	public boolean isApplied() {
+		return applied;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(applied ? "Split " : "Suggest splitting ").append(region.getRegionNameAsString());
+		sb.append(String.format(" (%.1f req/s, %.0f B/s, table mean %.1f req/s) at", requestRate, byteRate, meanRate));
+		for (byte[] key : splitKeys) {
+			sb.append(' ').append(Bytes.toStringBinary(key));
+		}
+		sb.append(", ").append(new Date(time));
+		return sb.toString();
+	}
+}
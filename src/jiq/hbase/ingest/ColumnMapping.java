@@ -0,0 +1,157 @@
+package jiq.hbase.ingest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Turns a {@link Record} into a {@link Put}.<br>
+ * {@value #COLUMNS_KEY} maps the fields in order, one entry per field: {@code family:qualifier} or
+ * {@code family:qualifier:type}, or {@code -} to skip the field. {@value #ROWKEY_KEY} composes the row key from
+ * parts: a field number with an optional type ({@code 0}, {@code 3:long}), or a literal in single quotes, joined
+ * by {@value #ROWKEY_SEPARATOR_KEY}; with {@value #SALT_BUCKETS_KEY} above 0 the key is prefixed with one byte,
+ * its hash modulo the buckets, to spread sequential keys over the regions. The types are string, short, int, long,
+ * float, double and boolean, encoded like {@link Bytes#toBytes}. {@value #TIMESTAMP_FIELD_KEY} names a field
+ * holding the timestamp in milliseconds. Empty fields are not written.
+ */
+public class ColumnMapping {
+	public static final String COLUMNS_KEY = "jiq.hbase.ingest.columns";
+	public static final String ROWKEY_KEY = "jiq.hbase.ingest.rowkey";
+	public static final String ROWKEY_SEPARATOR_KEY = "jiq.hbase.ingest.rowkey.separator";
+	public static final String SALT_BUCKETS_KEY = "jiq.hbase.ingest.rowkey.salt.buckets";
+	public static final String TIMESTAMP_FIELD_KEY = "jiq.hbase.ingest.timestamp.field";
+	public static final String DURABILITY_KEY = "jiq.hbase.ingest.durability";
+
+	private final byte[][] families;
+	private final byte[][] qualifiers;
+	private final FieldType[] types;
+	// Row key parts: a field number and type, or a literal (field -1).
+	private final int[] keyFields;
+	private final FieldType[] keyTypes;
+	private final byte[][] keyLiterals;
+	private final byte[] separator;
+	private final int saltBuckets;
+	private final int timestampField;
+	private final Durability durability;
+
+	public ColumnMapping(Configuration conf) {
+		String[] columns = conf.getTrimmedStrings(COLUMNS_KEY);
+		if (columns.length == 0) {
+			throw new IllegalArgumentException(COLUMNS_KEY + " is not set");
+		}
+		families = new byte[columns.length][];
+		qualifiers = new byte[columns.length][];
+		types = new FieldType[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i].isEmpty() || "-".equals(columns[i])) {
+				continue;
+			}
+			String[] parts = columns[i].split(":");
+			if (parts.length < 2 || parts.length > 3 || parts[0].isEmpty()) {
+				throw new IllegalArgumentException("Invalid column " + columns[i] + " in " + COLUMNS_KEY
+						+ ", expected family:qualifier[:type]");
+			}
+			families[i] = Bytes.toBytes(parts[0]);
+			qualifiers[i] = Bytes.toBytes(parts[1]);
+			types[i] = FieldType.of(parts.length == 3 ? parts[2] : null);
+		}
+
+		String[] key = conf.getTrimmedStrings(ROWKEY_KEY, "0");
+		keyFields = new int[key.length];
+		keyTypes = new FieldType[key.length];
+		keyLiterals = new byte[key.length][];
+		for (int i = 0; i < key.length; i++) {
+			String part = key[i];
+			if (part.length() >= 2 && part.startsWith("'") && part.endsWith("'")) {
+				keyFields[i] = -1;
+				keyLiterals[i] = part.substring(1, part.length() - 1).getBytes(StandardCharsets.UTF_8);
+				continue;
+			}
+			String[] p = part.split(":");
+			try {
+				keyFields[i] = Integer.parseInt(p[0]);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid row key part " + part + " in " + ROWKEY_KEY
+						+ ", expected a field number[:type] or a 'literal'");
+			}
+			keyTypes[i] = FieldType.of(p.length > 1 ? p[1] : null);
+		}
+		separator = conf.get(ROWKEY_SEPARATOR_KEY, "").getBytes(StandardCharsets.UTF_8);
+		saltBuckets = conf.getInt(SALT_BUCKETS_KEY, 0);
+		if (saltBuckets > 256) {
+			throw new IllegalArgumentException(SALT_BUCKETS_KEY + " must be at most 256");
+		}
+		timestampField = conf.getInt(TIMESTAMP_FIELD_KEY, -1);
+		durability = Durability.valueOf(conf.getTrimmed(DURABILITY_KEY, "USE_DEFAULT").toUpperCase());
+	}
+
+	/**
+	 * The Put of the record, or null if it writes no column.
+	 *
+	 * @throws IOException if a field does not parse as its type or a row key field is missing
+	 */
+	Put toPut(Record r) throws IOException {
+		byte[] row = rowKey(r);
+		long ts = HConstants.LATEST_TIMESTAMP;
+		if (timestampField >= 0 && !r.isEmpty(timestampField)) {
+			ts = r.getLong(timestampField);
+		}
+		Put put = null;
+		int n = Math.min(r.count, families.length);
+		for (int i = 0; i < n; i++) {
+			if (families[i] == null || r.isEmpty(i)) {
+				continue;
+			}
+			if (put == null) {
+				put = new Put(row);
+				put.setDurability(durability);
+			}
+			put.addColumn(families[i], qualifiers[i], ts, types[i].encode(r, i));
+		}
+		return put;
+	}
+
+	private byte[] rowKey(Record r) throws IOException {
+		List<byte[]> parts = new ArrayList<byte[]>(keyFields.length);
+		int length = saltBuckets > 0 ? 1 : 0;
+		for (int i = 0; i < keyFields.length; i++) {
+			byte[] part;
+			if (keyFields[i] < 0) {
+				part = keyLiterals[i];
+			} else if (r.isEmpty(keyFields[i])) {
+				throw new IOException("Row key field " + keyFields[i] + " of the record at " + r.position
+						+ " is missing");
+			} else {
+				part = keyTypes[i].encode(r, keyFields[i]);
+			}
+			parts.add(part);
+			length += part.length + (i > 0 ? separator.length : 0);
+		}
+		byte[] key = new byte[length];
+		int pos = saltBuckets > 0 ? 1 : 0;
+		for (int i = 0; i < parts.size(); i++) {
+			if (i > 0) {
+				System.arraycopy(separator, 0, key, pos, separator.length);
+				pos += separator.length;
+			}
+			byte[] part = parts.get(i);
+			System.arraycopy(part, 0, key, pos, part.length);
+			pos += part.length;
+		}
+		if (saltBuckets > 0) {
+			int hash = 1;
+			for (int i = 1; i < key.length; i++) {
+				hash = 31 * hash + key[i];
+			}
+			key[0] = (byte) ((hash & Integer.MAX_VALUE) % saltBuckets);
+		}
+		return key;
+	}
+}
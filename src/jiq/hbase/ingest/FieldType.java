@@ -0,0 +1,49 @@
+package jiq.hbase.ingest;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * How a field of a delimited record is encoded into a row key part or a value, as {@link Bytes#toBytes} does
+ * for the type. Fields of binary records are stored as they are.
+ */
+enum FieldType {
+	STRING, SHORT, INT, LONG, FLOAT, DOUBLE, BOOLEAN;
+
+	byte[] encode(Record r, int i) throws IOException {
+		if (r.isBinary() || this == STRING) {
+			return r.bytes(i);
+		}
+		switch (this) {
+		case SHORT: {
+			long v = r.getLong(i);
+			if (v < Short.MIN_VALUE || v > Short.MAX_VALUE) {
+				throw new IOException("Field " + i + " of the record at " + r.position + " is out of range: " + v);
+			}
+			return Bytes.toBytes((short) v);
+		}
+		case INT: {
+			long v = r.getLong(i);
+			if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+				throw new IOException("Field " + i + " of the record at " + r.position + " is out of range: " + v);
+			}
+			return Bytes.toBytes((int) v);
+		}
+		case LONG:
+			return Bytes.toBytes(r.getLong(i));
+		case FLOAT:
+			return Bytes.toBytes((float) r.getDouble(i));
+		case DOUBLE:
+			return Bytes.toBytes(r.getDouble(i));
+		case BOOLEAN:
+			return Bytes.toBytes(r.getBoolean(i));
+		default:
+			return r.bytes(i);
+		}
+	}
+
+	static FieldType of(String name) {
+		return name == null || name.isEmpty() ? STRING : valueOf(name.trim().toUpperCase());
+	}
+}
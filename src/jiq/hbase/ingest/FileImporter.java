@@ -0,0 +1,458 @@
+package jiq.hbase.ingest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import jiq.hbase.throttle.WriteThrottle;
+import jiq.security.LoginUtil;
+
+/**
+ * Loads delimited or binary record files into a table, the fields mapped to columns by a {@link ColumnMapping}.<br>
+ * Each file is memory-mapped and cut into chunks of about {@value #CHUNK_SIZE_KEY} bytes that end on a record
+ * boundary: for delimited files at the next line break, for binary files by following the record lengths.
+ * {@value #PARSE_THREADS_KEY} threads parse the chunks straight from the mapping into Puts, in batches of
+ * {@value #BATCH_SIZE_KEY}, and hand them over a bounded queue to {@value #WRITE_THREADS_KEY} writer threads, so
+ * that parsing never waits for an RPC and a slow cluster slows parsing down instead of filling the heap. The
+ * writers go through the {@link WriteThrottle} when {@value WriteThrottle#ENABLED_KEY} is set (or one is given),
+ * else through a shared BufferedMutator.<br>
+ * Records that do not parse are logged and skipped, up to {@value #MAX_ERRORS_KEY}; then, or on a write failure,
+ * the import stops with an IOException. The rows written until then stay written. From the command line:
+ * 
+ * <pre>
+ * java jiq.hbase.ingest.FileImporter [-D key=value ...] table file...
+ * </pre>
+ */
+public class FileImporter {
+	private final static Log LOG = LogFactory.getLog(FileImporter.class.getName());
+
+	/** Input file used by the sample's importData(); not read by this class. */
+	public static final String FILE_KEY = "jiq.hbase.ingest.file";
+	/** delimited or binary. */
+	public static final String FORMAT_KEY = "jiq.hbase.ingest.format";
+	/** One character, or tab. */
+	public static final String DELIMITER_KEY = "jiq.hbase.ingest.delimiter";
+	/** One character; none by default. */
+	public static final String QUOTE_KEY = "jiq.hbase.ingest.quote";
+	/** Header lines to skip at the start of each delimited file. */
+	public static final String SKIP_LINES_KEY = "jiq.hbase.ingest.skip.lines";
+	public static final String CHUNK_SIZE_KEY = "jiq.hbase.ingest.chunk.size";
+	public static final String PARSE_THREADS_KEY = "jiq.hbase.ingest.parse.threads";
+	public static final String WRITE_THREADS_KEY = "jiq.hbase.ingest.write.threads";
+	public static final String BATCH_SIZE_KEY = "jiq.hbase.ingest.batch.size";
+	/** Batches waiting for a writer. */
+	public static final String QUEUE_SIZE_KEY = "jiq.hbase.ingest.queue.size";
+	/** Records that may fail to parse before the import stops, -1 for no limit. */
+	public static final String MAX_ERRORS_KEY = "jiq.hbase.ingest.max.errors";
+
+	private static final int MAX_LOGGED_ERRORS = 10;
+	private static final List<Put> END = Collections.emptyList();
+
+	/**
+	 * A part of a file ending on a record boundary.
+	 */
+	private static final class Chunk {
+		final FileChannel channel;
+		final long start;
+		final int length;
+		final boolean first;
+
+		Chunk(FileChannel channel, long start, int length, boolean first) {
+			this.channel = channel;
+			this.start = start;
+			this.length = length;
+			this.first = first;
+		}
+	}
+
+	private final Connection conn;
+	private final TableName tableName;
+	private final ColumnMapping mapping;
+	private final WriteThrottle throttle;
+	private final boolean binary;
+	private final byte delimiter;
+	private final byte quote;
+	private final int skipLines;
+	private final long chunkSize;
+	private final int parseThreads;
+	private final int writeThreads;
+	private final int batchSize;
+	private final int queueSize;
+	private final long maxErrors;
+
+	public FileImporter(Connection conn, TableName tableName) {
+		this(conn, tableName, conn.getConfiguration().getBoolean(WriteThrottle.ENABLED_KEY, false)
+				? new WriteThrottle(conn) : null);
+	}
+
+	/**
+	 * @param throttle the throttle to write through, null to write through a BufferedMutator
+	 */
+	public FileImporter(Connection conn, TableName tableName, WriteThrottle throttle) {
+		Configuration conf = conn.getConfiguration();
+		this.conn = conn;
+		this.tableName = tableName;
+		this.mapping = new ColumnMapping(conf);
+		this.throttle = throttle;
+		String format = conf.getTrimmed(FORMAT_KEY, "delimited");
+		if (!"delimited".equals(format) && !"binary".equals(format)) {
+			throw new IllegalArgumentException("Unknown " + FORMAT_KEY + " " + format + ", expected delimited or binary");
+		}
+		this.binary = "binary".equals(format);
+		this.delimiter = character(conf.get(DELIMITER_KEY, ","), DELIMITER_KEY);
+		String q = conf.get(QUOTE_KEY, "");
+		this.quote = q.isEmpty() ? 0 : character(q, QUOTE_KEY);
+		this.skipLines = conf.getInt(SKIP_LINES_KEY, 0);
+		this.chunkSize = Math.max(1, conf.getLong(CHUNK_SIZE_KEY, 64L * 1024 * 1024));
+		this.parseThreads = Math.max(1, conf.getInt(PARSE_THREADS_KEY, Runtime.getRuntime().availableProcessors()));
+		this.writeThreads = Math.max(1, conf.getInt(WRITE_THREADS_KEY, 4));
+		this.batchSize = Math.max(1, conf.getInt(BATCH_SIZE_KEY, 1000));
+		this.queueSize = Math.max(1, conf.getInt(QUEUE_SIZE_KEY, 4 * writeThreads));
+		this.maxErrors = conf.getLong(MAX_ERRORS_KEY, 100);
+	}
+
+	private static byte character(String s, String key) {
+		if ("tab".equals(s) || "\\t".equals(s)) {
+			return '\t';
+		}
+		if (s.length() != 1 || s.charAt(0) > 127) {
+			throw new IllegalArgumentException(key + " must be one ASCII character or tab, not " + s);
+		}
+		return (byte) s.charAt(0);
+	}
+
+	public ImportStats importFile(File file) throws IOException {
+		return importFiles(Collections.singletonList(file));
+	}
+
+	/**
+	 * Imports the files, in parallel with each other.
+	 */
+	public ImportStats importFiles(List<File> files) throws IOException {
+		final ImportStats stats = new ImportStats();
+		List<RandomAccessFile> opened = new ArrayList<RandomAccessFile>();
+		ExecutorService parsers = null;
+		ExecutorService writers = null;
+		BufferedMutator mutator = null;
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		try {
+			List<Chunk> chunks = new ArrayList<Chunk>();
+			for (File file : files) {
+				RandomAccessFile raf = new RandomAccessFile(file, "r");
+				opened.add(raf);
+				chunks.addAll(binary ? splitBinary(raf.getChannel()) : splitDelimited(raf.getChannel()));
+			}
+			LOG.info("Importing " + files.size() + " files into " + tableName + ": " + chunks.size() + " chunks, "
+					+ parseThreads + " parse and " + writeThreads + " write threads");
+
+			final BlockingQueue<List<Put>> queue = new ArrayBlockingQueue<List<Put>>(queueSize);
+			final BufferedMutator target = throttle == null ? conn.getBufferedMutator(tableName) : null;
+			mutator = target;
+			writers = newPool(writeThreads, "import-write-%d");
+			List<Future<Void>> writing = new ArrayList<Future<Void>>();
+			for (int i = 0; i < writeThreads; i++) {
+				writing.add(writers.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws InterruptedException {
+						write(queue, target, stats, failure);
+						return null;
+					}
+				}));
+			}
+			parsers = newPool(parseThreads, "import-parse-%d");
+			List<Future<Void>> parsing = new ArrayList<Future<Void>>();
+			final AtomicLong errors = new AtomicLong();
+			for (final Chunk chunk : chunks) {
+				parsing.add(parsers.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException, InterruptedException {
+						if (failure.get() == null) {
+							parse(chunk, queue, stats, errors, failure);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> f : parsing) {
+				await(f, failure);
+			}
+			for (int i = 0; i < writeThreads; i++) {
+				queue.put(END);
+			}
+			for (Future<Void> f : writing) {
+				await(f, failure);
+			}
+			if (mutator != null && failure.get() == null) {
+				mutator.flush();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted importing into " + tableName);
+		} finally {
+			if (parsers != null) {
+				parsers.shutdownNow();
+			}
+			if (writers != null) {
+				writers.shutdownNow();
+			}
+			if (mutator != null) {
+				mutator.close();
+			}
+			for (RandomAccessFile raf : opened) {
+				raf.close();
+			}
+			stats.endMillis = System.currentTimeMillis();
+		}
+		Throwable t = failure.get();
+		if (t != null) {
+			LOG.error("Import into " + tableName + " failed after " + stats);
+			throw t instanceof IOException ? (IOException) t : new IOException(t);
+		}
+		LOG.info("Imported into " + tableName + ": " + stats);
+		return stats;
+	}
+
+	private static void await(Future<Void> f, AtomicReference<Throwable> failure) throws InterruptedException {
+		try {
+			f.get();
+		} catch (ExecutionException e) {
+			failure.compareAndSet(null, e.getCause());
+		}
+	}
+
+	private void parse(Chunk chunk, BlockingQueue<List<Put>> queue, ImportStats stats, AtomicLong errors,
+			AtomicReference<Throwable> failure) throws IOException, InterruptedException {
+		MappedByteBuffer buf = chunk.channel.map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.length);
+		RecordParser parser;
+		if (binary) {
+			parser = new RecordParser.Binary(buf, chunk.start);
+		} else {
+			RecordParser.Delimited delimited = new RecordParser.Delimited(buf, chunk.start, delimiter, quote);
+			for (int i = 0; chunk.first && i < skipLines; i++) {
+				delimited.skipLine();
+			}
+			parser = delimited;
+		}
+		List<Put> batch = new ArrayList<Put>(batchSize);
+		long records = 0;
+		long puts = 0;
+		while (parser.next()) {
+			records++;
+			Put put;
+			try {
+				put = mapping.toPut(parser.record());
+			} catch (IOException e) {
+				stats.skipped.incrementAndGet();
+				long n = errors.incrementAndGet();
+				if (maxErrors >= 0 && n > maxErrors) {
+					throw new IOException("More than " + maxErrors + " records failed to parse", e);
+				}
+				if (n <= MAX_LOGGED_ERRORS) {
+					LOG.warn("Skipping record: " + e.getMessage());
+				}
+				continue;
+			}
+			if (put == null) {
+				continue;
+			}
+			puts++;
+			batch.add(put);
+			if (batch.size() == batchSize) {
+				enqueue(queue, batch, failure);
+				batch = new ArrayList<Put>(batchSize);
+				stats.records.addAndGet(records);
+				stats.puts.addAndGet(puts);
+				records = 0;
+				puts = 0;
+			}
+		}
+		if (!batch.isEmpty()) {
+			enqueue(queue, batch, failure);
+		}
+		stats.records.addAndGet(records);
+		stats.puts.addAndGet(puts);
+		stats.bytes.addAndGet(chunk.length);
+	}
+
+	/**
+	 * Waits for room in the queue, giving up when another worker has failed.
+	 */
+	private void enqueue(BlockingQueue<List<Put>> queue, List<Put> batch, AtomicReference<Throwable> failure)
+			throws IOException, InterruptedException {
+		while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+			if (failure.get() != null) {
+				throw new IOException("Import into " + tableName + " stopped", failure.get());
+			}
+		}
+	}
+
+	/**
+	 * Writes the batches of the queue until the end marker. After a failure it only drains the queue, so that
+	 * the parsers are not left waiting for room.
+	 */
+	private void write(BlockingQueue<List<Put>> queue, BufferedMutator mutator, ImportStats stats,
+			AtomicReference<Throwable> failure) throws InterruptedException {
+		while (true) {
+			List<Put> batch = queue.take();
+			if (batch == END) {
+				return;
+			}
+			if (failure.get() != null) {
+				continue;
+			}
+			try {
+				if (mutator != null) {
+					mutator.mutate(batch);
+				} else {
+					throttle.batch(tableName, batch);
+				}
+				stats.written.addAndGet(batch.size());
+			} catch (IOException e) {
+				failure.compareAndSet(null, e);
+			}
+		}
+	}
+
+	/**
+	 * Cuts a delimited file after the first line break at or past every chunk size.
+	 */
+	private List<Chunk> splitDelimited(FileChannel channel) throws IOException {
+		long size = channel.size();
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		ByteBuffer b = ByteBuffer.allocate(64 * 1024);
+		long start = 0;
+		while (start < size) {
+			long end = start + chunkSize;
+			if (end >= size) {
+				end = size;
+			} else {
+				// The line break at end - 1 ends this chunk.
+				long pos = end - 1;
+				end = size;
+				search: while (pos < size) {
+					b.clear();
+					int n = channel.read(b, pos);
+					if (n <= 0) {
+						break;
+					}
+					for (int i = 0; i < n; i++) {
+						if (b.get(i) == '\n') {
+							end = pos + i + 1;
+							break search;
+						}
+					}
+					pos += n;
+				}
+			}
+			chunks.add(chunk(channel, start, end, chunks.isEmpty()));
+			start = end;
+		}
+		return chunks;
+	}
+
+	/**
+	 * Cuts a binary file by following the record lengths through mapped windows.
+	 */
+	private List<Chunk> splitBinary(FileChannel channel) throws IOException {
+		long size = channel.size();
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		MappedByteBuffer window = null;
+		long windowStart = 0;
+		long start = 0;
+		long pos = 0;
+		while (pos < size) {
+			if (pos + 4 > size) {
+				throw new IOException("Truncated record at " + pos);
+			}
+			if (window == null || pos + 4 > windowStart + window.capacity()) {
+				windowStart = pos;
+				window = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(1L << 30, size - pos));
+			}
+			int length = window.getInt((int) (pos - windowStart));
+			if (length < 0) {
+				throw new IOException("Invalid record length " + length + " at " + pos);
+			}
+			pos += 4L + length;
+			if (pos - start >= chunkSize && pos <= size) {
+				chunks.add(chunk(channel, start, pos, chunks.isEmpty()));
+				start = pos;
+			}
+		}
+		if (pos > size) {
+			throw new IOException("Truncated record at the end of the file");
+		}
+		if (start < size) {
+			chunks.add(chunk(channel, start, size, chunks.isEmpty()));
+		}
+		return chunks;
+	}
+
+	private static Chunk chunk(FileChannel channel, long start, long end, boolean first) throws IOException {
+		if (end - start > Integer.MAX_VALUE) {
+			throw new IOException("Record boundary not found within 2 GB of offset " + start);
+		}
+		return new Chunk(channel, start, (int) (end - start), first);
+	}
+
+	private static ExecutorService newPool(int threads, String nameFormat) {
+		return Executors.newFixedThreadPool(threads,
+				new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build());
+	}
+
+	public static void main(String[] args) throws Exception {
+		String userdir = System.getProperty("user.dir") + File.separator + "conf" + File.separator;
+		Configuration conf = HBaseConfiguration.create();
+		conf.addResource(new Path(userdir + "core-site.xml"));
+		conf.addResource(new Path(userdir + "hdfs-site.xml"));
+		conf.addResource(new Path(userdir + "hbase-site.xml"));
+		String[] rest = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (rest.length < 2) {
+			System.err.println("Usage: FileImporter [-D key=value ...] table file...");
+			System.exit(2);
+		}
+		List<File> files = new ArrayList<File>();
+		for (int i = 1; i < rest.length; i++) {
+			files.add(new File(rest[i]));
+		}
+		LoginUtil.setJaasConf("Client", "jiq", userdir + "user.keytab");
+		LoginUtil.setZookeeperServerPrincipal("zookeeper.server.principal", "zookeeper.server.principal");
+		LoginUtil.login("jiq", userdir + "user.keytab", userdir + "krb5.conf", conf);
+		Connection conn = ConnectionFactory.createConnection(conf);
+		try {
+			new FileImporter(conn, TableName.valueOf(rest[0])).importFiles(files);
+		} finally {
+			conn.close();
+		}
+	}
+}
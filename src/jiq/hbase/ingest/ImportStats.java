@@ -0,0 +1,61 @@
+package jiq.hbase.ingest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts of one import, updated by the workers while it runs.
+ */
+public class ImportStats {
+	final AtomicLong bytes = new AtomicLong();
+	final AtomicLong records = new AtomicLong();
+	final AtomicLong puts = new AtomicLong();
+	final AtomicLong written = new AtomicLong();
+	final AtomicLong skipped = new AtomicLong();
+	final long startMillis = System.currentTimeMillis();
+	volatile long endMillis = 0;
+
+	/**
+	 * Input bytes parsed.
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	public long getRecords() {
+		return records.get();
+	}
+
+	/**
+	 * Puts built; records that write no column make none.
+	 */
+	public long getPuts() {
+		return puts.get();
+	}
+
+	/**
+	 * Puts handed to the table.
+	 */
+	public long getWritten() {
+		return written.get();
+	}
+
+	/**
+	 * Records that did not parse.
+	 */
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+	public long getElapsedMillis() {
+		return (endMillis > 0 ? endMillis : System.currentTimeMillis()) - startMillis;
+	}
+
+	@Override
+	public String toString() {
+		double seconds = Math.max(1, getElapsedMillis()) / 1000.0;
+		return getRecords() + " records, " + getPuts() + " puts, " + getWritten() + " written, " + getSkipped()
+				+ " skipped, " + getBytes() + " bytes in " + getElapsedMillis() + " ms ("
+				+ String.format("%.0f records/s, %.1f MB/s", getRecords() / seconds, getBytes() / seconds / 1e6)
+				+ ")";
+	}
+}
@@ -0,0 +1,149 @@
+package jiq.hbase.ingest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * The fields of one input record, as ranges of the mapped chunk; reused from record to record by a parser.
+ */
+final class Record {
+	private final ByteBuffer buf;
+	private final boolean binary;
+	private final byte quote;
+	int count = 0;
+	int[] start = new int[16];
+	int[] end = new int[16];
+	// Delimited: the field was quoted and contains doubled quotes to unescape.
+	boolean[] escaped = new boolean[16];
+	// Binary: the field is null.
+	boolean[] nulls = new boolean[16];
+	/** Offset of the record in the file. */
+	long position;
+
+	Record(ByteBuffer buf, boolean binary, byte quote) {
+		this.buf = buf;
+		this.binary = binary;
+		this.quote = quote;
+	}
+
+	void clear(long position) {
+		this.count = 0;
+		this.position = position;
+	}
+
+	void add(int from, int to, boolean escape, boolean isNull) {
+		if (count == start.length) {
+			start = Arrays.copyOf(start, count * 2);
+			end = Arrays.copyOf(end, count * 2);
+			escaped = Arrays.copyOf(escaped, count * 2);
+			nulls = Arrays.copyOf(nulls, count * 2);
+		}
+		start[count] = from;
+		end[count] = to;
+		escaped[count] = escape;
+		nulls[count] = isNull;
+		count++;
+	}
+
+	boolean isBinary() {
+		return binary;
+	}
+
+	/**
+	 * True if the record has no such field, or it is null (binary) or empty (delimited).
+	 */
+	boolean isEmpty(int i) {
+		return i >= count || nulls[i] || start[i] == end[i];
+	}
+
+	byte[] bytes(int i) {
+		int length = end[i] - start[i];
+		byte[] b = new byte[length];
+		for (int k = 0; k < length; k++) {
+			b[k] = buf.get(start[i] + k);
+		}
+		if (escaped[i]) {
+			// Undo the doubling of quotes inside a quoted field.
+			int n = 0;
+			for (int k = 0; k < length; k++) {
+				b[n++] = b[k];
+				if (b[k] == quote && k + 1 < length && b[k + 1] == quote) {
+					k++;
+				}
+			}
+			b = Arrays.copyOf(b, n);
+		}
+		return b;
+	}
+
+	String string(int i) {
+		return new String(bytes(i), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * The field as a decimal number, or for a binary record as 8 (or 4) big-endian bytes.
+	 */
+	long getLong(int i) throws IOException {
+		int from = start[i];
+		int to = end[i];
+		if (binary) {
+			if (to - from == Bytes.SIZEOF_LONG) {
+				return buf.getLong(from);
+			} else if (to - from == Bytes.SIZEOF_INT) {
+				return buf.getInt(from);
+			}
+			throw new IOException("Field " + i + " of the record at " + position + " is not an int or long");
+		}
+		if (from == to) {
+			throw new IOException("Field " + i + " of the record at " + position + " is empty");
+		}
+		boolean negative = buf.get(from) == '-';
+		if (negative || buf.get(from) == '+') {
+			from++;
+		}
+		if (from == to || to - from > 19) {
+			throw new IOException("Field " + i + " of the record at " + position + " is not a number: " + string(i));
+		}
+		long v = 0;
+		for (int k = from; k < to; k++) {
+			int d = buf.get(k) - '0';
+			if (d < 0 || d > 9) {
+				throw new IOException("Field " + i + " of the record at " + position + " is not a number: "
+						+ string(i));
+			}
+			v = v * 10 + d;
+		}
+		if (v < 0) {
+			throw new IOException("Field " + i + " of the record at " + position + " is out of range: " + string(i));
+		}
+		return negative ? -v : v;
+	}
+
+	double getDouble(int i) throws IOException {
+		if (binary) {
+			if (end[i] - start[i] == Bytes.SIZEOF_DOUBLE) {
+				return buf.getDouble(start[i]);
+			}
+			throw new IOException("Field " + i + " of the record at " + position + " is not a double");
+		}
+		try {
+			return Double.parseDouble(string(i).trim());
+		} catch (NumberFormatException e) {
+			throw new IOException("Field " + i + " of the record at " + position + " is not a number: " + string(i));
+		}
+	}
+
+	boolean getBoolean(int i) throws IOException {
+		String s = string(i).trim();
+		if ("true".equalsIgnoreCase(s) || "1".equals(s)) {
+			return true;
+		} else if ("false".equalsIgnoreCase(s) || "0".equals(s)) {
+			return false;
+		}
+		throw new IOException("Field " + i + " of the record at " + position + " is not a boolean: " + s);
+	}
+}
@@ -0,0 +1,170 @@
+package jiq.hbase.ingest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Cuts one mapped chunk of an input file into records, filling a reused {@link Record}. Not thread safe: each
+ * worker has its own.
+ */
+abstract class RecordParser {
+	protected final ByteBuffer buf;
+	protected final long base;
+	protected final Record record;
+	protected int pos = 0;
+
+	/**
+	 * @param base offset of the chunk in the file, for messages
+	 */
+	protected RecordParser(ByteBuffer buf, long base, Record record) {
+		this.buf = buf;
+		this.base = base;
+		this.record = record;
+	}
+
+	Record record() {
+		return record;
+	}
+
+	/**
+	 * Reads the next record into {@link #record()}.
+	 *
+	 * @return false at the end of the chunk
+	 */
+	abstract boolean next() throws IOException;
+
+	/**
+	 * Text records, one per line ('\n', with an optional '\r' before it), fields separated by a delimiter. With a
+	 * quote character, a field in quotes may contain the delimiter and doubled quotes, but not a line break: the
+	 * file is cut into chunks at line breaks. Empty lines are skipped.
+	 */
+	static final class Delimited extends RecordParser {
+		private final byte delimiter;
+		private final byte quote;
+
+		Delimited(ByteBuffer buf, long base, byte delimiter, byte quote) {
+			super(buf, base, new Record(buf, false, quote));
+			this.delimiter = delimiter;
+			this.quote = quote;
+		}
+
+		/**
+		 * Skips one line, for a header.
+		 */
+		void skipLine() {
+			int limit = buf.limit();
+			while (pos < limit && buf.get(pos++) != '\n') {
+				// Skip.
+			}
+		}
+
+		@Override
+		boolean next() {
+			int limit = buf.limit();
+			while (pos < limit) {
+				byte c = buf.get(pos);
+				if (c == '\n') {
+					pos++;
+				} else if (c == '\r' && pos + 1 < limit && buf.get(pos + 1) == '\n') {
+					pos += 2;
+				} else {
+					break;
+				}
+			}
+			if (pos >= limit) {
+				return false;
+			}
+			record.clear(base + pos);
+			while (true) {
+				if (quote != 0 && pos < limit && buf.get(pos) == quote) {
+					int from = pos + 1;
+					int k = from;
+					boolean escaped = false;
+					while (k < limit) {
+						byte c = buf.get(k);
+						if (c == quote) {
+							if (k + 1 < limit && buf.get(k + 1) == quote) {
+								escaped = true;
+								k += 2;
+								continue;
+							}
+							break;
+						}
+						k++;
+					}
+					record.add(from, Math.min(k, limit), escaped, false);
+					pos = Math.min(k + 1, limit);
+					// Anything between the closing quote and the delimiter (a '\r') is dropped.
+					while (pos < limit && buf.get(pos) != delimiter && buf.get(pos) != '\n') {
+						pos++;
+					}
+				} else {
+					int k = pos;
+					byte c;
+					while (k < limit && (c = buf.get(k)) != delimiter && c != '\n') {
+						k++;
+					}
+					int to = k;
+					if (to > pos && buf.get(to - 1) == '\r' && (k == limit || buf.get(k) == '\n')) {
+						to--;
+					}
+					record.add(pos, to, false, false);
+					pos = k;
+				}
+				if (pos >= limit) {
+					return true;
+				}
+				if (buf.get(pos++) == '\n') {
+					return true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Binary records: a big-endian int length and that many bytes, holding the fields, each a big-endian int
+	 * length (-1 for null) and the bytes.
+	 */
+	static final class Binary extends RecordParser {
+		Binary(ByteBuffer buf, long base) {
+			super(buf, base, new Record(buf, true, (byte) 0));
+		}
+
+		@Override
+		boolean next() throws IOException {
+			int limit = buf.limit();
+			if (pos >= limit) {
+				return false;
+			}
+			if (pos + 4 > limit) {
+				throw new IOException("Truncated record at " + (base + pos));
+			}
+			int length = buf.getInt(pos);
+			int from = pos + 4;
+			if (length < 0 || (long) from + length > limit) {
+				throw new IOException("Invalid record length " + length + " at " + (base + pos));
+			}
+			int to = from + length;
+			record.clear(base + pos);
+			int k = from;
+			while (k < to) {
+				if (k + 4 > to) {
+					throw new IOException("Truncated field in the record at " + (base + pos));
+				}
+				int fieldLength = buf.getInt(k);
+				k += 4;
+				if (fieldLength < 0) {
+					record.add(k, k, false, true);
+					continue;
+				}
+				if ((long) k + fieldLength > to) {
+					throw new IOException("Field overruns the record at " + (base + pos));
+				}
+				record.add(k, k + fieldLength, false, false);
+				k += fieldLength;
+			}
+			pos = to;
+			return true;
+		}
+	}
+}
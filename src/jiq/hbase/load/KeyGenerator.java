@@ -0,0 +1,110 @@
+package jiq.hbase.load;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses which existing row an operation touches, as an index in [0, inserted).<br>
+ * {@code uniform}: every row equally.<br>
+ * {@code zipfian}: a few rows get most of the operations; the popular indexes are scattered over the key space by
+ * a hash, so the hot rows are spread over the regions as in YCSB's scrambled zipfian.<br>
+ * {@code latest}: zipfian over the age of the rows, the most recently inserted the most popular.<br>
+ * {@code sequential}: one row after the other, wrapping around, like the consecutive keys of {@code HBase.put()}.
+ * All threads share one cursor, so the writes move through the regions together.<br>
+ * Generators are thread-safe; the randomness comes from the caller's {@link Random}.
+ */
+abstract class KeyGenerator {
+	/**
+	 * Rows loaded or inserted so far; an operation never picks an index at or above it.
+	 */
+	protected final AtomicLong inserted;
+
+	KeyGenerator(AtomicLong inserted) {
+		this.inserted = inserted;
+	}
+
+	abstract long next(Random random);
+
+	static KeyGenerator create(String distribution, long records, AtomicLong inserted, double theta) {
+		if ("uniform".equals(distribution)) {
+			return new Uniform(inserted);
+		} else if ("zipfian".equals(distribution)) {
+			return new Scrambled(inserted, new ZipfianGenerator(records, theta));
+		} else if ("latest".equals(distribution)) {
+			return new Latest(inserted, new ZipfianGenerator(records, theta));
+		} else if ("sequential".equals(distribution)) {
+			return new Sequential(inserted);
+		}
+		throw new IllegalArgumentException("Unknown key distribution " + distribution
+				+ ", expected uniform, zipfian, latest or sequential");
+	}
+
+	private static final class Uniform extends KeyGenerator {
+		Uniform(AtomicLong inserted) {
+			super(inserted);
+		}
+
+		@Override
+		long next(Random random) {
+			long n = Math.max(1, inserted.get());
+			return (random.nextLong() & Long.MAX_VALUE) % n;
+		}
+	}
+
+	private static final class Scrambled extends KeyGenerator {
+		private final ZipfianGenerator zipfian;
+
+		Scrambled(AtomicLong inserted, ZipfianGenerator zipfian) {
+			super(inserted);
+			this.zipfian = zipfian;
+		}
+
+		@Override
+		long next(Random random) {
+			long n = Math.max(1, inserted.get());
+			return (fnv(zipfian.next(random)) & Long.MAX_VALUE) % n;
+		}
+
+		/**
+		 * 64-bit FNV-1a over the bytes of the value.
+		 */
+		private static long fnv(long value) {
+			long hash = 0xcbf29ce484222325L;
+			for (int i = 0; i < 8; i++) {
+				hash ^= value & 0xff;
+				hash *= 0x100000001b3L;
+				value >>>= 8;
+			}
+			return hash;
+		}
+	}
+
+	private static final class Latest extends KeyGenerator {
+		private final ZipfianGenerator zipfian;
+
+		Latest(AtomicLong inserted, ZipfianGenerator zipfian) {
+			super(inserted);
+			this.zipfian = zipfian;
+		}
+
+		@Override
+		long next(Random random) {
+			long n = Math.max(1, inserted.get());
+			return Math.max(0, n - 1 - zipfian.next(random));
+		}
+	}
+
+	private static final class Sequential extends KeyGenerator {
+		private final AtomicLong cursor = new AtomicLong();
+
+		Sequential(AtomicLong inserted) {
+			super(inserted);
+		}
+
+		@Override
+		long next(Random random) {
+			long n = Math.max(1, inserted.get());
+			return cursor.getAndIncrement() % n;
+		}
+	}
+}
@@ -0,0 +1,338 @@
+package jiq.hbase.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import jiq.hbase.metrics.LatencyHistogram;
+
+/**
+ * Results of a load test run: per operation a {@link LatencyHistogram} of the measured phase in microseconds and
+ * the error count, and per second of the whole run (warm-up included) the operations and errors completed.<br>
+ * With a target rate the latency is taken from the time the operation was due, not the time it started, so a
+ * stall shows in the latency of the operations queued behind it instead of being hidden (coordinated omission).<br>
+ * The report can be written as JSON and compared with a saved one, see {@link #compare(File, double)}.
+ */
+public class LoadReport {
+	private static final double[] PERCENTILES = { 50, 90, 95, 99, 99.9 };
+
+	private final Workload workload;
+	private final LatencyHistogram[] latencies;
+	private final AtomicLong[] errors;
+	private final AtomicLongArray timeline;
+	private final AtomicLongArray timelineErrors;
+	private final long startNanos;
+	private volatile long measureStartNanos = 0;
+	private volatile long measuredNanos = 0;
+
+	LoadReport(Workload workload, long startNanos) {
+		this.workload = workload;
+		this.startNanos = startNanos;
+		Operation[] ops = Operation.values();
+		this.latencies = new LatencyHistogram[ops.length];
+		this.errors = new AtomicLong[ops.length];
+		for (int i = 0; i < ops.length; i++) {
+			latencies[i] = new LatencyHistogram();
+			errors[i] = new AtomicLong();
+		}
+		// A run limited by operation count may end early; one that overruns lands in the last second.
+		int seconds = workload.getWarmupSeconds() + workload.getDurationSeconds() + 1;
+		this.timeline = new AtomicLongArray(seconds);
+		this.timelineErrors = new AtomicLongArray(seconds);
+	}
+
+	void startMeasuring(long nanos) {
+		this.measureStartNanos = nanos;
+	}
+
+	void finish(long nanos) {
+		this.measuredNanos = Math.max(1, nanos - measureStartNanos);
+	}
+
+	void record(Operation op, long dueNanos, long endNanos, boolean error, boolean measured) {
+		int second = (int) Math.min(timeline.length() - 1, Math.max(0, (endNanos - startNanos) / 1000000000L));
+		if (error) {
+			timelineErrors.incrementAndGet(second);
+		} else {
+			timeline.incrementAndGet(second);
+		}
+		if (!measured) {
+			return;
+		}
+		if (error) {
+			errors[op.ordinal()].incrementAndGet();
+		} else {
+			latencies[op.ordinal()].record(TimeUnit.NANOSECONDS.toMicros(endNanos - dueNanos));
+		}
+	}
+
+	public long getCount(Operation op) {
+		return latencies[op.ordinal()].getCount();
+	}
+
+	public long getErrors(Operation op) {
+		return errors[op.ordinal()].get();
+	}
+
+	/**
+	 * Latency percentile (0-100) of op in the measured phase, in microseconds.
+	 */
+	public long getPercentile(Operation op, double percentile) {
+		return latencies[op.ordinal()].getPercentile(percentile);
+	}
+
+	/**
+	 * Successful operations per second of the measured phase.
+	 */
+	public double getThroughput(Operation op) {
+		return getCount(op) * 1e9 / Math.max(1, measuredNanos);
+	}
+
+	public double getThroughput() {
+		long total = 0;
+		for (Operation op : Operation.values()) {
+			total += getCount(op);
+		}
+		return total * 1e9 / Math.max(1, measuredNanos);
+	}
+
+	/**
+	 * Human readable report: one line per operation that ran, then the timeline.
+	 */
+	public String format() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.ROOT, "Load test on %s: %d threads, %s keys, values %s, %.1f s measured, %.1f ops/s%n",
+				workload.getTableName(), workload.getThreads(), workload.getKeyDistribution(),
+				workload.getValueSize(), measuredNanos / 1e9, getThroughput()));
+		sb.append(String.format(Locale.ROOT, "%-7s %10s %7s %10s %9s", "op", "count", "errors", "ops/s", "mean us"));
+		for (double p : PERCENTILES) {
+			sb.append(String.format(Locale.ROOT, " %9s", "p" + label(p) + " us"));
+		}
+		sb.append(String.format(Locale.ROOT, " %9s%n", "max us"));
+		for (Operation op : Operation.values()) {
+			LatencyHistogram h = latencies[op.ordinal()];
+			if (h.getCount() == 0 && getErrors(op) == 0) {
+				continue;
+			}
+			sb.append(String.format(Locale.ROOT, "%-7s %10d %7d %10.1f %9.1f", op, h.getCount(), getErrors(op),
+					getThroughput(op), h.getMean()));
+			for (double p : PERCENTILES) {
+				sb.append(String.format(Locale.ROOT, " %9d", h.getPercentile(p)));
+			}
+			sb.append(String.format(Locale.ROOT, " %9d%n", h.getMax()));
+		}
+		sb.append("Timeline (ops/errors per second, * warm-up):");
+		int last = lastSecond();
+		for (int s = 0; s <= last; s++) {
+			if (s % 10 == 0) {
+				sb.append(String.format(Locale.ROOT, "%n%4ds", s));
+			}
+			sb.append(' ').append(timeline.get(s)).append('/').append(timelineErrors.get(s))
+					.append(s < workload.getWarmupSeconds() ? "*" : "");
+		}
+		return sb.toString();
+	}
+
+	private int lastSecond() {
+		int last = timeline.length() - 1;
+		while (last > 0 && timeline.get(last) == 0 && timelineErrors.get(last) == 0) {
+			last--;
+		}
+		return last;
+	}
+
+	private static String label(double percentile) {
+		return percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile);
+	}
+
+	public String toJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n  \"table\": \"").append(workload.getTableName().getNameAsString()).append("\",\n");
+		sb.append("  \"threads\": ").append(workload.getThreads()).append(",\n");
+		sb.append("  \"targetRate\": ").append(number(workload.getTargetRate())).append(",\n");
+		sb.append("  \"keyDistribution\": \"").append(workload.getKeyDistribution()).append("\",\n");
+		sb.append("  \"valueSize\": \"").append(workload.getValueSize()).append("\",\n");
+		sb.append("  \"warmupSeconds\": ").append(workload.getWarmupSeconds()).append(",\n");
+		sb.append("  \"measuredSeconds\": ").append(number(measuredNanos / 1e9)).append(",\n");
+		sb.append("  \"throughput\": ").append(number(getThroughput())).append(",\n");
+		sb.append("  \"operations\": {");
+		String sep = "\n";
+		for (Operation op : Operation.values()) {
+			LatencyHistogram h = latencies[op.ordinal()];
+			if (h.getCount() == 0 && getErrors(op) == 0) {
+				continue;
+			}
+			sb.append(sep).append("    \"").append(op).append("\": {");
+			sb.append("\"proportion\": ").append(number(workload.getProportion(op)));
+			sb.append(", \"count\": ").append(h.getCount());
+			sb.append(", \"errors\": ").append(getErrors(op));
+			sb.append(", \"throughput\": ").append(number(getThroughput(op)));
+			sb.append(", \"meanUs\": ").append(number(h.getMean()));
+			for (double p : PERCENTILES) {
+				sb.append(", \"p").append(label(p).replace(".", "")).append("Us\": ").append(h.getPercentile(p));
+			}
+			sb.append(", \"maxUs\": ").append(h.getMax()).append('}');
+			sep = ",\n";
+		}
+		sb.append("\n  },\n  \"timeline\": [");
+		int last = lastSecond();
+		for (int s = 0; s <= last; s++) {
+			sb.append(s == 0 ? "" : ", ").append(timeline.get(s));
+		}
+		sb.append("],\n  \"timelineErrors\": [");
+		for (int s = 0; s <= last; s++) {
+			sb.append(s == 0 ? "" : ", ").append(timelineErrors.get(s));
+		}
+		sb.append("]\n}\n");
+		return sb.toString();
+	}
+
+	private static String number(double value) {
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+
+	public void write(File file) throws IOException {
+		Files.write(file.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Compares this run with a report saved by {@link #write(File)}. An operation regressed if its throughput fell,
+	 * or its p99 latency rose, by more than the tolerance (0.1 for 10%).
+	 * 
+	 * @return one line per regression, empty if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public List<String> compare(File baseline, double tolerance) throws IOException {
+		Map<String, Object> saved = (Map<String, Object>) new JsonReader(
+				new String(Files.readAllBytes(baseline.toPath()), StandardCharsets.UTF_8)).read();
+		Map<String, Object> savedOps = (Map<String, Object>) saved.get("operations");
+		List<String> regressions = new ArrayList<String>();
+		if (savedOps == null) {
+			return regressions;
+		}
+		for (Operation op : Operation.values()) {
+			Map<String, Object> before = (Map<String, Object>) savedOps.get(op.name());
+			if (before == null || getCount(op) == 0) {
+				continue;
+			}
+			double throughput = ((Number) before.get("throughput")).doubleValue();
+			double p99 = ((Number) before.get("p99Us")).doubleValue();
+			if (getThroughput(op) < throughput * (1 - tolerance)) {
+				regressions.add(String.format(Locale.ROOT, "%s throughput %.1f ops/s, baseline %.1f (%+.1f%%)", op,
+						getThroughput(op), throughput, change(getThroughput(op), throughput)));
+			}
+			if (getPercentile(op, 99) > p99 * (1 + tolerance)) {
+				regressions.add(String.format(Locale.ROOT, "%s p99 %d us, baseline %.0f (%+.1f%%)", op,
+						getPercentile(op, 99), p99, change(getPercentile(op, 99), p99)));
+			}
+		}
+		return regressions;
+	}
+
+	private static double change(double now, double before) {
+		return before == 0 ? 0 : (now - before) * 100 / before;
+	}
+
+	/**
+	 * Reads the JSON of {@link #toJson()}: objects, arrays, strings without escapes other than \" and \\, numbers,
+	 * true, false and null.
+	 */
+	private static final class JsonReader {
+		private final String text;
+		private int pos = 0;
+
+		JsonReader(String text) {
+			this.text = text;
+		}
+
+		Object read() throws IOException {
+			skipSpace();
+			if (pos >= text.length()) {
+				throw error("Unexpected end");
+			}
+			char c = text.charAt(pos);
+			if (c == '{') {
+				Map<String, Object> map = new LinkedHashMap<String, Object>();
+				pos++;
+				while (!consume('}')) {
+					skipSpace();
+					String key = (String) read();
+					expect(':');
+					map.put(key, read());
+					consume(',');
+				}
+				return map;
+			} else if (c == '[') {
+				List<Object> list = new ArrayList<Object>();
+				pos++;
+				while (!consume(']')) {
+					list.add(read());
+					consume(',');
+				}
+				return list;
+			} else if (c == '"') {
+				StringBuilder sb = new StringBuilder();
+				pos++;
+				while (pos < text.length() && text.charAt(pos) != '"') {
+					if (text.charAt(pos) == '\\') {
+						pos++;
+					}
+					sb.append(text.charAt(pos++));
+				}
+				expect('"');
+				return sb.toString();
+			} else if (text.startsWith("true", pos)) {
+				pos += 4;
+				return Boolean.TRUE;
+			} else if (text.startsWith("false", pos)) {
+				pos += 5;
+				return Boolean.FALSE;
+			} else if (text.startsWith("null", pos)) {
+				pos += 4;
+				return null;
+			}
+			int start = pos;
+			while (pos < text.length() && "+-.eE0123456789".indexOf(text.charAt(pos)) >= 0) {
+				pos++;
+			}
+			if (start == pos) {
+				throw error("Unexpected '" + c + "'");
+			}
+			return Double.valueOf(text.substring(start, pos));
+		}
+
+		private boolean consume(char c) {
+			skipSpace();
+			if (pos < text.length() && text.charAt(pos) == c) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		private void expect(char c) throws IOException {
+			if (!consume(c)) {
+				throw error("Expected '" + c + "'");
+			}
+		}
+
+		private void skipSpace() {
+			while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+				pos++;
+			}
+		}
+
+		private IOException error(String message) {
+			return new IOException(message + " at offset " + pos + " of the baseline report");
+		}
+	}
+}
@@ -0,0 +1,360 @@
+package jiq.hbase.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import jiq.security.LoginUtil;
+
+/**
+ * YCSB-style load test of a table.<br>
+ * {@link #load()} writes the rows of the {@link Workload}, creating the table pre-split into {@value #REGIONS_KEY}
+ * regions if it does not exist. {@link #run()} runs the operation mix from {@value Workload#THREADS_KEY} threads,
+ * each with its own Table, either as fast as possible or paced to {@value Workload#TARGET_RATE_KEY} operations per
+ * second, and returns a {@link LoadReport}.<br>
+ * From the command line:
+ * 
+ * <pre>
+ * java jiq.hbase.load.LoadTest [-D key=value ...] [load | run | all]
+ * </pre>
+ * 
+ * The configuration is read from conf/ like {@code HBase.main()}, then the -D options. {@value #MEMORY_KEY}=true runs
+ * against a {@link MemoryConnection} instead of the cluster (and always loads first). The report is logged, written
+ * as JSON to {@value #REPORT_FILE_KEY} if set, and compared with the JSON in {@value #BASELINE_FILE_KEY} if set; the
+ * process exits with status 1 if an operation regressed by more than {@value #BASELINE_TOLERANCE_KEY}.
+ */
+public class LoadTest {
+	private final static Log LOG = LogFactory.getLog(LoadTest.class.getName());
+
+	public static final String MEMORY_KEY = "jiq.hbase.load.memory";
+	public static final String REGIONS_KEY = "jiq.hbase.load.regions";
+	public static final String LOAD_BATCH_KEY = "jiq.hbase.load.batch";
+	public static final String REPORT_FILE_KEY = "jiq.hbase.load.report.file";
+	public static final String BASELINE_FILE_KEY = "jiq.hbase.load.baseline.file";
+	public static final String BASELINE_TOLERANCE_KEY = "jiq.hbase.load.baseline.tolerance";
+	public static final String SEED_KEY = "jiq.hbase.load.seed";
+
+	private static final int MAX_LOGGED_ERRORS = 10;
+
+	private final Connection conn;
+	private final Workload workload;
+	private final int regions;
+	private final int batch;
+	private final long seed;
+	// Rows below it exist (but for inserts still in flight below the latest finished one).
+	private final AtomicLong inserted = new AtomicLong();
+	private final AtomicLong nextInsert = new AtomicLong();
+	private final AtomicLong loggedErrors = new AtomicLong();
+	private final byte[] values;
+
+	public LoadTest(Connection conn) {
+		this(conn, new Workload(conn.getConfiguration()));
+	}
+
+	public LoadTest(Connection conn, Workload workload) {
+		Configuration conf = conn.getConfiguration();
+		this.conn = conn;
+		this.workload = workload;
+		this.regions = Math.max(1, conf.getInt(REGIONS_KEY, 10));
+		this.batch = Math.max(1, conf.getInt(LOAD_BATCH_KEY, 1000));
+		this.seed = conf.getLong(SEED_KEY, System.nanoTime());
+		// Values are random slices of this, so that they neither compress to nothing nor cost a Random call per byte.
+		this.values = new byte[Math.max(1024, workload.getSizes().getMax() * 2)];
+		new Random(seed).nextBytes(values);
+		this.inserted.set(workload.getRecords());
+		this.nextInsert.set(workload.getRecords());
+	}
+
+	/**
+	 * Creates the table if needed and writes rows [0, records) from all threads.
+	 */
+	public void load() throws IOException, InterruptedException {
+		if (!MemoryConnection.class.getSimpleName().equals(conn.toString())) {
+			createTable();
+		}
+		final long records = workload.getRecords();
+		final int threads = workload.getThreads();
+		LOG.info("Loading " + records + " rows into " + workload.getTableName() + " from " + threads + " threads");
+		long start = System.nanoTime();
+		ExecutorService pool = newPool(threads, "load-test-load-%d");
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int t = 0; t < threads; t++) {
+				final long from = records * t / threads;
+				final long to = records * (t + 1) / threads;
+				final Random random = new Random(seed + t);
+				futures.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						try (Table table = conn.getTable(workload.getTableName())) {
+							List<Put> puts = new ArrayList<Put>(batch);
+							for (long i = from; i < to; i++) {
+								puts.add(newPut(i, random));
+								if (puts.size() == batch) {
+									table.put(puts);
+									puts.clear();
+								}
+							}
+							if (!puts.isEmpty()) {
+								table.put(puts);
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					throw new IOException("Load failed", e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		inserted.set(records);
+		nextInsert.set(records);
+		long ms = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		LOG.info("Loaded " + records + " rows in " + ms + " ms, " + records * 1000 / ms + " rows/s");
+	}
+
+	private void createTable() throws IOException {
+		try (Admin admin = conn.getAdmin()) {
+			if (admin.tableExists(workload.getTableName())) {
+				return;
+			}
+			HTableDescriptor htd = new HTableDescriptor(workload.getTableName());
+			htd.addFamily(new HColumnDescriptor(workload.getFamily()));
+			if (regions > 1) {
+				byte[][] splits = new byte[regions - 1][];
+				for (int i = 1; i < regions; i++) {
+					splits[i - 1] = Workload.key(workload.getRecords() * i / regions);
+				}
+				admin.createTable(htd, splits);
+			} else {
+				admin.createTable(htd);
+			}
+			LOG.info("Created " + workload.getTableName() + " with " + regions + " regions");
+		}
+	}
+
+	/**
+	 * Runs the warm-up and the measured phase and returns the report of the measured one.
+	 */
+	public LoadReport run() throws IOException, InterruptedException {
+		final int threads = workload.getThreads();
+		final long start = System.nanoTime();
+		final long measureStart = start + TimeUnit.SECONDS.toNanos(workload.getWarmupSeconds());
+		final long end = measureStart + TimeUnit.SECONDS.toNanos(workload.getDurationSeconds());
+		// Each thread is due for an operation every interval; 0 when unpaced.
+		final long interval = workload.getTargetRate() > 0
+				? (long) (TimeUnit.SECONDS.toNanos(1) * threads / workload.getTargetRate()) : 0;
+		final AtomicLong remaining = new AtomicLong(
+				workload.getOperations() > 0 ? workload.getOperations() : Long.MAX_VALUE);
+		final LoadReport report = new LoadReport(workload, start);
+		report.startMeasuring(measureStart);
+		LOG.info("Running " + workload.getTableName() + ": " + threads + " threads, "
+				+ (interval > 0 ? workload.getTargetRate() + " ops/s" : "unpaced") + ", "
+				+ workload.getWarmupSeconds() + " s warm-up, " + workload.getDurationSeconds() + " s measured");
+		ExecutorService pool = newPool(threads, "load-test-run-%d");
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			// One generator for all threads: the sequential cursor is shared and the zipfian constants computed once.
+			final KeyGenerator keys = workload.newKeyGenerator(workload.getRecords(), inserted);
+			for (int t = 0; t < threads; t++) {
+				final Random random = new Random(seed + threads + t);
+				// Spread the threads' schedules over one interval so that they do not fire together.
+				final long first = start + interval * t / threads;
+				futures.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException, InterruptedException {
+						try (Table table = conn.getTable(workload.getTableName())) {
+							long due = first;
+							while (true) {
+								long now = System.nanoTime();
+								if (interval > 0) {
+									if (due > now) {
+										TimeUnit.NANOSECONDS.sleep(due - now);
+									}
+								} else {
+									due = now;
+								}
+								if (due >= end) {
+									return null;
+								}
+								boolean measured = due >= measureStart;
+								if (measured && remaining.getAndDecrement() <= 0) {
+									return null;
+								}
+								Operation op = workload.choose(random);
+								boolean error = false;
+								try {
+									execute(table, op, keys, random);
+								} catch (IOException e) {
+									error = true;
+									if (loggedErrors.incrementAndGet() <= MAX_LOGGED_ERRORS) {
+										LOG.warn("Load test " + op + " failed", e);
+									}
+								}
+								report.record(op, due, System.nanoTime(), error, measured);
+								due += interval;
+							}
+						}
+					}
+				}));
+			}
+			for (Future<Void> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					throw new IOException("Load test failed", e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		report.finish(Math.min(end, System.nanoTime()));
+		return report;
+	}
+
+	private void execute(Table table, Operation op, KeyGenerator keys, Random random) throws IOException {
+		switch (op) {
+		case READ:
+			table.get(new Get(Workload.key(keys.next(random))).addFamily(workload.getFamily()));
+			break;
+		case UPDATE:
+			table.put(newPut(keys.next(random), random));
+			break;
+		case INSERT:
+			long index = nextInsert.getAndIncrement();
+			table.put(newPut(index, random));
+			// The row only becomes a candidate for the other operations once written.
+			long last;
+			while ((last = inserted.get()) <= index && !inserted.compareAndSet(last, index + 1)) {
+			}
+			break;
+		case SCAN:
+			int length = 1 + random.nextInt(workload.getScanLength());
+			Scan scan = new Scan(Workload.key(keys.next(random)));
+			scan.addFamily(workload.getFamily());
+			scan.setCaching(length);
+			try (ResultScanner scanner = table.getScanner(scan)) {
+				int rows = 0;
+				for (Result r = scanner.next(); r != null && ++rows < length; r = scanner.next()) {
+				}
+			}
+			break;
+		case DELETE:
+			table.delete(new Delete(Workload.key(keys.next(random))));
+			break;
+		}
+	}
+
+	private Put newPut(long index, Random random) {
+		byte[] row = Workload.key(index);
+		byte[] family = workload.getFamily();
+		Put put = new Put(row);
+		long ts = System.currentTimeMillis();
+		for (byte[] qualifier : workload.getQualifiers()) {
+			int size = workload.getSizes().next(random);
+			int off = random.nextInt(values.length - size + 1);
+			// One copy of the value, straight into the KeyValue.
+			put.addColumn(family, ByteBuffer.wrap(qualifier), ts, ByteBuffer.wrap(values, off, size));
+		}
+		return put;
+	}
+
+	private static ExecutorService newPool(int threads, String nameFormat) {
+		return Executors.newFixedThreadPool(threads,
+				new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build());
+	}
+
+	public static void main(String[] args) throws Exception {
+		String userdir = System.getProperty("user.dir") + File.separator + "conf" + File.separator;
+		Configuration conf = HBaseConfiguration.create();
+		conf.addResource(new Path(userdir + "core-site.xml"));
+		conf.addResource(new Path(userdir + "hdfs-site.xml"));
+		conf.addResource(new Path(userdir + "hbase-site.xml"));
+		String[] rest = new GenericOptionsParser(conf, args).getRemainingArgs();
+		String command = rest.length > 0 ? rest[0] : "all";
+		if (!"load".equals(command) && !"run".equals(command) && !"all".equals(command)) {
+			System.err.println("Usage: LoadTest [-D key=value ...] [load | run | all]");
+			System.exit(2);
+		}
+
+		boolean memory = conf.getBoolean(MEMORY_KEY, false);
+		Connection conn;
+		if (memory) {
+			conn = MemoryConnection.create(conf);
+		} else {
+			LoginUtil.setJaasConf("Client", "jiq", userdir + "user.keytab");
+			LoginUtil.setZookeeperServerPrincipal("zookeeper.server.principal", "zookeeper.server.principal");
+			LoginUtil.login("jiq", userdir + "user.keytab", userdir + "krb5.conf", conf);
+			conn = ConnectionFactory.createConnection(conf);
+		}
+		List<String> regressions = new ArrayList<String>();
+		try {
+			LoadTest test = new LoadTest(conn);
+			if (memory || !"run".equals(command)) {
+				test.load();
+			}
+			if ("load".equals(command)) {
+				return;
+			}
+			LoadReport report = test.run();
+			LOG.info(report.format());
+			String reportFile = conf.get(REPORT_FILE_KEY);
+			if (reportFile != null) {
+				report.write(new File(reportFile));
+				LOG.info("Report written to " + reportFile);
+			}
+			String baseline = conf.get(BASELINE_FILE_KEY);
+			if (baseline != null) {
+				regressions = report.compare(new File(baseline), conf.getDouble(BASELINE_TOLERANCE_KEY, 0.1));
+				for (String regression : regressions) {
+					LOG.error("Regression against " + baseline + ": " + regression);
+				}
+				if (regressions.isEmpty()) {
+					LOG.info("No regression against " + baseline);
+				}
+			}
+		} finally {
+			conn.close();
+		}
+		if (!regressions.isEmpty()) {
+			System.exit(1);
+		}
+	}
+}
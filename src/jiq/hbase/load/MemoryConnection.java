@@ -0,0 +1,310 @@
+package jiq.hbase.load;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * In-memory stand-in for a cluster, to run a load test without one, for example to measure the client side
+ * alone or to check a workload definition.<br>
+ * A {@link Connection} whose tables exist on first use and keep the latest version of every cell in sorted
+ * concurrent maps. Tables support get, exists, put, delete and scan by row range and family or column; filters,
+ * time ranges and versions are ignored. Admin, BufferedMutator, batch, increment and the other calls throw
+ * {@link UnsupportedOperationException}.
+ */
+public final class MemoryConnection implements InvocationHandler {
+	// row -> family -> qualifier -> cell
+	private static final class Store {
+		final ConcurrentSkipListMap<byte[], ConcurrentSkipListMap<byte[], ConcurrentSkipListMap<byte[], Cell>>> rows =
+				new ConcurrentSkipListMap<byte[], ConcurrentSkipListMap<byte[], ConcurrentSkipListMap<byte[], Cell>>>(
+						Bytes.BYTES_COMPARATOR);
+	}
+
+	private final Configuration conf;
+	private final ConcurrentMap<TableName, Store> tables = new ConcurrentHashMap<TableName, Store>();
+	private volatile boolean closed = false;
+
+	private MemoryConnection(Configuration conf) {
+		this.conf = conf;
+	}
+
+	public static Connection create(Configuration conf) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new MemoryConnection(conf));
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if ("getTable".equals(name)) {
+			TableName tableName = (TableName) args[0];
+			Store store = tables.get(tableName);
+			if (store == null) {
+				tables.putIfAbsent(tableName, new Store());
+				store = tables.get(tableName);
+			}
+			return Proxy.newProxyInstance(Table.class.getClassLoader(), new Class<?>[] { Table.class },
+					new MemoryTable(tableName, store));
+		} else if ("getConfiguration".equals(name)) {
+			return conf;
+		} else if ("close".equals(name)) {
+			closed = true;
+			return null;
+		} else if ("isClosed".equals(name) || "isAborted".equals(name)) {
+			return closed;
+		} else if ("abort".equals(name)) {
+			closed = true;
+			return null;
+		}
+		return objectMethod(proxy, method, args, "MemoryConnection");
+	}
+
+	private static Object objectMethod(Object proxy, Method method, Object[] args, String description) {
+		String name = method.getName();
+		if ("toString".equals(name)) {
+			return description;
+		} else if ("hashCode".equals(name)) {
+			return System.identityHashCode(proxy);
+		} else if ("equals".equals(name)) {
+			return proxy == args[0];
+		}
+		throw new UnsupportedOperationException(method.getName() + " is not supported by " + description);
+	}
+
+	private final class MemoryTable implements InvocationHandler {
+		private final TableName tableName;
+		private final Store store;
+
+		MemoryTable(TableName tableName, Store store) {
+			this.tableName = tableName;
+			this.store = store;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			Object first = args == null || args.length == 0 ? null : args[0];
+			if ("get".equals(name) && first instanceof Get) {
+				return get((Get) first);
+			} else if ("get".equals(name) && first instanceof List) {
+				List<?> gets = (List<?>) first;
+				Result[] results = new Result[gets.size()];
+				for (int i = 0; i < results.length; i++) {
+					results[i] = get((Get) gets.get(i));
+				}
+				return results;
+			} else if ("exists".equals(name) && first instanceof Get) {
+				return !get((Get) first).isEmpty();
+			} else if ("existsAll".equals(name)) {
+				List<?> gets = (List<?>) first;
+				boolean[] results = new boolean[gets.size()];
+				for (int i = 0; i < results.length; i++) {
+					results[i] = !get((Get) gets.get(i)).isEmpty();
+				}
+				return results;
+			} else if ("put".equals(name)) {
+				if (first instanceof List) {
+					for (Object put : (List<?>) first) {
+						put((Put) put);
+					}
+				} else {
+					put((Put) first);
+				}
+				return null;
+			} else if ("delete".equals(name)) {
+				if (first instanceof List) {
+					// Like HTable, leave only the deletes that failed in the list.
+					List<?> deletes = (List<?>) first;
+					for (Object delete : deletes) {
+						delete((Delete) delete);
+					}
+					deletes.clear();
+				} else {
+					delete((Delete) first);
+				}
+				return null;
+			} else if ("getScanner".equals(name)) {
+				Scan scan;
+				if (first instanceof Scan) {
+					scan = (Scan) first;
+				} else {
+					scan = new Scan();
+					scan.addFamily((byte[]) first);
+					if (args.length > 1) {
+						scan.addColumn((byte[]) first, (byte[]) args[1]);
+					}
+				}
+				return new MemoryScanner(scan);
+			} else if ("getName".equals(name)) {
+				return tableName;
+			} else if ("getConfiguration".equals(name)) {
+				return conf;
+			} else if ("close".equals(name)) {
+				return null;
+			}
+			return objectMethod(proxy, method, args, "MemoryTable " + tableName);
+		}
+
+		private Result get(Get get) {
+			return result(store.rows.get(get.getRow()), get.getFamilyMap());
+		}
+
+		private void put(Put put) {
+			ConcurrentSkipListMap<byte[], ConcurrentSkipListMap<byte[], Cell>> families = store.rows.get(put.getRow());
+			if (families == null) {
+				store.rows.putIfAbsent(put.getRow(),
+						new ConcurrentSkipListMap<byte[], ConcurrentSkipListMap<byte[], Cell>>(Bytes.BYTES_COMPARATOR));
+				families = store.rows.get(put.getRow());
+			}
+			for (Map.Entry<byte[], List<Cell>> e : put.getFamilyCellMap().entrySet()) {
+				ConcurrentSkipListMap<byte[], Cell> columns = families.get(e.getKey());
+				if (columns == null) {
+					families.putIfAbsent(e.getKey(), new ConcurrentSkipListMap<byte[], Cell>(Bytes.BYTES_COMPARATOR));
+					columns = families.get(e.getKey());
+				}
+				for (Cell cell : e.getValue()) {
+					columns.put(CellUtil.cloneQualifier(cell), cell);
+				}
+			}
+		}
+
+		private void delete(Delete delete) {
+			if (delete.getFamilyCellMap().isEmpty()) {
+				store.rows.remove(delete.getRow());
+				return;
+			}
+			ConcurrentSkipListMap<byte[], ConcurrentSkipListMap<byte[], Cell>> families =
+					store.rows.get(delete.getRow());
+			if (families == null) {
+				return;
+			}
+			for (Map.Entry<byte[], List<Cell>> e : delete.getFamilyCellMap().entrySet()) {
+				for (Cell cell : e.getValue()) {
+					if (cell.getTypeByte() == KeyValue.Type.DeleteFamily.getCode()) {
+						families.remove(e.getKey());
+					} else {
+						ConcurrentSkipListMap<byte[], Cell> columns = families.get(e.getKey());
+						if (columns != null) {
+							columns.remove(CellUtil.cloneQualifier(cell));
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * The cells of the row in the requested families and columns, all of them if none is requested.
+		 */
+		private Result result(NavigableMap<byte[], ConcurrentSkipListMap<byte[], Cell>> families,
+				Map<byte[], NavigableSet<byte[]>> requested) {
+			if (families == null) {
+				return Result.EMPTY_RESULT;
+			}
+			List<Cell> cells = new ArrayList<Cell>();
+			for (Map.Entry<byte[], ConcurrentSkipListMap<byte[], Cell>> family : families.entrySet()) {
+				if (!requested.isEmpty() && !requested.containsKey(family.getKey())) {
+					continue;
+				}
+				NavigableSet<byte[]> columns = requested.isEmpty() ? null : requested.get(family.getKey());
+				for (Map.Entry<byte[], Cell> column : family.getValue().entrySet()) {
+					if (columns == null || columns.isEmpty() || columns.contains(column.getKey())) {
+						cells.add(column.getValue());
+					}
+				}
+			}
+			return cells.isEmpty() ? Result.EMPTY_RESULT : Result.create(cells);
+		}
+
+		private final class MemoryScanner implements ResultScanner {
+			private final Scan scan;
+			private final Iterator<Map.Entry<byte[], ConcurrentSkipListMap<byte[], ConcurrentSkipListMap<byte[], Cell>>>> rows;
+
+			MemoryScanner(Scan scan) {
+				this.scan = scan;
+				ConcurrentNavigableMap<byte[], ConcurrentSkipListMap<byte[], ConcurrentSkipListMap<byte[], Cell>>> range =
+						store.rows;
+				if (scan.getStartRow().length > 0) {
+					range = range.tailMap(scan.getStartRow(), true);
+				}
+				if (scan.getStopRow().length > 0) {
+					range = range.headMap(scan.getStopRow(), false);
+				}
+				this.rows = range.entrySet().iterator();
+			}
+
+			@Override
+			public Result next() {
+				while (rows.hasNext()) {
+					Result result = result(rows.next().getValue(), scan.getFamilyMap());
+					if (!result.isEmpty()) {
+						return result;
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public Result[] next(int nbRows) {
+				List<Result> results = new ArrayList<Result>(nbRows);
+				Result result;
+				while (results.size() < nbRows && (result = next()) != null) {
+					results.add(result);
+				}
+				return results.toArray(new Result[results.size()]);
+			}
+
+			@Override
+			public void close() {
+			}
+
+			@Override
+			public Iterator<Result> iterator() {
+				return new Iterator<Result>() {
+					private Result next = MemoryScanner.this.next();
+
+					@Override
+					public boolean hasNext() {
+						return next != null;
+					}
+
+					@Override
+					public Result next() {
+						Result result = next;
+						next = MemoryScanner.this.next();
+						return result;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		}
+	}
+}
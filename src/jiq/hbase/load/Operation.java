@@ -0,0 +1,21 @@
+package jiq.hbase.load;
+
+/**
+ * Operations of a load test workload. The share of each is set by {@code jiq.hbase.load.<name>.proportion}.
+ */
+public enum Operation {
+	/** Get of one existing row. */
+	READ,
+	/** Put over one existing row. */
+	UPDATE,
+	/** Put of a new row after the last inserted one. */
+	INSERT,
+	/** Scan of a few rows from an existing row on. */
+	SCAN,
+	/** Delete of one existing row. */
+	DELETE;
+
+	String proportionKey() {
+		return "jiq.hbase.load." + name().toLowerCase() + ".proportion";
+	}
+}
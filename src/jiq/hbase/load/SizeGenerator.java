@@ -0,0 +1,58 @@
+package jiq.hbase.load;
+
+import java.util.Random;
+
+/**
+ * Value sizes of written cells, from a spec of the form {@code <distribution>:<min>[-<max>]}:<br>
+ * {@code fixed:100} always 100 bytes; {@code uniform:100-1000} any size in the range equally;
+ * {@code zipfian:100-10000} mostly sizes near the minimum with a long tail up to the maximum.
+ */
+final class SizeGenerator {
+	private final int min;
+	private final int max;
+	private final ZipfianGenerator zipfian;
+
+	private SizeGenerator(int min, int max, ZipfianGenerator zipfian) {
+		this.min = min;
+		this.max = max;
+		this.zipfian = zipfian;
+	}
+
+	static SizeGenerator parse(String spec) {
+		int colon = spec.indexOf(':');
+		if (colon < 0) {
+			throw new IllegalArgumentException("Value size " + spec + " is not <distribution>:<min>[-<max>]");
+		}
+		String distribution = spec.substring(0, colon).trim();
+		String range = spec.substring(colon + 1).trim();
+		int dash = range.indexOf('-');
+		int min = Integer.parseInt((dash < 0 ? range : range.substring(0, dash)).trim());
+		int max = dash < 0 ? min : Integer.parseInt(range.substring(dash + 1).trim());
+		if (min < 0 || max < min) {
+			throw new IllegalArgumentException("Bad value size range in " + spec);
+		}
+		if ("fixed".equals(distribution)) {
+			return new SizeGenerator(min, min, null);
+		} else if ("uniform".equals(distribution)) {
+			return new SizeGenerator(min, max, null);
+		} else if ("zipfian".equals(distribution)) {
+			return new SizeGenerator(min, max, new ZipfianGenerator(max - min + 1, ZipfianGenerator.DEFAULT_THETA));
+		}
+		throw new IllegalArgumentException("Unknown value size distribution " + distribution
+				+ ", expected fixed, uniform or zipfian");
+	}
+
+	int next(Random random) {
+		if (min == max) {
+			return min;
+		}
+		if (zipfian != null) {
+			return min + (int) zipfian.next(random);
+		}
+		return min + random.nextInt(max - min + 1);
+	}
+
+	int getMax() {
+		return max;
+	}
+}
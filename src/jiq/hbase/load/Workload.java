@@ -0,0 +1,183 @@
+package jiq.hbase.load;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * What a load test does, read from the configuration.<br>
+ * Rows have 12-digit keys like those of {@code HBase.put()} ("000000000042"), with {@value #COLUMNS_KEY} columns
+ * of {@value #VALUE_SIZE_KEY} bytes in family {@value #FAMILY_KEY}. The load phase writes {@value #RECORDS_KEY}
+ * rows; the run phase mixes the {@link Operation}s by their proportions over rows chosen by
+ * {@value #KEY_DISTRIBUTION_KEY}, first for {@value #WARMUP_KEY} seconds that are not measured, then for
+ * {@value #DURATION_KEY} seconds (or until {@value #OPERATIONS_KEY} operations) that are.
+ */
+public class Workload {
+	public static final String TABLE_KEY = "jiq.hbase.load.table";
+	public static final String FAMILY_KEY = "jiq.hbase.load.family";
+	public static final String COLUMNS_KEY = "jiq.hbase.load.columns";
+	public static final String RECORDS_KEY = "jiq.hbase.load.records";
+	/** uniform, zipfian, latest or sequential, see {@link KeyGenerator}. */
+	public static final String KEY_DISTRIBUTION_KEY = "jiq.hbase.load.key.distribution";
+	public static final String ZIPFIAN_THETA_KEY = "jiq.hbase.load.zipfian.theta";
+	/** fixed:N, uniform:MIN-MAX or zipfian:MIN-MAX, see {@link SizeGenerator}. */
+	public static final String VALUE_SIZE_KEY = "jiq.hbase.load.value.size";
+	public static final String SCAN_LENGTH_KEY = "jiq.hbase.load.scan.max.length";
+	public static final String THREADS_KEY = "jiq.hbase.load.threads";
+	/** Operations per second over all threads, 0 for as fast as possible. */
+	public static final String TARGET_RATE_KEY = "jiq.hbase.load.target.rate";
+	public static final String WARMUP_KEY = "jiq.hbase.load.warmup.seconds";
+	public static final String DURATION_KEY = "jiq.hbase.load.duration.seconds";
+	/** Stop the measured phase after this many operations, 0 for no limit. */
+	public static final String OPERATIONS_KEY = "jiq.hbase.load.operations";
+
+	static final int KEY_DIGITS = 12;
+
+	private final TableName tableName;
+	private final byte[] family;
+	private final byte[][] qualifiers;
+	private final long records;
+	private final String keyDistribution;
+	private final double theta;
+	private final String valueSize;
+	private final SizeGenerator sizes;
+	private final int scanLength;
+	private final int threads;
+	private final double targetRate;
+	private final int warmupSeconds;
+	private final int durationSeconds;
+	private final long operations;
+	private final double[] cumulative;
+
+	public Workload(Configuration conf) {
+		this.tableName = TableName.valueOf(conf.get(TABLE_KEY, "load_test_table"));
+		this.family = Bytes.toBytes(conf.get(FAMILY_KEY, "info"));
+		this.qualifiers = new byte[Math.max(1, conf.getInt(COLUMNS_KEY, 1))][];
+		for (int i = 0; i < qualifiers.length; i++) {
+			qualifiers[i] = Bytes.toBytes("field" + i);
+		}
+		this.records = conf.getLong(RECORDS_KEY, 100000L);
+		this.keyDistribution = conf.get(KEY_DISTRIBUTION_KEY, "zipfian");
+		this.theta = conf.getDouble(ZIPFIAN_THETA_KEY, ZipfianGenerator.DEFAULT_THETA);
+		this.valueSize = conf.get(VALUE_SIZE_KEY, "fixed:100");
+		this.sizes = SizeGenerator.parse(valueSize);
+		this.scanLength = Math.max(1, conf.getInt(SCAN_LENGTH_KEY, 100));
+		this.threads = Math.max(1, conf.getInt(THREADS_KEY, 16));
+		this.targetRate = conf.getDouble(TARGET_RATE_KEY, 0);
+		this.warmupSeconds = Math.max(0, conf.getInt(WARMUP_KEY, 10));
+		this.durationSeconds = Math.max(1, conf.getInt(DURATION_KEY, 60));
+		this.operations = conf.getLong(OPERATIONS_KEY, 0L);
+
+		Operation[] ops = Operation.values();
+		this.cumulative = new double[ops.length];
+		double total = 0;
+		for (Operation op : ops) {
+			double share = conf.getDouble(op.proportionKey(), op == Operation.READ || op == Operation.UPDATE ? 0.5 : 0);
+			if (share < 0) {
+				throw new IllegalArgumentException(op.proportionKey() + " is negative");
+			}
+			total += share;
+			cumulative[op.ordinal()] = total;
+		}
+		if (total <= 0) {
+			throw new IllegalArgumentException("All operation proportions are 0");
+		}
+		for (int i = 0; i < cumulative.length; i++) {
+			cumulative[i] /= total;
+		}
+	}
+
+	Operation choose(Random random) {
+		double u = random.nextDouble();
+		Operation[] ops = Operation.values();
+		for (int i = 0; i < ops.length; i++) {
+			if (u < cumulative[i]) {
+				return ops[i];
+			}
+		}
+		return ops[ops.length - 1];
+	}
+
+	/**
+	 * Share of the operations that are op, 0 to 1.
+	 */
+	public double getProportion(Operation op) {
+		int i = op.ordinal();
+		return cumulative[i] - (i == 0 ? 0 : cumulative[i - 1]);
+	}
+
+	/**
+	 * Row key of the index: the index in decimal, zero padded to 12 digits.
+	 */
+	static byte[] key(long index) {
+		String digits = Long.toString(index);
+		int pad = Math.max(0, KEY_DIGITS - digits.length());
+		byte[] key = new byte[pad + digits.length()];
+		for (int i = 0; i < pad; i++) {
+			key[i] = '0';
+		}
+		for (int i = 0; i < digits.length(); i++) {
+			key[pad + i] = (byte) digits.charAt(i);
+		}
+		return key;
+	}
+
+	KeyGenerator newKeyGenerator(long loaded, AtomicLong inserted) {
+		return KeyGenerator.create(keyDistribution, Math.max(1, loaded), inserted, theta);
+	}
+
+	SizeGenerator getSizes() {
+		return sizes;
+	}
+
+	public TableName getTableName() {
+		return tableName;
+	}
+
+	public byte[] getFamily() {
+		return family;
+	}
+
+	byte[][] getQualifiers() {
+		return qualifiers;
+	}
+
+	public long getRecords() {
+		return records;
+	}
+
+	public String getKeyDistribution() {
+		return keyDistribution;
+	}
+
+	public String getValueSize() {
+		return valueSize;
+	}
+
+	public int getScanLength() {
+		return scanLength;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public double getTargetRate() {
+		return targetRate;
+	}
+
+	public int getWarmupSeconds() {
+		return warmupSeconds;
+	}
+
+	public int getDurationSeconds() {
+		return durationSeconds;
+	}
+
+	public long getOperations() {
+		return operations;
+	}
+}
@@ -0,0 +1,48 @@
+package jiq.hbase.load;
+
+import java.util.Random;
+
+/**
+ * Zipfian distribution over [0, items), item 0 the most popular, by the method of Gray et al., "Quickly
+ * Generating Billion-Record Synthetic Databases" (SIGMOD 1994), as in YCSB.<br>
+ * The constructor sums the zeta series over all items once, O(items); every draw after that is O(1).
+ */
+final class ZipfianGenerator {
+	static final double DEFAULT_THETA = 0.99;
+
+	private final long items;
+	private final double theta;
+	private final double zetaN;
+	private final double alpha;
+	private final double eta;
+
+	ZipfianGenerator(long items, double theta) {
+		this.items = Math.max(1, items);
+		this.theta = theta;
+		this.zetaN = zeta(this.items, theta);
+		double zeta2 = zeta(2, theta);
+		this.alpha = 1.0 / (1.0 - theta);
+		this.eta = (1 - Math.pow(2.0 / this.items, 1 - theta)) / (1 - zeta2 / zetaN);
+	}
+
+	private static double zeta(long n, double theta) {
+		double sum = 0;
+		for (long i = 1; i <= n; i++) {
+			sum += 1 / Math.pow(i, theta);
+		}
+		return sum;
+	}
+
+	long next(Random random) {
+		double u = random.nextDouble();
+		double uz = u * zetaN;
+		if (uz < 1.0) {
+			return 0;
+		}
+		if (uz < 1.0 + Math.pow(0.5, theta)) {
+			return Math.min(1, items - 1);
+		}
+		long item = (long) (items * Math.pow(eta * u - eta + 1, alpha));
+		return Math.min(item, items - 1);
+	}
+}
@@ -0,0 +1,160 @@
+package jiq.hbase.location;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Region locations of a set of tables as persisted in a local file.<br>
+ * File layout: magic, version, creation time, cluster key and the locations per table, followed by a CRC32 of
+ * everything before it. The cluster key (ZooKeeper quorum and parent znode) keeps a snapshot of one cluster from
+ * being loaded against another. The file is written to a temporary name and renamed, so a crash while saving
+ * leaves the previous snapshot in place.
+ */
+public class LocationSnapshot {
+	private static final int MAGIC = 0x4A514C53; // "JQLS"
+	private static final int VERSION = 1;
+
+	private final long createdMillis;
+	private final String clusterKey;
+	private final Map<TableName, List<HRegionLocation>> locations;
+
+	public LocationSnapshot(long createdMillis, String clusterKey, Map<TableName, List<HRegionLocation>> locations) {
+		this.createdMillis = createdMillis;
+		this.clusterKey = clusterKey;
+		this.locations = locations;
+	}
+
+	public long getCreatedMillis() {
+		return createdMillis;
+	}
+
+	public String getClusterKey() {
+		return clusterKey;
+	}
+
+	/**
+	 * Locations per table, including region replicas.
+	 */
+	public Map<TableName, List<HRegionLocation>> getLocations() {
+		return Collections.unmodifiableMap(locations);
+	}
+
+	public void write(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		CRC32 crc = new CRC32();
+		DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp)), crc));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(createdMillis);
+			out.writeUTF(clusterKey);
+			out.writeInt(locations.size());
+			for (Map.Entry<TableName, List<HRegionLocation>> e : locations.entrySet()) {
+				// Regions in transition have no server; they are looked up again when used.
+				List<HRegionLocation> assigned = new ArrayList<HRegionLocation>(e.getValue().size());
+				for (HRegionLocation loc : e.getValue()) {
+					if (loc != null && loc.getServerName() != null) {
+						assigned.add(loc);
+					}
+				}
+				Bytes.writeByteArray(out, e.getKey().getName());
+				out.writeInt(assigned.size());
+				for (HRegionLocation loc : assigned) {
+					HRegionInfo info = loc.getRegionInfo();
+					Bytes.writeByteArray(out, info.getStartKey());
+					Bytes.writeByteArray(out, info.getEndKey());
+					out.writeLong(info.getRegionId());
+					out.writeInt(info.getReplicaId());
+					out.writeUTF(loc.getHostname());
+					out.writeInt(loc.getPort());
+					out.writeLong(loc.getServerName().getStartcode());
+					out.writeLong(loc.getSeqNum());
+				}
+			}
+			// The checksum itself is not part of the checksum.
+			out.writeLong(crc.getValue());
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			// Windows does not replace on rename.
+			if (!file.delete() || !tmp.renameTo(file)) {
+				throw new IOException("Failed to rename " + tmp + " to " + file);
+			}
+		}
+	}
+
+	/**
+	 * Reads a snapshot written by {@link #write(File)}.
+	 *
+	 * @throws IOException if the file is missing, truncated, of another version or fails its checksum
+	 */
+	public static LocationSnapshot read(File file) throws IOException {
+		// Check the whole file before parsing, a corrupt table name or length must not get that far.
+		byte[] data = Files.readAllBytes(file.toPath());
+		if (data.length < Bytes.SIZEOF_LONG) {
+			throw new IOException(file + " is truncated");
+		}
+		int length = data.length - Bytes.SIZEOF_LONG;
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		if (Bytes.toLong(data, length) != crc.getValue()) {
+			throw new IOException("Checksum mismatch in " + file);
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, length));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(file + " is not a location snapshot");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported location snapshot version " + version + " in " + file);
+			}
+			long created = in.readLong();
+			String clusterKey = in.readUTF();
+			int tables = in.readInt();
+			Map<TableName, List<HRegionLocation>> locations = new LinkedHashMap<TableName, List<HRegionLocation>>();
+			for (int t = 0; t < tables; t++) {
+				TableName tableName = TableName.valueOf(Bytes.readByteArray(in));
+				int n = in.readInt();
+				List<HRegionLocation> list = new ArrayList<HRegionLocation>(n);
+				for (int i = 0; i < n; i++) {
+					byte[] startKey = Bytes.readByteArray(in);
+					byte[] endKey = Bytes.readByteArray(in);
+					long regionId = in.readLong();
+					int replicaId = in.readInt();
+					String host = in.readUTF();
+					int port = in.readInt();
+					long startcode = in.readLong();
+					long seqNum = in.readLong();
+					HRegionInfo info = new HRegionInfo(tableName, startKey, endKey, false, regionId, replicaId);
+					list.add(new HRegionLocation(info, ServerName.valueOf(host, port, startcode), seqNum));
+				}
+				locations.put(tableName, list);
+			}
+			return new LocationSnapshot(created, clusterKey, locations);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package jiq.hbase.location;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.RegionLocations;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.ClusterConnection;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.RegionReplicaUtil;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Fills the region location cache of a fresh connection so that the first operations do not look up hbase:meta
+ * region by region.<br>
+ * For each table of {@value #TABLES_KEY} the locations come from the snapshot file {@value #SNAPSHOT_FILE_KEY}
+ * when it is recent enough and was taken from the same cluster, else from one hbase:meta scan per table, the
+ * tables being scanned in parallel. Snapshot entries are not checked up front: a region that moved or split
+ * since is answered with NotServingRegionException or RegionMovedException on first use, and the client drops
+ * the cached entry and looks it up again as it does for any stale location.<br>
+ * {@link #saveSnapshot()} scans hbase:meta again and writes the snapshot for the next start.<br>
+ * The warmer needs the connection returned by ConnectionFactory, not a wrapper of it.
+ */
+public class RegionLocationWarmer {
+	private final static Log LOG = LogFactory.getLog(RegionLocationWarmer.class.getName());
+
+	public static final String TABLES_KEY = "jiq.hbase.location.warmup.tables";
+	public static final String THREADS_KEY = "jiq.hbase.location.warmup.threads";
+	public static final String SNAPSHOT_FILE_KEY = "jiq.hbase.location.snapshot.file";
+	public static final String SNAPSHOT_MAX_AGE_KEY = "jiq.hbase.location.snapshot.max.age.ms";
+
+	private final ClusterConnection conn;
+	private final List<TableName> tables = new ArrayList<TableName>();
+	private final int threads;
+	private final File snapshotFile;
+	private final long snapshotMaxAge;
+	private final String clusterKey;
+
+	public RegionLocationWarmer(Connection conn) {
+		if (!(conn instanceof ClusterConnection)) {
+			throw new IllegalArgumentException("Location warm-up needs the connection created by ConnectionFactory");
+		}
+		Configuration conf = conn.getConfiguration();
+		this.conn = (ClusterConnection) conn;
+		for (String table : conf.getTrimmedStrings(TABLES_KEY)) {
+			tables.add(TableName.valueOf(table));
+		}
+		this.threads = conf.getInt(THREADS_KEY, 8);
+		String file = conf.get(SNAPSHOT_FILE_KEY);
+		this.snapshotFile = file == null ? null : new File(file);
+		this.snapshotMaxAge = conf.getLong(SNAPSHOT_MAX_AGE_KEY, 24 * 3600 * 1000L);
+		this.clusterKey = conf.get(HConstants.ZOOKEEPER_QUORUM) + ":"
+				+ conf.get(HConstants.ZOOKEEPER_ZNODE_PARENT, HConstants.DEFAULT_ZOOKEEPER_ZNODE_PARENT);
+	}
+
+	public List<TableName> getTables() {
+		return tables;
+	}
+
+	/**
+	 * Caches the locations of all configured tables.
+	 *
+	 * @return the number of regions cached
+	 */
+	public int warmUp() {
+		long start = System.currentTimeMillis();
+		Map<TableName, List<HRegionLocation>> preloaded = loadSnapshot();
+		int regions = 0;
+		List<TableName> missing = new ArrayList<TableName>();
+		for (TableName table : tables) {
+			List<HRegionLocation> locations = preloaded.get(table);
+			if (locations == null || locations.isEmpty()) {
+				missing.add(table);
+			} else {
+				regions += cache(table, locations);
+			}
+		}
+		int fromSnapshot = regions;
+		for (Map.Entry<TableName, List<HRegionLocation>> e : fetch(missing).entrySet()) {
+			regions += cache(e.getKey(), e.getValue());
+		}
+		LOG.info("Cached " + regions + " region locations of " + tables.size() + " tables (" + fromSnapshot
+				+ " from snapshot) in " + (System.currentTimeMillis() - start) + " ms");
+		return regions;
+	}
+
+	/**
+	 * Scans hbase:meta for the configured tables and writes the snapshot file. Does nothing without a file.
+	 */
+	public void saveSnapshot() throws IOException {
+		if (snapshotFile == null) {
+			return;
+		}
+		Map<TableName, List<HRegionLocation>> locations = fetch(tables);
+		new LocationSnapshot(System.currentTimeMillis(), clusterKey, locations).write(snapshotFile);
+		LOG.info("Saved region locations of " + locations.size() + " tables to " + snapshotFile);
+	}
+
+	private Map<TableName, List<HRegionLocation>> loadSnapshot() {
+		Map<TableName, List<HRegionLocation>> none = new LinkedHashMap<TableName, List<HRegionLocation>>();
+		if (snapshotFile == null || !snapshotFile.isFile()) {
+			return none;
+		}
+		try {
+			LocationSnapshot snapshot = LocationSnapshot.read(snapshotFile);
+			long age = System.currentTimeMillis() - snapshot.getCreatedMillis();
+			if (!clusterKey.equals(snapshot.getClusterKey())) {
+				LOG.info("Ignoring location snapshot of cluster " + snapshot.getClusterKey());
+				return none;
+			}
+			if (age > snapshotMaxAge) {
+				LOG.info("Ignoring location snapshot taken " + age + " ms ago");
+				return none;
+			}
+			return snapshot.getLocations();
+		} catch (IOException e) {
+			LOG.warn("Failed to read location snapshot " + snapshotFile + ", falling back to hbase:meta", e);
+			return none;
+		}
+	}
+
+	/**
+	 * One hbase:meta scan per table, in parallel. Tables that fail or do not exist are left out.
+	 */
+	private Map<TableName, List<HRegionLocation>> fetch(List<TableName> tableNames) {
+		Map<TableName, List<HRegionLocation>> result = new LinkedHashMap<TableName, List<HRegionLocation>>();
+		if (tableNames.isEmpty()) {
+			return result;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, tableNames.size()),
+				new ThreadFactoryBuilder().setNameFormat("location-warmup-%d").setDaemon(true).build());
+		try {
+			Map<TableName, Future<List<HRegionLocation>>> futures =
+					new LinkedHashMap<TableName, Future<List<HRegionLocation>>>();
+			for (final TableName table : tableNames) {
+				futures.put(table, pool.submit(new Callable<List<HRegionLocation>>() {
+					@Override
+					public List<HRegionLocation> call() throws Exception {
+						RegionLocator locator = conn.getRegionLocator(table);
+						try {
+							return locator.getAllRegionLocations();
+						} finally {
+							locator.close();
+						}
+					}
+				}));
+			}
+			for (Map.Entry<TableName, Future<List<HRegionLocation>>> e : futures.entrySet()) {
+				try {
+					result.put(e.getKey(), e.getValue().get());
+				} catch (ExecutionException ex) {
+					LOG.warn("Failed to fetch region locations of " + e.getKey(), ex.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.warn("Interrupted while fetching region locations");
+		} finally {
+			pool.shutdownNow();
+		}
+		return result;
+	}
+
+	/**
+	 * Puts the locations into the connection cache, the replicas of a region together.
+	 */
+	private int cache(TableName table, List<HRegionLocation> locations) {
+		Map<byte[], List<HRegionLocation>> byRegion = new TreeMap<byte[], List<HRegionLocation>>(Bytes.BYTES_COMPARATOR);
+		for (HRegionLocation loc : locations) {
+			HRegionInfo info = loc.getRegionInfo();
+			if (loc.getServerName() == null || info.isOffline() || info.isSplitParent()) {
+				continue;
+			}
+			byte[] key = RegionReplicaUtil.getRegionInfoForDefaultReplica(info).getRegionName();
+			List<HRegionLocation> replicas = byRegion.get(key);
+			if (replicas == null) {
+				replicas = new ArrayList<HRegionLocation>();
+				byRegion.put(key, replicas);
+			}
+			replicas.add(loc);
+		}
+		for (List<HRegionLocation> replicas : byRegion.values()) {
+			conn.cacheLocation(table, new RegionLocations(replicas));
+		}
+		return byRegion.size();
+	}
+}
@@ -0,0 +1,142 @@
+package jiq.hbase.metrics;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Registry of {@link OperationMetrics} per table and operation.<br>
+ * Each entry is published as an MBean named {@code jiq.hbase:type=ClientMetrics,table=<table>,operation=<op>}.
+ * Every {@value #REPORT_INTERVAL_KEY} milliseconds the throughput of all entries is updated and, if
+ * {@value #LOG_SNAPSHOT_KEY} is set, a snapshot is written to the log.
+ */
+public class ClientMetrics implements Closeable {
+	private final static Log LOG = LogFactory.getLog(ClientMetrics.class.getName());
+
+	public static final String ENABLED_KEY = "jiq.hbase.metrics.enabled";
+	public static final String REPORT_INTERVAL_KEY = "jiq.hbase.metrics.report.interval.ms";
+	public static final String LOG_SNAPSHOT_KEY = "jiq.hbase.metrics.log.snapshot";
+	public static final String JMX_DOMAIN = "jiq.hbase";
+
+	private static final OpType[] OPS = OpType.values();
+
+	private final ConcurrentMap<TableName, OperationMetrics[]> metrics =
+			new ConcurrentHashMap<TableName, OperationMetrics[]>();
+	private final List<ObjectName> registered = new ArrayList<ObjectName>();
+	private final boolean logSnapshot;
+	private final ScheduledExecutorService reporter;
+
+	public ClientMetrics(Configuration conf) {
+		this.logSnapshot = conf.getBoolean(LOG_SNAPSHOT_KEY, true);
+		long interval = conf.getLong(REPORT_INTERVAL_KEY, 60000L);
+		this.reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+				.setNameFormat("client-metrics-reporter").setDaemon(true).build());
+		this.reporter.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					report();
+				} catch (Throwable e) {
+					LOG.warn("Failed to report client metrics", e);
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Metrics of the operation on the table, created and registered on first use.
+	 */
+	public OperationMetrics get(TableName table, OpType op) {
+		OperationMetrics[] perOp = metrics.get(table);
+		if (perOp == null) {
+			perOp = register(table);
+		}
+		return perOp[op.ordinal()];
+	}
+
+	private synchronized OperationMetrics[] register(TableName table) {
+		OperationMetrics[] perOp = metrics.get(table);
+		if (perOp != null) {
+			return perOp;
+		}
+		perOp = new OperationMetrics[OPS.length];
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (OpType op : OPS) {
+			perOp[op.ordinal()] = new OperationMetrics(table.getNameAsString(), op);
+			try {
+				ObjectName name = new ObjectName(JMX_DOMAIN + ":type=ClientMetrics,table="
+						+ ObjectName.quote(table.getNameAsString()) + ",operation=" + op.name());
+				if (!server.isRegistered(name)) {
+					server.registerMBean(perOp[op.ordinal()], name);
+					registered.add(name);
+				}
+			} catch (Exception e) {
+				LOG.warn("Failed to register metrics of " + op + " on " + table + " in JMX", e);
+			}
+		}
+		metrics.put(table, perOp);
+		return perOp;
+	}
+
+	/**
+	 * All metrics that recorded at least one operation.
+	 */
+	public List<OperationMetrics> snapshot() {
+		List<OperationMetrics> list = new ArrayList<OperationMetrics>();
+		for (OperationMetrics[] perOp : metrics.values()) {
+			for (OperationMetrics m : perOp) {
+				if (m.getCount() > 0) {
+					list.add(m);
+				}
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Updates the throughput of every entry and logs a snapshot.
+	 */
+	public void report() {
+		for (OperationMetrics[] perOp : metrics.values()) {
+			for (OperationMetrics m : perOp) {
+				m.updateThroughput();
+			}
+		}
+		if (logSnapshot) {
+			for (OperationMetrics m : snapshot()) {
+				LOG.info(m);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		reporter.shutdownNow();
+		report();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName name : registered) {
+			try {
+				server.unregisterMBean(name);
+			} catch (Exception e) {
+				LOG.warn("Failed to unregister " + name, e);
+			}
+		}
+		registered.clear();
+	}
+}
@@ -0,0 +1,231 @@
+package jiq.hbase.metrics;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+
+/**
+ * {@link HBaseAdmin} that records the latency of DDL calls in {@link ClientMetrics}.<br>
+ * It extends HBaseAdmin rather than wrapping {@link org.apache.hadoop.hbase.client.Admin} so that callers casting
+ * to HBaseAdmin (for multiSplit) keep working. Overloads of HBaseAdmin call each other; only the outermost call of
+ * a thread is recorded.
+ */
+public class InstrumentedAdmin extends HBaseAdmin {
+	private static final ThreadLocal<int[]> DEPTH = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
+	private final ClientMetrics metrics;
+
+	@SuppressWarnings("deprecation")
+	public InstrumentedAdmin(Connection connection, ClientMetrics metrics) throws IOException {
+		super(connection);
+		this.metrics = metrics;
+	}
+
+	private static long enter() {
+		DEPTH.get()[0]++;
+		return System.nanoTime();
+	}
+
+	private void exit(TableName tableName, OpType op, long start, boolean ok) {
+		if (--DEPTH.get()[0] > 0) {
+			return;
+		}
+		OperationMetrics m = metrics.get(tableName, op);
+		if (ok) {
+			m.success(start, 0, 0, 0);
+		} else {
+			m.failure(start);
+		}
+	}
+
+	@Override
+	public void createTable(HTableDescriptor desc) throws IOException {
+		long start = enter();
+		boolean ok = false;
+		try {
+			super.createTable(desc);
+			ok = true;
+		} finally {
+			exit(desc.getTableName(), OpType.CREATE_TABLE, start, ok);
+		}
+	}
+
+	@Override
+	public void createTable(HTableDescriptor desc, byte[][] splitKeys) throws IOException {
+		long start = enter();
+		boolean ok = false;
+		try {
+			super.createTable(desc, splitKeys);
+			ok = true;
+		} finally {
+			exit(desc.getTableName(), OpType.CREATE_TABLE, start, ok);
+		}
+	}
+
+	@Override
+	public void createTable(HTableDescriptor desc, byte[] startKey, byte[] endKey, int numRegions)
+			throws IOException {
+		long start = enter();
+		boolean ok = false;
+		try {
+			super.createTable(desc, startKey, endKey, numRegions);
+			ok = true;
+		} finally {
+			exit(desc.getTableName(), OpType.CREATE_TABLE, start, ok);
+		}
+	}
+
+	@Override
+	public void deleteTable(TableName tableName) throws IOException {
+		long start = enter();
+		boolean ok = false;
+		try {
+			super.deleteTable(tableName);
+			ok = true;
+		} finally {
+			exit(tableName, OpType.DELETE_TABLE, start, ok);
+		}
+	}
+
+	@Override
+	public void truncateTable(TableName tableName, boolean preserveSplits) throws IOException {
+		long start = enter();
+		boolean ok = false;
+		try {
+			super.truncateTable(tableName, preserveSplits);
+			ok = true;
+		} finally {
+			exit(tableName, OpType.TRUNCATE_TABLE, start, ok);
+		}
+	}
+
+	@Override
+	public void enableTable(TableName tableName) throws IOException {
+		long start = enter();
+		boolean ok = false;
+		try {
+			super.enableTable(tableName);
+			ok = true;
+		} finally {
+			exit(tableName, OpType.ENABLE_TABLE, start, ok);
+		}
+	}
+
+	@Override
+	public void disableTable(TableName tableName) throws IOException {
+		long start = enter();
+		boolean ok = false;
+		try {
+			super.disableTable(tableName);
+			ok = true;
+		} finally {
+			exit(tableName, OpType.DISABLE_TABLE, start, ok);
+		}
+	}
+
+	@Override
+	public void modifyTable(TableName tableName, HTableDescriptor htd) throws IOException {
+		long start = enter();
+		boolean ok = false;
+		try {
+			super.modifyTable(tableName, htd);
+			ok = true;
+		} finally {
+			exit(tableName, OpType.MODIFY_TABLE, start, ok);
+		}
+	}
+
+	@Override
+	public void addColumn(TableName tableName, HColumnDescriptor column) throws IOException {
+		long start = enter();
+		boolean ok = false;
+		try {
+			super.addColumn(tableName, column);
+			ok = true;
+		} finally {
+			exit(tableName, OpType.MODIFY_COLUMN, start, ok);
+		}
+	}
+
+	@Override
+	public void deleteColumn(TableName tableName, byte[] columnName) throws IOException {
+		long start = enter();
+		boolean ok = false;
+		try {
+			super.deleteColumn(tableName, columnName);
+			ok = true;
+		} finally {
+			exit(tableName, OpType.MODIFY_COLUMN, start, ok);
+		}
+	}
+
+	@Override
+	public void modifyColumn(TableName tableName, HColumnDescriptor descriptor) throws IOException {
+		long start = enter();
+		boolean ok = false;
+		try {
+			super.modifyColumn(tableName, descriptor);
+			ok = true;
+		} finally {
+			exit(tableName, OpType.MODIFY_COLUMN, start, ok);
+		}
+	}
+
+	@Override
+	public void flush(TableName tableName) throws IOException {
+		long start = enter();
+		boolean ok = false;
+		try {
+			super.flush(tableName);
+			ok = true;
+		} finally {
+			exit(tableName, OpType.FLUSH, start, ok);
+		}
+	}
+
+	@Override
+	public void split(TableName tableName) throws IOException {
+		long start = enter();
+		boolean ok = false;
+		try {
+			super.split(tableName);
+			ok = true;
+		} finally {
+			exit(tableName, OpType.SPLIT, start, ok);
+		}
+	}
+
+	@Override
+	public void split(TableName tableName, byte[] splitPoint) throws IOException {
+		long start = enter();
+		boolean ok = false;
+		try {
+			super.split(tableName, splitPoint);
+			ok = true;
+		} finally {
+			exit(tableName, OpType.SPLIT, start, ok);
+		}
+	}
+
+	@Override
+	public void multiSplit(byte[] regionName, byte[][] splitKeys) throws IOException, InterruptedException {
+		long start = enter();
+		boolean ok = false;
+		try {
+			super.multiSplit(regionName, splitKeys);
+			ok = true;
+		} finally {
+			exit(HRegionInfo.getTable(regionName), OpType.SPLIT, start, ok);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package jiq.hbase.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Table;
+
+/**
+ * {@link Connection} that hands out {@link InstrumentedTable} and {@link InstrumentedAdmin}.
+ */
+public class InstrumentedConnection implements Connection {
+	private final Connection delegate;
+	private final ClientMetrics metrics;
+
+	public InstrumentedConnection(Connection delegate, ClientMetrics metrics) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	public ClientMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public Configuration getConfiguration() {
+		return delegate.getConfiguration();
+	}
+
+	@Override
+	public Table getTable(TableName tableName) throws IOException {
+		return new InstrumentedTable(delegate.getTable(tableName), metrics);
+	}
+
+	@Override
+	public Table getTable(TableName tableName, ExecutorService pool) throws IOException {
+		return new InstrumentedTable(delegate.getTable(tableName, pool), metrics);
+	}
+
+	@Override
+	public BufferedMutator getBufferedMutator(TableName tableName) throws IOException {
+		return delegate.getBufferedMutator(tableName);
+	}
+
+	@Override
+	public BufferedMutator getBufferedMutator(BufferedMutatorParams params) throws IOException {
+		return delegate.getBufferedMutator(params);
+	}
+
+	@Override
+	public RegionLocator getRegionLocator(TableName tableName) throws IOException {
+		return delegate.getRegionLocator(tableName);
+	}
+
+	@Override
+	public Admin getAdmin() throws IOException {
+		return new InstrumentedAdmin(delegate, metrics);
+	}
+
+	@Override
+	public void close() throws IOException {
+		delegate.close();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return delegate.isClosed();
+	}
+
+	@Override
+	public void abort(String why, Throwable e) {
+		delegate.abort(why, e);
+	}
+
+	@Override
+	public boolean isAborted() {
+		return delegate.isAborted();
+	}
+}
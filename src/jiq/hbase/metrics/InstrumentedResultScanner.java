@@ -0,0 +1,101 @@
+package jiq.hbase.metrics;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+
+/**
+ * {@link ResultScanner} that records every {@link #next()} call. Most calls are served from the scanner cache;
+ * the ones that go to the server show up in the tail of the latency histogram.
+ */
+class InstrumentedResultScanner implements ResultScanner {
+	private final ResultScanner delegate;
+	private final OperationMetrics metrics;
+
+	InstrumentedResultScanner(ResultScanner delegate, OperationMetrics metrics) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public Result next() throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			Result r = delegate.next();
+			ok = true;
+			if (r != null) {
+				metrics.success(start, 1, InstrumentedTable.cellsOf(r), InstrumentedTable.bytesOf(r));
+			}
+			return r;
+		} finally {
+			if (!ok) {
+				metrics.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public Result[] next(int nbRows) throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			Result[] results = delegate.next(nbRows);
+			ok = true;
+			long cells = 0;
+			long bytes = 0;
+			for (Result r : results) {
+				cells += InstrumentedTable.cellsOf(r);
+				bytes += InstrumentedTable.bytesOf(r);
+			}
+			metrics.success(start, results.length, cells, bytes);
+			return results;
+		} finally {
+			if (!ok) {
+				metrics.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		delegate.close();
+	}
+
+	@Override
+	public Iterator<Result> iterator() {
+		return new Iterator<Result>() {
+			private Result next = null;
+
+			@Override
+			public boolean hasNext() {
+				if (next == null) {
+					try {
+						next = InstrumentedResultScanner.this.next();
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+				return next != null;
+			}
+
+			@Override
+			public Result next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Result r = next;
+				next = null;
+				return r;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
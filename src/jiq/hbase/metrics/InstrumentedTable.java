@@ -0,0 +1,563 @@
+package jiq.hbase.metrics;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Append;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.RowMutations;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.coprocessor.Batch;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.ipc.CoprocessorRpcChannel;
+
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Message;
+import com.google.protobuf.Service;
+import com.google.protobuf.ServiceException;
+
+/**
+ * {@link Table} that records latency, rows, cells and bytes of every data operation in {@link ClientMetrics}.
+ * Coprocessor calls and configuration methods are passed through unmeasured.
+ */
+public class InstrumentedTable implements Table {
+	private final Table delegate;
+	private final OperationMetrics puts;
+	private final OperationMetrics deletes;
+	private final OperationMetrics gets;
+	private final OperationMetrics batches;
+	private final OperationMetrics increments;
+	private final OperationMetrics appends;
+	private final OperationMetrics scanNexts;
+
+	public InstrumentedTable(Table delegate, ClientMetrics metrics) {
+		TableName name = delegate.getName();
+		this.delegate = delegate;
+		this.puts = metrics.get(name, OpType.PUT);
+		this.deletes = metrics.get(name, OpType.DELETE);
+		this.gets = metrics.get(name, OpType.GET);
+		this.batches = metrics.get(name, OpType.BATCH);
+		this.increments = metrics.get(name, OpType.INCREMENT);
+		this.appends = metrics.get(name, OpType.APPEND);
+		this.scanNexts = metrics.get(name, OpType.SCAN_NEXT);
+	}
+
+	static long bytesOf(Result r) {
+		if (r == null || r.isEmpty()) {
+			return 0;
+		}
+		long bytes = 0;
+		for (Cell cell : r.rawCells()) {
+			bytes += KeyValueUtil.length(cell);
+		}
+		return bytes;
+	}
+
+	static int cellsOf(Result r) {
+		return r == null ? 0 : r.size();
+	}
+
+	static long bytesOf(Mutation m) {
+		long bytes = 0;
+		for (List<Cell> cells : m.getFamilyCellMap().values()) {
+			for (Cell cell : cells) {
+				bytes += KeyValueUtil.length(cell);
+			}
+		}
+		return bytes;
+	}
+
+	private static void success(OperationMetrics m, long start, List<? extends Row> rows) {
+		long cells = 0;
+		long bytes = 0;
+		for (Row row : rows) {
+			if (row instanceof Mutation) {
+				cells += ((Mutation) row).size();
+				bytes += bytesOf((Mutation) row);
+			}
+		}
+		m.success(start, rows.size(), cells, bytes);
+	}
+
+	private static void success(OperationMetrics m, long start, Result[] results) {
+		long cells = 0;
+		long bytes = 0;
+		for (Result r : results) {
+			cells += cellsOf(r);
+			bytes += bytesOf(r);
+		}
+		m.success(start, results.length, cells, bytes);
+	}
+
+	@Override
+	public TableName getName() {
+		return delegate.getName();
+	}
+
+	@Override
+	public Configuration getConfiguration() {
+		return delegate.getConfiguration();
+	}
+
+	@Override
+	public HTableDescriptor getTableDescriptor() throws IOException {
+		return delegate.getTableDescriptor();
+	}
+
+	@Override
+	public boolean exists(Get get) throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			boolean exists = delegate.exists(get);
+			ok = true;
+			gets.success(start, 1, 0, 0);
+			return exists;
+		} finally {
+			if (!ok) {
+				gets.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public boolean[] existsAll(List<Get> list) throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			boolean[] exists = delegate.existsAll(list);
+			ok = true;
+			gets.success(start, list.size(), 0, 0);
+			return exists;
+		} finally {
+			if (!ok) {
+				gets.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public void batch(List<? extends Row> actions, Object[] results) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			delegate.batch(actions, results);
+			ok = true;
+		} finally {
+			// Interrupted and runtime failures count too.
+			if (ok) {
+				success(batches, start, actions);
+			} else {
+				batches.failure(start);
+			}
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public Object[] batch(List<? extends Row> actions) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			Object[] results = delegate.batch(actions);
+			ok = true;
+			return results;
+		} finally {
+			if (ok) {
+				success(batches, start, actions);
+			} else {
+				batches.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public <R> void batchCallback(List<? extends Row> actions, Object[] results, Batch.Callback<R> callback)
+			throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			delegate.batchCallback(actions, results, callback);
+			ok = true;
+		} finally {
+			if (ok) {
+				success(batches, start, actions);
+			} else {
+				batches.failure(start);
+			}
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public <R> Object[] batchCallback(List<? extends Row> actions, Batch.Callback<R> callback)
+			throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			Object[] results = delegate.batchCallback(actions, callback);
+			ok = true;
+			return results;
+		} finally {
+			if (ok) {
+				success(batches, start, actions);
+			} else {
+				batches.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public Result get(Get get) throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			Result r = delegate.get(get);
+			ok = true;
+			gets.success(start, 1, cellsOf(r), bytesOf(r));
+			return r;
+		} finally {
+			if (!ok) {
+				gets.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public Result[] get(List<Get> list) throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			Result[] results = delegate.get(list);
+			ok = true;
+			success(gets, start, results);
+			return results;
+		} finally {
+			if (!ok) {
+				gets.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public ResultScanner getScanner(Scan scan) throws IOException {
+		return new InstrumentedResultScanner(delegate.getScanner(scan), scanNexts);
+	}
+
+	@Override
+	public ResultScanner getScanner(byte[] family) throws IOException {
+		return new InstrumentedResultScanner(delegate.getScanner(family), scanNexts);
+	}
+
+	@Override
+	public ResultScanner getScanner(byte[] family, byte[] qualifier) throws IOException {
+		return new InstrumentedResultScanner(delegate.getScanner(family, qualifier), scanNexts);
+	}
+
+	@Override
+	public void put(Put put) throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			delegate.put(put);
+			ok = true;
+			puts.success(start, 1, put.size(), bytesOf(put));
+		} finally {
+			if (!ok) {
+				puts.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public void put(List<Put> list) throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			delegate.put(list);
+			ok = true;
+			success(puts, start, list);
+		} finally {
+			if (!ok) {
+				puts.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public boolean checkAndPut(byte[] row, byte[] family, byte[] qualifier, byte[] value, Put put)
+			throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			boolean done = delegate.checkAndPut(row, family, qualifier, value, put);
+			ok = true;
+			puts.success(start, done ? 1 : 0, done ? put.size() : 0, done ? bytesOf(put) : 0);
+			return done;
+		} finally {
+			if (!ok) {
+				puts.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public boolean checkAndPut(byte[] row, byte[] family, byte[] qualifier, CompareOp compareOp, byte[] value,
+			Put put) throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			boolean done = delegate.checkAndPut(row, family, qualifier, compareOp, value, put);
+			ok = true;
+			puts.success(start, done ? 1 : 0, done ? put.size() : 0, done ? bytesOf(put) : 0);
+			return done;
+		} finally {
+			if (!ok) {
+				puts.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public void delete(Delete delete) throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			delegate.delete(delete);
+			ok = true;
+			deletes.success(start, 1, delete.size(), 0);
+		} finally {
+			if (!ok) {
+				deletes.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public void delete(List<Delete> list) throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			delegate.delete(list);
+			ok = true;
+			deletes.success(start, list.size(), 0, 0);
+		} finally {
+			if (!ok) {
+				deletes.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public boolean checkAndDelete(byte[] row, byte[] family, byte[] qualifier, byte[] value, Delete delete)
+			throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			boolean done = delegate.checkAndDelete(row, family, qualifier, value, delete);
+			ok = true;
+			deletes.success(start, done ? 1 : 0, 0, 0);
+			return done;
+		} finally {
+			if (!ok) {
+				deletes.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public boolean checkAndDelete(byte[] row, byte[] family, byte[] qualifier, CompareOp compareOp, byte[] value,
+			Delete delete) throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			boolean done = delegate.checkAndDelete(row, family, qualifier, compareOp, value, delete);
+			ok = true;
+			deletes.success(start, done ? 1 : 0, 0, 0);
+			return done;
+		} finally {
+			if (!ok) {
+				deletes.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public void mutateRow(RowMutations rm) throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			delegate.mutateRow(rm);
+			ok = true;
+			success(batches, start, rm.getMutations());
+		} finally {
+			if (!ok) {
+				batches.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public Result append(Append append) throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			Result r = delegate.append(append);
+			ok = true;
+			appends.success(start, 1, append.size(), bytesOf(append));
+			return r;
+		} finally {
+			if (!ok) {
+				appends.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public Result increment(Increment increment) throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			Result r = delegate.increment(increment);
+			ok = true;
+			increments.success(start, 1, increment.size(), 0);
+			return r;
+		} finally {
+			if (!ok) {
+				increments.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier, long amount) throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			long value = delegate.incrementColumnValue(row, family, qualifier, amount);
+			ok = true;
+			increments.success(start, 1, 1, 0);
+			return value;
+		} finally {
+			if (!ok) {
+				increments.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier, long amount, Durability durability)
+			throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			long value = delegate.incrementColumnValue(row, family, qualifier, amount, durability);
+			ok = true;
+			increments.success(start, 1, 1, 0);
+			return value;
+		} finally {
+			if (!ok) {
+				increments.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public boolean checkAndMutate(byte[] row, byte[] family, byte[] qualifier, CompareOp compareOp, byte[] value,
+			RowMutations mutation) throws IOException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			boolean done = delegate.checkAndMutate(row, family, qualifier, compareOp, value, mutation);
+			ok = true;
+			batches.success(start, done ? mutation.getMutations().size() : 0, 0, 0);
+			return done;
+		} finally {
+			if (!ok) {
+				batches.failure(start);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		delegate.close();
+	}
+
+	@Override
+	public CoprocessorRpcChannel coprocessorService(byte[] row) {
+		return delegate.coprocessorService(row);
+	}
+
+	@Override
+	public <T extends Service, R> Map<byte[], R> coprocessorService(Class<T> service, byte[] startKey,
+			byte[] endKey, Batch.Call<T, R> callable) throws ServiceException, Throwable {
+		return delegate.coprocessorService(service, startKey, endKey, callable);
+	}
+
+	@Override
+	public <T extends Service, R> void coprocessorService(Class<T> service, byte[] startKey, byte[] endKey,
+			Batch.Call<T, R> callable, Batch.Callback<R> callback) throws ServiceException, Throwable {
+		delegate.coprocessorService(service, startKey, endKey, callable, callback);
+	}
+
+	@Override
+	public <R extends Message> Map<byte[], R> batchCoprocessorService(MethodDescriptor methodDescriptor,
+			Message request, byte[] startKey, byte[] endKey, R responsePrototype) throws ServiceException, Throwable {
+		return delegate.batchCoprocessorService(methodDescriptor, request, startKey, endKey, responsePrototype);
+	}
+
+	@Override
+	public <R extends Message> void batchCoprocessorService(MethodDescriptor methodDescriptor, Message request,
+			byte[] startKey, byte[] endKey, R responsePrototype, Batch.Callback<R> callback)
+			throws ServiceException, Throwable {
+		delegate.batchCoprocessorService(methodDescriptor, request, startKey, endKey, responsePrototype, callback);
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public long getWriteBufferSize() {
+		return delegate.getWriteBufferSize();
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public void setWriteBufferSize(long writeBufferSize) throws IOException {
+		delegate.setWriteBufferSize(writeBufferSize);
+	}
+
+	@Override
+	public void setOperationTimeout(int operationTimeout) {
+		delegate.setOperationTimeout(operationTimeout);
+	}
+
+	@Override
+	public int getOperationTimeout() {
+		return delegate.getOperationTimeout();
+	}
+
+	@Override
+	public void setRpcTimeout(int rpcTimeout) {
+		delegate.setRpcTimeout(rpcTimeout);
+	}
+
+	@Override
+	public int getRpcTimeout() {
+		return delegate.getRpcTimeout();
+	}
+}
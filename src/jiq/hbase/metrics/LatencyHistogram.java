@@ -0,0 +1,101 @@
+package jiq.hbase.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets in the style of HdrHistogram.<br>
+ * Values below 64 have one bucket each; above that every power of two is split into 32 buckets, so a bucket is
+ * at most about 3% wide relative to its value. Recording is one bucket increment plus two counter additions,
+ * with no allocation and no lock. Percentiles are computed from a racy but consistent-enough copy of the buckets.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int BUCKETS = SUB_COUNT * (64 - SUB_BITS) + SUB_COUNT;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+
+	static int index(long value) {
+		if (value < 2 * SUB_COUNT) {
+			return value < 0 ? 0 : (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return SUB_COUNT * shift + (int) (value >>> shift);
+	}
+
+	/**
+	 * Smallest value that falls into the bucket.
+	 */
+	static long lowerBound(int index) {
+		if (index < 2 * SUB_COUNT) {
+			return index;
+		}
+		int shift = index / SUB_COUNT - 1;
+		return ((long) (index % SUB_COUNT + SUB_COUNT)) << shift;
+	}
+
+	/**
+	 * Largest value that falls into the bucket.
+	 */
+	static long upperBound(int index) {
+		if (index < 2 * SUB_COUNT) {
+			return index;
+		}
+		int shift = index / SUB_COUNT - 1;
+		return lowerBound(index) + (1L << shift) - 1;
+	}
+
+	public void record(long value) {
+		buckets.incrementAndGet(index(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public double getMean() {
+		long c = count.get();
+		return c == 0 ? 0 : (double) sum.get() / c;
+	}
+
+	/**
+	 * Upper bound of the bucket holding the given percentile (0-100), or 0 if nothing was recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long[] copy = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = buckets.get(i);
+			total += copy[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += copy[i];
+			if (seen >= rank) {
+				return upperBound(i);
+			}
+		}
+		return upperBound(BUCKETS - 1);
+	}
+
+	/**
+	 * Upper bound of the highest non-empty bucket.
+	 */
+	public long getMax() {
+		for (int i = BUCKETS - 1; i >= 0; i--) {
+			if (buckets.get(i) != 0) {
+				return upperBound(i);
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,14 @@
+package jiq.hbase.metrics;
+
+/**
+ * Client operations measured by {@link ClientMetrics}.
+ */
+public enum OpType {
+	PUT, DELETE, GET, SCAN_NEXT, BATCH, INCREMENT, APPEND,
+	CREATE_TABLE, DELETE_TABLE, TRUNCATE_TABLE, ENABLE_TABLE, DISABLE_TABLE, MODIFY_TABLE, MODIFY_COLUMN, FLUSH,
+	SPLIT;
+
+	public boolean isDdl() {
+		return ordinal() >= CREATE_TABLE.ordinal();
+	}
+}
@@ -0,0 +1,148 @@
+package jiq.hbase.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histogram and counters of one operation on one table.
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+	private final String table;
+	private final OpType op;
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong rows = new AtomicLong();
+	private final AtomicLong cells = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+
+	// Updated by the reporter thread only.
+	private long lastCount = 0;
+	private long lastTime = System.nanoTime();
+	private volatile double throughput = 0;
+
+	OperationMetrics(String table, OpType op) {
+		this.table = table;
+		this.op = op;
+	}
+
+	/**
+	 * Records a successful operation that started at startNanos ({@link System#nanoTime()}).
+	 */
+	public void success(long startNanos, long rowCount, long cellCount, long byteCount) {
+		latency.record(System.nanoTime() - startNanos);
+		if (rowCount != 0) {
+			rows.addAndGet(rowCount);
+		}
+		if (cellCount != 0) {
+			cells.addAndGet(cellCount);
+		}
+		if (byteCount != 0) {
+			bytes.addAndGet(byteCount);
+		}
+	}
+
+	/**
+	 * Records a failed operation that started at startNanos. Its latency goes into the histogram too, since a
+	 * caller waited for it just the same.
+	 */
+	public void failure(long startNanos) {
+		latency.record(System.nanoTime() - startNanos);
+		errors.incrementAndGet();
+	}
+
+	public OpType getOpType() {
+		return op;
+	}
+
+	public LatencyHistogram getLatencyHistogram() {
+		return latency;
+	}
+
+	void updateThroughput() {
+		long now = System.nanoTime();
+		long count = latency.getCount();
+		double seconds = (now - lastTime) / (double) TimeUnit.SECONDS.toNanos(1);
+		throughput = seconds <= 0 ? 0 : (count - lastCount) / seconds;
+		lastCount = count;
+		lastTime = now;
+	}
+
+	@Override
+	public String getTable() {
+		return table;
+	}
+
+	@Override
+	public String getOperation() {
+		return op.name();
+	}
+
+	@Override
+	public long getCount() {
+		return latency.getCount();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.get();
+	}
+
+	@Override
+	public long getRows() {
+		return rows.get();
+	}
+
+	@Override
+	public long getCells() {
+		return cells.get();
+	}
+
+	@Override
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	@Override
+	public double getThroughput() {
+		return throughput;
+	}
+
+	@Override
+	public double getMeanLatencyUs() {
+		return latency.getMean() / 1000.0;
+	}
+
+	@Override
+	public long getLatency50thUs() {
+		return TimeUnit.NANOSECONDS.toMicros(latency.getPercentile(50));
+	}
+
+	@Override
+	public long getLatency95thUs() {
+		return TimeUnit.NANOSECONDS.toMicros(latency.getPercentile(95));
+	}
+
+	@Override
+	public long getLatency99thUs() {
+		return TimeUnit.NANOSECONDS.toMicros(latency.getPercentile(99));
+	}
+
+	@Override
+	public long getLatency999thUs() {
+		return TimeUnit.NANOSECONDS.toMicros(latency.getPercentile(99.9));
+	}
+
+	@Override
+	public long getMaxLatencyUs() {
+		return TimeUnit.NANOSECONDS.toMicros(latency.getMax());
+	}
+
+	@Override
+	public String toString() {
+		return table + " " + op + ": count=" + getCount() + ", errors=" + getErrors() + ", rows=" + getRows()
+				+ ", cells=" + getCells() + ", bytes=" + getBytes() + ", ops/s=" + String.format("%.1f", throughput)
+				+ ", latency(us) mean=" + String.format("%.1f", getMeanLatencyUs()) + " p50=" + getLatency50thUs()
+				+ " p95=" + getLatency95thUs() + " p99=" + getLatency99thUs() + " p99.9=" + getLatency999thUs()
+				+ " max=" + getMaxLatencyUs();
+	}
+}
@@ -0,0 +1,37 @@
+package jiq.hbase.metrics;
+
+/**
+ * JMX view of one {@link OperationMetrics}. Latencies are in microseconds.
+ */
+public interface OperationMetricsMBean {
+	String getTable();
+
+	String getOperation();
+
+	long getCount();
+
+	long getErrors();
+
+	long getRows();
+
+	long getCells();
+
+	long getBytes();
+
+	/**
+	 * Operations per second over the last report interval.
+	 */
+	double getThroughput();
+
+	double getMeanLatencyUs();
+
+	long getLatency50thUs();
+
+	long getLatency95thUs();
+
+	long getLatency99thUs();
+
+	long getLatency999thUs();
+
+	long getMaxLatencyUs();
+}
@@ -0,0 +1,78 @@
+package jiq.hbase.mob;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Reference to one MOB cell found by {@link MobReader#scanReferences}.<br>
+ * Only the row key and the value size travel with the reference. The value itself is fetched on first
+ * {@link #getValue()}, or ahead of time through {@link MobReader#prefetch(java.util.List)}.
+ */
+public class MobCellRef {
+	private final MobReader reader;
+	private final byte[] row;
+	private final int valueLength;
+
+	private volatile Future<byte[]> pending = null;
+
+	MobCellRef(MobReader reader, byte[] row, int valueLength) {
+		this.reader = reader;
+		this.row = row;
+		this.valueLength = valueLength;
+	}
+
+	public byte[] getRow() {
+		return row;
+	}
+
+	/**
+	 * Size of the stored value in bytes, as reported by the server without transferring it.
+	 */
+	public int getValueLength() {
+		return valueLength;
+	}
+
+	/**
+	 * Whether the value is already being (or has been) fetched.
+	 */
+	public boolean isFetched() {
+		return pending != null;
+	}
+
+	/**
+	 * Returns the value, fetching it if no prefetch has been issued. Returns null if the cell was deleted
+	 * between the reference scan and the fetch.
+	 */
+	public byte[] getValue() throws IOException {
+		Future<byte[]> f = pending;
+		if (f == null) {
+			f = reader.fetch(this);
+		}
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while fetching MOB value of row " + Bytes.toStringBinary(row), e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Failed to fetch MOB value of row " + Bytes.toStringBinary(row), e.getCause());
+		}
+	}
+
+	synchronized Future<byte[]> attach(Future<byte[]> f) {
+		if (pending == null) {
+			pending = f;
+		}
+		return pending;
+	}
+
+	@Override
+	public String toString() {
+		return Bytes.toStringBinary(row) + "(" + valueLength + " bytes)";
+	}
+}
@@ -0,0 +1,257 @@
+package jiq.hbase.mob;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Reference-first reader for MOB columns.<br>
+ * A read happens in two steps:
+ * <ol>
+ * <li>{@link #scanReferences} runs a raw, reference-only MOB scan ({@value #MOB_SCAN_RAW} and
+ * {@value #MOB_SCAN_REF_ONLY}), so the server returns the stored reference cells instead of reading the MOB files.
+ * A reference holds the value length in its first 4 bytes, then the MOB file name. No MOB value is
+ * transferred.</li>
+ * <li>Values are fetched lazily through {@link MobCellRef#getValue()}, or in parallel batched Gets through
+ * {@link #prefetch(List)}, only for the rows the caller actually needs.</li>
+ * </ol>
+ * The reader never flushes the table: MOB cells that are still in the MemStore, and values below the MOB threshold,
+ * are not references yet and come back whole in the reference scan.
+ */
+public class MobReader implements Closeable {
+	private final static Log LOG = LogFactory.getLog(MobReader.class.getName());
+
+	public static final String READ_THREADS_KEY = "jiq.hbase.mob.read.threads";
+	public static final int DEFAULT_READ_THREADS = 8;
+	public static final String FETCH_BATCH_KEY = "jiq.hbase.mob.fetch.batch";
+	public static final int DEFAULT_FETCH_BATCH = 16;
+	public static final String SCAN_CACHING_KEY = "jiq.hbase.mob.scan.caching";
+	public static final int DEFAULT_SCAN_CACHING = 1000;
+	/** Most references returned by one {@link #scanReferences} call. */
+	public static final String SCAN_LIMIT_KEY = "jiq.hbase.mob.scan.limit";
+	public static final int DEFAULT_SCAN_LIMIT = 100000;
+
+	/** Scan attribute of the MOB read path: return reference cells without resolving them. */
+	static final String MOB_SCAN_RAW = "hbase.mob.scan.raw";
+	/** Scan attribute of the MOB read path: return only reference cells. */
+	static final String MOB_SCAN_REF_ONLY = "hbase.mob.scan.ref.only";
+	/** MOB file names start with the 32 hex digits of an MD5 and an 8 digit date. */
+	private static final int MIN_FILE_NAME_LENGTH = 40;
+
+	private final Connection conn;
+	private final TableName tableName;
+	private final byte[] family;
+	private final byte[] qualifier;
+	private final int fetchBatch;
+	private final int scanCaching;
+	private final int scanLimit;
+	private final ExecutorService pool;
+
+	public MobReader(Connection conn, TableName tableName, byte[] family, byte[] qualifier) {
+		Configuration conf = conn.getConfiguration();
+		this.conn = conn;
+		this.tableName = tableName;
+		this.family = family;
+		this.qualifier = qualifier;
+		this.fetchBatch = Math.max(1, conf.getInt(FETCH_BATCH_KEY, DEFAULT_FETCH_BATCH));
+		this.scanCaching = conf.getInt(SCAN_CACHING_KEY, DEFAULT_SCAN_CACHING);
+		this.scanLimit = Math.max(1, conf.getInt(SCAN_LIMIT_KEY, DEFAULT_SCAN_LIMIT));
+		this.pool = Executors.newFixedThreadPool(Math.max(1, conf.getInt(READ_THREADS_KEY, DEFAULT_READ_THREADS)),
+				new ThreadFactoryBuilder().setNameFormat("mob-reader-%d").setDaemon(true).build());
+	}
+
+	/**
+	 * Scans row keys and value sizes of the MOB column in [startRow, stopRow), at most {@value #SCAN_LIMIT_KEY}
+	 * of them. Empty arrays mean an open range.
+	 */
+	public List<MobCellRef> scanReferences(byte[] startRow, byte[] stopRow) throws IOException {
+		return scanReferences(startRow, stopRow, scanLimit);
+	}
+
+	/**
+	 * Scans row keys and value sizes of the MOB column in [startRow, stopRow), at most limit of them. If the
+	 * list is full, the next page starts at {@link #after} its last reference.
+	 */
+	public List<MobCellRef> scanReferences(byte[] startRow, byte[] stopRow, int limit) throws IOException {
+		Scan scan = new Scan(startRow, stopRow);
+		scan.addColumn(family, qualifier);
+		// Return the references as stored; a filter would only see the reference, not the MOB value.
+		scan.setAttribute(MOB_SCAN_RAW, Bytes.toBytes(Boolean.TRUE));
+		scan.setAttribute(MOB_SCAN_REF_ONLY, Bytes.toBytes(Boolean.TRUE));
+		scan.setCaching(Math.min(scanCaching, limit));
+		// A reference scan touches every row once; keep it from evicting hot blocks.
+		scan.setCacheBlocks(false);
+
+		List<MobCellRef> refs = new ArrayList<MobCellRef>();
+		Table table = null;
+		ResultScanner scanner = null;
+		try {
+			table = conn.getTable(tableName);
+			scanner = table.getScanner(scan);
+			// Check the limit before next(), which may fetch another batch of rows.
+			while (refs.size() < limit) {
+				Result r = scanner.next();
+				if (r == null) {
+					break;
+				}
+				Cell cell = r.getColumnLatestCell(family, qualifier);
+				if (cell != null) {
+					refs.add(new MobCellRef(this, r.getRow(), valueLength(cell)));
+				}
+			}
+		} finally {
+			if (scanner != null) {
+				scanner.close();
+			}
+			if (table != null) {
+				table.close();
+			}
+		}
+		return refs;
+	}
+
+	/**
+	 * Size of the value of a cell returned by the reference scan: the length stored in a reference, or the length
+	 * of the value itself for a cell that is not one.
+	 */
+	private static int valueLength(Cell cell) {
+		int length = cell.getValueLength();
+		if (length >= Bytes.SIZEOF_INT + MIN_FILE_NAME_LENGTH
+				&& isFileName(cell.getValueArray(), cell.getValueOffset() + Bytes.SIZEOF_INT, length - Bytes.SIZEOF_INT)) {
+			return Bytes.toInt(cell.getValueArray(), cell.getValueOffset());
+		}
+		return length;
+	}
+
+	/**
+	 * Whether the bytes look like a MOB file name: hex digits, with underscores before an optional region name.
+	 */
+	private static boolean isFileName(byte[] b, int off, int len) {
+		for (int i = off; i < off + len; i++) {
+			byte c = b[i];
+			if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F' || c == '_')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The first row after the reference, to continue a scan with.
+	 */
+	public static byte[] after(MobCellRef ref) {
+		return Bytes.add(ref.getRow(), new byte[1]);
+	}
+
+	/**
+	 * Starts fetching the values of the given references in parallel, in multi-Gets of {@link #FETCH_BATCH_KEY}
+	 * rows. References already fetched are skipped.
+	 */
+	public void prefetch(List<MobCellRef> refs) {
+		List<MobCellRef> batch = new ArrayList<MobCellRef>(fetchBatch);
+		List<SettableFuture<byte[]>> futures = new ArrayList<SettableFuture<byte[]>>(fetchBatch);
+		for (MobCellRef ref : refs) {
+			SettableFuture<byte[]> f = SettableFuture.create();
+			if (ref.attach(f) != f) {
+				continue;
+			}
+			batch.add(ref);
+			futures.add(f);
+			if (batch.size() >= fetchBatch) {
+				submit(batch, futures);
+				batch = new ArrayList<MobCellRef>(fetchBatch);
+				futures = new ArrayList<SettableFuture<byte[]>>(fetchBatch);
+			}
+		}
+		if (!batch.isEmpty()) {
+			submit(batch, futures);
+		}
+	}
+
+	Future<byte[]> fetch(MobCellRef ref) {
+		SettableFuture<byte[]> f = SettableFuture.create();
+		Future<byte[]> attached = ref.attach(f);
+		if (attached == f) {
+			List<MobCellRef> batch = new ArrayList<MobCellRef>(1);
+			batch.add(ref);
+			List<SettableFuture<byte[]>> futures = new ArrayList<SettableFuture<byte[]>>(1);
+			futures.add(f);
+			submit(batch, futures);
+		}
+		return attached;
+	}
+
+	private void submit(final List<MobCellRef> batch, final List<SettableFuture<byte[]>> futures) {
+		try {
+			execute(batch, futures);
+		} catch (RejectedExecutionException e) {
+			// Closed: the futures are already attached to the references, fail them so that getValue() returns.
+			IOException closed = new IOException("MOB reader of " + tableName + " is closed");
+			for (SettableFuture<byte[]> f : futures) {
+				f.setException(closed);
+			}
+		}
+	}
+
+	private void execute(final List<MobCellRef> batch, final List<SettableFuture<byte[]>> futures) {
+		pool.execute(new Runnable() {
+			@Override
+			public void run() {
+				List<Get> gets = new ArrayList<Get>(batch.size());
+				for (MobCellRef ref : batch) {
+					Get get = new Get(ref.getRow());
+					get.addColumn(family, qualifier);
+					gets.add(get);
+				}
+				Table table = null;
+				try {
+					table = conn.getTable(tableName);
+					Result[] results = table.get(gets);
+					for (int i = 0; i < results.length; i++) {
+						futures.get(i).set(results[i] == null ? null : results[i].getValue(family, qualifier));
+					}
+				} catch (Throwable e) {
+					LOG.warn("Fetch of " + batch.size() + " MOB values from " + tableName + " failed", e);
+					for (SettableFuture<byte[]> f : futures) {
+						f.setException(e);
+					}
+				} finally {
+					if (table != null) {
+						try {
+							table.close();
+						} catch (IOException e) {
+							LOG.error("Close table failed ", e);
+						}
+					}
+				}
+			}
+		});
+	}
+
+	@Override
+	public void close() {
+		// Let fetches already handed out complete, so that pending getValue() calls do not hang.
+		pool.shutdown();
+	}
+}
@@ -0,0 +1,54 @@
+package jiq.hbase.read;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a {@link HedgedReader}.
+ */
+public class HedgedReadMetrics {
+	final AtomicLong reads = new AtomicLong();
+	final AtomicLong hedges = new AtomicLong();
+	final AtomicLong hedgeWins = new AtomicLong();
+	final AtomicLong staleResults = new AtomicLong();
+	final AtomicLong failures = new AtomicLong();
+
+	public long getReads() {
+		return reads.get();
+	}
+
+	/**
+	 * Reads for which replica requests were issued.
+	 */
+	public long getHedges() {
+		return hedges.get();
+	}
+
+	/**
+	 * Hedged reads answered by a replica before the primary.
+	 */
+	public long getHedgeWins() {
+		return hedgeWins.get();
+	}
+
+	public long getStaleResults() {
+		return staleResults.get();
+	}
+
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * Share of reads that were hedged.
+	 */
+	public double getHedgeRate() {
+		long r = getReads();
+		return r == 0 ? 0 : (double) getHedges() / r;
+	}
+
+	@Override
+	public String toString() {
+		return "reads=" + getReads() + ", hedges=" + getHedges() + ", hedgeWins=" + getHedgeWins() + ", stale="
+				+ getStaleResults() + ", failures=" + getFailures();
+	}
+}
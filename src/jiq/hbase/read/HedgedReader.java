@@ -0,0 +1,286 @@
+package jiq.hbase.read;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Consistency;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.htrace.Span;
+import org.apache.htrace.Trace;
+import org.apache.htrace.TraceScope;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Get with hedging against region replicas.<br>
+ * The primary is asked first with {@link Consistency#STRONG}. If it has not answered after the hedge delay (the
+ * configured percentile of recent primary latencies, bounded by a minimum and maximum), or if it fails, the same
+ * Get is sent to every secondary replica with {@link Consistency#TIMELINE}. The first answer wins; a replica
+ * answer is flagged as possibly stale through {@link HedgedResult#isStale()}.<br>
+ * Hedging needs a table created with region replication greater than 1; otherwise reads go to the primary only.
+ * The replication is looked up on the first read, so a reader can be created before its table. Keep one reader per
+ * table for the life of the client: the hedge delay is learned from its reads. The counters are published as the
+ * MBean {@code jiq.hbase:type=HedgedReader,table=<table>}.
+ */
+public class HedgedReader implements HedgedReaderMBean, Closeable {
+	private final static Log LOG = LogFactory.getLog(HedgedReader.class.getName());
+
+	public static final String ENABLED_KEY = "jiq.hbase.hedge.enabled";
+	public static final String PERCENTILE_KEY = "jiq.hbase.hedge.percentile";
+	public static final String MIN_DELAY_KEY = "jiq.hbase.hedge.min.delay.ms";
+	public static final String MAX_DELAY_KEY = "jiq.hbase.hedge.max.delay.ms";
+	public static final String WINDOW_KEY = "jiq.hbase.hedge.window";
+	public static final String THREADS_KEY = "jiq.hbase.hedge.threads";
+
+	private final Connection conn;
+	private final TableName tableName;
+	// Region replication, 0 until looked up.
+	private volatile int replicas = 0;
+	private final long minDelayNanos;
+	private final long maxDelayNanos;
+	private final LatencyPercentile primaryLatency;
+	private final ExecutorService pool;
+	private final HedgedReadMetrics metrics = new HedgedReadMetrics();
+	private ObjectName registered = null;
+
+	public HedgedReader(Connection conn, TableName tableName) {
+		Configuration conf = conn.getConfiguration();
+		this.conn = conn;
+		this.tableName = tableName;
+		this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(conf.getLong(MIN_DELAY_KEY, 5L));
+		this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(conf.getLong(MAX_DELAY_KEY, 500L));
+		this.primaryLatency = new LatencyPercentile(conf.getInt(WINDOW_KEY, 1024), conf.getFloat(PERCENTILE_KEY, 95f),
+				maxDelayNanos);
+		this.pool = Executors.newFixedThreadPool(conf.getInt(THREADS_KEY, 16),
+				new ThreadFactoryBuilder().setNameFormat("hedged-read-" + tableName.getNameAsString() + "-%d")
+						.setDaemon(true).build());
+		register();
+	}
+
+	private int replicas() throws IOException {
+		int n = replicas;
+		if (n > 0) {
+			return n;
+		}
+		synchronized (this) {
+			if (replicas == 0) {
+				Admin admin = conn.getAdmin();
+				try {
+					replicas = Math.max(1, admin.getTableDescriptor(tableName).getRegionReplication());
+				} finally {
+					admin.close();
+				}
+				if (replicas <= 1) {
+					LOG.warn("Table " + tableName + " has no region replicas, reads will not be hedged.");
+				}
+			}
+			return replicas;
+		}
+	}
+
+	@Override
+	public String getTable() {
+		return tableName.getNameAsString();
+	}
+
+	@Override
+	public int getReplicas() {
+		return replicas;
+	}
+
+	@Override
+	public long getHedgeDelayMs() {
+		return TimeUnit.NANOSECONDS.toMillis(hedgeDelayNanos());
+	}
+
+	public HedgedReadMetrics getMetrics() {
+		return metrics;
+	}
+
+	public HedgedResult get(Get get) throws IOException {
+		int n = replicas();
+		metrics.reads.incrementAndGet();
+		long start = System.nanoTime();
+		CompletionService<Result> cs = new ExecutorCompletionService<Result>(pool);
+		List<Future<Result>> futures = new ArrayList<Future<Result>>(n);
+
+		Get primaryGet = new Get(get);
+		primaryGet.setConsistency(Consistency.STRONG);
+		Future<Result> primary = cs.submit(call(primaryGet));
+		futures.add(primary);
+		int outstanding = 1;
+		boolean hedged = false;
+		Throwable error = null;
+		try {
+			Future<Result> done = cs.poll(hedgeDelayNanos(), TimeUnit.NANOSECONDS);
+			if (done == null) {
+				hedged = hedge(get, cs, futures);
+				outstanding = futures.size();
+			}
+			while (outstanding > 0) {
+				if (done == null) {
+					done = cs.take();
+				}
+				outstanding--;
+				try {
+					Result result = done.get();
+					long elapsed = System.nanoTime() - start;
+					boolean fromReplica = done != primary;
+					if (fromReplica) {
+						metrics.hedgeWins.incrementAndGet();
+					}
+					// When a replica wins this is a lower bound of the primary latency, still the best sample we have.
+					primaryLatency.record(elapsed);
+					if (result.isStale()) {
+						metrics.staleResults.incrementAndGet();
+					}
+					return new HedgedResult(result, hedged, fromReplica);
+				} catch (ExecutionException e) {
+					if (error == null || done == primary) {
+						error = e.getCause();
+					}
+					if (done == primary && !hedged) {
+						// Hedge on failure of the primary as well as on its slowness.
+						hedged = hedge(get, cs, futures);
+						outstanding += futures.size() - 1;
+					}
+				}
+				done = null;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted during hedged get on " + tableName);
+		} finally {
+			for (Future<Result> f : futures) {
+				// Do not interrupt: an interrupt in the middle of an RPC may close the shared connection socket.
+				f.cancel(false);
+			}
+		}
+		metrics.failures.incrementAndGet();
+		if (error instanceof IOException) {
+			throw (IOException) error;
+		}
+		throw new IOException("Hedged get on " + tableName + " failed", error);
+	}
+
+	private boolean hedge(Get get, CompletionService<Result> cs, List<Future<Result>> futures) {
+		int n = replicas;
+		if (n <= 1) {
+			return false;
+		}
+		metrics.hedges.incrementAndGet();
+		Trace.addTimelineAnnotation("hedge to " + (n - 1) + " replicas");
+		for (int replicaId = 1; replicaId < n; replicaId++) {
+			Get replicaGet = new Get(get);
+			replicaGet.setConsistency(Consistency.TIMELINE);
+			replicaGet.setReplicaId(replicaId);
+			futures.add(cs.submit(call(replicaGet)));
+		}
+		return true;
+	}
+
+	private long hedgeDelayNanos() {
+		return Math.max(minDelayNanos, Math.min(maxDelayNanos, primaryLatency.get()));
+	}
+
+	private Callable<Result> call(final Get get) {
+		// The get runs on a pool thread; its span is parented explicitly to the span of the caller.
+		final Span parent = Trace.currentSpan();
+		return new Callable<Result>() {
+			@Override
+			public Result call() throws Exception {
+				TraceScope scope = parent == null ? null : Trace.startSpan(get.getConsistency() == Consistency.STRONG
+						? "HedgedReader.primary" : "HedgedReader.replica-" + get.getReplicaId(), parent);
+				Table table = conn.getTable(tableName);
+				try {
+					return table.get(get);
+				} finally {
+					table.close();
+					if (scope != null) {
+						scope.close();
+					}
+				}
+			}
+		};
+	}
+
+	@Override
+	public long getReads() {
+		return metrics.getReads();
+	}
+
+	@Override
+	public long getHedges() {
+		return metrics.getHedges();
+	}
+
+	@Override
+	public long getHedgeWins() {
+		return metrics.getHedgeWins();
+	}
+
+	@Override
+	public long getStaleResults() {
+		return metrics.getStaleResults();
+	}
+
+	@Override
+	public long getFailures() {
+		return metrics.getFailures();
+	}
+
+	@Override
+	public double getHedgeRate() {
+		return metrics.getHedgeRate();
+	}
+
+	private void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName on = new ObjectName("jiq.hbase:type=HedgedReader,table="
+					+ ObjectName.quote(tableName.getNameAsString()));
+			if (!server.isRegistered(on)) {
+				server.registerMBean(this, on);
+				registered = on;
+			}
+		} catch (Exception e) {
+			LOG.warn("Failed to register the hedged reader of " + tableName + " in JMX", e);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		pool.shutdown();
+		if (registered != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+			} catch (Exception e) {
+				LOG.warn("Failed to unregister " + registered, e);
+			}
+			registered = null;
+		}
+	}
+}
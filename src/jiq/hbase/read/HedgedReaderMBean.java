@@ -0,0 +1,39 @@
+package jiq.hbase.read;
+
+/**
+ * JMX view of a {@link HedgedReader}.
+ */
+public interface HedgedReaderMBean {
+	String getTable();
+
+	/**
+	 * Region replication of the table, 0 until the first read.
+	 */
+	int getReplicas();
+
+	/**
+	 * Current hedge delay in milliseconds.
+	 */
+	long getHedgeDelayMs();
+
+	long getReads();
+
+	/**
+	 * Reads for which replica requests were issued.
+	 */
+	long getHedges();
+
+	/**
+	 * Hedged reads answered by a replica before the primary.
+	 */
+	long getHedgeWins();
+
+	long getStaleResults();
+
+	long getFailures();
+
+	/**
+	 * Share of reads that were hedged.
+	 */
+	double getHedgeRate();
+}
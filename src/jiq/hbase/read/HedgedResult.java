@@ -0,0 +1,43 @@
+package jiq.hbase.read;
+
+import org.apache.hadoop.hbase.client.Result;
+
+/**
+ * Outcome of a {@link HedgedReader#get}.
+ */
+public class HedgedResult {
+	private final Result result;
+	private final boolean hedged;
+	private final boolean fromReplica;
+
+	HedgedResult(Result result, boolean hedged, boolean fromReplica) {
+		this.result = result;
+		this.hedged = hedged;
+		this.fromReplica = fromReplica;
+	}
+
+	public Result getResult() {
+		return result;
+	}
+
+	/**
+	 * Whether replica reads were issued for this get.
+	 */
+	public boolean isHedged() {
+		return hedged;
+	}
+
+	/**
+	 * Whether the result came from a secondary replica rather than the primary.
+	 */
+	public boolean isFromReplica() {
+		return fromReplica;
+	}
+
+	/**
+	 * Whether the result may miss recent writes. Only results served by a secondary replica can be stale.
+	 */
+	public boolean isStale() {
+		return result.isStale();
+	}
+}
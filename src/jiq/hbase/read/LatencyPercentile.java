@@ -0,0 +1,41 @@
+package jiq.hbase.read;
+
+import java.util.Arrays;
+
+/**
+ * Percentile over the last {@code window} latency samples.<br>
+ * Recording is a store into a ring buffer; the percentile is recomputed every {@code window / 8} samples and read
+ * without locking in between.
+ */
+class LatencyPercentile {
+	private final long[] samples;
+	private final double percentile;
+	private final int recomputeEvery;
+	private int next = 0;
+	private int count = 0;
+	private volatile long value;
+
+	LatencyPercentile(int window, double percentile, long initialValue) {
+		this.samples = new long[window];
+		this.percentile = percentile;
+		this.recomputeEvery = Math.max(1, window / 8);
+		this.value = initialValue;
+	}
+
+	synchronized void record(long latency) {
+		samples[next] = latency;
+		next = (next + 1) % samples.length;
+		if (count < samples.length) {
+			count++;
+		}
+		if (next % recomputeEvery == 0) {
+			long[] sorted = Arrays.copyOf(samples, count);
+			Arrays.sort(sorted);
+			value = sorted[Math.max(0, Math.min(count - 1, (int) Math.ceil(percentile / 100.0 * count) - 1))];
+		}
+	}
+
+	long get() {
+		return value;
+	}
+}
@@ -0,0 +1,174 @@
+package jiq.hbase.scan;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs a scan as one sub-scan per region, in parallel.<br>
+ * The scan range is cut at the region boundaries into {@link ScanPartition}s; each partition is scanned on a pool
+ * thread with its own Table and scanner and handed to a {@link PartitionTask}. When one partition fails, the
+ * scanners of the others fail their next call, and {@link #scan} returns only after every task has ended, so that
+ * resources the tasks share can be closed safely.
+ */
+public class ParallelScanner implements Closeable {
+	public static final String THREADS_KEY = "jiq.hbase.scan.parallel.threads";
+	public static final int DEFAULT_THREADS = 8;
+
+	private final Connection conn;
+	private final TableName tableName;
+	private final ExecutorService pool;
+
+	public ParallelScanner(Connection conn, TableName tableName) {
+		this(conn, tableName, conn.getConfiguration().getInt(THREADS_KEY, DEFAULT_THREADS));
+	}
+
+	public ParallelScanner(Connection conn, TableName tableName, int threads) {
+		this.conn = conn;
+		this.tableName = tableName;
+		this.pool = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactoryBuilder()
+				.setNameFormat("parallel-scan-" + tableName.getNameAsString() + "-%d").setDaemon(true).build());
+	}
+
+	public TableName getTableName() {
+		return tableName;
+	}
+
+	/**
+	 * Cuts the range of the scan at the current region boundaries.
+	 */
+	public List<ScanPartition> partitions(Scan base) throws IOException {
+		Pair<byte[][], byte[][]> keys;
+		RegionLocator locator = conn.getRegionLocator(tableName);
+		try {
+			keys = locator.getStartEndKeys();
+		} finally {
+			locator.close();
+		}
+		byte[] scanStart = base.getStartRow();
+		byte[] scanStop = base.getStopRow();
+		List<ScanPartition> partitions = new ArrayList<ScanPartition>(keys.getFirst().length);
+		for (int i = 0; i < keys.getFirst().length; i++) {
+			byte[] start = keys.getFirst()[i];
+			byte[] stop = keys.getSecond()[i];
+			if (Bytes.compareTo(scanStart, start) > 0) {
+				start = scanStart;
+			}
+			if (scanStop.length > 0 && (stop.length == 0 || Bytes.compareTo(scanStop, stop) < 0)) {
+				stop = scanStop;
+			}
+			if (stop.length > 0 && Bytes.compareTo(start, stop) >= 0) {
+				// The region lies outside the scan range.
+				continue;
+			}
+			partitions.add(new ScanPartition(partitions.size(), start, stop));
+		}
+		return partitions;
+	}
+
+	/**
+	 * Scans every region of the range in parallel.
+	 *
+	 * @return the results of the task, in partition order
+	 */
+	public <T> List<T> scan(Scan base, PartitionTask<T> task) throws IOException {
+		return scan(partitions(base), base, task);
+	}
+
+	/**
+	 * Scans the given partitions in parallel. If one fails, the others are stopped at their next row, and its
+	 * exception is thrown once all of them have ended.
+	 *
+	 * @return the results of the task, in the order of the partitions
+	 */
+	public <T> List<T> scan(List<ScanPartition> partitions, final Scan base, final PartitionTask<T> task)
+			throws IOException {
+		final AtomicBoolean stopped = new AtomicBoolean(false);
+		List<Future<T>> futures = new ArrayList<Future<T>>(partitions.size());
+		for (final ScanPartition partition : partitions) {
+			futures.add(pool.submit(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					if (stopped.get()) {
+						return null;
+					}
+					Table table = conn.getTable(tableName);
+					ResultScanner scanner = null;
+					try {
+						scanner = new StoppableResultScanner(table.getScanner(partition.toScan(base)), stopped,
+								partition);
+						return task.process(partition, scanner);
+					} catch (Exception e) {
+						stopped.set(true);
+						throw e;
+					} finally {
+						if (scanner != null) {
+							scanner.close();
+						}
+						table.close();
+					}
+				}
+			}));
+		}
+		List<T> results = new ArrayList<T>(futures.size());
+		Throwable failure = null;
+		boolean interrupted = false;
+		for (Future<T> f : futures) {
+			while (true) {
+				try {
+					results.add(f.get());
+					break;
+				} catch (InterruptedException e) {
+					// Still wait for the tasks, they stop at their next row.
+					interrupted = true;
+					stopped.set(true);
+					if (failure == null) {
+						failure = new InterruptedIOException("Interrupted while scanning " + tableName);
+					}
+				} catch (ExecutionException e) {
+					stopped.set(true);
+					// Report the partition that failed, not the ones stopped because of it.
+					if (failure == null || failure instanceof StoppableResultScanner.StoppedException) {
+						failure = e.getCause();
+					}
+					results.add(null);
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+		if (failure != null) {
+			throw new IOException("Parallel scan of " + tableName + " failed", failure);
+		}
+		return results;
+	}
+
+	@Override
+	public void close() {
+		pool.shutdown();
+	}
+}
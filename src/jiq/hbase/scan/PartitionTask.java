@@ -0,0 +1,15 @@
+package jiq.hbase.scan;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.client.ResultScanner;
+
+/**
+ * Work done by {@link ParallelScanner} on the scanner of one partition. Runs on a pool thread; one instance is
+ * shared by all partitions, so it must be thread safe.
+ *
+ * @param <T> per-partition result
+ */
+public interface PartitionTask<T> {
+	T process(ScanPartition partition, ResultScanner scanner) throws IOException;
+}
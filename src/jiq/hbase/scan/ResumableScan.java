@@ -0,0 +1,259 @@
+package jiq.hbase.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Long scan that survives failures: it keeps, per region partition, the last row handed to the sink completely,
+ * retries a failed partition from the row after it, and persists that progress in a {@link ScanCheckpoint} file
+ * so that a new process resumes where the old one stopped.<br>
+ * The scan runs on a {@link ParallelScanner}. When a partition's scanner fails (lease expired, region moved, server
+ * lost), it is reopened at the row after the last complete one, up to {@value #RETRIES_KEY} times in a row
+ * without progress. Within a process no row is delivered twice. The checkpoint is saved every
+ * {@value #CHECKPOINT_INTERVAL_KEY} milliseconds, after a failure and at the end; after a crash, the rows delivered
+ * since the last save are delivered again, so a sink that is idempotent (a put by row key, an upsert) sees the
+ * effect of every row exactly once.<br>
+ * Without Scan.setBatch or partial results every Result is a whole row and complete once delivered. A row split
+ * over several Results counts as complete when the next row begins; a partly delivered row is delivered again in
+ * full on resume. The checkpoint file is removed once the whole scan is done. A file
+ * left by a scan of another table or row range is refused rather than resumed.
+ */
+public class ResumableScan {
+	private final static Log LOG = LogFactory.getLog(ResumableScan.class.getName());
+
+	/** Checkpoint file used by the sample's scanData(); not read by this class. */
+	public static final String CHECKPOINT_FILE_KEY = "jiq.hbase.scan.checkpoint.file";
+	public static final String CHECKPOINT_INTERVAL_KEY = "jiq.hbase.scan.checkpoint.interval.ms";
+	public static final String RETRIES_KEY = "jiq.hbase.scan.resume.retries";
+	public static final String RETRY_PAUSE_KEY = "jiq.hbase.scan.resume.pause.ms";
+
+	/**
+	 * Receives the results, from several scan threads at once. Should be idempotent, see the class comment.
+	 */
+	public interface RowSink {
+		void accept(Result result) throws IOException;
+	}
+
+	/**
+	 * A failure of the sink, which is not retried.
+	 */
+	private static final class SinkException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		SinkException(IOException cause) {
+			super(cause);
+		}
+	}
+
+	private final Connection conn;
+	private final TableName tableName;
+	private final File checkpointFile;
+	private final long checkpointInterval;
+	private final int retries;
+	private final long retryPause;
+	private final AtomicLong resumes = new AtomicLong();
+
+	public ResumableScan(Connection conn, TableName tableName, File checkpointFile) {
+		Configuration conf = conn.getConfiguration();
+		this.conn = conn;
+		this.tableName = tableName;
+		this.checkpointFile = checkpointFile;
+		this.checkpointInterval = conf.getLong(CHECKPOINT_INTERVAL_KEY, 10000L);
+		this.retries = conf.getInt(RETRIES_KEY, 10);
+		this.retryPause = conf.getLong(RETRY_PAUSE_KEY, 1000L);
+	}
+
+	/**
+	 * Scans the range of the base scan, or what remains of it according to the checkpoint file.
+	 *
+	 * @return rows delivered by this call
+	 */
+	public long scan(final Scan base, final RowSink sink) throws IOException {
+		if (base.isReversed()) {
+			throw new IllegalArgumentException("Reversed scans cannot be resumed");
+		}
+		ParallelScanner scanner = new ParallelScanner(conn, tableName);
+		ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+				.setNameFormat("scan-checkpoint-" + tableName.getNameAsString()).setDaemon(true).build());
+		try {
+			final ScanCheckpoint checkpoint = load(base, scanner);
+			List<ScanPartition> remaining = new ArrayList<ScanPartition>();
+			List<ScanCheckpoint.Range> ranges = checkpoint.getRanges();
+			for (int i = 0; i < ranges.size(); i++) {
+				ScanCheckpoint.Range r = ranges.get(i);
+				byte[] resume = r.resumeRow();
+				if (!r.isDone() && (r.getStopRow().length == 0 || Bytes.compareTo(resume, r.getStopRow()) < 0)) {
+					remaining.add(new ScanPartition(i, resume, r.getStopRow()));
+				}
+			}
+			LOG.info("Scanning " + tableName + ": " + remaining.size() + " of " + ranges.size()
+					+ " partitions left, checkpoint " + checkpointFile);
+			saver.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					save(checkpoint);
+				}
+			}, checkpointInterval, checkpointInterval, TimeUnit.MILLISECONDS);
+
+			long start = System.currentTimeMillis();
+			List<Long> rows;
+			try {
+				rows = scanner.scan(remaining, base, new PartitionTask<Long>() {
+					@Override
+					public Long process(ScanPartition partition, ResultScanner first) throws IOException {
+						return scanPartition(checkpoint.getRanges().get(partition.getIndex()), base, first, sink);
+					}
+				});
+			} catch (IOException e) {
+				saver.shutdownNow();
+				save(checkpoint);
+				throw e;
+			}
+			saver.shutdownNow();
+			long total = 0;
+			for (Long n : rows) {
+				total += n;
+			}
+			if (checkpointFile.exists() && !checkpointFile.delete()) {
+				LOG.warn("Failed to delete the checkpoint " + checkpointFile + " of the finished scan");
+			}
+			LOG.info("Scanned " + tableName + ": " + total + " rows in " + (System.currentTimeMillis() - start)
+					+ " ms, " + resumes.get() + " resumes");
+			return total;
+		} finally {
+			saver.shutdownNow();
+			scanner.close();
+		}
+	}
+
+	private ScanCheckpoint load(Scan base, ParallelScanner scanner) throws IOException {
+		if (checkpointFile.exists()) {
+			ScanCheckpoint checkpoint = ScanCheckpoint.read(checkpointFile);
+			if (!checkpoint.matches(tableName, base.getStartRow(), base.getStopRow())) {
+				throw new IOException("Checkpoint " + checkpointFile + " belongs to a scan of "
+						+ checkpoint.getTableName() + " [" + Bytes.toStringBinary(checkpoint.getStartRow()) + ", "
+						+ Bytes.toStringBinary(checkpoint.getStopRow()) + "); remove it to start over");
+			}
+			LOG.info("Resuming the scan of " + tableName + " from " + checkpointFile);
+			return checkpoint;
+		}
+		ScanCheckpoint checkpoint = ScanCheckpoint.create(tableName, base.getStartRow(), base.getStopRow(),
+				scanner.partitions(base));
+		checkpoint.write(checkpointFile);
+		return checkpoint;
+	}
+
+	private void save(ScanCheckpoint checkpoint) {
+		try {
+			checkpoint.write(checkpointFile);
+		} catch (IOException e) {
+			LOG.warn("Failed to save the scan checkpoint " + checkpointFile, e);
+		}
+	}
+
+	/**
+	 * Delivers the rows of one range, reopening the scanner after the last complete row when it fails.
+	 */
+	private long scanPartition(ScanCheckpoint.Range range, Scan base, ResultScanner first, RowSink sink)
+			throws IOException {
+		ResultScanner current = first;
+		Table table = null;
+		long rows = 0;
+		int failures = 0;
+		boolean wholeRows = base.getBatch() <= 0 && !base.getAllowPartialResults();
+		try {
+			while (true) {
+				// Row of the last Result delivered; complete once a Result of another row (or the end) follows.
+				byte[] open = null;
+				try {
+					for (Result result = current.next(); result != null; result = current.next()) {
+						byte[] row = result.getRow();
+						if (open != null && !Bytes.equals(open, row)) {
+							range.setLastRow(open);
+							rows++;
+							failures = 0;
+						}
+						try {
+							sink.accept(result);
+						} catch (IOException e) {
+							throw new SinkException(e);
+						}
+						if (wholeRows) {
+							range.setLastRow(row);
+							rows++;
+							failures = 0;
+						} else {
+							open = row;
+						}
+					}
+					if (open != null) {
+						range.setLastRow(open);
+						rows++;
+					}
+					range.setDone();
+					return rows;
+				} catch (SinkException e) {
+					throw (IOException) e.getCause();
+				} catch (StoppableResultScanner.StoppedException e) {
+					// Another partition failed; the checkpoint keeps this one's progress.
+					throw e;
+				} catch (IOException e) {
+					if (++failures > retries) {
+						throw e;
+					}
+					byte[] resume = range.resumeRow();
+					LOG.warn("Scan of " + tableName + " failed, resuming at " + Bytes.toStringBinary(resume)
+							+ " (attempt " + failures + " of " + retries + ")", e);
+					resumes.incrementAndGet();
+					if (current != first) {
+						current.close();
+					}
+					current = null;
+					try {
+						Thread.sleep(retryPause);
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted resuming the scan of " + tableName);
+					}
+					if (table == null) {
+						table = conn.getTable(tableName);
+					}
+					Scan scan = new Scan(base);
+					scan.setStartRow(resume);
+					scan.setStopRow(range.getStopRow());
+					current = table.getScanner(scan);
+					if (first instanceof StoppableResultScanner) {
+						current = ((StoppableResultScanner) first).wrap(current);
+					}
+				}
+			}
+		} finally {
+			if (current != null && current != first) {
+				current.close();
+			}
+			if (table != null) {
+				table.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package jiq.hbase.scan;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Progress of a {@link ResumableScan}: the key ranges it was cut into and, per range, the last row handed to the
+ * sink completely, or that the range is done.<br>
+ * File layout: magic, version, table, scan start and stop row, then the ranges, followed by a CRC32 of everything
+ * before it. The file is written to a temporary name, synced and renamed, so a crash while saving leaves the
+ * previous checkpoint in place.
+ */
+public class ScanCheckpoint {
+	private static final int MAGIC = 0x4A515343; // "JQSC"
+	private static final int VERSION = 1;
+
+	/**
+	 * One key range [startRow, stopRow) and how far it got. Updated by the scanning thread, read by the saver.
+	 */
+	public static final class Range {
+		private final byte[] startRow;
+		private final byte[] stopRow;
+		private volatile byte[] lastRow;
+		private volatile boolean done;
+
+		Range(byte[] startRow, byte[] stopRow, byte[] lastRow, boolean done) {
+			this.startRow = startRow;
+			this.stopRow = stopRow;
+			this.lastRow = lastRow;
+			this.done = done;
+		}
+
+		public byte[] getStartRow() {
+			return startRow;
+		}
+
+		public byte[] getStopRow() {
+			return stopRow;
+		}
+
+		/**
+		 * Last row delivered completely, null if none yet.
+		 */
+		public byte[] getLastRow() {
+			return lastRow;
+		}
+
+		public boolean isDone() {
+			return done;
+		}
+
+		void setLastRow(byte[] lastRow) {
+			this.lastRow = lastRow;
+		}
+
+		void setDone() {
+			this.done = true;
+		}
+
+		/**
+		 * First row still to scan: the row right after the last one delivered, or the start of the range.
+		 */
+		byte[] resumeRow() {
+			byte[] last = lastRow;
+			// The smallest key greater than last is last followed by a zero byte.
+			return last == null ? startRow : Bytes.add(last, new byte[] { 0 });
+		}
+	}
+
+	private final TableName tableName;
+	private final byte[] startRow;
+	private final byte[] stopRow;
+	private final List<Range> ranges;
+
+	ScanCheckpoint(TableName tableName, byte[] startRow, byte[] stopRow, List<Range> ranges) {
+		this.tableName = tableName;
+		this.startRow = startRow;
+		this.stopRow = stopRow;
+		this.ranges = ranges;
+	}
+
+	/**
+	 * A new checkpoint with nothing done, one range per partition.
+	 */
+	static ScanCheckpoint create(TableName tableName, byte[] startRow, byte[] stopRow,
+			List<ScanPartition> partitions) {
+		List<Range> ranges = new ArrayList<Range>(partitions.size());
+		for (ScanPartition p : partitions) {
+			ranges.add(new Range(p.getStartRow(), p.getStopRow(), null, false));
+		}
+		return new ScanCheckpoint(tableName, startRow, stopRow, ranges);
+	}
+
+	public TableName getTableName() {
+		return tableName;
+	}
+
+	public byte[] getStartRow() {
+		return startRow;
+	}
+
+	public byte[] getStopRow() {
+		return stopRow;
+	}
+
+	public List<Range> getRanges() {
+		return Collections.unmodifiableList(ranges);
+	}
+
+	/**
+	 * True if the checkpoint was taken for a scan of the same table and row range.
+	 */
+	boolean matches(TableName table, byte[] start, byte[] stop) {
+		return tableName.equals(table) && Bytes.equals(startRow, start) && Bytes.equals(stopRow, stop);
+	}
+
+	public synchronized void write(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		CRC32 crc = new CRC32();
+		FileOutputStream fos = new FileOutputStream(tmp);
+		DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(fos), crc));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			Bytes.writeByteArray(out, tableName.getName());
+			Bytes.writeByteArray(out, startRow);
+			Bytes.writeByteArray(out, stopRow);
+			out.writeInt(ranges.size());
+			for (Range r : ranges) {
+				// Read done before lastRow: a range marked done has its final lastRow.
+				boolean done = r.done;
+				byte[] last = r.lastRow;
+				Bytes.writeByteArray(out, r.startRow);
+				Bytes.writeByteArray(out, r.stopRow);
+				out.writeBoolean(last != null);
+				if (last != null) {
+					Bytes.writeByteArray(out, last);
+				}
+				out.writeBoolean(done);
+			}
+			// The checksum itself is not part of the checksum.
+			out.writeLong(crc.getValue());
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			// Windows does not replace on rename.
+			if (!file.delete() || !tmp.renameTo(file)) {
+				throw new IOException("Failed to rename " + tmp + " to " + file);
+			}
+		}
+	}
+
+	/**
+	 * Reads a checkpoint written by {@link #write(File)}.
+	 *
+	 * @throws IOException if the file is missing, truncated, of another version or fails its checksum
+	 */
+	public static ScanCheckpoint read(File file) throws IOException {
+		byte[] data = Files.readAllBytes(file.toPath());
+		if (data.length < Bytes.SIZEOF_LONG) {
+			throw new IOException(file + " is truncated");
+		}
+		int length = data.length - Bytes.SIZEOF_LONG;
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		if (Bytes.toLong(data, length) != crc.getValue()) {
+			throw new IOException("Checksum mismatch in " + file);
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, length));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(file + " is not a scan checkpoint");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported scan checkpoint version " + version + " in " + file);
+			}
+			TableName tableName = TableName.valueOf(Bytes.readByteArray(in));
+			byte[] startRow = Bytes.readByteArray(in);
+			byte[] stopRow = Bytes.readByteArray(in);
+			int n = in.readInt();
+			List<Range> ranges = new ArrayList<Range>(n);
+			for (int i = 0; i < n; i++) {
+				byte[] start = Bytes.readByteArray(in);
+				byte[] stop = Bytes.readByteArray(in);
+				byte[] last = in.readBoolean() ? Bytes.readByteArray(in) : null;
+				ranges.add(new Range(start, stop, last, in.readBoolean()));
+			}
+			return new ScanCheckpoint(tableName, startRow, stopRow, ranges);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package jiq.hbase.scan;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * The part of a scan range that falls into one region: [startRow, stopRow), where an empty array means an open
+ * end.
+ */
+public class ScanPartition {
+	private final int index;
+	private final byte[] startRow;
+	private final byte[] stopRow;
+
+	public ScanPartition(int index, byte[] startRow, byte[] stopRow) {
+		this.index = index;
+		this.startRow = startRow;
+		this.stopRow = stopRow;
+	}
+
+	/**
+	 * Position of the partition in key order, starting at 0.
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public byte[] getStartRow() {
+		return startRow;
+	}
+
+	public byte[] getStopRow() {
+		return stopRow;
+	}
+
+	/**
+	 * Copy of the base scan restricted to this partition.
+	 */
+	public Scan toScan(Scan base) throws IOException {
+		Scan scan = new Scan(base);
+		scan.setStartRow(startRow);
+		scan.setStopRow(stopRow);
+		return scan;
+	}
+
+	@Override
+	public String toString() {
+		return "partition " + index + " [" + Bytes.toStringBinary(startRow) + ", " + Bytes.toStringBinary(stopRow)
+				+ ")";
+	}
+}
@@ -0,0 +1,101 @@
+package jiq.hbase.scan;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+
+/**
+ * {@link ResultScanner} of one partition that fails its next call once the parallel scan is stopped, so that a
+ * task ends at its next row instead of scanning its region to the end.
+ */
+class StoppableResultScanner implements ResultScanner {
+	/**
+	 * Thrown to the tasks of a stopped scan; not the cause of the failure.
+	 */
+	static class StoppedException extends InterruptedIOException {
+		private static final long serialVersionUID = 1L;
+
+		StoppedException(String message) {
+			super(message);
+		}
+	}
+
+	private final ResultScanner delegate;
+	private final AtomicBoolean stopped;
+	private final ScanPartition partition;
+
+	StoppableResultScanner(ResultScanner delegate, AtomicBoolean stopped, ScanPartition partition) {
+		this.delegate = delegate;
+		this.stopped = stopped;
+		this.partition = partition;
+	}
+
+	/**
+	 * Another scanner of the same partition, stopped together with this one.
+	 */
+	ResultScanner wrap(ResultScanner other) {
+		return new StoppableResultScanner(other, stopped, partition);
+	}
+
+	private void checkStopped() throws StoppedException {
+		if (stopped.get()) {
+			throw new StoppedException("Scan of " + partition + " stopped after another partition failed");
+		}
+	}
+
+	@Override
+	public Result next() throws IOException {
+		checkStopped();
+		return delegate.next();
+	}
+
+	@Override
+	public Result[] next(int nbRows) throws IOException {
+		checkStopped();
+		return delegate.next(nbRows);
+	}
+
+	@Override
+	public void close() {
+		delegate.close();
+	}
+
+	@Override
+	public Iterator<Result> iterator() {
+		return new Iterator<Result>() {
+			private Result next = null;
+
+			@Override
+			public boolean hasNext() {
+				if (next == null) {
+					try {
+						next = StoppableResultScanner.this.next();
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+				return next != null;
+			}
+
+			@Override
+			public Result next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Result r = next;
+				next = null;
+				return r;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,28 @@
+package jiq.hbase.schedule;
+
+/**
+ * Priority classes of client requests. Each has its own queue, in-flight limit and share of the capacity, set by
+ * {@code jiq.hbase.scheduler.<name>.*}.
+ */
+public enum Priority {
+	/** Point reads and writes a user is waiting for. */
+	INTERACTIVE(8),
+	/** Operations that were not tagged. */
+	DEFAULT(4),
+	/** Bulk loads, large scans and other background work. */
+	BATCH(1);
+
+	private final int defaultWeight;
+
+	private Priority(int defaultWeight) {
+		this.defaultWeight = defaultWeight;
+	}
+
+	int getDefaultWeight() {
+		return defaultWeight;
+	}
+
+	String key(String suffix) {
+		return "jiq.hbase.scheduler." + name().toLowerCase() + "." + suffix;
+	}
+}
@@ -0,0 +1,97 @@
+package jiq.hbase.schedule;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+
+import javax.management.ObjectName;
+
+import jiq.hbase.metrics.LatencyHistogram;
+
+/**
+ * State of one priority class of a {@link RequestScheduler}. The fields without their own synchronization are
+ * guarded by the scheduler's lock; the counts the MBean shows are copied to volatiles.
+ */
+public final class PriorityClass implements PriorityClassMBean {
+	final Priority priority;
+	final int weight;
+	final int maxInflight;
+	final int queueSize;
+	final long queueTimeoutNanos;
+	final ArrayDeque<RequestScheduler.Waiter> queue = new ArrayDeque<RequestScheduler.Waiter>();
+	// Signalled when the queue has room again.
+	final Condition space;
+	// Virtual finish time of the class's next request; the class with the smallest goes first.
+	double pass = 0;
+	volatile int inflight = 0;
+	volatile int queued = 0;
+	ThreadPoolExecutor executor = null;
+	ObjectName registered = null;
+
+	final LatencyHistogram waits = new LatencyHistogram();
+	final AtomicLong completed = new AtomicLong();
+	final AtomicLong rejected = new AtomicLong();
+
+	PriorityClass(Priority priority, int weight, int maxInflight, int queueSize, long queueTimeoutNanos,
+			Condition space) {
+		this.priority = priority;
+		this.weight = weight;
+		this.maxInflight = maxInflight;
+		this.queueSize = queueSize;
+		this.queueTimeoutNanos = queueTimeoutNanos;
+		this.space = space;
+	}
+
+	@Override
+	public String getPriority() {
+		return priority.name();
+	}
+
+	@Override
+	public int getWeight() {
+		return weight;
+	}
+
+	@Override
+	public int getMaxInflight() {
+		return maxInflight;
+	}
+
+	@Override
+	public int getInflight() {
+		return inflight;
+	}
+
+	@Override
+	public int getQueued() {
+		return queued;
+	}
+
+	@Override
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	@Override
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	@Override
+	public double getMeanWaitUs() {
+		return waits.getMean();
+	}
+
+	@Override
+	public long getWait99thUs() {
+		return waits.getPercentile(99);
+	}
+
+	@Override
+	public String toString() {
+		return priority + ": " + inflight + "/" + maxInflight + " in flight, " + queued + " queued, "
+				+ getCompleted() + " completed, " + getRejected() + " rejected, wait mean "
+				+ String.format("%.1f", getMeanWaitUs()) + " us p99 " + getWait99thUs() + " us";
+	}
+}
@@ -0,0 +1,30 @@
+package jiq.hbase.schedule;
+
+/**
+ * JMX view of one priority class of a {@link RequestScheduler}. Waits are in microseconds.
+ */
+public interface PriorityClassMBean {
+	String getPriority();
+
+	int getWeight();
+
+	int getMaxInflight();
+
+	int getInflight();
+
+	int getQueued();
+
+	long getCompleted();
+
+	/**
+	 * Requests refused because the queue stayed full for the queue timeout.
+	 */
+	long getRejected();
+
+	/**
+	 * Time from submission until a slot was granted.
+	 */
+	double getMeanWaitUs();
+
+	long getWait99thUs();
+}
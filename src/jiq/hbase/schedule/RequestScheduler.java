@@ -0,0 +1,336 @@
+package jiq.hbase.schedule;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Connection;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Client-side scheduler that keeps interactive requests ahead of batch work sharing the same Connection.<br>
+ * Every request takes a slot before it is sent and gives it back when it returns. At most
+ * {@value #MAX_INFLIGHT_KEY} requests are in flight in total, and at most
+ * {@code jiq.hbase.scheduler.<class>.max.inflight} of each {@link Priority}; by default batch may take only half
+ * of the slots, so interactive requests always find some free. When several classes wait, the slots go to them in
+ * proportion to {@code jiq.hbase.scheduler.<class>.weight} (stride scheduling over virtual time: a class that was
+ * idle re-joins at the current time rather than with saved-up credit). Unused share is not reserved: batch fills
+ * all its slots when nothing else waits.<br>
+ * Each class waits in its own queue of {@code jiq.hbase.scheduler.<class>.queue.size} requests; a request that
+ * finds it full waits up to {@code jiq.hbase.scheduler.<class>.queue.timeout.ms} for room and is then rejected.
+ * Interactive requests fail fast by default, batch requests wait (back-pressure on the producer).<br>
+ * {@link #wrap(Connection, Priority)} tags all requests of a Connection's tables with one class;
+ * {@link #submit(Priority, Callable)} runs a task on the class's own bounded executor. Each class is published as
+ * the MBean {@code jiq.hbase:type=RequestScheduler,name=<name>,priority=<class>}.
+ */
+public class RequestScheduler implements Closeable {
+	private final static Log LOG = LogFactory.getLog(RequestScheduler.class.getName());
+
+	public static final String ENABLED_KEY = "jiq.hbase.scheduler.enabled";
+	public static final String MAX_INFLIGHT_KEY = "jiq.hbase.scheduler.max.inflight";
+	public static final String WEIGHT_SUFFIX = "weight";
+	public static final String MAX_INFLIGHT_SUFFIX = "max.inflight";
+	public static final String QUEUE_SIZE_SUFFIX = "queue.size";
+	public static final String QUEUE_TIMEOUT_SUFFIX = "queue.timeout.ms";
+
+	/**
+	 * A request waiting for a slot: a caller blocked in {@link #acquire(Priority)}, or a submitted task.
+	 */
+	static final class Waiter {
+		final Runnable task;
+		final Future<?> future;
+		final Condition ready;
+		final long enqueued = System.nanoTime();
+		boolean granted = false;
+		/** Dropped from the queue by {@link RequestScheduler#close()}. */
+		boolean closed = false;
+
+		Waiter(Runnable task, Future<?> future, Condition ready) {
+			this.task = task;
+			this.future = future;
+			this.ready = ready;
+		}
+	}
+
+	private final String name;
+	private final int maxInflight;
+	private final PriorityClass[] classes;
+	private final ReentrantLock lock = new ReentrantLock();
+	private int inflight = 0;
+	private double virtualTime = 0;
+	private boolean closed = false;
+
+	public RequestScheduler(String name, Configuration conf) {
+		this.name = name;
+		this.maxInflight = Math.max(1, conf.getInt(MAX_INFLIGHT_KEY, 64));
+		Priority[] priorities = Priority.values();
+		this.classes = new PriorityClass[priorities.length];
+		for (Priority p : priorities) {
+			int defaultLimit = p == Priority.BATCH ? Math.max(1, maxInflight / 2) : maxInflight;
+			long defaultTimeout = p == Priority.INTERACTIVE ? 0L : p == Priority.BATCH ? Long.MAX_VALUE : 1000L;
+			long timeoutMs = conf.getLong(p.key(QUEUE_TIMEOUT_SUFFIX), defaultTimeout);
+			classes[p.ordinal()] = new PriorityClass(p, Math.max(1, conf.getInt(p.key(WEIGHT_SUFFIX),
+					p.getDefaultWeight())), Math.max(1, Math.min(maxInflight, conf.getInt(p.key(MAX_INFLIGHT_SUFFIX),
+					defaultLimit))), Math.max(1, conf.getInt(p.key(QUEUE_SIZE_SUFFIX), 10000)),
+					timeoutMs >= Long.MAX_VALUE / 1000000L ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(timeoutMs),
+					lock.newCondition());
+		}
+		register();
+	}
+
+	/**
+	 * Connection whose tables take a slot of the class for every operation and every scanner batch.
+	 */
+	public Connection wrap(Connection conn, Priority priority) {
+		return SchedulingProxy.connection(conn, this, priority);
+	}
+
+	/**
+	 * Waits for a slot of the class. Every successful call must be followed by one {@link #release(Priority)}.
+	 * 
+	 * @throws RejectedExecutionException if the class's queue stayed full for its queue timeout, or the scheduler
+	 *             is closed
+	 */
+	public void acquire(Priority priority) throws InterruptedException {
+		PriorityClass c = classes[priority.ordinal()];
+		lock.lock();
+		try {
+			Waiter w = new Waiter(null, null, lock.newCondition());
+			enqueue(c, w);
+			while (!w.granted) {
+				if (w.closed) {
+					throw new RejectedExecutionException("Request scheduler " + name + " is closed");
+				}
+				try {
+					w.ready.await();
+				} catch (InterruptedException e) {
+					if (!w.granted) {
+						c.queue.remove(w);
+						c.queued = c.queue.size();
+						c.space.signal();
+						throw e;
+					}
+					// Granted meanwhile: keep the slot for the caller to release, and the interrupt for later.
+					Thread.currentThread().interrupt();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void release(Priority priority) {
+		PriorityClass c = classes[priority.ordinal()];
+		lock.lock();
+		try {
+			c.inflight--;
+			inflight--;
+			c.completed.incrementAndGet();
+			dispatch();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Runs the task in a slot of the class.
+	 */
+	public <T> T call(Priority priority, Callable<T> task) throws Exception {
+		acquire(priority);
+		try {
+			return task.call();
+		} finally {
+			release(priority);
+		}
+	}
+
+	/**
+	 * Queues the task to run in a slot of the class on the class's executor, which has one thread per slot. A task
+	 * still queued when the scheduler is closed is cancelled.
+	 * 
+	 * @throws RejectedExecutionException if the class's queue stayed full for its queue timeout
+	 */
+	public <T> Future<T> submit(final Priority priority, Callable<T> task) throws InterruptedException {
+		final FutureTask<T> future = new FutureTask<T>(task);
+		Waiter w = new Waiter(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					future.run();
+				} finally {
+					release(priority);
+				}
+			}
+		}, future, null);
+		lock.lock();
+		try {
+			enqueue(classes[priority.ordinal()], w);
+		} finally {
+			lock.unlock();
+		}
+		return future;
+	}
+
+	/**
+	 * Adds the waiter to the class's queue, waiting for room if it is full, and hands out the free slots.
+	 */
+	private void enqueue(PriorityClass c, Waiter w) throws InterruptedException {
+		if (closed) {
+			throw new RejectedExecutionException("Request scheduler " + name + " is closed");
+		}
+		long nanos = c.queueTimeoutNanos;
+		while (c.queue.size() >= c.queueSize) {
+			if (closed) {
+				throw new RejectedExecutionException("Request scheduler " + name + " is closed");
+			}
+			if (nanos <= 0) {
+				c.rejected.incrementAndGet();
+				throw new RejectedExecutionException(
+						c.priority + " request queue of " + name + " is full (" + c.queueSize + ")");
+			}
+			nanos = c.space.awaitNanos(nanos);
+		}
+		if (c.queue.isEmpty() && c.inflight == 0) {
+			// An idle class starts at the current virtual time, not where it stopped.
+			c.pass = Math.max(c.pass, virtualTime);
+		}
+		c.queue.add(w);
+		c.queued = c.queue.size();
+		dispatch();
+	}
+
+	/**
+	 * Grants free slots to the waiting class with the smallest virtual time that is under its own limit.
+	 */
+	private void dispatch() {
+		while (inflight < maxInflight) {
+			PriorityClass next = null;
+			for (PriorityClass c : classes) {
+				if (!c.queue.isEmpty() && c.inflight < c.maxInflight && (next == null || c.pass < next.pass)) {
+					next = c;
+				}
+			}
+			if (next == null) {
+				return;
+			}
+			Waiter w = next.queue.poll();
+			next.queued = next.queue.size();
+			next.space.signal();
+			next.inflight++;
+			inflight++;
+			virtualTime = next.pass;
+			next.pass += 1.0 / next.weight;
+			next.waits.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - w.enqueued));
+			w.granted = true;
+			if (w.task == null) {
+				w.ready.signal();
+			} else {
+				try {
+					executor(next).execute(w.task);
+				} catch (RejectedExecutionException e) {
+					// Closed: give the slot back and cancel the task so that its caller does not wait forever.
+					next.inflight--;
+					inflight--;
+					w.future.cancel(false);
+					LOG.warn("Cancelled a " + next.priority + " task of closed scheduler " + name);
+				}
+			}
+		}
+	}
+
+	private ThreadPoolExecutor executor(PriorityClass c) {
+		if (c.executor == null) {
+			c.executor = new ThreadPoolExecutor(c.maxInflight, c.maxInflight, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder()
+							.setNameFormat("scheduler-" + c.priority.name().toLowerCase() + "-%d").setDaemon(true).build());
+			c.executor.allowCoreThreadTimeOut(true);
+		}
+		return c.executor;
+	}
+
+	public PriorityClassMBean getPriorityClass(Priority priority) {
+		return classes[priority.ordinal()];
+	}
+
+	private void register() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (PriorityClass c : classes) {
+			try {
+				ObjectName on = new ObjectName("jiq.hbase:type=RequestScheduler,name=" + ObjectName.quote(name)
+						+ ",priority=" + c.priority.name().toLowerCase());
+				if (!server.isRegistered(on)) {
+					server.registerMBean(c, on);
+					c.registered = on;
+				}
+			} catch (Exception e) {
+				LOG.warn("Failed to register " + c.priority + " class of request scheduler " + name + " in JMX", e);
+			}
+		}
+	}
+
+	/**
+	 * Rejects new requests and the ones still queued (callers of {@link #acquire(Priority)} get a
+	 * {@link RejectedExecutionException}, submitted tasks are cancelled), stops the executors after their running
+	 * tasks and unregisters the MBeans.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			for (PriorityClass c : classes) {
+				Waiter w;
+				while ((w = c.queue.poll()) != null) {
+					w.closed = true;
+					if (w.task == null) {
+						w.ready.signal();
+					} else {
+						w.future.cancel(false);
+					}
+				}
+				c.queued = 0;
+				// Wakes producers waiting for room, which then see the scheduler closed.
+				c.space.signalAll();
+				if (c.executor != null) {
+					c.executor.shutdown();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		for (PriorityClass c : classes) {
+			if (c.registered != null) {
+				try {
+					ManagementFactory.getPlatformMBeanServer().unregisterMBean(c.registered);
+				} catch (Exception e) {
+					LOG.warn("Failed to unregister " + c.registered, e);
+				}
+				c.registered = null;
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("RequestScheduler ").append(name);
+		for (PriorityClass c : classes) {
+			sb.append("; ").append(c);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,137 @@
+package jiq.hbase.schedule;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Table;
+
+/**
+ * Dynamic proxies of {@link Connection}, {@link Table} and {@link ResultScanner} that run every operation that
+ * talks to a server in a slot of one priority class of a {@link RequestScheduler}.<br>
+ * Opening a scanner and each {@code next} take a slot, so a long scan gives way to interactive requests between
+ * batches instead of holding a slot for its whole length. A full queue surfaces as an IOException from the table.
+ * Admin and BufferedMutator pass through unscheduled.
+ */
+final class SchedulingProxy implements InvocationHandler {
+	// Table methods that stay on the client.
+	private static final Set<String> LOCAL = new HashSet<String>(Arrays.asList("getName", "getConfiguration",
+			"close", "getWriteBufferSize", "setWriteBufferSize", "isAutoFlush", "setAutoFlush",
+			"setAutoFlushTo", "toString", "hashCode", "equals"));
+
+	private final Object target;
+	private final RequestScheduler scheduler;
+	private final Priority priority;
+
+	private SchedulingProxy(Object target, RequestScheduler scheduler, Priority priority) {
+		this.target = target;
+		this.scheduler = scheduler;
+		this.priority = priority;
+	}
+
+	static Connection connection(Connection conn, RequestScheduler scheduler, Priority priority) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new SchedulingProxy(conn, scheduler, priority));
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		if (target instanceof Connection) {
+			Object result = call(method, args);
+			if (result instanceof Table) {
+				return Proxy.newProxyInstance(Table.class.getClassLoader(), new Class<?>[] { Table.class },
+						new SchedulingProxy(result, scheduler, priority));
+			}
+			return result;
+		}
+		if (target instanceof ResultScanner) {
+			if ("next".equals(method.getName())) {
+				return scheduled(method, args);
+			} else if ("iterator".equals(method.getName())) {
+				return iterator((ResultScanner) proxy);
+			}
+			return call(method, args);
+		}
+		if (LOCAL.contains(method.getName())) {
+			return call(method, args);
+		}
+		Object result = scheduled(method, args);
+		if (result instanceof ResultScanner) {
+			return Proxy.newProxyInstance(ResultScanner.class.getClassLoader(), new Class<?>[] { ResultScanner.class },
+					new SchedulingProxy(result, scheduler, priority));
+		}
+		return result;
+	}
+
+	private Object scheduled(Method method, Object[] args) throws Throwable {
+		try {
+			scheduler.acquire(priority);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for a " + priority + " request slot");
+		} catch (RejectedExecutionException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		try {
+			return call(method, args);
+		} finally {
+			scheduler.release(priority);
+		}
+	}
+
+	/**
+	 * Iterator over the scheduled {@code next()} of the scanner proxy; the scanner's own iterator would bypass it.
+	 */
+	private static Iterator<Result> iterator(final ResultScanner scanner) {
+		return new Iterator<Result>() {
+			private Result next = null;
+
+			@Override
+			public boolean hasNext() {
+				if (next == null) {
+					try {
+						next = scanner.next();
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+				return next != null;
+			}
+
+			@Override
+			public Result next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Result result = next;
+				next = null;
+				return result;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private Object call(Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
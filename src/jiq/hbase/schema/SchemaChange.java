@@ -0,0 +1,321 @@
+package jiq.hbase.schema;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Builder that collects schema changes over one or more tables and applies them together.<br>
+ * For each table the descriptor is fetched once, all changes are applied to a copy and the result is compared
+ * with the original ({@link TableDiff}). Tables without a difference are left alone. The others get one
+ * modifyTable call, inside a single disable/enable window when the table has to be offline, i.e. when online
+ * schema update ({@value #ONLINE_UPDATE_KEY}) is off or {@link #requireOffline(TableName)} was called, else
+ * online. The master works asynchronously; each table is followed by polling its state and alter status on its
+ * own thread, so many tables progress in parallel.
+ *
+ * <pre>
+ * new SchemaChange(conn).addFamily(t, new HColumnDescriptor("education"))
+ * 		.setDataBlockEncoding(t, "info", DataBlockEncoding.FAST_DIFF).apply();
+ * </pre>
+ */
+public class SchemaChange {
+	private final static Log LOG = LogFactory.getLog(SchemaChange.class.getName());
+
+	public static final String THREADS_KEY = "jiq.hbase.schema.threads";
+	public static final String POLL_INTERVAL_KEY = "jiq.hbase.schema.poll.interval.ms";
+	public static final String TIMEOUT_KEY = "jiq.hbase.schema.timeout.ms";
+	public static final String ONLINE_UPDATE_KEY = "hbase.online.schema.update.enable";
+
+	/**
+	 * Where a table is in the change.
+	 */
+	public enum Stage {
+		DISABLING, MODIFYING, ENABLING, DONE, UNCHANGED
+	}
+
+	public interface ProgressListener {
+		/**
+		 * Called from the polling threads. regionsTotal is 0 when the stage has no region count.
+		 */
+		void onProgress(TableName tableName, Stage stage, int regionsDone, int regionsTotal);
+	}
+
+	private interface Edit {
+		void apply(HTableDescriptor htd) throws IOException;
+	}
+
+	private final Connection conn;
+	private final int threads;
+	private final long pollInterval;
+	private final long timeout;
+	private final boolean onlineUpdate;
+	private final Map<TableName, List<Edit>> edits = new LinkedHashMap<TableName, List<Edit>>();
+	private final Set<TableName> offline = new HashSet<TableName>();
+	private ProgressListener listener = null;
+
+	public SchemaChange(Connection conn) {
+		Configuration conf = conn.getConfiguration();
+		this.conn = conn;
+		this.threads = conf.getInt(THREADS_KEY, 4);
+		this.pollInterval = conf.getLong(POLL_INTERVAL_KEY, 500L);
+		this.timeout = conf.getLong(TIMEOUT_KEY, 10 * 60 * 1000L);
+		this.onlineUpdate = conf.getBoolean(ONLINE_UPDATE_KEY, true);
+	}
+
+	private SchemaChange edit(TableName tableName, Edit edit) {
+		List<Edit> list = edits.get(tableName);
+		if (list == null) {
+			list = new ArrayList<Edit>();
+			edits.put(tableName, list);
+		}
+		list.add(edit);
+		return this;
+	}
+
+	/**
+	 * Adds the family if the table does not have it yet.
+	 */
+	public SchemaChange addFamily(TableName tableName, final HColumnDescriptor family) {
+		return edit(tableName, new Edit() {
+			@Override
+			public void apply(HTableDescriptor htd) {
+				if (!htd.hasFamily(family.getName())) {
+					htd.addFamily(new HColumnDescriptor(family));
+				}
+			}
+		});
+	}
+
+	public SchemaChange setDataBlockEncoding(TableName tableName, final String family,
+			final DataBlockEncoding encoding) {
+		return edit(tableName, new Edit() {
+			@Override
+			public void apply(HTableDescriptor htd) throws IOException {
+				family(htd, family).setDataBlockEncoding(encoding);
+			}
+		});
+	}
+
+	public SchemaChange setCompression(TableName tableName, final String family,
+			final Compression.Algorithm compression) {
+		return edit(tableName, new Edit() {
+			@Override
+			public void apply(HTableDescriptor htd) throws IOException {
+				family(htd, family).setCompressionType(compression);
+			}
+		});
+	}
+
+	/**
+	 * Sets a table attribute, e.g. the index column descriptor of a secondary index.
+	 */
+	public SchemaChange setValue(TableName tableName, final byte[] key, final byte[] value) {
+		return edit(tableName, new Edit() {
+			@Override
+			public void apply(HTableDescriptor htd) {
+				htd.setValue(key, value);
+			}
+		});
+	}
+
+	/**
+	 * Applies the changes of the table with the table disabled even if online schema update is on.
+	 */
+	public SchemaChange requireOffline(TableName tableName) {
+		offline.add(tableName);
+		return this;
+	}
+
+	public SchemaChange setProgressListener(ProgressListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * Applies all changes and waits for them.
+	 *
+	 * @return the applied difference per table
+	 * @throws IOException if the change of a table failed; the other tables are still changed
+	 */
+	public Map<TableName, TableDiff> apply() throws IOException {
+		Map<TableName, TableDiff> result = new LinkedHashMap<TableName, TableDiff>();
+		if (edits.isEmpty()) {
+			return result;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, edits.size()),
+				new ThreadFactoryBuilder().setNameFormat("schema-change-%d").setDaemon(true).build());
+		try {
+			Map<TableName, Future<TableDiff>> futures = new LinkedHashMap<TableName, Future<TableDiff>>();
+			for (final Map.Entry<TableName, List<Edit>> e : edits.entrySet()) {
+				futures.put(e.getKey(), pool.submit(new Callable<TableDiff>() {
+					@Override
+					public TableDiff call() throws Exception {
+						return applyTable(e.getKey(), e.getValue());
+					}
+				}));
+			}
+			IOException failure = null;
+			List<TableName> failed = new ArrayList<TableName>();
+			for (Map.Entry<TableName, Future<TableDiff>> e : futures.entrySet()) {
+				try {
+					result.put(e.getKey(), e.getValue().get());
+				} catch (ExecutionException ex) {
+					LOG.error("Schema change of " + e.getKey() + " failed", ex.getCause());
+					failed.add(e.getKey());
+					if (failure == null) {
+						failure = ex.getCause() instanceof IOException ? (IOException) ex.getCause()
+								: new IOException(ex.getCause());
+					}
+				}
+			}
+			if (failure != null) {
+				throw new IOException("Schema change failed on " + failed, failure);
+			}
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted during schema change");
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private TableDiff applyTable(TableName tableName, List<Edit> tableEdits) throws IOException,
+			InterruptedException {
+		Admin admin = conn.getAdmin();
+		try {
+			HTableDescriptor current = admin.getTableDescriptor(tableName);
+			HTableDescriptor desired = new HTableDescriptor(current);
+			for (Edit edit : tableEdits) {
+				edit.apply(desired);
+			}
+			TableDiff diff = TableDiff.between(current, desired);
+			if (diff.isEmpty()) {
+				progress(tableName, Stage.UNCHANGED, 0, 0);
+				LOG.info(diff);
+				return diff;
+			}
+
+			boolean enabled = admin.isTableEnabled(tableName);
+			boolean takeOffline = enabled && (offline.contains(tableName) || !onlineUpdate);
+			long deadline = System.currentTimeMillis() + timeout;
+			if (takeOffline) {
+				admin.disableTableAsync(tableName);
+			}
+			boolean online = !takeOffline;
+			try {
+				while (takeOffline && !admin.isTableDisabled(tableName)) {
+					progress(tableName, Stage.DISABLING, 0, 0);
+					sleep(tableName, deadline);
+				}
+
+				admin.modifyTable(tableName, desired);
+				while (true) {
+					Pair<Integer, Integer> status = admin.getAlterStatus(tableName);
+					int pending = status.getFirst();
+					int total = status.getSecond();
+					progress(tableName, Stage.MODIFYING, total - pending, total);
+					if (pending <= 0) {
+						break;
+					}
+					sleep(tableName, deadline);
+				}
+
+				if (takeOffline) {
+					admin.enableTableAsync(tableName);
+					online = true;
+					while (!admin.isTableAvailable(tableName)) {
+						progress(tableName, Stage.ENABLING, 0, 0);
+						sleep(tableName, deadline);
+					}
+				}
+			} finally {
+				if (!online) {
+					// The failure propagates; the table must not stay offline because of it.
+					enableAfterFailure(admin, tableName);
+				}
+			}
+			progress(tableName, Stage.DONE, 0, 0);
+			LOG.info(diff + (takeOffline ? " (offline)" : enabled ? " (online)" : " (table disabled)"));
+			return diff;
+		} finally {
+			admin.close();
+		}
+	}
+
+	/**
+	 * Brings a table this change took offline back online after a failure. Errors are logged, not thrown, so
+	 * that the original failure reaches the caller.
+	 */
+	private void enableAfterFailure(Admin admin, TableName tableName) {
+		LOG.warn("Schema change of " + tableName + " failed while the table was offline, enabling it again");
+		long deadline = System.currentTimeMillis() + timeout;
+		boolean interrupted = Thread.interrupted();
+		try {
+			// enable fails while the table is still being disabled.
+			while (!admin.isTableDisabled(tableName)) {
+				if (System.currentTimeMillis() > deadline) {
+					LOG.error("Table " + tableName + " is still being disabled, enable it by hand");
+					return;
+				}
+				Thread.sleep(pollInterval);
+			}
+			admin.enableTableAsync(tableName);
+		} catch (InterruptedException e) {
+			interrupted = true;
+			LOG.error("Interrupted waiting to enable " + tableName + " again, enable it by hand");
+		} catch (IOException e) {
+			LOG.error("Failed to enable " + tableName + " again, enable it by hand", e);
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void sleep(TableName tableName, long deadline) throws IOException, InterruptedException {
+		if (System.currentTimeMillis() > deadline) {
+			throw new IOException("Schema change of " + tableName + " did not finish in " + timeout + " ms");
+		}
+		Thread.sleep(pollInterval);
+	}
+
+	private void progress(TableName tableName, Stage stage, int done, int total) {
+		if (listener != null) {
+			listener.onProgress(tableName, stage, done, total);
+		}
+	}
+
+	private static HColumnDescriptor family(HTableDescriptor htd, String family) throws IOException {
+		HColumnDescriptor hcd = htd.getFamily(Bytes.toBytes(family));
+		if (hcd == null) {
+			throw new IOException("Table " + htd.getTableName() + " has no family " + family);
+		}
+		return hcd;
+	}
+}
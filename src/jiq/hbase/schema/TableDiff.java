@@ -0,0 +1,96 @@
+package jiq.hbase.schema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Differences between the current and the desired descriptor of a table.
+ */
+public class TableDiff {
+	private final TableName tableName;
+	private final List<String> addedFamilies = new ArrayList<String>();
+	private final List<String> modifiedFamilies = new ArrayList<String>();
+	private final List<String> removedFamilies = new ArrayList<String>();
+	private final List<String> changedValues = new ArrayList<String>();
+
+	private TableDiff(TableName tableName) {
+		this.tableName = tableName;
+	}
+
+	public static TableDiff between(HTableDescriptor current, HTableDescriptor desired) {
+		TableDiff diff = new TableDiff(current.getTableName());
+		for (HColumnDescriptor hcd : desired.getColumnFamilies()) {
+			HColumnDescriptor old = current.getFamily(hcd.getName());
+			if (old == null) {
+				diff.addedFamilies.add(hcd.getNameAsString());
+			} else if (!old.equals(hcd)) {
+				diff.modifiedFamilies.add(hcd.getNameAsString());
+			}
+		}
+		for (HColumnDescriptor hcd : current.getColumnFamilies()) {
+			if (!desired.hasFamily(hcd.getName())) {
+				diff.removedFamilies.add(hcd.getNameAsString());
+			}
+		}
+		Map<ImmutableBytesWritable, ImmutableBytesWritable> oldValues = current.getValues();
+		Map<ImmutableBytesWritable, ImmutableBytesWritable> newValues = desired.getValues();
+		Set<ImmutableBytesWritable> keys = new HashSet<ImmutableBytesWritable>(oldValues.keySet());
+		keys.addAll(newValues.keySet());
+		for (ImmutableBytesWritable key : keys) {
+			ImmutableBytesWritable a = oldValues.get(key);
+			ImmutableBytesWritable b = newValues.get(key);
+			if (a == null ? b != null : !a.equals(b)) {
+				diff.changedValues.add(Bytes.toString(key.copyBytes()));
+			}
+		}
+		Collections.sort(diff.changedValues);
+		return diff;
+	}
+
+	public TableName getTableName() {
+		return tableName;
+	}
+
+	public List<String> getAddedFamilies() {
+		return addedFamilies;
+	}
+
+	public List<String> getModifiedFamilies() {
+		return modifiedFamilies;
+	}
+
+	public List<String> getRemovedFamilies() {
+		return removedFamilies;
+	}
+
+	/**
+	 * Keys of table attributes that were set, changed or removed.
+	 */
+	public List<String> getChangedValues() {
+		return changedValues;
+	}
+
+	public boolean isEmpty() {
+		return addedFamilies.isEmpty() && modifiedFamilies.isEmpty() && removedFamilies.isEmpty()
+				&& changedValues.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		if (isEmpty()) {
+			return tableName + ": no change";
+		}
+		return tableName + ": added families " + addedFamilies + ", modified families " + modifiedFamilies
+				+ ", removed families " + removedFamilies + ", changed attributes " + changedValues;
+	}
+}
@@ -0,0 +1,292 @@
+package jiq.hbase.sink;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Result;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Hands query results to a {@link ResultSink} on a dedicated writer thread, so that the scan loop only pays for
+ * one enqueue per result instead of formatting and writing every cell.<br>
+ * Results go through a bounded lock-free {@link RingQueue} of {@value #QUEUE_SIZE_KEY} entries. The writer takes
+ * up to {@value #BATCH_SIZE_KEY} at a time and passes them to the sink as one batch, and flushes the sink when the
+ * queue runs empty. When the queue is full, {@link #accept(Result)} waits for room, slowing the scan down to the
+ * speed of the output, or with {@value #LOSSY_KEY} drops the result and counts it, for output that may be
+ * sampled under overload. The queue holds references to the results, so its size bounds the memory they take.<br>
+ * Counts are published as the MBean {@code jiq.hbase:type=ResultSink,name=<name>}.
+ */
+public class AsyncResultSink implements AsyncResultSinkMBean, Closeable {
+	private final static Log LOG = LogFactory.getLog(AsyncResultSink.class.getName());
+
+	public static final String ENABLED_KEY = "jiq.hbase.sink.enabled";
+	/** log, file or discard. */
+	public static final String TYPE_KEY = "jiq.hbase.sink.type";
+	public static final String FILE_KEY = "jiq.hbase.sink.file";
+	public static final String QUEUE_SIZE_KEY = "jiq.hbase.sink.queue.size";
+	public static final String BATCH_SIZE_KEY = "jiq.hbase.sink.batch.size";
+	public static final String LOSSY_KEY = "jiq.hbase.sink.lossy";
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+	private static final int MAX_LOGGED_ERRORS = 10;
+
+	private final String name;
+	private final ResultSink target;
+	private final RingQueue<Result> queue;
+	private final int batchSize;
+	private final boolean lossy;
+	private final Thread writer;
+	private volatile boolean running = true;
+	// Set by the writer before it parks on an empty queue, so that producers know to wake it.
+	private volatile boolean idle = false;
+	private ObjectName registered = null;
+
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong blocked = new AtomicLong();
+	// Written by the writer thread only.
+	private volatile long written = 0;
+	private volatile long batches = 0;
+	private volatile long writeErrors = 0;
+
+	public AsyncResultSink(String name, ResultSink target, Configuration conf) {
+		this.name = name;
+		this.target = target;
+		this.queue = new RingQueue<Result>(conf.getInt(QUEUE_SIZE_KEY, 8192));
+		this.batchSize = Math.max(1, conf.getInt(BATCH_SIZE_KEY, 512));
+		this.lossy = conf.getBoolean(LOSSY_KEY, false);
+		this.writer = new ThreadFactoryBuilder().setNameFormat("result-sink-" + name).setDaemon(true).build()
+				.newThread(new Runnable() {
+					@Override
+					public void run() {
+						drain();
+					}
+				});
+		writer.start();
+		register();
+	}
+
+	/**
+	 * Sink of the type in {@value #TYPE_KEY}: {@code log} (the default), {@code file} writing to {@value #FILE_KEY},
+	 * or {@code discard}.
+	 */
+	public static AsyncResultSink create(String name, Configuration conf) throws IOException {
+		String type = conf.get(TYPE_KEY, "log");
+		ResultSink target;
+		if ("log".equals(type)) {
+			target = new LogSink();
+		} else if ("file".equals(type)) {
+			String file = conf.get(FILE_KEY);
+			if (file == null) {
+				throw new IOException(FILE_KEY + " is not set");
+			}
+			target = new FileSink(new File(file));
+		} else if ("discard".equals(type)) {
+			target = new DiscardSink();
+		} else {
+			throw new IOException("Unknown result sink type " + type + ", expected log, file or discard");
+		}
+		return new AsyncResultSink(name, target, conf);
+	}
+
+	/**
+	 * Queues the result for the sink.
+	 * 
+	 * @return false if it was dropped (lossy mode, queue full)
+	 * @throws IllegalStateException if the sink is closed, also while waiting for room in a full queue
+	 */
+	public boolean accept(Result result) {
+		if (!running) {
+			throw new IllegalStateException("Result sink " + name + " is closed");
+		}
+		accepted.incrementAndGet();
+		if (!queue.offer(result)) {
+			if (lossy) {
+				dropped.incrementAndGet();
+				return false;
+			}
+			blocked.incrementAndGet();
+			do {
+				// Once closed the writer exits and nothing makes room any more.
+				if (!running) {
+					throw new IllegalStateException("Result sink " + name + " is closed, result not written");
+				}
+				LockSupport.unpark(writer);
+				LockSupport.parkNanos(FULL_PARK_NANOS);
+			} while (!queue.offer(result));
+		}
+		if (idle) {
+			LockSupport.unpark(writer);
+		}
+		return true;
+	}
+
+	private void drain() {
+		List<Result> batch = new ArrayList<Result>(batchSize);
+		boolean dirty = false;
+		while (true) {
+			Result r;
+			while (batch.size() < batchSize && (r = queue.poll()) != null) {
+				batch.add(r);
+			}
+			if (!batch.isEmpty()) {
+				write(batch);
+				dirty = true;
+				continue;
+			}
+			if (dirty) {
+				flush();
+				dirty = false;
+			}
+			if (!running && queue.size() == 0) {
+				return;
+			}
+			idle = true;
+			// Re-check after announcing: a producer that offered before seeing idle did not unpark us.
+			if (queue.size() == 0 && running) {
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
+			}
+			idle = false;
+		}
+	}
+
+	private void write(List<Result> batch) {
+		try {
+			target.write(batch);
+			written += batch.size();
+			batches++;
+		} catch (Throwable e) {
+			if (++writeErrors <= MAX_LOGGED_ERRORS) {
+				LOG.warn("Result sink " + name + " failed to write " + batch.size() + " results", e);
+			}
+		}
+		batch.clear();
+	}
+
+	private void flush() {
+		try {
+			target.flush();
+		} catch (Throwable e) {
+			if (++writeErrors <= MAX_LOGGED_ERRORS) {
+				LOG.warn("Result sink " + name + " failed to flush", e);
+			}
+		}
+	}
+
+	private void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName on = new ObjectName("jiq.hbase:type=ResultSink,name=" + ObjectName.quote(name));
+			if (!server.isRegistered(on)) {
+				server.registerMBean(this, on);
+				registered = on;
+			}
+		} catch (Exception e) {
+			LOG.warn("Failed to register result sink " + name + " in JMX", e);
+		}
+	}
+
+	/**
+	 * Writes what is queued, then flushes and closes the sink.
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// Results offered by producers that passed the running check just before the writer's last look. The queue
+		// has one consumer, so only once the writer is gone.
+		List<Result> rest = new ArrayList<Result>();
+		Result r;
+		while (!writer.isAlive() && (r = queue.poll()) != null) {
+			rest.add(r);
+		}
+		if (!rest.isEmpty()) {
+			write(rest);
+			flush();
+		}
+		try {
+			target.close();
+		} finally {
+			if (registered != null) {
+				try {
+					ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+				} catch (Exception e) {
+					LOG.warn("Failed to unregister " + registered, e);
+				}
+				registered = null;
+			}
+		}
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public boolean isLossy() {
+		return lossy;
+	}
+
+	@Override
+	public int getQueued() {
+		return queue.size();
+	}
+
+	@Override
+	public long getAccepted() {
+		return accepted.get();
+	}
+
+	@Override
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	@Override
+	public long getWritten() {
+		return written;
+	}
+
+	@Override
+	public long getBatches() {
+		return batches;
+	}
+
+	@Override
+	public long getWriteErrors() {
+		return writeErrors;
+	}
+
+	@Override
+	public long getBlocked() {
+		return blocked.get();
+	}
+
+	@Override
+	public String toString() {
+		return "ResultSink " + name + ": " + getAccepted() + " accepted, " + getWritten() + " written in "
+				+ getBatches() + " batches, " + getDropped() + " dropped, " + getBlocked() + " blocked, "
+				+ getWriteErrors() + " errors";
+	}
+}
@@ -0,0 +1,30 @@
+package jiq.hbase.sink;
+
+/**
+ * JMX view of an {@link AsyncResultSink}.
+ */
+public interface AsyncResultSinkMBean {
+	String getName();
+
+	boolean isLossy();
+
+	int getQueued();
+
+	long getAccepted();
+
+	/**
+	 * Results dropped in lossy mode because the queue was full.
+	 */
+	long getDropped();
+
+	long getWritten();
+
+	long getBatches();
+
+	long getWriteErrors();
+
+	/**
+	 * Times a producer had to wait for room in the queue (not lossy).
+	 */
+	long getBlocked();
+}
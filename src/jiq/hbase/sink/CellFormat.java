@@ -0,0 +1,24 @@
+package jiq.hbase.sink;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * The {@code row:family,qualifier,value} lines the samples print, built from the cell arrays in place.
+ */
+final class CellFormat {
+	private CellFormat() {
+	}
+
+	static void append(StringBuilder sb, Result result) {
+		for (Cell cell : result.rawCells()) {
+			sb.append(Bytes.toString(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength())).append(':');
+			sb.append(Bytes.toString(cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength()))
+					.append(',');
+			sb.append(Bytes.toString(cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength()))
+					.append(',');
+			sb.append(Bytes.toString(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength())).append('\n');
+		}
+	}
+}
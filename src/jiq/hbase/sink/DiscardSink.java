@@ -0,0 +1,32 @@
+package jiq.hbase.sink;
+
+import java.util.List;
+
+import org.apache.hadoop.hbase.client.Result;
+
+/**
+ * Drops the results, counting cells; for measuring a scan without any output cost.
+ */
+public class DiscardSink implements ResultSink {
+	// Written by the writer thread only.
+	private volatile long cells = 0;
+
+	@Override
+	public void write(List<Result> batch) {
+		for (Result result : batch) {
+			cells += result.size();
+		}
+	}
+
+	public long getCells() {
+		return cells;
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,45 @@
+package jiq.hbase.sink;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.hadoop.hbase.client.Result;
+
+/**
+ * Appends the results to a file, a line per cell, through a large buffer that is flushed when the queue of the
+ * {@link AsyncResultSink} runs empty.
+ */
+public class FileSink implements ResultSink {
+	private final Writer out;
+	private final StringBuilder sb = new StringBuilder(64 * 1024);
+
+	public FileSink(File file) throws IOException {
+		this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8),
+				256 * 1024);
+	}
+
+	@Override
+	public void write(List<Result> batch) throws IOException {
+		sb.setLength(0);
+		for (Result result : batch) {
+			CellFormat.append(sb, result);
+		}
+		out.append(sb);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
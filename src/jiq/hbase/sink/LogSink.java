@@ -0,0 +1,41 @@
+package jiq.hbase.sink;
+
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.client.Result;
+
+/**
+ * Logs a batch of results as one INFO message with a line per cell, so the appender is called once per batch
+ * instead of once per cell.
+ */
+public class LogSink implements ResultSink {
+	private final static Log LOG = LogFactory.getLog(LogSink.class.getName());
+
+	private final StringBuilder sb = new StringBuilder(64 * 1024);
+
+	@Override
+	public void write(List<Result> batch) {
+		if (!LOG.isInfoEnabled()) {
+			return;
+		}
+		sb.setLength(0);
+		for (Result result : batch) {
+			CellFormat.append(sb, result);
+		}
+		if (sb.length() > 0) {
+			// Drop the last line break; the layout adds one.
+			sb.setLength(sb.length() - 1);
+			LOG.info(sb);
+		}
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,20 @@
+package jiq.hbase.sink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.hbase.client.Result;
+
+/**
+ * Destination of query results, called with batches from the writer thread of an {@link AsyncResultSink}.<br>
+ * Implementations need not be thread-safe. For a callback, implement this interface.
+ */
+public interface ResultSink extends Closeable {
+	void write(List<Result> batch) throws IOException;
+
+	/**
+	 * Called when the queue runs empty and before close, so that output does not sit in a buffer while idle.
+	 */
+	void flush() throws IOException;
+}
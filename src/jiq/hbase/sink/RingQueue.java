@@ -0,0 +1,73 @@
+package jiq.hbase.sink;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and one consumer, after Dmitry Vyukov's bounded MPMC queue.<br>
+ * Each slot has a sequence number: a producer claims the tail position by CAS when the slot's sequence equals it,
+ * stores the item and publishes it by setting the sequence to position + 1; the consumer takes the item when the
+ * sequence says it is published and frees the slot for the next lap by setting it to position + capacity. A full
+ * queue fails the offer instead of blocking.
+ */
+final class RingQueue<T> {
+	private final int mask;
+	private final AtomicReferenceArray<T> items;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	// Only the consumer moves the head; volatile for size().
+	private volatile long head = 0;
+
+	RingQueue(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.mask = size - 1;
+		this.items = new AtomicReferenceArray<T>(size);
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	boolean offer(T item) {
+		while (true) {
+			long pos = tail.get();
+			int slot = (int) (pos & mask);
+			long diff = sequences.get(slot) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					items.lazySet(slot, item);
+					sequences.set(slot, pos + 1);
+					return true;
+				}
+			} else if (diff < 0) {
+				return false;
+			}
+			// diff > 0: another producer took the position, retry with the new tail.
+		}
+	}
+
+	/**
+	 * Next item, or null if the queue is empty or the next item is not published yet. Consumer thread only.
+	 */
+	T poll() {
+		long pos = head;
+		int slot = (int) (pos & mask);
+		if (sequences.get(slot) != pos + 1) {
+			return null;
+		}
+		T item = items.get(slot);
+		items.lazySet(slot, null);
+		sequences.set(slot, pos + mask + 1);
+		head = pos + 1;
+		return item;
+	}
+
+	int size() {
+		return (int) Math.max(0, tail.get() - head);
+	}
+
+	int capacity() {
+		return mask + 1;
+	}
+}
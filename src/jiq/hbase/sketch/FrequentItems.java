@@ -0,0 +1,143 @@
+package jiq.hbase.sketch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The most frequent values of a stream in at most maxItems counters (Misra-Gries).<br>
+ * When a new value finds all counters taken, every counter is decremented and empty ones are dropped. A reported
+ * count is therefore at most {@link #getMaxError()} below the true one, and every value more frequent than that
+ * is reported. Sketches merge by adding counters and cutting back to maxItems, which keeps the same guarantee.
+ */
+public class FrequentItems {
+	/**
+	 * A value with its count: the true count lies in [count, count + maxError].
+	 */
+	public static class Item {
+		private final String value;
+		private final long count;
+		private final long maxError;
+
+		Item(String value, long count, long maxError) {
+			this.value = value;
+			this.count = count;
+			this.maxError = maxError;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getUpperBound() {
+			return count + maxError;
+		}
+
+		@Override
+		public String toString() {
+			return value + "=" + count + (maxError > 0 ? "(+" + maxError + ")" : "");
+		}
+	}
+
+	private final int maxItems;
+	private final Map<String, long[]> counters;
+	private long total = 0;
+	private long maxError = 0;
+
+	public FrequentItems(int maxItems) {
+		if (maxItems < 1) {
+			throw new IllegalArgumentException("maxItems must be positive: " + maxItems);
+		}
+		this.maxItems = maxItems;
+		this.counters = new HashMap<String, long[]>(maxItems * 2);
+	}
+
+	public void add(String value) {
+		total++;
+		long[] c = counters.get(value);
+		if (c != null) {
+			c[0]++;
+		} else if (counters.size() < maxItems) {
+			counters.put(value, new long[] { 1 });
+		} else {
+			// The new value and every counter lose one.
+			maxError++;
+			for (Iterator<long[]> it = counters.values().iterator(); it.hasNext();) {
+				if (--it.next()[0] == 0) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	public void merge(FrequentItems other) {
+		total += other.total;
+		maxError += other.maxError;
+		for (Map.Entry<String, long[]> e : other.counters.entrySet()) {
+			long[] c = counters.get(e.getKey());
+			if (c == null) {
+				counters.put(e.getKey(), new long[] { e.getValue()[0] });
+			} else {
+				c[0] += e.getValue()[0];
+			}
+		}
+		if (counters.size() > maxItems) {
+			// Subtract the (maxItems + 1)-th largest count from all.
+			long[] counts = new long[counters.size()];
+			int i = 0;
+			for (long[] c : counters.values()) {
+				counts[i++] = c[0];
+			}
+			Arrays.sort(counts);
+			long cut = counts[counts.length - maxItems - 1];
+			maxError += cut;
+			for (Iterator<long[]> it = counters.values().iterator(); it.hasNext();) {
+				long[] c = it.next();
+				c[0] -= cut;
+				if (c[0] <= 0) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Number of values added.
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Maximum amount by which a count is too low.
+	 */
+	public long getMaxError() {
+		return maxError;
+	}
+
+	/**
+	 * The top values by count, at most n.
+	 */
+	public List<Item> top(int n) {
+		List<Item> items = new ArrayList<Item>(counters.size());
+		for (Map.Entry<String, long[]> e : counters.entrySet()) {
+			items.add(new Item(e.getKey(), e.getValue()[0], maxError));
+		}
+		Collections.sort(items, new Comparator<Item>() {
+			@Override
+			public int compare(Item a, Item b) {
+				return Long.compare(b.count, a.count);
+			}
+		});
+		return items.size() > n ? items.subList(0, n) : items;
+	}
+}
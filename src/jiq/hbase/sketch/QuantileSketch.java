@@ -0,0 +1,202 @@
+package jiq.hbase.sketch;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Quantiles of a stream of doubles in bounded space (a KLL sketch).<br>
+ * Values go into a hierarchy of compactors. A full compactor is sorted and every other value, picked from a random
+ * offset, moves up one level with twice the weight; the capacity shrinks by 2/3 per level below the top, so the
+ * sketch holds about 3k values whatever the stream length. Until the first compaction the answers are exact.
+ * Sketches merge by concatenating their levels and compacting again; merging per-region sketches gives the same
+ * accuracy as one pass over the whole table. The normalized rank error is about 1.65 / k.
+ */
+public class QuantileSketch {
+	private static final double SHRINK = 2.0 / 3.0;
+
+	private final int k;
+	private final Random random;
+	private double[][] levels = new double[0][];
+	private int[] sizes = new int[0];
+	private int retained = 0;
+	private int capacity = 0;
+	private long count = 0;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	public QuantileSketch(int k, long seed) {
+		if (k < 8) {
+			throw new IllegalArgumentException("k must be at least 8: " + k);
+		}
+		this.k = k;
+		this.random = new Random(seed);
+		grow();
+	}
+
+	private int levelCapacity(int level) {
+		int height = levels.length - level - 1;
+		return (int) Math.ceil(Math.pow(SHRINK, height) * k) + 1;
+	}
+
+	private void grow() {
+		int height = levels.length;
+		levels = Arrays.copyOf(levels, height + 1);
+		levels[height] = new double[8];
+		sizes = Arrays.copyOf(sizes, height + 1);
+		capacity = 0;
+		for (int h = 0; h < levels.length; h++) {
+			capacity += levelCapacity(h);
+		}
+	}
+
+	private void append(int level, double v) {
+		int n = sizes[level];
+		if (n == levels[level].length) {
+			levels[level] = Arrays.copyOf(levels[level], n * 2);
+		}
+		levels[level][n] = v;
+		sizes[level] = n + 1;
+		retained++;
+	}
+
+	public void add(double v) {
+		count++;
+		if (v < min) {
+			min = v;
+		}
+		if (v > max) {
+			max = v;
+		}
+		append(0, v);
+		if (retained >= capacity) {
+			compress();
+		}
+	}
+
+	/**
+	 * Compacts the lowest full level.
+	 */
+	private void compress() {
+		for (int h = 0; h < levels.length; h++) {
+			int n = sizes[h];
+			if (n < levelCapacity(h)) {
+				continue;
+			}
+			if (h + 1 == levels.length) {
+				grow();
+			}
+			double[] a = levels[h];
+			Arrays.sort(a, 0, n);
+			// An odd value out stays behind.
+			int pairs = n / 2;
+			int offset = random.nextBoolean() ? 1 : 0;
+			double last = a[n - 1];
+			for (int i = 0; i < pairs; i++) {
+				append(h + 1, a[2 * i + offset]);
+			}
+			retained -= n;
+			sizes[h] = 0;
+			if (n % 2 == 1) {
+				a[0] = last;
+				sizes[h] = 1;
+				retained++;
+			}
+			return;
+		}
+	}
+
+	public void merge(QuantileSketch other) {
+		while (levels.length < other.levels.length) {
+			grow();
+		}
+		for (int h = 0; h < other.levels.length; h++) {
+			double[] a = other.levels[h];
+			int n = other.sizes[h];
+			for (int i = 0; i < n; i++) {
+				append(h, a[i]);
+			}
+		}
+		count += other.count;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		while (retained >= capacity) {
+			compress();
+		}
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * The value at the normalized rank q in [0, 1]; NaN without values.
+	 */
+	public double quantile(double q) {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		if (q <= 0) {
+			return min;
+		}
+		if (q >= 1) {
+			return max;
+		}
+		double[][] sorted = sortedWeighted();
+		double[] values = sorted[0];
+		double[] weights = sorted[1];
+		double total = 0;
+		for (double w : weights) {
+			total += w;
+		}
+		double target = q * total;
+		double cumulative = 0;
+		for (int i = 0; i < values.length; i++) {
+			cumulative += weights[i];
+			if (cumulative >= target) {
+				return values[i];
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Normalized rank error of {@link #quantile(double)}: 0 while the sketch still holds every value.
+	 */
+	public double getRankError() {
+		return retained == count ? 0 : 1.65 / k;
+	}
+
+	private double[][] sortedWeighted() {
+		double[] values = new double[retained];
+		double[] weights = new double[retained];
+		int n = 0;
+		for (int h = 0; h < levels.length; h++) {
+			double[] a = levels[h];
+			int size = sizes[h];
+			for (int i = 0; i < size; i++) {
+				values[n] = a[i];
+				weights[n] = 1L << h;
+				n++;
+			}
+		}
+		// Sort both arrays by value.
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		final double[] v = values;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(v[a], v[b]);
+			}
+		});
+		double[][] result = new double[2][n];
+		for (int i = 0; i < n; i++) {
+			result[0][i] = values[order[i]];
+			result[1][i] = weights[order[i]];
+		}
+		return result;
+	}
+}
@@ -0,0 +1,105 @@
+package jiq.hbase.spool;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Binary form of a spooled mutation:
+ *
+ * <pre>
+ * type(byte) table(UTF) row(int+bytes) timestamp(long) durability(byte) cells(int) { keyvalue(int+bytes) }*
+ * </pre>
+ *
+ * Only Put and Delete are spooled. They are idempotent, so a record replayed twice after a crash does no harm.
+ */
+final class SpoolCodec {
+	static final byte TYPE_PUT = 0;
+	static final byte TYPE_DELETE = 1;
+
+	private SpoolCodec() {
+	}
+
+	static boolean isSpoolable(Mutation m) {
+		return (m instanceof Put) || (m instanceof Delete);
+	}
+
+	static byte[] encode(TableName tableName, Mutation m) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bos);
+		if (m instanceof Put) {
+			out.writeByte(TYPE_PUT);
+		} else if (m instanceof Delete) {
+			out.writeByte(TYPE_DELETE);
+		} else {
+			throw new IOException("Mutation type " + m.getClass().getSimpleName() + " can not be spooled");
+		}
+		out.writeUTF(tableName.getNameAsString());
+		Bytes.writeByteArray(out, m.getRow());
+		out.writeLong(m.getTimeStamp());
+		out.writeByte(m.getDurability().ordinal());
+		int cells = 0;
+		for (List<Cell> familyCells : m.getFamilyCellMap().values()) {
+			cells += familyCells.size();
+		}
+		out.writeInt(cells);
+		for (List<Cell> familyCells : m.getFamilyCellMap().values()) {
+			for (Cell cell : familyCells) {
+				Bytes.writeByteArray(out, KeyValueUtil.copyToNewByteArray(cell));
+			}
+		}
+		out.flush();
+		return bos.toByteArray();
+	}
+
+	static SpooledMutation decode(byte[] payload) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		byte type = in.readByte();
+		TableName tableName = TableName.valueOf(in.readUTF());
+		byte[] row = Bytes.readByteArray(in);
+		long ts = in.readLong();
+		Durability durability = Durability.values()[in.readByte()];
+		int cells = in.readInt();
+		Mutation m;
+		if (type == TYPE_PUT) {
+			Put put = new Put(row, ts);
+			for (int i = 0; i < cells; i++) {
+				put.add(new KeyValue(Bytes.readByteArray(in)));
+			}
+			m = put;
+		} else if (type == TYPE_DELETE) {
+			Delete delete = new Delete(row, ts);
+			for (int i = 0; i < cells; i++) {
+				delete.addDeleteMarker(new KeyValue(Bytes.readByteArray(in)));
+			}
+			m = delete;
+		} else {
+			throw new IOException("Unknown spooled mutation type " + type);
+		}
+		m.setDurability(durability);
+		return new SpooledMutation(tableName, m);
+	}
+
+	static final class SpooledMutation {
+		final TableName tableName;
+		final Mutation mutation;
+
+		SpooledMutation(TableName tableName, Mutation mutation) {
+			this.tableName = tableName;
+			this.mutation = mutation;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package jiq.hbase.spool;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a {@link WriteSpool}.
+ */
+public class SpoolMetrics {
+	final AtomicLong appendedRecords = new AtomicLong();
+	final AtomicLong appendedBytes = new AtomicLong();
+	final AtomicLong rejectedRecords = new AtomicLong();
+	final AtomicLong replayedRecords = new AtomicLong();
+	final AtomicLong replayFailures = new AtomicLong();
+	final AtomicLong deadLetterRecords = new AtomicLong();
+	final AtomicLong pendingBytes = new AtomicLong();
+	final AtomicLong segments = new AtomicLong();
+
+	/**
+	 * Records written to the spool.
+	 */
+	public long getAppendedRecords() {
+		return appendedRecords.get();
+	}
+
+	public long getAppendedBytes() {
+		return appendedBytes.get();
+	}
+
+	/**
+	 * Records refused because the spool was full or closed.
+	 */
+	public long getRejectedRecords() {
+		return rejectedRecords.get();
+	}
+
+	/**
+	 * Records successfully written to the cluster by the drainer.
+	 */
+	public long getReplayedRecords() {
+		return replayedRecords.get();
+	}
+
+	/**
+	 * Replay batches that failed and will be retried.
+	 */
+	public long getReplayFailures() {
+		return replayFailures.get();
+	}
+
+	/**
+	 * Records the cluster refused for good, moved to the dead letter segments.
+	 */
+	public long getDeadLetterRecords() {
+		return deadLetterRecords.get();
+	}
+
+	/**
+	 * Bytes appended but not yet replayed.
+	 */
+	public long getPendingBytes() {
+		return pendingBytes.get();
+	}
+
+	public long getSegments() {
+		return segments.get();
+	}
+
+	@Override
+	public String toString() {
+		return "appended=" + getAppendedRecords() + " (" + getAppendedBytes() + " bytes), rejected="
+				+ getRejectedRecords() + ", replayed=" + getReplayedRecords() + ", replayFailures="
+				+ getReplayFailures() + ", deadLetters=" + getDeadLetterRecords() + ", pendingBytes=" + getPendingBytes() + ", segments=" + getSegments();
+	}
+}
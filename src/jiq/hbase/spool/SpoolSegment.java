@@ -0,0 +1,181 @@
+package jiq.hbase.spool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * One memory-mapped file of the spool.<br>
+ * Layout: a 16 byte header (magic, version, committed read offset, reserved), followed by records of the form
+ * length(int) crc32(int) payload. A zero length marks the end of the written part. The length is written last, so
+ * a record torn by a crash is never visible.<br>
+ * Not thread safe; {@link WriteSpool} serializes access.
+ */
+class SpoolSegment {
+	private final static Log LOG = LogFactory.getLog(SpoolSegment.class.getName());
+
+	static final String PREFIX = "spool-";
+	static final String SUFFIX = ".log";
+
+	private static final int MAGIC = 0x53504f4c;
+	private static final int VERSION = 1;
+	private static final int READ_OFFSET_POS = 8;
+	static final int HEADER_SIZE = 16;
+	static final int RECORD_OVERHEAD = 8;
+
+	private final long seq;
+	private final File file;
+	private final MappedByteBuffer buf;
+	private int writePos;
+	private int readPos;
+
+	private SpoolSegment(long seq, File file, MappedByteBuffer buf) {
+		this.seq = seq;
+		this.file = file;
+		this.buf = buf;
+	}
+
+	static File fileFor(File dir, long seq) {
+		return new File(dir, String.format("%s%020d%s", PREFIX, seq, SUFFIX));
+	}
+
+	static SpoolSegment create(File dir, long seq, int size) throws IOException {
+		File file = fileFor(dir, seq);
+		SpoolSegment segment = new SpoolSegment(seq, file, map(file, size));
+		segment.buf.putInt(0, MAGIC);
+		segment.buf.putInt(4, VERSION);
+		segment.buf.putInt(READ_OFFSET_POS, HEADER_SIZE);
+		segment.buf.putInt(HEADER_SIZE, 0);
+		segment.writePos = HEADER_SIZE;
+		segment.readPos = HEADER_SIZE;
+		return segment;
+	}
+
+	/**
+	 * Maps an existing segment and finds its end by walking the records and verifying their checksums. Anything
+	 * after the first invalid record is discarded.
+	 */
+	static SpoolSegment open(File file, long seq) throws IOException {
+		SpoolSegment segment = new SpoolSegment(seq, file, map(file, (int) file.length()));
+		ByteBuffer b = segment.buf;
+		if (b.capacity() < HEADER_SIZE || b.getInt(0) != MAGIC || b.getInt(4) != VERSION) {
+			throw new IOException("Spool segment " + file + " has an invalid header");
+		}
+		int pos = HEADER_SIZE;
+		while (true) {
+			byte[] payload = segment.read(pos);
+			if (payload == null) {
+				break;
+			}
+			pos += RECORD_OVERHEAD + payload.length;
+		}
+		if (pos + 4 <= b.capacity() && b.getInt(pos) != 0) {
+			LOG.warn("Truncating torn record at offset " + pos + " of spool segment " + file);
+			b.putInt(pos, 0);
+		}
+		segment.writePos = pos;
+		segment.readPos = Math.min(Math.max(b.getInt(READ_OFFSET_POS), HEADER_SIZE), pos);
+		return segment;
+	}
+
+	private static MappedByteBuffer map(File file, int size) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} finally {
+			// The mapping stays valid after the channel is closed.
+			raf.close();
+		}
+	}
+
+	long getSeq() {
+		return seq;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	int getWritePos() {
+		return writePos;
+	}
+
+	int getReadPos() {
+		return readPos;
+	}
+
+	int pendingBytes() {
+		return writePos - readPos;
+	}
+
+	boolean isDrained() {
+		return readPos >= writePos;
+	}
+
+	boolean hasRoom(int payloadLength) {
+		// Keep 4 bytes for the end marker.
+		return (long) writePos + RECORD_OVERHEAD + payloadLength + 4 <= buf.capacity();
+	}
+
+	void append(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+		ByteBuffer b = buf.duplicate();
+		b.position(writePos + RECORD_OVERHEAD);
+		b.put(payload);
+		int next = writePos + RECORD_OVERHEAD + payload.length;
+		b.putInt(next, 0);
+		b.putInt(writePos + 4, (int) crc.getValue());
+		b.putInt(writePos, payload.length);
+		writePos = next;
+	}
+
+	/**
+	 * Returns the payload of the record at pos, or null at the end of the written part.
+	 */
+	byte[] read(int pos) {
+		if (pos + RECORD_OVERHEAD > buf.capacity()) {
+			return null;
+		}
+		int length = buf.getInt(pos);
+		if (length <= 0 || (long) pos + RECORD_OVERHEAD + length > buf.capacity()) {
+			return null;
+		}
+		byte[] payload = new byte[length];
+		ByteBuffer b = buf.duplicate();
+		b.position(pos + RECORD_OVERHEAD);
+		b.get(payload);
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, length);
+		if ((int) crc.getValue() != buf.getInt(pos + 4)) {
+			LOG.warn("Checksum mismatch at offset " + pos + " of spool segment " + file);
+			return null;
+		}
+		return payload;
+	}
+
+	void commitRead(int pos, boolean sync) {
+		readPos = pos;
+		buf.putInt(READ_OFFSET_POS, pos);
+		if (sync) {
+			buf.force();
+		}
+	}
+
+	void force() {
+		buf.force();
+	}
+
+	void delete() {
+		if (!file.delete()) {
+			LOG.warn("Failed to delete drained spool segment " + file);
+		}
+	}
+}
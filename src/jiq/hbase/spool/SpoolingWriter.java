@@ -0,0 +1,113 @@
+package jiq.hbase.spool;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.client.Table;
+
+import jiq.hbase.throttle.WriteThrottle;
+
+/**
+ * Writes mutations to the cluster and falls back to a {@link WriteSpool} when that fails.<br>
+ * The direct attempt is bounded by {@value #WRITE_TIMEOUT_KEY} milliseconds, so a slow cluster costs the caller at
+ * most that long instead of the full client retry schedule. With a {@link WriteThrottle} the direct attempt goes
+ * through it instead, paced and retried by the throttle, and what it fails to write is spooled. While the spool holds mutations, new ones are appended
+ * behind them so that the cluster sees the writes in their original order. A batch that fails in part is spooled
+ * as a whole. Only the choice between spooling and writing directly is made under the spool's lock; direct writes
+ * run in parallel. Writes that overlap in time have no order between them, as without the spool.
+ */
+public class SpoolingWriter {
+	private final static Log LOG = LogFactory.getLog(SpoolingWriter.class.getName());
+
+	/** Operation timeout of the direct write, 0 to use the connection default. */
+	public static final String WRITE_TIMEOUT_KEY = "jiq.hbase.spool.write.timeout.ms";
+	public static final int DEFAULT_WRITE_TIMEOUT = 2000;
+
+	private final Connection conn;
+	private final WriteSpool spool;
+	private final WriteThrottle throttle;
+	private final int writeTimeout;
+
+	public SpoolingWriter(Connection conn, WriteSpool spool) {
+		this(conn, spool, null);
+	}
+
+	/**
+	 * @param throttle the throttle to write through, null to write with one batch call
+	 */
+	public SpoolingWriter(Connection conn, WriteSpool spool, WriteThrottle throttle) {
+		this.conn = conn;
+		this.spool = spool;
+		this.throttle = throttle;
+		this.writeTimeout = conn.getConfiguration().getInt(WRITE_TIMEOUT_KEY, DEFAULT_WRITE_TIMEOUT);
+	}
+
+	/**
+	 * Writes the puts, spooling the ones that could not be written.
+	 *
+	 * @return true if everything went to the cluster directly, false if some puts were spooled
+	 * @throws IOException if the puts could neither be written nor spooled
+	 */
+	public boolean put(TableName tableName, List<Put> puts) throws IOException {
+		return write(tableName, puts);
+	}
+
+	/**
+	 * Same as {@link #put(TableName, List)} for deletes.
+	 */
+	public boolean delete(TableName tableName, List<Delete> deletes) throws IOException {
+		return write(tableName, deletes);
+	}
+
+	private boolean write(TableName tableName, List<? extends Mutation> mutations) throws IOException {
+		// Behind what is already spooled. The RPC runs outside the spool's lock, so direct writes do not wait on
+		// one another.
+		if (spool.appendIfPending(tableName, mutations)) {
+			return false;
+		}
+		return writeDirect(tableName, mutations);
+	}
+
+	private boolean writeDirect(TableName tableName, List<? extends Mutation> mutations) throws IOException {
+		Table table = throttle == null ? conn.getTable(tableName) : null;
+		try {
+			if (throttle != null) {
+				throttle.batch(tableName, mutations);
+				return true;
+			}
+			if (writeTimeout > 0) {
+				table.setOperationTimeout(writeTimeout);
+			}
+			table.batch(mutations, new Object[mutations.size()]);
+			return true;
+		} catch (RetriesExhaustedWithDetailsException e) {
+			// The whole batch, also the rows already written: replayed alone, the failed rows would be applied out of
+			// order with the rest, and puts without a timestamp would get a newer one than the rows around them.
+			LOG.warn("Spooling " + mutations.size() + " mutations to " + tableName + ", " + e.getNumExceptions()
+					+ " failed: " + RetriesExhaustedWithDetailsException.getDesc(RetriesExhaustedWithDetailsException
+							.classifyExs(e.getCauses())));
+			spool.append(tableName, mutations);
+			return false;
+		} catch (IOException e) {
+			LOG.warn("Spooling " + mutations.size() + " mutations to " + tableName + " because ", e);
+			spool.append(tableName, mutations);
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			spool.append(tableName, mutations);
+			return false;
+		} finally {
+			if (table != null) {
+				table.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,472 @@
+package jiq.hbase.spool;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import jiq.hbase.spool.SpoolCodec.SpooledMutation;
+
+/**
+ * Local, durable spool for mutations that could not be written to the cluster.<br>
+ * Mutations are appended to a segmented log of memory-mapped, checksummed files in {@value #DIR_KEY}. A background
+ * drainer replays them in append order once the cluster accepts writes again, and deletes each segment after it
+ * has been fully replayed. The committed replay position is kept in the segment header, so a restarted process
+ * continues where the previous one stopped. Records may be replayed twice after a crash; only idempotent mutations
+ * (Put, Delete) are accepted.<br>
+ * Mutations the cluster will never accept (a {@link DoNotRetryIOException} such as an unknown column family, or an
+ * invalid cell) are not retried: they go to segments of the same format in {@value #DEAD_LETTER_DIR}/ under the
+ * spool directory, where they can be inspected, and are counted in {@link SpoolMetrics#getDeadLetterRecords()}.
+ */
+public class WriteSpool implements Closeable {
+	private final static Log LOG = LogFactory.getLog(WriteSpool.class.getName());
+
+	public static final String ENABLED_KEY = "jiq.hbase.spool.enabled";
+	public static final String DIR_KEY = "jiq.hbase.spool.dir";
+	public static final String SEGMENT_BYTES_KEY = "jiq.hbase.spool.segment.bytes";
+	public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+	public static final String MAX_BYTES_KEY = "jiq.hbase.spool.max.bytes";
+	public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+	/** Force every append and every replay commit to disk. Without it the spool survives process, not OS, crashes. */
+	public static final String SYNC_KEY = "jiq.hbase.spool.sync";
+	public static final String REPLAY_BATCH_KEY = "jiq.hbase.spool.replay.batch";
+	public static final int DEFAULT_REPLAY_BATCH = 500;
+	public static final String REPLAY_MAX_BACKOFF_KEY = "jiq.hbase.spool.replay.max.backoff.ms";
+	public static final long DEFAULT_REPLAY_MAX_BACKOFF = 30000L;
+
+	static final String DEAD_LETTER_DIR = "dead-letter";
+	private static final int DEAD_LETTER_SEGMENT_BYTES = 1024 * 1024;
+
+	private final Connection conn;
+	private final File dir;
+	private final int segmentBytes;
+	private final long maxBytes;
+	private final boolean sync;
+	private final int replayBatch;
+	private final long pause;
+	private final long maxBackoff;
+
+	private final Deque<SpoolSegment> segments = new ArrayDeque<SpoolSegment>();
+	private final SpoolMetrics metrics = new SpoolMetrics();
+	private final Thread drainer;
+	private long nextSeq = 0;
+	private SpoolSegment deadLetters = null;
+	private long nextDeadLetterSeq = 0;
+	private volatile boolean closed = false;
+
+	public WriteSpool(Connection conn) throws IOException {
+		Configuration conf = conn.getConfiguration();
+		this.conn = conn;
+		this.dir = new File(conf.get(DIR_KEY, System.getProperty("java.io.tmpdir") + File.separator + "hbase-spool"));
+		this.segmentBytes = conf.getInt(SEGMENT_BYTES_KEY, DEFAULT_SEGMENT_BYTES);
+		this.maxBytes = conf.getLong(MAX_BYTES_KEY, DEFAULT_MAX_BYTES);
+		this.sync = conf.getBoolean(SYNC_KEY, false);
+		this.replayBatch = Math.max(1, conf.getInt(REPLAY_BATCH_KEY, DEFAULT_REPLAY_BATCH));
+		this.pause = conf.getLong(HConstants.HBASE_CLIENT_PAUSE, HConstants.DEFAULT_HBASE_CLIENT_PAUSE);
+		this.maxBackoff = conf.getLong(REPLAY_MAX_BACKOFF_KEY, DEFAULT_REPLAY_MAX_BACKOFF);
+
+		recover();
+
+		this.drainer = new Thread(new Drainer(), "spool-drainer-" + dir.getName());
+		this.drainer.setDaemon(true);
+		this.drainer.start();
+	}
+
+	private void recover() throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Can not create spool directory " + dir.getAbsolutePath());
+		}
+		File[] files = dir.listFiles();
+		List<Long> seqs = new ArrayList<Long>();
+		if (files != null) {
+			for (File f : files) {
+				String name = f.getName();
+				if (name.startsWith(SpoolSegment.PREFIX) && name.endsWith(SpoolSegment.SUFFIX)) {
+					try {
+						seqs.add(Long.parseLong(
+								name.substring(SpoolSegment.PREFIX.length(), name.length() - SpoolSegment.SUFFIX.length())));
+					} catch (NumberFormatException e) {
+						LOG.warn("Ignoring unexpected file " + f + " in spool directory");
+					}
+				}
+			}
+		}
+		Long[] sorted = seqs.toArray(new Long[seqs.size()]);
+		Arrays.sort(sorted);
+		for (Long seq : sorted) {
+			SpoolSegment segment = SpoolSegment.open(SpoolSegment.fileFor(dir, seq), seq);
+			if (segment.isDrained()) {
+				segment.delete();
+			} else {
+				segments.addLast(segment);
+				metrics.pendingBytes.addAndGet(segment.pendingBytes());
+			}
+			nextSeq = seq + 1;
+		}
+		metrics.segments.set(segments.size());
+		File[] dead = new File(dir, DEAD_LETTER_DIR).listFiles();
+		if (dead != null && dead.length > 0) {
+			nextDeadLetterSeq = dead.length;
+			LOG.warn(dead.length + " dead letter segments in " + new File(dir, DEAD_LETTER_DIR).getAbsolutePath());
+		}
+		if (!segments.isEmpty()) {
+			LOG.info("Recovered " + segments.size() + " spool segments with " + metrics.getPendingBytes()
+					+ " pending bytes from " + dir.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Appends mutations to the spool. All of them are accepted or none is.
+	 *
+	 * @throws IOException if the spool is closed, full, or a mutation is not a Put or Delete
+	 */
+	public void append(TableName tableName, List<? extends Mutation> mutations) throws IOException {
+		if (mutations.isEmpty()) {
+			return;
+		}
+		List<byte[]> payloads = new ArrayList<byte[]>(mutations.size());
+		long bytes = 0;
+		for (Mutation m : mutations) {
+			byte[] payload = SpoolCodec.encode(tableName, m);
+			payloads.add(payload);
+			bytes += SpoolSegment.RECORD_OVERHEAD + payload.length;
+		}
+		synchronized (this) {
+			if (closed) {
+				metrics.rejectedRecords.addAndGet(payloads.size());
+				throw new IOException("Spool " + dir + " is closed");
+			}
+			if (metrics.getPendingBytes() + bytes > maxBytes) {
+				metrics.rejectedRecords.addAndGet(payloads.size());
+				throw new IOException("Spool " + dir + " is full: " + metrics.getPendingBytes() + " pending bytes, limit "
+						+ maxBytes);
+			}
+			SpoolSegment tail = segments.peekLast();
+			for (byte[] payload : payloads) {
+				if (tail == null || !tail.hasRoom(payload.length)) {
+					if (tail != null && sync) {
+						tail.force();
+					}
+					int size = Math.max(segmentBytes,
+							SpoolSegment.HEADER_SIZE + SpoolSegment.RECORD_OVERHEAD + payload.length + 4);
+					tail = SpoolSegment.create(dir, nextSeq++, size);
+					segments.addLast(tail);
+					metrics.segments.set(segments.size());
+				}
+				tail.append(payload);
+			}
+			if (sync) {
+				tail.force();
+			}
+			metrics.appendedRecords.addAndGet(payloads.size());
+			metrics.appendedBytes.addAndGet(bytes);
+			metrics.pendingBytes.addAndGet(bytes);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Appends the mutations if the spool still holds mutations, in one step with the check so that the drainer
+	 * cannot empty the spool in between.
+	 *
+	 * @return false if the spool is empty and the mutations may be written directly
+	 * @throws IOException if the spool is closed, full, or a mutation is not a Put or Delete
+	 */
+	public synchronized boolean appendIfPending(TableName tableName, List<? extends Mutation> mutations)
+			throws IOException {
+		if (isEmpty()) {
+			return false;
+		}
+		append(tableName, mutations);
+		return true;
+	}
+
+	/**
+	 * Whether every appended mutation has been replayed. Writers use this to keep their order: while the spool
+	 * is not empty, new mutations must go through it too.
+	 */
+	public synchronized boolean isEmpty() {
+		for (SpoolSegment segment : segments) {
+			if (!segment.isDrained()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Waits until the spool is empty or the timeout expires.
+	 *
+	 * @return whether the spool is empty
+	 */
+	public synchronized boolean awaitDrained(long timeoutMs) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		while (!isEmpty()) {
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0 || closed) {
+				return false;
+			}
+			wait(left);
+		}
+		return true;
+	}
+
+	public SpoolMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Moves mutations the cluster refused for good out of the replay path.
+	 */
+	private synchronized void deadLetter(List<SpooledMutation> dead, Throwable cause) throws IOException {
+		File deadDir = new File(dir, DEAD_LETTER_DIR);
+		if (!deadDir.isDirectory() && !deadDir.mkdirs()) {
+			throw new IOException("Can not create dead letter directory " + deadDir.getAbsolutePath());
+		}
+		for (SpooledMutation m : dead) {
+			byte[] payload = SpoolCodec.encode(m.tableName, m.mutation);
+			if (deadLetters == null || !deadLetters.hasRoom(payload.length)) {
+				if (deadLetters != null) {
+					deadLetters.force();
+				}
+				int size = Math.max(DEAD_LETTER_SEGMENT_BYTES,
+						SpoolSegment.HEADER_SIZE + SpoolSegment.RECORD_OVERHEAD + payload.length + 4);
+				deadLetters = SpoolSegment.create(deadDir, nextDeadLetterSeq++, size);
+			}
+			deadLetters.append(payload);
+		}
+		deadLetters.force();
+		metrics.deadLetterRecords.addAndGet(dead.size());
+		LOG.error("Moved " + dead.size() + " spooled mutations the cluster does not accept to "
+				+ deadLetters.getFile().getAbsolutePath(), cause);
+	}
+
+	/**
+	 * Whether retrying can not make the failure go away.
+	 */
+	static boolean isPermanent(Throwable t) {
+		if (t instanceof RetriesExhaustedWithDetailsException) {
+			RetriesExhaustedWithDetailsException e = (RetriesExhaustedWithDetailsException) t;
+			for (int i = 0; i < e.getNumExceptions(); i++) {
+				if (!isPermanent(e.getCause(i))) {
+					return false;
+				}
+			}
+			return e.getNumExceptions() > 0;
+		}
+		return t instanceof DoNotRetryIOException || t instanceof IllegalArgumentException;
+	}
+
+	/**
+	 * Stops the drainer. Mutations that are still pending stay on disk and are replayed by the next spool opened
+	 * on the same directory.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			notifyAll();
+		}
+		drainer.interrupt();
+		try {
+			drainer.join(10000L);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			for (SpoolSegment segment : segments) {
+				segment.force();
+			}
+			if (deadLetters != null) {
+				deadLetters.force();
+			}
+			if (metrics.getPendingBytes() > 0) {
+				LOG.warn("Spool closed with " + metrics.getPendingBytes() + " pending bytes in " + dir.getAbsolutePath());
+			}
+		}
+	}
+
+	private class Drainer implements Runnable {
+		@Override
+		public void run() {
+			long backoff = pause;
+			SpoolSegment segment = null;
+			int endPos = 0;
+			// Kept across retries, without the mutations dead-lettered by a failed replay.
+			List<SpooledMutation> batch = null;
+			while (!closed) {
+				if (batch == null) {
+					batch = new ArrayList<SpooledMutation>();
+					synchronized (WriteSpool.this) {
+						segment = segments.peekFirst();
+						while (!closed && (segment == null || segment.isDrained())) {
+							if (segment != null && segment != segments.peekLast()) {
+								// A drained segment that is no longer written to.
+								segments.pollFirst();
+								segment.delete();
+								metrics.segments.set(segments.size());
+							} else {
+								try {
+									WriteSpool.this.wait();
+								} catch (InterruptedException e) {
+									// closed is checked by the loop
+								}
+							}
+							segment = segments.peekFirst();
+						}
+						if (closed) {
+							break;
+						}
+						endPos = segment.getReadPos();
+						while (batch.size() < replayBatch && endPos < segment.getWritePos()) {
+							byte[] payload = segment.read(endPos);
+							if (payload == null) {
+								break;
+							}
+							try {
+								batch.add(SpoolCodec.decode(payload));
+							} catch (IOException e) {
+								LOG.error("Dropping undecodable spool record at offset " + endPos + " of "
+										+ segment.getFile(), e);
+							}
+							endPos += SpoolSegment.RECORD_OVERHEAD + payload.length;
+						}
+						if (batch.isEmpty() && endPos == segment.getReadPos()) {
+							// Unreadable tail, skip the rest of the segment.
+							endPos = segment.getWritePos();
+						}
+					}
+				}
+
+				try {
+					replay(batch);
+				} catch (Exception e) {
+					metrics.replayFailures.incrementAndGet();
+					LOG.warn("Replay of " + batch.size() + " spooled mutations failed, retrying in " + backoff + " ms",
+							e);
+					try {
+						Thread.sleep(backoff);
+					} catch (InterruptedException ie) {
+						// closed is checked by the loop
+					}
+					backoff = Math.min(backoff * 2, maxBackoff);
+					continue;
+				}
+				backoff = pause;
+				synchronized (WriteSpool.this) {
+					metrics.pendingBytes.addAndGet(-(endPos - segment.getReadPos()));
+					metrics.replayedRecords.addAndGet(batch.size());
+					segment.commitRead(endPos, sync);
+					WriteSpool.this.notifyAll();
+				}
+				batch = null;
+			}
+		}
+
+		/**
+		 * Writes the batch in order. Consecutive mutations of one table go out in one batch call, split whenever a
+		 * row repeats, since a single batch call does not order mutations of the same row. Mutations that fail
+		 * permanently are dead-lettered and removed from the batch, so that a retry does not send them again.
+		 */
+		private void replay(List<SpooledMutation> batch) throws IOException, InterruptedException {
+			int i = 0;
+			while (i < batch.size()) {
+				TableName tableName = batch.get(i).tableName;
+				Set<byte[]> rows = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+				List<SpooledMutation> run = new ArrayList<SpooledMutation>();
+				while (i < batch.size() && batch.get(i).tableName.equals(tableName)
+						&& rows.add(batch.get(i).mutation.getRow())) {
+					run.add(batch.get(i));
+					i++;
+				}
+				List<SpooledMutation> dead = new ArrayList<SpooledMutation>();
+				IOException retry = null;
+				try {
+					write(tableName, run);
+				} catch (RetriesExhaustedWithDetailsException e) {
+					// Only the failed mutations are known; the others of the run are written.
+					for (int j = 0; j < e.getNumExceptions(); j++) {
+						if (!isPermanent(e.getCause(j))) {
+							retry = e;
+							continue;
+						}
+						for (SpooledMutation m : run) {
+							if (m.mutation == e.getRow(j)) {
+								dead.add(m);
+							}
+						}
+					}
+				} catch (DoNotRetryIOException e) {
+					retry = writeEach(tableName, run, dead);
+				} catch (IllegalArgumentException e) {
+					retry = writeEach(tableName, run, dead);
+				}
+				if (!dead.isEmpty()) {
+					deadLetter(dead, retry);
+					batch.removeAll(dead);
+					i -= dead.size();
+				}
+				if (retry != null) {
+					throw retry;
+				}
+			}
+		}
+
+		/**
+		 * Writes the mutations one by one to find the ones that fail permanently.
+		 *
+		 * @return the first failure that may go away on retry, null if there was none
+		 */
+		private IOException writeEach(TableName tableName, List<SpooledMutation> run, List<SpooledMutation> dead)
+				throws InterruptedException {
+			for (SpooledMutation m : run) {
+				try {
+					write(tableName, Collections.singletonList(m));
+				} catch (IOException e) {
+					if (!isPermanent(e)) {
+						return e;
+					}
+					dead.add(m);
+				} catch (IllegalArgumentException e) {
+					dead.add(m);
+				}
+			}
+			return null;
+		}
+
+		private void write(TableName tableName, List<SpooledMutation> run) throws IOException, InterruptedException {
+			List<Mutation> mutations = new ArrayList<Mutation>(run.size());
+			for (SpooledMutation m : run) {
+				mutations.add(m.mutation);
+			}
+			Table table = conn.getTable(tableName);
+			try {
+				table.batch(mutations, new Object[mutations.size()]);
+			} finally {
+				table.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package jiq.hbase.throttle;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket whose rate follows AIMD (additive increase, multiplicative decrease).<br>
+ * Each write that completes within the target latency raises the rate by a fixed step. Overload signals (a
+ * RegionTooBusyException, a retry, or a write slower than the target latency) cut it by a factor, at most once per
+ * cool-down period so that one burst of failures counts as one signal. The rate always stays in [min, max].<br>
+ * Permits may be borrowed: {@link #acquire(int)} takes them immediately and makes later callers wait for the
+ * debt, so a large batch is never starved by small ones.
+ */
+public class AdaptiveRateLimiter {
+	private final double minRate;
+	private final double maxRate;
+	private final double increaseStep;
+	private final double decreaseFactor;
+	private final long targetLatencyNanos;
+	private final long coolDownNanos;
+	private final double burstSeconds;
+
+	private double rate;
+	private double tokens;
+	private long lastRefill;
+	private long lastDecrease;
+
+	public AdaptiveRateLimiter(double initialRate, double minRate, double maxRate, double increaseStep,
+			double decreaseFactor, long targetLatencyMs, long coolDownMs) {
+		this.minRate = minRate;
+		this.maxRate = maxRate;
+		this.increaseStep = increaseStep;
+		this.decreaseFactor = decreaseFactor;
+		this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMs);
+		this.coolDownNanos = TimeUnit.MILLISECONDS.toNanos(coolDownMs);
+		this.burstSeconds = 1.0;
+		this.rate = Math.max(minRate, Math.min(maxRate, initialRate));
+		this.tokens = rate * burstSeconds;
+		this.lastRefill = System.nanoTime();
+		this.lastDecrease = lastRefill - coolDownNanos;
+	}
+
+	/**
+	 * Limiter with a constant rate, for callers that have no latency feedback.
+	 */
+	public static AdaptiveRateLimiter fixed(double rate) {
+		return new AdaptiveRateLimiter(rate, rate, rate, 0, 1.0, Long.MAX_VALUE / 1000000L, 0);
+	}
+
+	/**
+	 * Takes the permits, waiting as long as needed for the bucket to pay back earlier debt.
+	 */
+	public void acquire(int permits) throws InterruptedException {
+		long waitNanos;
+		synchronized (this) {
+			refill(System.nanoTime());
+			waitNanos = tokens >= 0 ? 0 : (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+			tokens -= permits;
+		}
+		if (waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+
+	/**
+	 * Takes the permits only if the bucket holds enough of them right now.
+	 */
+	public synchronized boolean tryAcquire(int permits) {
+		refill(System.nanoTime());
+		if (tokens < permits) {
+			return false;
+		}
+		tokens -= permits;
+		return true;
+	}
+
+	/**
+	 * Reports a write that succeeded without retries.
+	 */
+	public void onSuccess(long latencyNanos) {
+		if (latencyNanos > targetLatencyNanos) {
+			onOverload();
+			return;
+		}
+		synchronized (this) {
+			refill(System.nanoTime());
+			rate = Math.min(maxRate, rate + increaseStep);
+		}
+	}
+
+	/**
+	 * Reports pushback from the server side: busy region, retry, or a write over the target latency.
+	 */
+	public synchronized void onOverload() {
+		long now = System.nanoTime();
+		if (now - lastDecrease < coolDownNanos) {
+			return;
+		}
+		refill(now);
+		lastDecrease = now;
+		rate = Math.max(minRate, rate * decreaseFactor);
+		// Do not let tokens saved at the old rate defeat the decrease.
+		tokens = Math.min(tokens, rate * burstSeconds);
+	}
+
+	/**
+	 * Current rate in permits per second.
+	 */
+	public synchronized double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Permits available right now; negative while callers are paying back borrowed permits.
+	 */
+	public synchronized double getAvailablePermits() {
+		refill(System.nanoTime());
+		return tokens;
+	}
+
+	private void refill(long now) {
+		double elapsed = (now - lastRefill) / (double) TimeUnit.SECONDS.toNanos(1);
+		lastRefill = now;
+		tokens = Math.min(rate * burstSeconds, tokens + elapsed * rate);
+	}
+}
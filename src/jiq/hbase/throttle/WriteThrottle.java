@@ -0,0 +1,283 @@
+package jiq.hbase.throttle;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.RegionTooBusyException;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.htrace.Trace;
+import org.apache.htrace.TraceScope;
+
+/**
+ * Client side write throttle with one {@link AdaptiveRateLimiter} per table and one per RegionServer.<br>
+ * Every batch takes permits (one per mutation) from the table limiter and from the limiter of each RegionServer
+ * it touches, then feeds the outcome back: latency of successful writes, and RegionTooBusyException or other
+ * failures per server as reported in {@link RetriesExhaustedWithDetailsException}. Failed mutations are retried
+ * by the throttle itself up to {@value #MAX_ATTEMPTS_KEY} times, each retry counting as an overload signal.<br>
+ * The throttle works best when the connection retries little itself (a small hbase.client.retries.number), so
+ * that pushback reaches it instead of being absorbed by the client retry loop.<br>
+ * Rates, permits and counters are published as the MBean {@code jiq.hbase:type=WriteThrottle}.
+ */
+public class WriteThrottle implements WriteThrottleMBean, Closeable {
+	private final static Log LOG = LogFactory.getLog(WriteThrottle.class.getName());
+
+	public static final String ENABLED_KEY = "jiq.hbase.throttle.enabled";
+	public static final String INITIAL_RATE_KEY = "jiq.hbase.throttle.initial.rate";
+	public static final String MIN_RATE_KEY = "jiq.hbase.throttle.min.rate";
+	public static final String MAX_RATE_KEY = "jiq.hbase.throttle.max.rate";
+	public static final String INCREASE_STEP_KEY = "jiq.hbase.throttle.increase.step";
+	public static final String DECREASE_FACTOR_KEY = "jiq.hbase.throttle.decrease.factor";
+	public static final String TARGET_LATENCY_KEY = "jiq.hbase.throttle.target.latency.ms";
+	public static final String COOL_DOWN_KEY = "jiq.hbase.throttle.cooldown.ms";
+	public static final String MAX_ATTEMPTS_KEY = "jiq.hbase.throttle.max.attempts";
+
+	private final Connection conn;
+	private final double initialRate;
+	private final double minRate;
+	private final double maxRate;
+	private final double increaseStep;
+	private final double decreaseFactor;
+	private final long targetLatency;
+	private final long coolDown;
+	private final int maxAttempts;
+
+	private final ConcurrentMap<TableName, AdaptiveRateLimiter> tableLimiters =
+			new ConcurrentHashMap<TableName, AdaptiveRateLimiter>();
+	private final ConcurrentMap<String, AdaptiveRateLimiter> serverLimiters =
+			new ConcurrentHashMap<String, AdaptiveRateLimiter>();
+	private ObjectName registered = null;
+
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong mutationCount = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong throttledNanos = new AtomicLong();
+
+	public WriteThrottle(Connection conn) {
+		Configuration conf = conn.getConfiguration();
+		this.conn = conn;
+		this.initialRate = conf.getFloat(INITIAL_RATE_KEY, 5000f);
+		this.minRate = conf.getFloat(MIN_RATE_KEY, 100f);
+		this.maxRate = conf.getFloat(MAX_RATE_KEY, 100000f);
+		this.increaseStep = conf.getFloat(INCREASE_STEP_KEY, 100f);
+		this.decreaseFactor = conf.getFloat(DECREASE_FACTOR_KEY, 0.5f);
+		this.targetLatency = conf.getLong(TARGET_LATENCY_KEY, 200L);
+		this.coolDown = conf.getLong(COOL_DOWN_KEY, 500L);
+		this.maxAttempts = Math.max(1, conf.getInt(MAX_ATTEMPTS_KEY, 5));
+		register();
+	}
+
+	/**
+	 * Writes the mutations at the rate the cluster currently sustains.
+	 *
+	 * @throws RetriesExhaustedWithDetailsException if some mutations still fail after the last attempt
+	 */
+	public void batch(TableName tableName, List<? extends Mutation> mutations) throws IOException {
+		AdaptiveRateLimiter tableLimiter = limiter(tableLimiters, tableName);
+		batches.incrementAndGet();
+		mutationCount.addAndGet(mutations.size());
+		List<? extends Mutation> pending = mutations;
+		RegionLocator locator = conn.getRegionLocator(tableName);
+		Table table = conn.getTable(tableName);
+		try {
+			for (int attempt = 1; !pending.isEmpty(); attempt++) {
+				Map<String, Integer> perServer = new HashMap<String, Integer>();
+				for (Mutation m : pending) {
+					// Served from the location cache after the first lookup.
+					String server = locator.getRegionLocation(m.getRow()).getHostnamePort();
+					Integer n = perServer.get(server);
+					perServer.put(server, n == null ? 1 : n + 1);
+				}
+				TraceScope wait = Trace.startSpan("WriteThrottle.acquire");
+				long waitStart = System.nanoTime();
+				try {
+					tableLimiter.acquire(pending.size());
+					for (Map.Entry<String, Integer> e : perServer.entrySet()) {
+						limiter(serverLimiters, e.getKey()).acquire(e.getValue());
+					}
+				} finally {
+					throttledNanos.addAndGet(System.nanoTime() - waitStart);
+					wait.close();
+				}
+
+				long start = System.nanoTime();
+				try {
+					table.batch(pending, new Object[pending.size()]);
+					long latency = System.nanoTime() - start;
+					tableLimiter.onSuccess(latency);
+					for (String server : perServer.keySet()) {
+						limiter(serverLimiters, server).onSuccess(latency);
+					}
+					return;
+				} catch (RetriesExhaustedWithDetailsException e) {
+					long latency = System.nanoTime() - start;
+					Set<String> busy = new HashSet<String>();
+					Set<String> failedServers = new HashSet<String>();
+					List<Mutation> failed = new ArrayList<Mutation>(e.getNumExceptions());
+					for (int i = 0; i < e.getNumExceptions(); i++) {
+						Row row = e.getRow(i);
+						if (row instanceof Mutation) {
+							failed.add((Mutation) row);
+						}
+						failedServers.add(e.getHostnamePort(i));
+						if (e.getCause(i) instanceof RegionTooBusyException) {
+							busy.add(e.getHostnamePort(i));
+						}
+					}
+					// Having to retry at all means the table is pushed too hard.
+					tableLimiter.onOverload();
+					for (String server : perServer.keySet()) {
+						if (busy.contains(server)) {
+							limiter(serverLimiters, server).onOverload();
+						} else if (!failedServers.contains(server)) {
+							limiter(serverLimiters, server).onSuccess(latency);
+						}
+					}
+					if (attempt >= maxAttempts || failed.size() != e.getNumExceptions()) {
+						throw e;
+					}
+					LOG.warn("Retrying " + failed.size() + " of " + pending.size() + " mutations to " + tableName
+							+ ", attempt " + attempt + ", table rate now " + (long) tableLimiter.getRate() + "/s");
+					Trace.addTimelineAnnotation("retry " + failed.size() + " mutations, attempt " + (attempt + 1));
+					retries.addAndGet(failed.size());
+					pending = failed;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing to " + tableName);
+		} catch (IOException e) {
+			failures.incrementAndGet();
+			if (!(e instanceof RetriesExhaustedWithDetailsException)) {
+				tableLimiter.onOverload();
+			}
+			throw e;
+		} finally {
+			table.close();
+			locator.close();
+		}
+	}
+
+	@Override
+	public Map<String, Double> getTableRates() {
+		Map<String, Double> rates = new HashMap<String, Double>();
+		for (Map.Entry<TableName, AdaptiveRateLimiter> e : tableLimiters.entrySet()) {
+			rates.put(e.getKey().getNameAsString(), e.getValue().getRate());
+		}
+		return rates;
+	}
+
+	@Override
+	public Map<String, Double> getServerRates() {
+		Map<String, Double> rates = new HashMap<String, Double>();
+		for (Map.Entry<String, AdaptiveRateLimiter> e : serverLimiters.entrySet()) {
+			rates.put(e.getKey(), e.getValue().getRate());
+		}
+		return rates;
+	}
+
+	@Override
+	public Map<String, Double> getTablePermits() {
+		Map<String, Double> permits = new HashMap<String, Double>();
+		for (Map.Entry<TableName, AdaptiveRateLimiter> e : tableLimiters.entrySet()) {
+			permits.put(e.getKey().getNameAsString(), e.getValue().getAvailablePermits());
+		}
+		return permits;
+	}
+
+	@Override
+	public long getBatches() {
+		return batches.get();
+	}
+
+	@Override
+	public long getMutations() {
+		return mutationCount.get();
+	}
+
+	@Override
+	public long getRetries() {
+		return retries.get();
+	}
+
+	@Override
+	public long getFailures() {
+		return failures.get();
+	}
+
+	@Override
+	public long getThrottledMs() {
+		return throttledNanos.get() / 1000000L;
+	}
+
+	private void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName on = new ObjectName("jiq.hbase:type=WriteThrottle");
+			if (!server.isRegistered(on)) {
+				server.registerMBean(this, on);
+				registered = on;
+			}
+		} catch (Exception e) {
+			LOG.warn("Failed to register the write throttle in JMX", e);
+		}
+	}
+
+	/**
+	 * Unregisters the MBean.
+	 */
+	@Override
+	public synchronized void close() {
+		if (registered != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+			} catch (Exception e) {
+				LOG.warn("Failed to unregister " + registered, e);
+			}
+			registered = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "WriteThrottle: " + getBatches() + " batches, " + getMutations() + " mutations, " + getRetries()
+				+ " retried, " + getFailures() + " failed, " + getThrottledMs() + " ms throttled, table rates "
+				+ getTableRates();
+	}
+
+	private <K> AdaptiveRateLimiter limiter(ConcurrentMap<K, AdaptiveRateLimiter> limiters, K key) {
+		AdaptiveRateLimiter limiter = limiters.get(key);
+		if (limiter == null) {
+			limiter = new AdaptiveRateLimiter(initialRate, minRate, maxRate, increaseStep, decreaseFactor,
+					targetLatency, coolDown);
+			AdaptiveRateLimiter existing = limiters.putIfAbsent(key, limiter);
+			if (existing != null) {
+				limiter = existing;
+			}
+		}
+		return limiter;
+	}
+}
@@ -0,0 +1,42 @@
+package jiq.hbase.throttle;
+
+import java.util.Map;
+
+/**
+ * JMX view of a {@link WriteThrottle}.
+ */
+public interface WriteThrottleMBean {
+	/**
+	 * Current rate (mutations per second) of each table limiter.
+	 */
+	Map<String, Double> getTableRates();
+
+	/**
+	 * Current rate (mutations per second) of each RegionServer limiter, keyed by host:port.
+	 */
+	Map<String, Double> getServerRates();
+
+	/**
+	 * Permits currently available in each table limiter.
+	 */
+	Map<String, Double> getTablePermits();
+
+	long getBatches();
+
+	long getMutations();
+
+	/**
+	 * Mutations written again by the throttle after a failed attempt.
+	 */
+	long getRetries();
+
+	/**
+	 * Batches that failed after the last attempt.
+	 */
+	long getFailures();
+
+	/**
+	 * Time spent waiting for permits, summed over all callers.
+	 */
+	long getThrottledMs();
+}
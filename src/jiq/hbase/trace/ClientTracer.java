@@ -0,0 +1,97 @@
+package jiq.hbase.trace;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.htrace.HTraceConfiguration;
+import org.apache.htrace.Sampler;
+import org.apache.htrace.Span;
+import org.apache.htrace.Trace;
+import org.apache.htrace.TraceScope;
+import org.apache.htrace.impl.ProbabilitySampler;
+
+/**
+ * htrace setup of the client: sampling, the local {@link SpanSink} and the critical-path summary of each run.<br>
+ * A run is a root span started with {@link #startRun(String)}. Only sampled runs ({@value #SAMPLER_FRACTION_KEY}
+ * of them) are traced; inside them every {@link Trace#startSpan(String)} becomes a child span, including the ones
+ * of the HBase client itself (ZooKeeper calls, AsyncProcess workers) and of the traced connection returned by
+ * {@link #wrap(Connection)}. Spans of unsampled runs cost nothing.
+ */
+public class ClientTracer implements Closeable {
+	private final static Log LOG = LogFactory.getLog(ClientTracer.class.getName());
+
+	public static final String ENABLED_KEY = "jiq.hbase.trace.enabled";
+	public static final String SAMPLER_FRACTION_KEY = "jiq.hbase.trace.sampler.fraction";
+	public static final String FILE_KEY = "jiq.hbase.trace.file";
+	public static final String CAPACITY_KEY = "jiq.hbase.trace.memory.capacity";
+	public static final String SUMMARY_TOP_KEY = "jiq.hbase.trace.summary.top";
+	public static final String SUMMARY_DEPTH_KEY = "jiq.hbase.trace.summary.depth";
+
+	private final Sampler<Object> sampler;
+	private final SpanSink sink;
+	private final int summaryTop;
+	private final int summaryDepth;
+
+	public ClientTracer(Configuration conf) throws IOException {
+		Map<String, String> samplerConf = new HashMap<String, String>();
+		samplerConf.put(ProbabilitySampler.SAMPLER_FRACTION_CONF_KEY,
+				String.valueOf(conf.getDouble(SAMPLER_FRACTION_KEY, 1.0)));
+		this.sampler = new ProbabilitySampler(HTraceConfiguration.fromMap(samplerConf));
+		String file = conf.get(FILE_KEY);
+		this.sink = new SpanSink(conf.getInt(CAPACITY_KEY, 100000), file == null ? null : new File(file));
+		this.summaryTop = conf.getInt(SUMMARY_TOP_KEY, 10);
+		this.summaryDepth = conf.getInt(SUMMARY_DEPTH_KEY, 2);
+		Trace.addReceiver(sink);
+	}
+
+	/**
+	 * Connection whose tables open spans for their operations.
+	 */
+	public Connection wrap(Connection conn) {
+		return TracingProxy.connection(conn);
+	}
+
+	/**
+	 * Starts the root span of a run, subject to sampling. Close it with {@link #endRun(TraceScope)}.
+	 */
+	public TraceScope startRun(String description) {
+		return Trace.startSpan(description, sampler);
+	}
+
+	/**
+	 * Closes the root span and logs the critical path of the run if it was sampled.
+	 */
+	public CriticalPath endRun(TraceScope scope) {
+		Span root = scope.getSpan();
+		scope.close();
+		if (root == null) {
+			return null;
+		}
+		List<Span> spans = sink.getSpans(root.getTraceId());
+		CriticalPath path = CriticalPath.of(root, spans);
+		LOG.info(path.summary(summaryTop, summaryDepth));
+		if (sink.getDropped() > 0) {
+			LOG.warn(sink.getDropped() + " spans dropped from memory, raise " + CAPACITY_KEY
+					+ " for a complete critical path");
+		}
+		return path;
+	}
+
+	public SpanSink getSink() {
+		return sink;
+	}
+
+	@Override
+	public void close() throws IOException {
+		Trace.removeReceiver(sink);
+		sink.close();
+	}
+}
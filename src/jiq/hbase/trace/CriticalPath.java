@@ -0,0 +1,175 @@
+package jiq.hbase.trace;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.htrace.Span;
+
+/**
+ * Critical path of one trace: the chain of spans that determined its end-to-end time.<br>
+ * Walking back from the end of a span, the child that finished last before the cursor is on the path and moves
+ * the cursor to its start; children overlapping it ran in parallel and did not add to the total. The time of a
+ * span not covered by its critical children is its self time, spent in the span itself (client code, waits that
+ * are not traced, or RPCs of untraced threads).
+ */
+public class CriticalPath {
+	/**
+	 * One span on the critical path.
+	 */
+	public static class Segment {
+		private final Span span;
+		private final int depth;
+		private final long selfMillis;
+
+		Segment(Span span, int depth, long selfMillis) {
+			this.span = span;
+			this.depth = depth;
+			this.selfMillis = selfMillis;
+		}
+
+		public Span getSpan() {
+			return span;
+		}
+
+		public int getDepth() {
+			return depth;
+		}
+
+		public long getSelfMillis() {
+			return selfMillis;
+		}
+
+		public long getMillis() {
+			return span.getAccumulatedMillis();
+		}
+	}
+
+	private static final Comparator<Span> BY_STOP_DESC = new Comparator<Span>() {
+		@Override
+		public int compare(Span a, Span b) {
+			return Long.compare(b.getStopTimeMillis(), a.getStopTimeMillis());
+		}
+	};
+
+	private final Span root;
+	private final List<Segment> segments = new ArrayList<Segment>();
+	private final Map<Long, List<Span>> children = new HashMap<Long, List<Span>>();
+
+	private CriticalPath(Span root, Collection<Span> spans) {
+		this.root = root;
+		for (Span span : spans) {
+			if (span.getSpanId() == root.getSpanId()) {
+				continue;
+			}
+			List<Span> list = children.get(span.getParentId());
+			if (list == null) {
+				list = new ArrayList<Span>();
+				children.put(span.getParentId(), list);
+			}
+			list.add(span);
+		}
+		walk(root, 0);
+	}
+
+	/**
+	 * Critical path below root among the spans of its trace.
+	 */
+	public static CriticalPath of(Span root, Collection<Span> spans) {
+		return new CriticalPath(root, spans);
+	}
+
+	private void walk(Span span, int depth) {
+		List<Span> kids = children.get(span.getSpanId());
+		List<Span> critical = new ArrayList<Span>();
+		long covered = 0;
+		if (kids != null) {
+			Collections.sort(kids, BY_STOP_DESC);
+			long cursor = span.getStopTimeMillis();
+			for (Span kid : kids) {
+				if (kid.getStopTimeMillis() <= cursor && kid.getStartTimeMillis() >= span.getStartTimeMillis()) {
+					critical.add(kid);
+					covered += kid.getAccumulatedMillis();
+					cursor = kid.getStartTimeMillis();
+				}
+			}
+		}
+		segments.add(new Segment(span, depth, Math.max(0, span.getAccumulatedMillis() - covered)));
+		for (int i = critical.size() - 1; i >= 0; i--) {
+			walk(critical.get(i), depth + 1);
+		}
+	}
+
+	public Span getRoot() {
+		return root;
+	}
+
+	/**
+	 * Spans on the path in start order, each after its parent.
+	 */
+	public List<Segment> getSegments() {
+		return segments;
+	}
+
+	public long getTotalMillis() {
+		return root.getAccumulatedMillis();
+	}
+
+	/**
+	 * Self time on the path summed per span description, largest first.
+	 */
+	public Map<String, Long> getSelfMillisByDescription() {
+		final Map<String, Long> sums = new HashMap<String, Long>();
+		for (Segment s : segments) {
+			Long sum = sums.get(s.span.getDescription());
+			sums.put(s.span.getDescription(), (sum == null ? 0 : sum) + s.selfMillis);
+		}
+		List<String> keys = new ArrayList<String>(sums.keySet());
+		Collections.sort(keys, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return Long.compare(sums.get(b), sums.get(a));
+			}
+		});
+		Map<String, Long> sorted = new LinkedHashMap<String, Long>();
+		for (String key : keys) {
+			sorted.put(key, sums.get(key));
+		}
+		return sorted;
+	}
+
+	/**
+	 * Multi-line summary: the top descriptions by self time, then the path itself down to maxDepth.
+	 */
+	public String summary(int top, int maxDepth) {
+		long total = Math.max(1, getTotalMillis());
+		StringBuilder sb = new StringBuilder();
+		sb.append("Critical path of ").append(root.getDescription()).append(" (trace ")
+				.append(Long.toHexString(root.getTraceId())).append("): ").append(getTotalMillis()).append(" ms");
+		int n = 0;
+		for (Map.Entry<String, Long> e : getSelfMillisByDescription().entrySet()) {
+			if (n++ >= top) {
+				break;
+			}
+			sb.append(String.format("%n  %6d ms %5.1f%%  %s", e.getValue(), 100.0 * e.getValue() / total, e.getKey()));
+		}
+		sb.append(String.format("%n  path:"));
+		for (Segment s : segments) {
+			if (s.depth > maxDepth) {
+				continue;
+			}
+			sb.append(String.format("%n  "));
+			for (int i = 0; i < s.depth; i++) {
+				sb.append("  ");
+			}
+			sb.append(s.span.getDescription()).append(' ').append(s.getMillis()).append(" ms (self ")
+					.append(s.selfMillis).append(" ms)");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,124 @@
+package jiq.hbase.trace;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.htrace.Span;
+import org.apache.htrace.SpanReceiver;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Local {@link SpanReceiver} that keeps the latest spans in memory and, if a file is given, appends every span
+ * to it as one JSON line, so traces can be inspected offline. Spans are serialized and written by a background
+ * thread so that closing a span does not wait for the file.<br>
+ * The memory buffer is bounded: when it is full the oldest spans are dropped.
+ */
+public class SpanSink implements SpanReceiver {
+	private final static Log LOG = LogFactory.getLog(SpanSink.class.getName());
+
+	private final ConcurrentLinkedQueue<Span> spans = new ConcurrentLinkedQueue<Span>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicLong dropped = new AtomicLong();
+	private final int capacity;
+	private final BufferedWriter writer;
+	private final ExecutorService writerPool;
+
+	/**
+	 * @param file the JSON lines file, or null to keep spans in memory only
+	 */
+	public SpanSink(int capacity, File file) throws IOException {
+		this.capacity = capacity;
+		if (file != null) {
+			File parent = file.getAbsoluteFile().getParentFile();
+			if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+				throw new IOException("Cannot create directory " + parent);
+			}
+			this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true),
+					StandardCharsets.UTF_8));
+			this.writerPool = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+					.setNameFormat("span-sink-writer").setDaemon(true).build());
+		} else {
+			this.writer = null;
+			this.writerPool = null;
+		}
+	}
+
+	@Override
+	public void receiveSpan(final Span span) {
+		spans.add(span);
+		if (size.incrementAndGet() > capacity && spans.poll() != null) {
+			size.decrementAndGet();
+			dropped.incrementAndGet();
+		}
+		if (writerPool != null) {
+			writerPool.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						writer.write(span.toJson());
+						writer.newLine();
+					} catch (IOException e) {
+						LOG.warn("Failed to write span " + span.getDescription(), e);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Spans of the trace still held in memory.
+	 */
+	public List<Span> getSpans(long traceId) {
+		List<Span> list = new ArrayList<Span>();
+		for (Span span : spans) {
+			if (span.getTraceId() == traceId) {
+				list.add(span);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * All spans held in memory, oldest first.
+	 */
+	public List<Span> getSpans() {
+		return new ArrayList<Span>(spans);
+	}
+
+	/**
+	 * Spans dropped because the memory buffer was full.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (writerPool != null) {
+			writerPool.shutdown();
+			try {
+				if (!writerPool.awaitTermination(10, TimeUnit.SECONDS)) {
+					LOG.warn("Timed out writing the remaining spans");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package jiq.hbase.trace;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.htrace.Trace;
+import org.apache.htrace.TraceScope;
+
+/**
+ * Dynamic proxies of {@link Connection}, {@link Table} and {@link ResultScanner} that open a span per data
+ * operation while a sampled trace is active.<br>
+ * A table operation {@code Table.<method>} has three children: {@code locate} (region lookup of the rows, a cache
+ * hit after the first time), {@code rpc} (the call itself, retries included; the trace id is propagated to the
+ * servers by the RPC client) and {@code decode} (walking the returned cells). Outside a trace the proxies only
+ * add a method dispatch.<br>
+ * Admin is not proxied: callers cast it to HBaseAdmin.
+ */
+final class TracingProxy implements InvocationHandler {
+	private static final Set<String> TABLE_OPS = new HashSet<String>(Arrays.asList("get", "exists", "existsAll",
+			"put", "delete", "batch", "batchCallback", "increment", "incrementColumnValue", "append", "checkAndPut",
+			"checkAndDelete", "checkAndMutate", "mutateRow", "getScanner"));
+
+	private final Object target;
+	private final Connection conn;
+	private final TableName tableName;
+	private RegionLocator locator = null;
+
+	private TracingProxy(Object target, Connection conn, TableName tableName) {
+		this.target = target;
+		this.conn = conn;
+		this.tableName = tableName;
+	}
+
+	static Connection connection(Connection conn) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new TracingProxy(conn, conn, null));
+	}
+
+	private static Table table(Table table, Connection conn) {
+		return (Table) Proxy.newProxyInstance(Table.class.getClassLoader(), new Class<?>[] { Table.class },
+				new TracingProxy(table, conn, table.getName()));
+	}
+
+	private static ResultScanner scanner(ResultScanner scanner, TableName tableName) {
+		return (ResultScanner) Proxy.newProxyInstance(ResultScanner.class.getClassLoader(),
+				new Class<?>[] { ResultScanner.class }, new TracingProxy(scanner, null, tableName));
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		if (target instanceof Connection) {
+			Object result = call(method, args);
+			return result instanceof Table ? table((Table) result, conn) : result;
+		}
+		if (target instanceof ResultScanner) {
+			return invokeScanner(method, args);
+		}
+		if ("close".equals(method.getName()) && locator != null) {
+			locator.close();
+		}
+		if (!TABLE_OPS.contains(method.getName())) {
+			return call(method, args);
+		}
+		if (!Trace.isTracing()) {
+			Object result = call(method, args);
+			return result instanceof ResultScanner ? scanner((ResultScanner) result, tableName) : result;
+		}
+
+		TraceScope scope = Trace.startSpan("Table." + method.getName());
+		try {
+			scope.getSpan().addKVAnnotation(Bytes.toBytes("table"), tableName.getName());
+			locate(args);
+			Object result;
+			TraceScope rpc = Trace.startSpan("rpc");
+			try {
+				result = call(method, args);
+			} finally {
+				rpc.close();
+			}
+			if (result instanceof ResultScanner) {
+				return scanner((ResultScanner) result, tableName);
+			}
+			decode(result);
+			return result;
+		} finally {
+			scope.close();
+		}
+	}
+
+	private Object invokeScanner(Method method, Object[] args) throws Throwable {
+		if (!"next".equals(method.getName()) || !Trace.isTracing()) {
+			return call(method, args);
+		}
+		TraceScope scope = Trace.startSpan("ResultScanner.next");
+		try {
+			scope.getSpan().addKVAnnotation(Bytes.toBytes("table"), tableName.getName());
+			Object result = call(method, args);
+			decode(result);
+			return result;
+		} finally {
+			scope.close();
+		}
+	}
+
+	private Object call(Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Looks up the regions of the rows the operation touches, so that a cache miss shows up as its own span.
+	 */
+	private void locate(Object[] args) throws IOException {
+		if (args == null || args.length == 0) {
+			return;
+		}
+		Set<String> regions = new HashSet<String>();
+		TraceScope scope = Trace.startSpan("locate");
+		try {
+			if (locator == null) {
+				locator = conn.getRegionLocator(tableName);
+			}
+			Object first = args[0];
+			if (first instanceof Row) {
+				regions.add(regionOf(((Row) first).getRow()));
+			} else if (first instanceof byte[]) {
+				regions.add(regionOf((byte[]) first));
+			} else if (first instanceof Scan) {
+				regions.add(regionOf(((Scan) first).getStartRow()));
+			} else if (first instanceof List) {
+				for (Object o : (List<?>) first) {
+					if (o instanceof Row) {
+						regions.add(regionOf(((Row) o).getRow()));
+					}
+				}
+			}
+			scope.getSpan().addKVAnnotation(Bytes.toBytes("regions"), Bytes.toBytes(String.valueOf(regions.size())));
+		} finally {
+			scope.close();
+		}
+	}
+
+	private String regionOf(byte[] row) throws IOException {
+		HRegionLocation location = locator.getRegionLocation(row);
+		return location.getRegionInfo().getEncodedName();
+	}
+
+	private static void decode(Object result) {
+		Result[] results;
+		if (result instanceof Result) {
+			results = new Result[] { (Result) result };
+		} else if (result instanceof Result[]) {
+			results = (Result[]) result;
+		} else {
+			return;
+		}
+		TraceScope scope = Trace.startSpan("decode");
+		try {
+			long cells = 0;
+			long bytes = 0;
+			for (Result r : results) {
+				if (r == null || r.isEmpty()) {
+					continue;
+				}
+				cells += r.rawCells().length;
+				bytes += Result.getTotalSizeOfCells(r);
+			}
+			scope.getSpan().addKVAnnotation(Bytes.toBytes("cells"), Bytes.toBytes(String.valueOf(cells)));
+			scope.getSpan().addKVAnnotation(Bytes.toBytes("bytes"), Bytes.toBytes(String.valueOf(bytes)));
+		} finally {
+			scope.close();
+		}
+	}
+}
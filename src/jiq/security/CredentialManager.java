@@ -0,0 +1,355 @@
+package jiq.security;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Keeps the keytab login alive.<br>
+ * {@link #login()} logs in once through {@link LoginUtil#login} with all its checks. After that a background
+ * thread logs in again from the keytab when {@value #RENEW_FRACTION_KEY} of the ticket lifetime has passed, and
+ * retries with backoff on failure while the old ticket is still good. Callers check the credentials with
+ * {@link #isValid()} or {@link #ensureValid()}, which read an immutable snapshot through a volatile field and
+ * take no lock unless the ticket has really expired.<br>
+ * Login and renewal counts, failures and latencies are published as the MBean
+ * {@code jiq.security:type=CredentialManager}.
+ */
+public class CredentialManager implements CredentialManagerMBean, Closeable {
+	private static final Logger LOG = Logger.getLogger(CredentialManager.class);
+
+	public static final String ENABLED_KEY = "jiq.security.credential.renew.enabled";
+	public static final String RENEW_FRACTION_KEY = "jiq.security.credential.renew.fraction";
+	public static final String RETRY_KEY = "jiq.security.credential.renew.retry.ms";
+	public static final String MAX_RETRY_KEY = "jiq.security.credential.renew.retry.max.ms";
+	public static final String EXPIRY_MARGIN_KEY = "jiq.security.credential.expiry.margin.ms";
+
+	private static final String JMX_NAME = "jiq.security:type=CredentialManager";
+	// UserGroupInformation ignores a relogin within a minute of the previous one.
+	private static final long MIN_RENEW_INTERVAL = 60 * 1000L;
+
+	/**
+	 * Login state at one point in time. Replaced as a whole, never modified.
+	 */
+	public static final class Credentials {
+		private final String user;
+		private final long startMillis;
+		private final long endMillis;
+
+		Credentials(String user, long startMillis, long endMillis) {
+			this.user = user;
+			this.startMillis = startMillis;
+			this.endMillis = endMillis;
+		}
+
+		public String getUser() {
+			return user;
+		}
+
+		/**
+		 * Start time of the TGT.
+		 */
+		public long getStartMillis() {
+			return startMillis;
+		}
+
+		/**
+		 * End time of the TGT, {@link Long#MAX_VALUE} if there is none (security off).
+		 */
+		public long getEndMillis() {
+			return endMillis;
+		}
+
+		@Override
+		public String toString() {
+			return user + " valid until " + (endMillis == Long.MAX_VALUE ? "forever" : new Date(endMillis));
+		}
+	}
+
+	private final String principal;
+	private final String keytab;
+	private final String krb5Conf;
+	private final Configuration conf;
+	private final double renewFraction;
+	private final long retryMs;
+	private final long maxRetryMs;
+	private final long expiryMargin;
+	private final ScheduledExecutorService renewer;
+
+	private volatile Credentials current = null;
+	private long backoff;
+	private boolean registered = false;
+
+	private final AtomicLong logins = new AtomicLong();
+	private final AtomicLong loginFailures = new AtomicLong();
+	private final AtomicLong renewals = new AtomicLong();
+	private final AtomicLong renewalFailures = new AtomicLong();
+	private final AtomicLong totalLatencyNanos = new AtomicLong();
+	private volatile long lastLatencyNanos = 0;
+	private volatile long maxLatencyNanos = 0;
+
+	public CredentialManager(String principal, String keytab, String krb5Conf, Configuration conf) {
+		this.principal = principal;
+		this.keytab = keytab;
+		this.krb5Conf = krb5Conf;
+		this.conf = conf;
+		this.renewFraction = conf.getDouble(RENEW_FRACTION_KEY, 0.8);
+		this.retryMs = conf.getLong(RETRY_KEY, 30 * 1000L);
+		this.maxRetryMs = conf.getLong(MAX_RETRY_KEY, 10 * 60 * 1000L);
+		this.expiryMargin = conf.getLong(EXPIRY_MARGIN_KEY, 60 * 1000L);
+		this.backoff = retryMs;
+		this.renewer = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("credential-renewer").setDaemon(true).build());
+	}
+
+	/**
+	 * Logs in from the keytab and starts the renewal.
+	 */
+	public synchronized void login() throws IOException {
+		long start = System.nanoTime();
+		try {
+			LoginUtil.login(principal, keytab, krb5Conf, conf);
+		} catch (IOException e) {
+			loginFailures.incrementAndGet();
+			throw e;
+		}
+		logins.incrementAndGet();
+		recordLatency(System.nanoTime() - start);
+		current = snapshot();
+		LOG.info("Logged in as " + current);
+		register();
+		scheduleRenewal();
+	}
+
+	/**
+	 * Current login state without locking, null before {@link #login()}.
+	 */
+	public Credentials getCredentials() {
+		return current;
+	}
+
+	@Override
+	public boolean isValid() {
+		Credentials c = current;
+		return c != null && (c.endMillis == Long.MAX_VALUE || System.currentTimeMillis() < c.endMillis - expiryMargin);
+	}
+
+	/**
+	 * Returns at once while the ticket is valid. Otherwise, which means the background renewal has been failing,
+	 * logs in again on the calling thread; concurrent callers wait for that one login.
+	 *
+	 * @throws IOException if the login fails
+	 */
+	public void ensureValid() throws IOException {
+		if (isValid()) {
+			return;
+		}
+		synchronized (this) {
+			if (current == null) {
+				throw new IOException("Not logged in");
+			}
+			if (!isValid()) {
+				renew();
+			}
+		}
+	}
+
+	/**
+	 * Caller holds the lock of this.
+	 */
+	private void renew() throws IOException {
+		long start = System.nanoTime();
+		try {
+			UserGroupInformation.getLoginUser().reloginFromKeytab();
+		} catch (IOException e) {
+			renewalFailures.incrementAndGet();
+			throw e;
+		}
+		renewals.incrementAndGet();
+		recordLatency(System.nanoTime() - start);
+		current = snapshot();
+		LOG.info("Renewed credentials of " + current);
+	}
+
+	private synchronized void scheduleRenewal() {
+		Credentials c = current;
+		if (c.endMillis == Long.MAX_VALUE || renewer.isShutdown()) {
+			return;
+		}
+		long renewAt = c.startMillis + (long) ((c.endMillis - c.startMillis) * renewFraction);
+		long delay = Math.max(MIN_RENEW_INTERVAL, renewAt - System.currentTimeMillis());
+		schedule(delay);
+	}
+
+	private void schedule(long delayMs) {
+		renewer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				renewInBackground();
+			}
+		}, delayMs, TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized void renewInBackground() {
+		try {
+			renew();
+			backoff = retryMs;
+			scheduleRenewal();
+		} catch (Throwable e) {
+			long delay = backoff;
+			backoff = Math.min(backoff * 2, maxRetryMs);
+			LOG.warn("Failed to renew credentials of " + principal + ", retrying in " + delay + " ms, "
+					+ (isValid() ? "current ticket still valid" : "current ticket expired"), e);
+			if (!renewer.isShutdown()) {
+				schedule(delay);
+			}
+		}
+	}
+
+	private static Credentials snapshot() throws IOException {
+		UserGroupInformation ugi = UserGroupInformation.getLoginUser();
+		KerberosTicket tgt = findTgt(ugi);
+		if (tgt == null) {
+			return new Credentials(ugi.getUserName(), System.currentTimeMillis(), Long.MAX_VALUE);
+		}
+		return new Credentials(ugi.getUserName(), tgt.getStartTime().getTime(), tgt.getEndTime().getTime());
+	}
+
+	/**
+	 * The Subject of the UGI. Hadoop 2.7 has no public accessor, and reading it from the access control context
+	 * inside doAs relies on APIs deprecated for removal, so the protected getter is called.
+	 */
+	private static Subject subjectOf(UserGroupInformation ugi) {
+		try {
+			Method getter = UserGroupInformation.class.getDeclaredMethod("getSubject");
+			getter.setAccessible(true);
+			return (Subject) getter.invoke(ugi);
+		} catch (Exception e) {
+			LOG.warn("Cannot read the Kerberos ticket of " + ugi.getUserName(), e);
+			return null;
+		}
+	}
+
+	private static KerberosTicket findTgt(UserGroupInformation ugi) {
+		Subject subject = subjectOf(ugi);
+		if (subject == null) {
+			return null;
+		}
+		for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+			KerberosPrincipal server = ticket.getServer();
+			if (server.getName().equals("krbtgt/" + server.getRealm() + "@" + server.getRealm())) {
+				return ticket;
+			}
+		}
+		return null;
+	}
+
+	private void recordLatency(long nanos) {
+		lastLatencyNanos = nanos;
+		totalLatencyNanos.addAndGet(nanos);
+		// Only the login and the renewals update it, and they hold the lock of this.
+		if (nanos > maxLatencyNanos) {
+			maxLatencyNanos = nanos;
+		}
+	}
+
+	private void register() {
+		if (registered) {
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(JMX_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+				registered = true;
+			}
+		} catch (Exception e) {
+			LOG.warn("Failed to register " + JMX_NAME + " in JMX", e);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		renewer.shutdownNow();
+		if (registered) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(JMX_NAME));
+			} catch (Exception e) {
+				LOG.warn("Failed to unregister " + JMX_NAME, e);
+			}
+			registered = false;
+		}
+	}
+
+	@Override
+	public String getUser() {
+		Credentials c = current;
+		return c == null ? null : c.user;
+	}
+
+	@Override
+	public long getSecondsToExpiry() {
+		Credentials c = current;
+		if (c == null) {
+			return 0;
+		}
+		if (c.endMillis == Long.MAX_VALUE) {
+			return Long.MAX_VALUE;
+		}
+		return Math.max(0, (c.endMillis - System.currentTimeMillis()) / 1000);
+	}
+
+	@Override
+	public long getLogins() {
+		return logins.get();
+	}
+
+	@Override
+	public long getLoginFailures() {
+		return loginFailures.get();
+	}
+
+	@Override
+	public long getRenewals() {
+		return renewals.get();
+	}
+
+	@Override
+	public long getRenewalFailures() {
+		return renewalFailures.get();
+	}
+
+	@Override
+	public long getLastLatencyMs() {
+		return TimeUnit.NANOSECONDS.toMillis(lastLatencyNanos);
+	}
+
+	@Override
+	public long getMaxLatencyMs() {
+		return TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos);
+	}
+
+	@Override
+	public double getMeanLatencyMs() {
+		long n = logins.get() + renewals.get();
+		return n == 0 ? 0 : totalLatencyNanos.get() / 1e6 / n;
+	}
+}
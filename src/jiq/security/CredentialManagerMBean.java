@@ -0,0 +1,26 @@
+package jiq.security;
+
+/**
+ * JMX view of {@link CredentialManager}.
+ */
+public interface CredentialManagerMBean {
+	String getUser();
+
+	boolean isValid();
+
+	long getSecondsToExpiry();
+
+	long getLogins();
+
+	long getLoginFailures();
+
+	long getRenewals();
+
+	long getRenewalFailures();
+
+	long getLastLatencyMs();
+
+	long getMaxLatencyMs();
+
+	double getMeanLatencyMs();
+}